@@ -2,6 +2,7 @@ package com.example.springboot.controller;
 
 import com.example.springboot.dto.appointment.AppointmentResponse;
 import com.example.springboot.service.AppointmentService;
+import com.example.springboot.service.IdempotencyService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -17,19 +18,25 @@ import org.springframework.web.bind.annotation.*;
 public class AdminAppointmentController {
 
     private final AppointmentService appointmentService;
+    private final IdempotencyService idempotencyService;
 
     @Autowired
-    public AdminAppointmentController(AppointmentService appointmentService) {
+    public AdminAppointmentController(AppointmentService appointmentService, IdempotencyService idempotencyService) {
         this.appointmentService = appointmentService;
+        this.idempotencyService = idempotencyService;
     }
 
     /**
      * 退款接口
      * 只有已支付的预约才能退款
+     * 支持 Idempotency-Key 请求头，重复提交时返回首次退款的结果
      */
     @PostMapping("/{appointmentId}/refund")
-    public ResponseEntity<AppointmentResponse> refundAppointment(@PathVariable Integer appointmentId) {
-        return ResponseEntity.ok(appointmentService.refundAppointment(appointmentId));
+    public ResponseEntity<AppointmentResponse> refundAppointment(
+            @RequestHeader(value = IdempotencyService.HEADER_NAME, required = false) String idempotencyKey,
+            @PathVariable Integer appointmentId) {
+        return ResponseEntity.ok(idempotencyService.execute(idempotencyKey, "appointment:refund", appointmentId,
+                AppointmentResponse.class, () -> appointmentService.refundAppointment(appointmentId)));
     }
 }
 
@@ -3,15 +3,23 @@ package com.example.springboot.controller;
 import com.example.springboot.dto.appointment.AppointmentCreateRequest;
 import com.example.springboot.dto.appointment.AppointmentResponse;
 import com.example.springboot.dto.appointment.AppointmentUpdateRequest;
+import com.example.springboot.dto.appointment.BookingTicketResponse;
 import com.example.springboot.dto.appointment.CheckInRequest;
 import com.example.springboot.dto.appointment.CheckInResponse;
 import com.example.springboot.dto.appointment.QrCodeResponse;
+import com.example.springboot.dto.appointment.WaitTimeEstimateResponse;
 import com.example.springboot.service.AppointmentService;
+import com.example.springboot.service.BookingWaitingRoomService;
+import com.example.springboot.service.CallQueueStreamService;
+import com.example.springboot.service.IdempotencyService;
+import com.example.springboot.service.WaitTimeEstimator;
 import com.example.springboot.service.WaitlistService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.List;
@@ -24,14 +32,26 @@ public class AppointmentController {
 
     private final AppointmentService appointmentService;
     private final WaitlistService waitlistService;
+    private final BookingWaitingRoomService bookingWaitingRoomService;
+    private final IdempotencyService idempotencyService;
+    private final CallQueueStreamService callQueueStreamService;
+    private final WaitTimeEstimator waitTimeEstimator;
     
     @Autowired
     private RedisTemplate<String, String> redisTemplate;
 
     @Autowired
-    public AppointmentController(AppointmentService appointmentService, WaitlistService waitlistService) {
+    public AppointmentController(AppointmentService appointmentService, WaitlistService waitlistService,
+                                 BookingWaitingRoomService bookingWaitingRoomService,
+                                 IdempotencyService idempotencyService,
+                                 CallQueueStreamService callQueueStreamService,
+                                 WaitTimeEstimator waitTimeEstimator) {
         this.appointmentService = appointmentService;
         this.waitlistService = waitlistService;
+        this.bookingWaitingRoomService = bookingWaitingRoomService;
+        this.idempotencyService = idempotencyService;
+        this.callQueueStreamService = callQueueStreamService;
+        this.waitTimeEstimator = waitTimeEstimator;
     }
 
     /**
@@ -60,10 +80,31 @@ public class AppointmentController {
 
     /**
      * 创建预约
+     * 支持 Idempotency-Key 请求头，客户端超时重试时返回首次创建的结果
      */
     @PostMapping
-    public ResponseEntity<AppointmentResponse> createAppointment(@RequestBody AppointmentCreateRequest request) {
-        return ResponseEntity.ok(appointmentService.createAppointment(request));
+    public ResponseEntity<AppointmentResponse> createAppointment(
+            @RequestHeader(value = IdempotencyService.HEADER_NAME, required = false) String idempotencyKey,
+            @RequestBody AppointmentCreateRequest request) {
+        return ResponseEntity.ok(idempotencyService.execute(idempotencyKey, "appointment:create", request,
+                AppointmentResponse.class, () -> appointmentService.createAppointment(request)));
+    }
+
+    /**
+     * 排队预约（放号高峰使用）
+     * 请求进入排班队列后立即返回票据，客户端通过 GET /api/appointments/queue/{ticketId} 轮询结果
+     */
+    @PostMapping("/queue")
+    public ResponseEntity<BookingTicketResponse> queueAppointment(@RequestBody AppointmentCreateRequest request) {
+        return ResponseEntity.accepted().body(bookingWaitingRoomService.submit(request));
+    }
+
+    /**
+     * 查询排队预约结果
+     */
+    @GetMapping("/queue/{ticketId}")
+    public ResponseEntity<BookingTicketResponse> getQueuedAppointment(@PathVariable String ticketId) {
+        return ResponseEntity.ok(bookingWaitingRoomService.getTicket(ticketId));
     }
 
     /**
@@ -102,12 +143,16 @@ public class AppointmentController {
 
     /**
      * 支付挂号费用
+     * 支持 Idempotency-Key 请求头，客户端超时重试时返回首次支付的结果
      */
     @PostMapping("/{appointmentId}/pay")
     public ResponseEntity<AppointmentResponse> payForAppointment(
+            @RequestHeader(value = IdempotencyService.HEADER_NAME, required = false) String idempotencyKey,
             @PathVariable Integer appointmentId,
             @RequestBody AppointmentUpdateRequest paymentData) {
-        return ResponseEntity.ok(appointmentService.processPayment(appointmentId, paymentData));
+        return ResponseEntity.ok(idempotencyService.execute(idempotencyKey, "appointment:pay",
+                List.of(appointmentId, paymentData), AppointmentResponse.class,
+                () -> appointmentService.processPayment(appointmentId, paymentData)));
     }
 
     /**
@@ -167,6 +212,49 @@ public class AppointmentController {
         return ResponseEntity.ok(appointmentService.getCallQueue(scheduleId));
     }
 
+    /**
+     * 预估叫号队列中每位患者的等待时间（按队列顺序）
+     */
+    @GetMapping("/schedule/{scheduleId}/call-queue/estimates")
+    public ResponseEntity<List<WaitTimeEstimateResponse>> getCallQueueEstimates(@PathVariable Integer scheduleId) {
+        return ResponseEntity.ok(waitTimeEstimator.estimateCallQueue(scheduleId));
+    }
+
+    /**
+     * 预估单个预约的候诊等待时间（需已签到）
+     */
+    @GetMapping("/{appointmentId}/wait-estimate")
+    public ResponseEntity<WaitTimeEstimateResponse> getWaitEstimate(@PathVariable Integer appointmentId) {
+        return ResponseEntity.ok(waitTimeEstimator.estimateAppointment(appointmentId));
+    }
+
+    /**
+     * 订阅排班叫号队列推送（SSE）
+     * 先推送 snapshot 事件（完整队列），之后队列变化时推送 delta 事件；
+     * delta 的 version 不连续或 action 为 reset 时，客户端应重新订阅或重新获取队列
+     */
+    @GetMapping(value = "/schedule/{scheduleId}/call-queue/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamCallQueue(@PathVariable Integer scheduleId) {
+        return callQueueStreamService.subscribeSchedule(scheduleId);
+    }
+
+    /**
+     * 订阅科室叫号队列推送（SSE，科室候诊大屏使用），推送该科室所有排班的 delta 事件
+     */
+    @GetMapping(value = "/department/{departmentId}/call-queue/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDepartmentCallQueue(@PathVariable Integer departmentId) {
+        return callQueueStreamService.subscribeDepartment(departmentId);
+    }
+
+    /**
+     * 订阅楼层叫号队列推送（SSE，楼层候诊大屏使用），推送该楼层所有诊室排班的 delta 事件
+     */
+    @GetMapping(value = "/call-queue/stream/floor", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFloorCallQueue(@RequestParam(required = false) String building,
+                                           @RequestParam Integer floorLevel) {
+        return callQueueStreamService.subscribeFloor(building, floorLevel);
+    }
+
     /**
      * 获取下一个应该叫号的预约
      */
@@ -3,8 +3,11 @@ package com.example.springboot.controller;
 import com.example.springboot.dto.leaverequest.LeaveRequestCreateRequest;
 import com.example.springboot.dto.leaverequest.LeaveRequestResponse;
 import com.example.springboot.dto.leaverequest.LeaveRequestUpdateRequest;
+import com.example.springboot.dto.leaverequest.ScheduleRepairPlanResponse;
+import com.example.springboot.dto.leaverequest.SubstituteConfirmResponse;
 import com.example.springboot.entity.enums.LeaveRequestStatus;
 import com.example.springboot.service.LeaveRequestService;
+import com.example.springboot.service.ScheduleRepairService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -22,10 +25,13 @@ import java.util.List;
 public class LeaveRequestController {
 
     private final LeaveRequestService leaveRequestService;
+    private final ScheduleRepairService scheduleRepairService;
 
     @Autowired
-    public LeaveRequestController(LeaveRequestService leaveRequestService) {
+    public LeaveRequestController(LeaveRequestService leaveRequestService,
+                                  ScheduleRepairService scheduleRepairService) {
         this.leaveRequestService = leaveRequestService;
+        this.scheduleRepairService = scheduleRepairService;
     }
 
     /**
@@ -152,6 +158,22 @@ public class LeaveRequestController {
         return ResponseEntity.ok(detail);
     }
 
+    /**
+     * 获取排班修复方案（为受影响的排班自动选择替班医生，不修改数据）
+     */
+    @GetMapping("/{id}/repair-plan")
+    public ResponseEntity<ScheduleRepairPlanResponse> getRepairPlan(@PathVariable Integer id) {
+        return ResponseEntity.ok(scheduleRepairService.planRepair(id));
+    }
+
+    /**
+     * 按排班修复方案确认替班
+     */
+    @PostMapping("/{id}/repair")
+    public ResponseEntity<SubstituteConfirmResponse> applyRepair(@PathVariable Integer id) {
+        return ResponseEntity.ok(scheduleRepairService.applyRepair(id));
+    }
+
     /**
      * 确认替班安排
      */
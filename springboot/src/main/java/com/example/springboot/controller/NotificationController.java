@@ -1,7 +1,9 @@
 package com.example.springboot.controller;
 
+import com.example.springboot.dto.notification.NotificationOutboxMetrics;
 import com.example.springboot.dto.notification.NotificationResponse;
 import com.example.springboot.entity.enums.UserType;
+import com.example.springboot.service.NotificationOutboxDispatcher;
 import com.example.springboot.service.NotificationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -16,10 +18,13 @@ import java.util.Map;
 public class NotificationController {
 
     private final NotificationService notificationService;
+    private final NotificationOutboxDispatcher notificationOutboxDispatcher;
 
     @Autowired
-    public NotificationController(NotificationService notificationService) {
+    public NotificationController(NotificationService notificationService,
+                                  NotificationOutboxDispatcher notificationOutboxDispatcher) {
         this.notificationService = notificationService;
+        this.notificationOutboxDispatcher = notificationOutboxDispatcher;
     }
 
     /**
@@ -91,5 +96,12 @@ public class NotificationController {
         response.put("message", "Notification deleted");
         return ResponseEntity.ok(response);
     }
-}
 
+    /**
+     * 获取通知发件箱分发指标（积压数量、分发延迟、吞吐量）
+     */
+    @GetMapping("/outbox/metrics")
+    public ResponseEntity<NotificationOutboxMetrics> getOutboxMetrics() {
+        return ResponseEntity.ok(notificationOutboxDispatcher.getMetrics());
+    }
+}
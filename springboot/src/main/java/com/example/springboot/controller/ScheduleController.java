@@ -9,17 +9,23 @@ import com.example.springboot.dto.auto.*;
 import com.example.springboot.service.AutoScheduleService;
 import com.example.springboot.exception.BadRequestException;
 import com.example.springboot.exception.ResourceNotFoundException;
+import com.example.springboot.service.AutoScheduleJobService;
 import com.example.springboot.service.AutoScheduleService;
+import com.example.springboot.service.ScheduleConflictAuditService;
 import com.example.springboot.service.ScheduleService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.LocalDate;
 import java.util.List;
 
 /**
@@ -35,6 +41,12 @@ public class ScheduleController {
 
     @Autowired
     private AutoScheduleService autoScheduleService;
+
+    @Autowired
+    private AutoScheduleJobService autoScheduleJobService;
+
+    @Autowired
+    private ScheduleConflictAuditService scheduleConflictAuditService;
     /**
      * 获取排班列表
      */
@@ -295,6 +307,76 @@ public class ScheduleController {
         }
     }
 
+    /**
+     * 全院自动排班（各科室并行生成）
+     */
+    @PostMapping("/auto-generate/hospital")
+    public ResponseEntity<HospitalAutoScheduleResponse> autoGenerateHospitalSchedule(
+            @Valid @RequestBody HospitalAutoScheduleRequest request) {
+        return ResponseEntity.ok(autoScheduleService.autoGenerateHospitalSchedule(request));
+    }
+
+    /**
+     * 全院排班冲突审计（SSE）
+     * 逐个推送 conflict 事件（医生时间重叠、诊室被多个医生同时占用），每批日期审计完推送 progress 事件，
+     * 最后推送 summary 事件并关闭连接
+     */
+    @GetMapping(value = "/conflict-audit", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter auditScheduleConflicts(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        return scheduleConflictAuditService.audit(startDate, endDate);
+    }
+
+    /**
+     * 提交异步排班任务（立即返回任务ID，生成预览后需审批才保存）
+     */
+    @PostMapping("/auto-generate/jobs")
+    public ResponseEntity<AutoScheduleJobResponse> submitAutoScheduleJob(
+            @Valid @RequestBody AutoScheduleRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(autoScheduleJobService.submit(request));
+    }
+
+    /**
+     * 查询排班任务状态和进度
+     */
+    @GetMapping("/auto-generate/jobs/{jobId}")
+    public ResponseEntity<AutoScheduleJobResponse> getAutoScheduleJob(@PathVariable String jobId) {
+        return ResponseEntity.ok(autoScheduleJobService.getJob(jobId));
+    }
+
+    /**
+     * 查询排班任务生成的预览
+     */
+    @GetMapping("/auto-generate/jobs/{jobId}/preview")
+    public ResponseEntity<AutoScheduleResponse> getAutoScheduleJobPreview(@PathVariable String jobId) {
+        return ResponseEntity.ok(autoScheduleJobService.getPreview(jobId));
+    }
+
+    /**
+     * 审批排班任务（保存预览的排班）
+     */
+    @PostMapping("/auto-generate/jobs/{jobId}/approve")
+    public ResponseEntity<AutoScheduleResponse> approveAutoScheduleJob(@PathVariable String jobId) {
+        return ResponseEntity.ok(autoScheduleJobService.approve(jobId));
+    }
+
+    /**
+     * 查询排班任务的保存结果
+     */
+    @GetMapping("/auto-generate/jobs/{jobId}/result")
+    public ResponseEntity<AutoScheduleResponse> getAutoScheduleJobResult(@PathVariable String jobId) {
+        return ResponseEntity.ok(autoScheduleJobService.getResult(jobId));
+    }
+
+    /**
+     * 取消排班任务
+     */
+    @DeleteMapping("/auto-generate/jobs/{jobId}")
+    public ResponseEntity<AutoScheduleJobResponse> cancelAutoScheduleJob(@PathVariable String jobId) {
+        return ResponseEntity.ok(autoScheduleJobService.cancel(jobId));
+    }
+
     /**
      * 根据医生ID获取排班列表
      */
@@ -5,6 +5,7 @@ import com.example.springboot.dto.common.PageResponse;
 import com.example.springboot.dto.payment.PaymentRequest;
 import com.example.springboot.dto.waitlist.*;
 import com.example.springboot.entity.enums.WaitlistStatus;
+import com.example.springboot.service.IdempotencyService;
 import com.example.springboot.service.WaitlistService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -22,10 +23,12 @@ import java.util.List;
 public class WaitlistController {
 
     private final WaitlistService waitlistService;
+    private final IdempotencyService idempotencyService;
 
     @Autowired
-    public WaitlistController(WaitlistService waitlistService) {
+    public WaitlistController(WaitlistService waitlistService, IdempotencyService idempotencyService) {
         this.waitlistService = waitlistService;
+        this.idempotencyService = idempotencyService;
     }
 
     /**
@@ -62,12 +65,16 @@ public class WaitlistController {
 
     /**
      * 支付候补费用（候补转正式预约）
+     * 支持 Idempotency-Key 请求头，客户端超时重试时返回首次支付的结果
      */
     @PostMapping("/{waitlistId}/pay")
     public ResponseEntity<AppointmentResponse> payForWaitlist(
+            @RequestHeader(value = IdempotencyService.HEADER_NAME, required = false) String idempotencyKey,
             @PathVariable Integer waitlistId,
             @RequestBody PaymentRequest paymentData) {
-        return ResponseEntity.ok(waitlistService.processWaitlistPayment(waitlistId, paymentData));
+        return ResponseEntity.ok(idempotencyService.execute(idempotencyKey, "waitlist:pay",
+                List.of(waitlistId, paymentData), AppointmentResponse.class,
+                () -> waitlistService.processWaitlistPayment(waitlistId, paymentData)));
     }
 
     /**
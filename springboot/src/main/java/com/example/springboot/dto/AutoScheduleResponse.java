@@ -54,5 +54,10 @@ public class AutoScheduleResponse {
      * 排班预览表（按日期-时段组织）
      */
     private List<SchedulePreviewDay> schedulePreview;
+    
+    /**
+     * 号源数量建议（按需求预测，与 schedules 一一对应；未启用需求预测时为空）
+     */
+    private List<CapacitySuggestion> capacitySuggestions;
 }
 
@@ -0,0 +1,36 @@
+package com.example.springboot.dto;
+
+import lombok.Data;
+import java.time.LocalDate;
+
+/**
+ * 号源数量建议（基于需求预测）
+ */
+@Data
+public class CapacitySuggestion {
+    private Integer doctorId;
+    private String doctorName;
+    private LocalDate date;
+    private Integer slotId;
+    private String slotName;
+    
+    /**
+     * 预测需求（人次），没有足够历史数据时为空
+     */
+    private Double forecastDemand;
+    
+    /**
+     * 参与预测的历史排班数
+     */
+    private Integer sampleCount;
+    
+    /**
+     * 规则中的默认号源数量
+     */
+    private Integer defaultSlots;
+    
+    /**
+     * 建议（实际使用）的号源数量
+     */
+    private Integer suggestedSlots;
+}
@@ -0,0 +1,43 @@
+package com.example.springboot.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import jakarta.validation.constraints.NotNull;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 全院自动排班请求参数
+ */
+@Data
+public class HospitalAutoScheduleRequest {
+    /**
+     * 参与排班的科室ID（为空时包括所有有在职医生的科室）
+     */
+    private List<Integer> departmentIds;
+    
+    /**
+     * 开始日期
+     */
+    @NotNull(message = "开始日期不能为空")
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate startDate;
+    
+    /**
+     * 结束日期
+     */
+    @NotNull(message = "结束日期不能为空")
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate endDate;
+    
+    /**
+     * 排班规则配置（所有科室使用相同的规则）
+     */
+    private ScheduleRules rules;
+    
+    /**
+     * 是否仅预览（不保存到数据库）
+     */
+    private Boolean previewOnly = false;
+}
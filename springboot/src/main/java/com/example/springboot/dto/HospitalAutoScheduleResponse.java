@@ -0,0 +1,46 @@
+package com.example.springboot.dto;
+
+import lombok.Data;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全院自动排班响应结果
+ */
+@Data
+public class HospitalAutoScheduleResponse {
+    /**
+     * 是否成功（所有科室都生成成功且合并后没有冲突）
+     */
+    private Boolean success;
+    
+    /**
+     * 提示消息
+     */
+    private String message;
+    
+    /**
+     * 各科室的排班结果（key: departmentId）
+     */
+    private Map<Integer, AutoScheduleResponse> departmentResults;
+    
+    /**
+     * 合并后检测到的冲突
+     */
+    private List<ScheduleConflict> conflicts;
+    
+    /**
+     * 生成的排班总数
+     */
+    private Integer totalSchedules;
+    
+    /**
+     * 诊室分配等全院层面的提示信息
+     */
+    private List<String> warnings;
+    
+    /**
+     * 总耗时（毫秒）
+     */
+    private Long executionTime;
+}
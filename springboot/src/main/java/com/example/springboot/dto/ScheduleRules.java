@@ -59,5 +59,22 @@ public class ScheduleRules {
      * false: 优先保证覆盖，必要时放宽限制
      */
     private Boolean strictMode = false;
+    
+    /**
+     * 是否在贪心排班之后进行局部搜索优化（模拟退火）
+     * 优化目标：补齐未分配时段、减少放宽连续工作限制的班次、均衡工作量
+     */
+    private Boolean optimize = false;
+    
+    /**
+     * 局部搜索优化的时间预算（毫秒），不超过服务端配置的上限
+     */
+    private Integer optimizeTimeLimitMs = 2000;
+    
+    /**
+     * 是否按需求预测设置号源数量（每晚根据历史预约和候补更新预测）
+     * 医生该星期几该时段没有足够历史数据时仍使用默认号源数量
+     */
+    private Boolean useDemandForecast = true;
 }
 
@@ -51,6 +51,16 @@ public class ScheduleStatistics {
      * 生成耗时（毫秒）
      */
     private Long executionTime;
+    
+    /**
+     * 优化前的目标函数值（越小越好，见 WorkloadCalculator.calculateObjective）
+     */
+    private Double objectiveBefore;
+    
+    /**
+     * 优化后的目标函数值（未启用优化时与优化前相同）
+     */
+    private Double objectiveAfter;
 }
 
 
@@ -0,0 +1,21 @@
+package com.example.springboot.dto.appointment;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 排队预约票据响应DTO
+ * 客户端提交排队预约后拿到票据，再通过票据ID轮询处理结果
+ */
+@Data
+public class BookingTicketResponse {
+    private String ticketId;
+    private Integer scheduleId;
+    private BookingTicketStatus status;
+    private Long position;  // 前面还有多少个排队请求（仅 QUEUED 状态）
+    private Integer pollInterval;  // 建议轮询间隔（秒）
+    private AppointmentResponse appointment;  // 预约成功时返回
+    private String message;  // 预约失败原因
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,11 @@
+package com.example.springboot.dto.appointment;
+
+/**
+ * 排队预约票据状态
+ */
+public enum BookingTicketStatus {
+    QUEUED,      // 排队中
+    PROCESSING,  // 正在处理
+    SUCCESS,     // 预约成功
+    FAILED       // 预约失败（号源已满、重复预约等）
+}
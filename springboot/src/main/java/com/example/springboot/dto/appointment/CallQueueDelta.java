@@ -0,0 +1,27 @@
+package com.example.springboot.dto.appointment;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 叫号队列变化推送DTO
+ * action:
+ * - upsert：预约进入队列或位置/状态变化，appointment 为最新数据，position 为在队列中的位置（从0开始）
+ * - remove：预约离开队列（就诊完成、过号、清除签到等）
+ * - reset：队列从数据库重新同步，客户端应重新获取完整队列
+ * 客户端发现 version 不连续时（漏收推送），也应重新获取完整队列
+ */
+@Data
+public class CallQueueDelta {
+    private Integer scheduleId;
+    private Long version;
+    private String action;
+    private String cause;  // 触发变化的预约事件（如 CheckedIn、Called、Completed）
+    private Integer appointmentId;
+    private AppointmentResponse appointment;
+    private Integer position;
+    private Integer queueSize;
+    private Integer nextAppointmentId;  // 下一个待叫号的预约ID，没有时为 null
+    private LocalDateTime occurredAt;
+}
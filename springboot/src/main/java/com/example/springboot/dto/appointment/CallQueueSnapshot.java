@@ -0,0 +1,16 @@
+package com.example.springboot.dto.appointment;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 叫号队列快照DTO（订阅推送时首先发送，之后按 version 接收 CallQueueDelta）
+ */
+@Data
+public class CallQueueSnapshot {
+    private Integer scheduleId;
+    private Long version;
+    private List<AppointmentResponse> queue;
+    private Integer nextAppointmentId;
+}
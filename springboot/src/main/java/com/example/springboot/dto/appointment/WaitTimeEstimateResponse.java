@@ -0,0 +1,22 @@
+package com.example.springboot.dto.appointment;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 候诊等待时间预估
+ */
+@Data
+public class WaitTimeEstimateResponse {
+    private Integer appointmentId;
+    private Integer scheduleId;
+    private Integer position; // 在叫号队列中的位置（从1开始）
+    private Integer waitingAhead; // 前面还未叫号的人数
+    private Double expectedServiceMinutes; // 每位患者的预计接诊用时（分钟）
+    private Integer estimatedWaitMinutes; // 预计等待时间（分钟）
+    private Integer estimatedWaitMinutesHigh; // 预计等待时间上限（约90%把握，分钟）
+    private LocalDateTime estimatedCallTime; // 预计叫号时间
+    private String basis; // 预估依据：slot（医生该时段）/ doctor（医生全部时段）/ global（全院）/ default（默认值）
+    private Long sampleCount; // 预估依据的样本数
+}
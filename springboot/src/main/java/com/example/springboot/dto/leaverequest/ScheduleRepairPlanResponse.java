@@ -0,0 +1,71 @@
+package com.example.springboot.dto.leaverequest;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 请假排班修复方案响应DTO
+ */
+@Data
+public class ScheduleRepairPlanResponse {
+    private Integer leaveRequestId;
+    private List<RepairItem> items;
+    
+    /**
+     * 可直接用于确认替班的安排
+     * Key: scheduleId (排班ID)
+     * Value: substituteDoctorId (替班医生ID，null表示没有可用医生，取消排班)
+     */
+    private Map<Integer, Integer> substitutions;
+    
+    /**
+     * 找到替班医生的排班数
+     */
+    private Integer coveredCount;
+    
+    /**
+     * 没有可用替班医生的排班数
+     */
+    private Integer uncoveredCount;
+    
+    /**
+     * 需要改约或取消的预约数（没有替班医生的排班上的预约）
+     */
+    private Integer movedAppointments;
+    
+    /**
+     * 求解耗时（毫秒）
+     */
+    private Long executionTime;
+    
+    @Data
+    public static class RepairItem {
+        private Integer scheduleId;
+        private LocalDate scheduleDate;
+        private String slotName;
+        private String locationName;
+        private Integer bookedSlots;
+        private Integer substituteDoctorId;
+        private String substituteDoctorName;
+        
+        /**
+         * 匹配等级：high-高（平级）、medium-平（升级）、low-低（降级）
+         */
+        private String matchLevel;
+        
+        /**
+         * 替班医生平时是否在该诊室出诊
+         */
+        private Boolean sameLocation;
+        
+        /**
+         * 是否放宽了连续工作天数限制
+         */
+        private Boolean relaxed;
+        
+        private String reason;
+    }
+}
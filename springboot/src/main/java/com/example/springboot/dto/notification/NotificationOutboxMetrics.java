@@ -0,0 +1,22 @@
+package com.example.springboot.dto.notification;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 通知发件箱分发指标
+ */
+@Data
+public class NotificationOutboxMetrics {
+    private Long pendingBatches;               // 待分发的发件箱记录数
+    private Long failedBatches;                // 分发失败（超过重试次数）的发件箱记录数
+    private Long oldestPendingAgeSeconds;      // 最早一条待分发记录已等待的秒数（分发延迟）
+    private Long dispatchedMessagesTotal;      // 启动以来已分发的通知条数
+    private Long dispatchedBatchesTotal;       // 启动以来已分发的发件箱记录数
+    private Long dispatchedMessagesLastMinute; // 最近一分钟分发的通知条数
+    private Double throughputPerSecond;        // 最近一分钟的平均分发速度（条/秒）
+    private Long lastBatchLagMillis;           // 最近一批从写入发件箱到分发完成的平均耗时
+    private Long lastDispatchDurationMillis;   // 最近一批分发耗时
+    private LocalDateTime lastDispatchAt;      // 最近一次分发时间
+}
@@ -0,0 +1,34 @@
+package com.example.springboot.dto.schedule;
+
+import com.example.springboot.entity.enums.AutoScheduleJobStatus;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 异步排班任务状态
+ */
+@Data
+public class AutoScheduleJobResponse {
+    private String jobId;
+    private AutoScheduleJobStatus status;
+    private Integer departmentId;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    /**
+     * 完成百分比（0-100）
+     */
+    private Integer progress;
+    /**
+     * 当前阶段
+     */
+    private String stage;
+    /**
+     * 失败原因或结果提示
+     */
+    private String message;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,32 @@
+package com.example.springboot.dto.schedule;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * 全院排班冲突审计进度/汇总（SSE progress、summary 事件）
+ */
+@Data
+public class ScheduleConflictAuditSummary {
+    private LocalDate startDate;
+    private LocalDate endDate;
+    /**
+     * 已审计到的日期（含）
+     */
+    private LocalDate auditedUntil;
+    /**
+     * 已扫描的排班数
+     */
+    private Integer scannedSchedules;
+    /**
+     * 医生时间冲突数
+     */
+    private Integer doctorConflicts;
+    /**
+     * 诊室占用冲突数
+     */
+    private Integer locationConflicts;
+    private Boolean completed;
+    private Long elapsedMillis;
+}
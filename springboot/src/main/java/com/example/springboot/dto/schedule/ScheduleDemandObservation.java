@@ -0,0 +1,26 @@
+package com.example.springboot.dto.schedule;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * 单个历史排班的需求观测值（需求预测用）
+ */
+@Data
+@AllArgsConstructor
+public class ScheduleDemandObservation {
+    private Integer scheduleId;
+    private Integer doctorId;
+    private Integer slotId;
+    private LocalDate scheduleDate;
+    /**
+     * 有效预约数（不含已取消，含加号）
+     */
+    private Long appointmentCount;
+    /**
+     * 候补人数（不论候补结果）
+     */
+    private Long waitlistCount;
+}
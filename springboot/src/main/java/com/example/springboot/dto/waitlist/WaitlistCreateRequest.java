@@ -1,5 +1,6 @@
 package com.example.springboot.dto.waitlist;
 
+import com.example.springboot.entity.enums.WaitlistMatchScope;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 
@@ -10,4 +11,6 @@ public class WaitlistCreateRequest {
 
     @NotNull(message = "排班ID不能为空")
     private Integer scheduleId;
+
+    private WaitlistMatchScope matchScope; // 匹配范围，为空时仅匹配本排班
 }
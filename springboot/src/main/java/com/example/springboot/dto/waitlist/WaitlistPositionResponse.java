@@ -10,5 +10,6 @@ public class WaitlistPositionResponse {
     private WaitlistStatus status;
     private Integer position;
     private Integer totalWaiting;
+    private Integer peopleAhead;
     private String estimatedTime;
 }
\ No newline at end of file
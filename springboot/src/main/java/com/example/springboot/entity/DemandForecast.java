@@ -0,0 +1,45 @@
+package com.example.springboot.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 号源需求预测表
+ * 按 医生+星期几+时段 记录历史需求（有效预约数+候补数）的指数平滑值，由每晚的预测任务增量更新。
+ */
+@Entity
+@Table(name = "demand_forecasts")
+@Data
+public class DemandForecast {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "forecast_id")
+    private Integer forecastId;
+
+    @Column(name = "doctor_id", nullable = false)
+    private Integer doctorId;
+
+    @Column(name = "day_of_week", nullable = false)
+    private Integer dayOfWeek; // 星期几（1=周一 ... 7=周日）
+
+    @Column(name = "slot_id", nullable = false)
+    private Integer slotId;
+
+    @Column(name = "smoothed_demand", nullable = false, precision = 10, scale = 2)
+    private BigDecimal smoothedDemand; // 需求的指数平滑值（人次/排班）
+
+    @Column(name = "sample_count", nullable = false)
+    private Integer sampleCount = 0; // 参与平滑的历史排班数
+
+    @Column(name = "last_schedule_date", nullable = false)
+    private LocalDate lastScheduleDate; // 最近一次参与平滑的排班日期
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
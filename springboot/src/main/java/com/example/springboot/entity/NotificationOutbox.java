@@ -0,0 +1,46 @@
+package com.example.springboot.entity;
+
+import com.example.springboot.entity.enums.OutboxStatus;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * 通知发件箱表
+ * 业务事务只写入一行发件箱记录（同一事务内的多条通知合并为一个 JSON 数组），
+ * 由后台分发任务批量写入 notifications 表。
+ */
+@Entity
+@Table(name = "notification_outbox")
+@Data
+public class NotificationOutbox {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "outbox_id")
+    private Long outboxId;
+
+    @Column(name = "payload", nullable = false, columnDefinition = "MEDIUMTEXT")
+    private String payload; // 通知内容（NotificationCreateRequest 的 JSON 数组）
+
+    @Column(name = "message_count", nullable = false)
+    private Integer messageCount; // 包含的通知条数
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private OutboxStatus status = OutboxStatus.pending;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0; // 分发失败次数
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "dispatched_at")
+    private LocalDateTime dispatchedAt;
+}
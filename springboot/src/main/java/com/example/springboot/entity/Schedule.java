@@ -41,12 +41,27 @@ public class Schedule {
     @Column(name = "total_slots", nullable = false)
     private Integer totalSlots; // 总号源数
 
-    @Column(name = "booked_slots", nullable = false)
+    // 已预约数只通过 ScheduleRepository 的原子更新语句修改（见 SlotInventoryService），实体保存时不回写，避免覆盖并发更新
+    @Column(name = "booked_slots", nullable = false, updatable = false)
     private Integer bookedSlots = 0; // 已预约数
 
     @Column(nullable = false, precision = 10, scale = 2)
     private BigDecimal fee; // 挂号费用
 
+    // 乐观锁版本号：保护总号源数、费用、状态、备注等字段的并发修改
+    // 已预约数由原子更新语句维护，不递增版本号，因此预约/取消不会与这些修改冲突
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version = 0L;
+
+    // 就诊序号计数器：仅在 Redis 不可用时由 ScheduleRepository 的原子更新语句推进（见 AppointmentNumberSequencer），
+    // Redis 分配序号时以此为下限；实体保存时不写入
+    @Column(name = "last_appointment_number", nullable = false, insertable = false, updatable = false)
+    private Integer lastAppointmentNumber = 0;
+
+    @Column(name = "last_add_on_number", nullable = false, insertable = false, updatable = false)
+    private Integer lastAddOnNumber = 0;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private ScheduleStatus status; // 排班状态
@@ -1,5 +1,6 @@
 package com.example.springboot.entity; // 包名调整
 
+import com.example.springboot.entity.enums.WaitlistMatchScope;
 import com.example.springboot.entity.enums.WaitlistStatus; // 导入路径调整
 import jakarta.persistence.*;
 import lombok.Data;
@@ -30,6 +31,10 @@ public class Waitlist {
     @Column(nullable = false)
     private WaitlistStatus status; // 候补状态
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "match_scope", nullable = false)
+    private WaitlistMatchScope matchScope = WaitlistMatchScope.schedule; // 匹配范围（是否接受同医生/同科室当天其他排班）
+
     @Column(name = "notification_sent_at")
     private LocalDateTime notificationSentAt; // 系统发送通知的时间
 
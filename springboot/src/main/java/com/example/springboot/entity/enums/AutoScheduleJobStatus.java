@@ -0,0 +1,13 @@
+package com.example.springboot.entity.enums;
+
+/**
+ * 异步排班任务状态枚举
+ */
+public enum AutoScheduleJobStatus {
+    queued,         // 排队中
+    running,        // 生成中
+    preview_ready,  // 已生成预览，等待审批
+    approved,       // 已审批，排班已保存
+    cancelled,      // 已取消
+    failed          // 生成或保存失败
+}
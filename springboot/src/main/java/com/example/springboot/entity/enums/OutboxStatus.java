@@ -0,0 +1,5 @@
+package com.example.springboot.entity.enums;
+
+public enum OutboxStatus {
+    pending, dispatched, failed
+}
@@ -0,0 +1,11 @@
+package com.example.springboot.entity.enums;
+
+/**
+ * 候补匹配范围枚举
+ * 必须与数据库中的 ENUM 定义完全一致
+ */
+public enum WaitlistMatchScope {
+    schedule,   // 仅本排班 - 只接受所候补的排班空出的号源
+    doctor,     // 同医生同日 - 接受该医生当天任意时段空出的号源
+    department  // 同科室同日 - 接受该科室当天任意医生、任意时段空出的号源
+}
@@ -0,0 +1,151 @@
+package com.example.springboot.event;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 预约生命周期事件总线（进程内）
+ *
+ * 在事务中发布的事件先缓存在当前事务上，事务提交后才分发；事务回滚时丢弃。
+ * 不在事务中发布时立即分发。
+ *
+ * 每个监听器有独立的事件队列，由虚拟线程按发布顺序逐个处理，保证同一监听器看到的事件顺序与发布顺序一致；
+ * 慢监听器只会积压自己的队列，不会拖慢其他监听器，也不会占用请求线程。
+ */
+@Component
+public class AppointmentEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppointmentEventBus.class);
+
+    private final ObjectProvider<AppointmentEventListener> listeners;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // key: 监听器实例
+    private final Map<AppointmentEventListener, ListenerChannel> channels = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AppointmentEventBus(ObjectProvider<AppointmentEventListener> listeners) {
+        // 延迟获取监听器，避免监听器（如 WaitlistService）与发布方之间的循环依赖
+        this.listeners = listeners;
+    }
+
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("预约事件总线关闭超时，仍有事件未处理完");
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 发布事件（当前事务提交后分发）
+     */
+    public void publish(AppointmentLifecycleEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dispatch(List.of(event));
+            return;
+        }
+        currentBuffer().events.add(event);
+    }
+
+    /**
+     * 获取当前事务的事件缓存（每个事务注册一个，REQUIRES_NEW 的内层事务有自己的缓存）
+     */
+    private EventBuffer currentBuffer() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof EventBuffer buffer && buffer.owner == this) {
+                return buffer;
+            }
+        }
+        EventBuffer buffer = new EventBuffer(this);
+        TransactionSynchronizationManager.registerSynchronization(buffer);
+        return buffer;
+    }
+
+    private void dispatch(List<AppointmentLifecycleEvent> events) {
+        listeners.orderedStream().forEach(listener ->
+                channels.computeIfAbsent(listener, ListenerChannel::new).offer(events));
+    }
+
+    /**
+     * 单个监听器的事件队列：同一时刻最多一个虚拟线程在处理，保证按顺序执行
+     */
+    private class ListenerChannel {
+        private final AppointmentEventListener listener;
+        private final String name;
+        private final Queue<AppointmentLifecycleEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private ListenerChannel(AppointmentEventListener listener) {
+            this.listener = listener;
+            this.name = AopUtils.getTargetClass(listener).getSimpleName();
+        }
+
+        private void offer(List<AppointmentLifecycleEvent> events) {
+            pending.addAll(events);
+            schedule();
+        }
+
+        private void schedule() {
+            if (running.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                AppointmentLifecycleEvent event;
+                while ((event = pending.poll()) != null) {
+                    try {
+                        listener.onAppointmentEvent(event);
+                    } catch (Exception e) {
+                        logger.error("预约事件处理失败 - 监听器: {}, 事件: {}", name, event, e);
+                    }
+                }
+            } finally {
+                running.set(false);
+            }
+            // 释放标记后再检查一次，防止在最后一次 poll 和释放标记之间加入的事件无人处理
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * 事务内的事件缓存，提交后分发
+     */
+    private static class EventBuffer implements TransactionSynchronization {
+        private final AppointmentEventBus owner;
+        private final List<AppointmentLifecycleEvent> events = new ArrayList<>();
+
+        private EventBuffer(AppointmentEventBus owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void afterCommit() {
+            if (!events.isEmpty()) {
+                owner.dispatch(events);
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.springboot.event;
+
+/**
+ * 预约生命周期事件监听器
+ * 实现类注册为 Spring Bean 即可自动接收事件。每个监听器的事件按发布顺序串行处理，
+ * 不同监听器之间并行执行；监听器抛出的异常只记录日志，不影响其他监听器和后续事件。
+ */
+public interface AppointmentEventListener {
+
+    void onAppointmentEvent(AppointmentLifecycleEvent event);
+}
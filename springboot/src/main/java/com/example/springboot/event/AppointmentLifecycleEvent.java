@@ -0,0 +1,77 @@
+package com.example.springboot.event;
+
+import java.time.LocalDateTime;
+
+/**
+ * 预约生命周期事件
+ * 由 AppointmentService 在状态变更时发布，事务提交后由 AppointmentEventBus 分发给各监听器。
+ * 事件只携带标识和少量状态，监听器需要完整数据时自行查询（此时业务事务已提交，查询到的是最新数据）。
+ */
+public sealed interface AppointmentLifecycleEvent {
+
+    Integer appointmentId();
+
+    Integer scheduleId();
+
+    Long patientId();
+
+    LocalDateTime occurredAt();
+
+    /**
+     * 预约已创建（包括现场挂号）
+     */
+    record AppointmentCreated(Integer appointmentId, Integer scheduleId, Long patientId,
+                              boolean walkIn, LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+
+    /**
+     * 预约已取消（号源已归还）
+     */
+    record AppointmentCancelled(Integer appointmentId, Integer scheduleId, Long patientId,
+                                LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+
+    /**
+     * 患者已签到（包括过号后重新签到）
+     */
+    record CheckedIn(Integer appointmentId, Integer scheduleId, Long patientId,
+                     Integer realTimeQueueNumber, boolean late, boolean recheckIn,
+                     LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+
+    /**
+     * 已叫号
+     */
+    record Called(Integer appointmentId, Integer scheduleId, Long patientId,
+                  LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+
+    /**
+     * 已标记过号（签到记录已清除，需重新签到）
+     */
+    record MissedCall(Integer appointmentId, Integer scheduleId, Long patientId,
+                      LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+
+    /**
+     * 管理员已清除签到（预约改回已预约状态）
+     */
+    record CheckInCleared(Integer appointmentId, Integer scheduleId, Long patientId,
+                          LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+
+    /**
+     * 就诊已完成（calledAt 到 occurredAt 即本次接诊用时）
+     */
+    record Completed(Integer appointmentId, Integer scheduleId, Long patientId,
+                     Integer doctorId, Integer slotId, LocalDateTime calledAt,
+                     LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+
+    /**
+     * 患者爽约（号源已归还）
+     */
+    record NoShow(Integer appointmentId, Integer scheduleId, Long patientId,
+                  LocalDateTime occurredAt) implements AppointmentLifecycleEvent {
+    }
+}
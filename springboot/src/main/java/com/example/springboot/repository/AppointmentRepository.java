@@ -32,6 +32,13 @@ public interface AppointmentRepository extends JpaRepository<Appointment, Intege
      */
     @Query("SELECT COUNT(a) FROM Appointment a WHERE a.schedule = :schedule AND a.status != com.example.springboot.entity.enums.AppointmentStatus.cancelled")
     long countByScheduleAndStatusNotCancelled(@Param("schedule") Schedule schedule);
+
+    /**
+     * 批量查询在该排班已有有效预约（排除已取消的预约）的患者ID
+     */
+    @Query("SELECT DISTINCT a.patient.patientId FROM Appointment a WHERE a.schedule = :schedule AND a.patient.patientId IN :patientIds AND a.status != com.example.springboot.entity.enums.AppointmentStatus.cancelled")
+    List<Long> findPatientIdsWithActiveAppointment(@Param("schedule") Schedule schedule, @Param("patientIds") List<Long> patientIds);
+
     long countBySchedule(Schedule schedule);
     List<Appointment> findByScheduleScheduleDateAndScheduleSlotStartTimeBeforeAndStatus(
             java.time.LocalDate scheduleDate, java.time.LocalTime checkInTime, com.example.springboot.entity.enums.AppointmentStatus status);
@@ -95,6 +102,19 @@ public interface AppointmentRepository extends JpaRepository<Appointment, Intege
             @Param("startDate") LocalDate startDate,
             @Param("endDate") LocalDate endDate,
             @Param("status") com.example.springboot.entity.enums.AppointmentStatus status);
+
+    /**
+     * 查询指定时间之后完成的、有叫号时间的预约（按完成时间升序，用于初始化接诊用时统计）
+     */
+    @Query("""
+            SELECT a FROM Appointment a
+            JOIN FETCH a.schedule s
+            WHERE a.status = com.example.springboot.entity.enums.AppointmentStatus.completed
+              AND a.calledAt IS NOT NULL
+              AND a.updatedAt >= :since
+            ORDER BY a.updatedAt ASC
+            """)
+    List<Appointment> findCompletedWithCalledAtSince(@Param("since") LocalDateTime since);
     
     /**
      * 查询某个排班下指定状态的预约（用于叫号队列）
@@ -135,6 +155,15 @@ public interface AppointmentRepository extends JpaRepository<Appointment, Intege
             @Param("schedule") Schedule schedule,
             @Param("appointmentType") AppointmentType appointmentType);
     
+    /**
+     * 查询指定排班中非加号预约的最大预约序号（用于普通序号分配，加号使用独立的 1001+ 范围）
+     */
+    @Query("SELECT MAX(a.appointmentNumber) FROM Appointment a " +
+           "WHERE a.schedule = :schedule AND (a.appointmentType IS NULL OR a.appointmentType <> :excludedType)")
+    Integer findMaxAppointmentNumberByScheduleExcludingType(
+            @Param("schedule") Schedule schedule,
+            @Param("excludedType") AppointmentType excludedType);
+    
     /**
      * 统计指定排班的待支付加号数量（用于计算实际可用号源）
      */
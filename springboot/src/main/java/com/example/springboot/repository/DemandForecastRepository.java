@@ -0,0 +1,22 @@
+package com.example.springboot.repository;
+
+import com.example.springboot.entity.DemandForecast;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface DemandForecastRepository extends JpaRepository<DemandForecast, Integer> {
+
+    List<DemandForecast> findByDoctorIdIn(Collection<Integer> doctorIds);
+
+    /**
+     * 已参与预测的最晚排班日期（增量更新的起点）
+     */
+    @Query("SELECT MAX(f.lastScheduleDate) FROM DemandForecast f")
+    LocalDate findLatestScheduleDate();
+}
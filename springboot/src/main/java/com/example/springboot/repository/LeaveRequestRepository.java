@@ -16,6 +16,13 @@ public interface LeaveRequestRepository extends JpaRepository<LeaveRequest, Inte
     List<LeaveRequest> findByDoctor(Doctor doctor);
     List<LeaveRequest> findByStatus(LeaveRequestStatus status);
     List<LeaveRequest> findByStartTimeBeforeAndEndTimeAfterAndStatus(LocalDateTime end, LocalDateTime start, LeaveRequestStatus status);
+    List<LeaveRequest> findByDoctorDoctorIdInAndStatus(List<Integer> doctorIds, LeaveRequestStatus status);
+
+    /**
+     * 查询医生与指定时间段有交集的请假记录（所有状态）
+     */
+    List<LeaveRequest> findByDoctorAndStartTimeLessThanEqualAndEndTimeGreaterThanEqual(
+        Doctor doctor, LocalDateTime endTime, LocalDateTime startTime);
     
     /**
      * 查询指定医生列表在指定日期范围内的已批准请假记录
@@ -0,0 +1,39 @@
+package com.example.springboot.repository;
+
+import com.example.springboot.entity.NotificationOutbox;
+import com.example.springboot.entity.enums.OutboxStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface NotificationOutboxRepository extends JpaRepository<NotificationOutbox, Long> {
+
+    /**
+     * 锁定一批待分发的发件箱记录（SKIP LOCKED：多个实例同时分发时互不阻塞、不重复处理）
+     */
+    @Query(value = "SELECT * FROM notification_outbox WHERE status = 'pending' " +
+                   "ORDER BY outbox_id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<NotificationOutbox> lockPendingBatch(@Param("limit") int limit);
+
+    /**
+     * 批量标记为已分发
+     */
+    @Modifying
+    @Query("UPDATE NotificationOutbox o SET o.status = com.example.springboot.entity.enums.OutboxStatus.dispatched, " +
+           "o.dispatchedAt = :dispatchedAt WHERE o.outboxId IN :ids")
+    int markDispatched(@Param("ids") List<Long> ids, @Param("dispatchedAt") LocalDateTime dispatchedAt);
+
+    long countByStatus(OutboxStatus status);
+
+    /**
+     * 最早的待分发记录创建时间（用于计算分发延迟）
+     */
+    @Query("SELECT MIN(o.createdAt) FROM NotificationOutbox o WHERE o.status = com.example.springboot.entity.enums.OutboxStatus.pending")
+    LocalDateTime findOldestPendingCreatedAt();
+}
@@ -3,6 +3,9 @@ package com.example.springboot.repository;
 import com.example.springboot.entity.Patient;
 import com.example.springboot.entity.PatientProfile;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -14,4 +17,14 @@ public interface PatientProfileRepository extends JpaRepository<PatientProfile,
     // 无需添加自定义方法，JpaRepository.findById(patientId) 已足够
     boolean existsByIdCardNumber(String idCardNumber);
     Optional<PatientProfile> findByPatient(Patient patient);
+
+    /**
+     * 原子增加爽约次数，达到上限时同时加入黑名单
+     * （MySQL 按顺序执行 SET 子句，第二个子句中的 no_show_count 已是增加后的值）
+     */
+    @Modifying
+    @Query(value = "UPDATE patient_profiles SET no_show_count = no_show_count + 1, " +
+                   "blacklist_status = CASE WHEN no_show_count >= :maxNoShowCount THEN 'blacklisted' ELSE blacklist_status END " +
+                   "WHERE patient_id = :patientId", nativeQuery = true)
+    int incrementNoShowCount(@Param("patientId") Long patientId, @Param("maxNoShowCount") int maxNoShowCount);
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+package com.example.springboot.repository;
+
+import com.example.springboot.entity.Appointment;
+import com.example.springboot.entity.Schedule;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * 排班、预约批量写入（JDBC）
+ *
+ * Schedule、Appointment 的主键使用 IDENTITY 生成，Hibernate 每插入一行都要立即执行 INSERT 取回主键，无法批量插入，
+ * saveAll 插入几千条排班就是几千次数据库往返。这里直接用 JDBC 批量执行：连接参数 rewriteBatchedStatements=true 时，
+ * 驱动把一批 INSERT 改写为一条多值 INSERT，把一批 UPDATE 合并为一次多语句请求，每 batch-size 行一次往返。
+ * 插入后按驱动返回的自增主键回填实体 ID。
+ *
+ * 写入不经过 Hibernate：实体不会进入持久化上下文，也不触发实体监听；在已有事务中调用时使用同一个数据库连接，随事务提交或回滚。
+ */
+@Repository
+public class ScheduleBulkWriter {
+
+    private static final String INSERT_SCHEDULE_SQL = "INSERT INTO schedules " +
+            "(doctor_id, schedule_date, slot_id, location_id, total_slots, booked_slots, fee, version, status, remarks, " +
+            "is_add_on_slot, reserved_for_patient_id, slot_application_id, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // 按版本号更新，与实体的乐观锁一致；已预约数只由原子更新语句维护，这里不写
+    private static final String UPDATE_SCHEDULE_SQL = "UPDATE schedules " +
+            "SET total_slots = ?, fee = ?, version = version + 1, updated_at = ? " +
+            "WHERE schedule_id = ? AND version = ?";
+
+    private static final String INSERT_APPOINTMENT_SQL = "INSERT INTO appointments " +
+            "(patient_id, schedule_id, appointment_number, status, payment_status, payment_method, transaction_id, " +
+            "is_on_time, missed_call_count, is_walk_in, is_late, appointment_type, original_appointment_id, is_add_on, " +
+            "payment_deadline, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_APPOINTMENT_STATUS_SQL = "UPDATE appointments " +
+            "SET status = ?, payment_status = ?, updated_at = ? WHERE appointment_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${bulk-write.batch-size:500}")
+    private int batchSize = 500;
+
+    @Autowired
+    public ScheduleBulkWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 批量插入排班，插入后回填 scheduleId、创建/更新时间
+     */
+    public void insertSchedules(List<Schedule> schedules) {
+        LocalDateTime now = LocalDateTime.now();
+        Timestamp timestamp = Timestamp.valueOf(now);
+        insertReturningKeys(INSERT_SCHEDULE_SQL, schedules, (ps, schedule) -> {
+            ps.setInt(1, schedule.getDoctor().getDoctorId());
+            ps.setObject(2, schedule.getScheduleDate());
+            ps.setInt(3, schedule.getSlot().getSlotId());
+            ps.setInt(4, schedule.getLocation().getLocationId());
+            ps.setInt(5, schedule.getTotalSlots());
+            ps.setInt(6, schedule.getBookedSlots() != null ? schedule.getBookedSlots() : 0);
+            ps.setBigDecimal(7, schedule.getFee());
+            ps.setLong(8, schedule.getVersion() != null ? schedule.getVersion() : 0L);
+            ps.setString(9, schedule.getStatus().name());
+            ps.setString(10, schedule.getRemarks());
+            ps.setBoolean(11, Boolean.TRUE.equals(schedule.getIsAddOnSlot()));
+            ps.setObject(12, schedule.getReservedForPatientId());
+            ps.setObject(13, schedule.getSlotApplicationId());
+            ps.setTimestamp(14, timestamp);
+            ps.setTimestamp(15, timestamp);
+        }, (schedule, id) -> {
+            schedule.setScheduleId(id);
+            schedule.setCreatedAt(now);
+            schedule.setUpdatedAt(now);
+        });
+    }
+
+    /**
+     * 批量更新排班的总号源数和费用（按版本号校验）
+     *
+     * @return 版本号不一致（已被其他请求修改）而未更新的排班ID
+     */
+    public List<Integer> updateSchedules(List<ScheduleUpdate> updates) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(UPDATE_SCHEDULE_SQL, updates, batchSize, (ps, update) -> {
+            ps.setInt(1, update.totalSlots());
+            ps.setBigDecimal(2, update.fee());
+            ps.setTimestamp(3, now);
+            ps.setInt(4, update.scheduleId());
+            ps.setLong(5, update.version());
+        });
+        List<Integer> conflicted = new ArrayList<>();
+        int index = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                // SUCCESS_NO_INFO（-2）表示驱动无法给出行数，按成功处理
+                if (count == 0) {
+                    conflicted.add(updates.get(index).scheduleId());
+                }
+                index++;
+            }
+        }
+        return conflicted;
+    }
+
+    /**
+     * 批量插入预约（数据导入、迁移使用），插入后回填 appointmentId、创建/更新时间
+     * 不维护排班的已预约数、号源库存和就诊序号，由调用方负责
+     */
+    public void insertAppointments(List<Appointment> appointments) {
+        LocalDateTime now = LocalDateTime.now();
+        insertReturningKeys(INSERT_APPOINTMENT_SQL, appointments, (ps, appointment) -> {
+            LocalDateTime createdAt = appointment.getCreatedAt() != null ? appointment.getCreatedAt() : now;
+            ps.setLong(1, appointment.getPatient().getPatientId());
+            ps.setInt(2, appointment.getSchedule().getScheduleId());
+            ps.setObject(3, appointment.getAppointmentNumber());
+            ps.setString(4, appointment.getStatus().name());
+            ps.setString(5, appointment.getPaymentStatus().name());
+            ps.setString(6, appointment.getPaymentMethod());
+            ps.setString(7, appointment.getTransactionId());
+            ps.setBoolean(8, Boolean.TRUE.equals(appointment.getIsOnTime()));
+            ps.setInt(9, appointment.getMissedCallCount() != null ? appointment.getMissedCallCount() : 0);
+            ps.setBoolean(10, Boolean.TRUE.equals(appointment.getIsWalkIn()));
+            ps.setBoolean(11, Boolean.TRUE.equals(appointment.getIsLate()));
+            ps.setString(12, appointment.getAppointmentType() != null ? appointment.getAppointmentType().name() : null);
+            ps.setObject(13, appointment.getOriginalAppointmentId());
+            ps.setBoolean(14, Boolean.TRUE.equals(appointment.getIsAddOn()));
+            ps.setTimestamp(15, appointment.getPaymentDeadline() != null ? Timestamp.valueOf(appointment.getPaymentDeadline()) : null);
+            ps.setTimestamp(16, Timestamp.valueOf(createdAt));
+            ps.setTimestamp(17, Timestamp.valueOf(now));
+        }, (appointment, id) -> {
+            appointment.setAppointmentId(id);
+            if (appointment.getCreatedAt() == null) {
+                appointment.setCreatedAt(now);
+            }
+            appointment.setUpdatedAt(now);
+        });
+    }
+
+    /**
+     * 批量更新预约状态和支付状态
+     *
+     * @return 更新的预约数
+     */
+    public int updateAppointmentStatuses(List<Appointment> appointments) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(UPDATE_APPOINTMENT_STATUS_SQL, appointments, batchSize, (ps, appointment) -> {
+            ps.setString(1, appointment.getStatus().name());
+            ps.setString(2, appointment.getPaymentStatus().name());
+            ps.setTimestamp(3, now);
+            ps.setInt(4, appointment.getAppointmentId());
+        });
+        int updated = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                updated += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * 分批执行 INSERT 并按顺序回填自增主键
+     */
+    private <T> void insertReturningKeys(String sql, List<T> items, RowSetter<T> setter, BiConsumer<T, Integer> onKey) {
+        for (int from = 0; from < items.size(); from += batchSize) {
+            List<T> batch = items.subList(from, Math.min(items.size(), from + batchSize));
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    for (T item : batch) {
+                        setter.set(ps, item);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        int index = 0;
+                        while (keys.next() && index < batch.size()) {
+                            onKey.accept(batch.get(index++), keys.getInt(1));
+                        }
+                        if (index != batch.size()) {
+                            throw new SQLException("批量插入返回的主键数(" + index + ")与插入行数(" + batch.size() + ")不一致");
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowSetter<T> {
+        void set(PreparedStatement ps, T item) throws SQLException;
+    }
+
+    /**
+     * 排班更新：写入的总号源数、费用，以及读取时的版本号
+     */
+    public record ScheduleUpdate(Integer scheduleId, Long version, Integer totalSlots, BigDecimal fee) {
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.springboot.repository;
 
+import com.example.springboot.dto.schedule.ScheduleDemandObservation;
 import com.example.springboot.entity.Doctor;
 import com.example.springboot.entity.Schedule;
 import com.example.springboot.entity.TimeSlot;
@@ -7,6 +8,7 @@ import com.example.springboot.entity.enums.ScheduleStatus;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -30,6 +32,17 @@ public interface ScheduleRepository extends JpaRepository<Schedule, Integer> {
     // 根据日期范围查找排班
     List<Schedule> findByScheduleDateBetween(LocalDate startDate, LocalDate endDate);
     
+    /**
+     * 按日期范围查询排班，一并加载医生、时间段、诊室（自动排班在事务外生成、检测冲突时使用）
+     */
+    @Query("SELECT s FROM Schedule s " +
+           "JOIN FETCH s.doctor d " +
+           "JOIN FETCH s.slot ts " +
+           "LEFT JOIN FETCH s.location l " +
+           "WHERE s.scheduleDate BETWEEN :startDate AND :endDate")
+    List<Schedule> findWithDetailsByScheduleDateBetween(@Param("startDate") LocalDate startDate,
+                                                        @Param("endDate") LocalDate endDate);
+    
     /**
      * 分页查询排班列表（含关联信息）
      */
@@ -82,4 +95,108 @@ public interface ScheduleRepository extends JpaRepository<Schedule, Integer> {
                                                         @Param("endDate") LocalDate endDate,
                                                         Pageable pageable);
 
+    /**
+     * 查询科室某天的排班ID（排除指定状态，叫号队列按科室推送时使用）
+     */
+    @Query("SELECT s.scheduleId FROM Schedule s " +
+           "WHERE s.scheduleDate = :date AND s.doctor.department.departmentId = :departmentId " +
+           "AND s.status <> :excludedStatus")
+    List<Integer> findIdsByDateAndDepartment(@Param("date") LocalDate date,
+                                             @Param("departmentId") Integer departmentId,
+                                             @Param("excludedStatus") ScheduleStatus excludedStatus);
+
+    /**
+     * 查询楼层某天的排班ID（排除指定状态，叫号队列按楼层推送时使用；building 为 null 时匹配未填写楼栋的诊室）
+     */
+    @Query("SELECT s.scheduleId FROM Schedule s JOIN s.location l " +
+           "WHERE s.scheduleDate = :date AND l.floorLevel = :floorLevel " +
+           "AND ((:building IS NULL AND l.building IS NULL) OR l.building = :building) " +
+           "AND s.status <> :excludedStatus")
+    List<Integer> findIdsByDateAndFloor(@Param("date") LocalDate date,
+                                        @Param("building") String building,
+                                        @Param("floorLevel") Integer floorLevel,
+                                        @Param("excludedStatus") ScheduleStatus excludedStatus);
+
+    /**
+     * 查询日期范围内需要做冲突审计的排班（排除指定状态和加号虚拟号源，一并加载医生、时间段、诊室）
+     */
+    @Query("SELECT s FROM Schedule s " +
+           "JOIN FETCH s.doctor d " +
+           "JOIN FETCH s.slot ts " +
+           "LEFT JOIN FETCH s.location l " +
+           "WHERE s.scheduleDate BETWEEN :startDate AND :endDate " +
+           "AND s.status <> :excludedStatus " +
+           "AND (s.isAddOnSlot IS NULL OR s.isAddOnSlot = false)")
+    List<Schedule> findForConflictAudit(@Param("startDate") LocalDate startDate,
+                                        @Param("endDate") LocalDate endDate,
+                                        @Param("excludedStatus") ScheduleStatus excludedStatus);
+
+    /**
+     * 查询日期范围内排班的需求观测值（有效预约数和未转为预约的候补数，排除已取消的排班）
+     */
+    @Query("SELECT new com.example.springboot.dto.schedule.ScheduleDemandObservation(" +
+           "s.scheduleId, s.doctor.doctorId, s.slot.slotId, s.scheduleDate, " +
+           "(SELECT COUNT(a) FROM Appointment a WHERE a.schedule = s " +
+           "AND a.status <> com.example.springboot.entity.enums.AppointmentStatus.cancelled), " +
+           "(SELECT COUNT(w) FROM Waitlist w WHERE w.schedule = s " +
+           "AND w.status <> com.example.springboot.entity.enums.WaitlistStatus.booked)) " +
+           "FROM Schedule s " +
+           "WHERE s.scheduleDate BETWEEN :startDate AND :endDate " +
+           "AND s.status <> com.example.springboot.entity.enums.ScheduleStatus.cancelled " +
+           "ORDER BY s.scheduleDate ASC")
+    List<ScheduleDemandObservation> findDemandObservations(@Param("startDate") LocalDate startDate,
+                                                           @Param("endDate") LocalDate endDate);
+
+    /**
+     * 原子增加已预约数，不检查总号源数（加号支付成功时使用，加号在总号源之外追加）
+     * @return 更新的记录数
+     */
+    @Modifying
+    @Query(value = "UPDATE schedules SET booked_slots = booked_slots + 1, updated_at = NOW() WHERE schedule_id = :scheduleId", nativeQuery = true)
+    int incrementBookedSlots(@Param("scheduleId") Integer scheduleId);
+
+    /**
+     * 条件原子增加已预约数：仅当已预约数小于总号源数时才增加，数据库层面保证不会超卖
+     * @return 更新的记录数（0 表示号源已满）
+     */
+    @Modifying
+    @Query(value = "UPDATE schedules SET booked_slots = booked_slots + 1, updated_at = NOW() WHERE schedule_id = :scheduleId AND booked_slots < total_slots", nativeQuery = true)
+    int incrementBookedSlotsIfAvailable(@Param("scheduleId") Integer scheduleId);
+
+    /**
+     * 原子减少已预约数，已预约数为 0 时不再减少
+     * @return 更新的记录数（0 表示已预约数已经为 0）
+     */
+    @Modifying
+    @Query(value = "UPDATE schedules SET booked_slots = booked_slots - 1, updated_at = NOW() WHERE schedule_id = :scheduleId AND booked_slots > 0", nativeQuery = true)
+    int decrementBookedSlots(@Param("scheduleId") Integer scheduleId);
+
+    /**
+     * 直接从数据库读取剩余号源数（总号源 - 已预约数），不经过持久化上下文中的实体缓存
+     */
+    @Query(value = "SELECT total_slots - booked_slots FROM schedules WHERE schedule_id = :scheduleId", nativeQuery = true)
+    Integer findRemainingSlots(@Param("scheduleId") Integer scheduleId);
+
+    /**
+     * 原子推进普通就诊序号计数器（Redis 不可用时分配序号使用）：计数器 = max(计数器, floor) + 1
+     * 必须在事务中调用，行锁持有到事务结束，随后用 findLastAppointmentNumber 读取本次分配的序号
+     * @param floor 已使用的最大序号，计数器不会小于该值
+     */
+    @Modifying
+    @Query(value = "UPDATE schedules SET last_appointment_number = GREATEST(last_appointment_number, :floor) + 1 WHERE schedule_id = :scheduleId", nativeQuery = true)
+    int advanceAppointmentNumber(@Param("scheduleId") Integer scheduleId, @Param("floor") Integer floor);
+
+    @Query(value = "SELECT last_appointment_number FROM schedules WHERE schedule_id = :scheduleId", nativeQuery = true)
+    Integer findLastAppointmentNumber(@Param("scheduleId") Integer scheduleId);
+
+    /**
+     * 原子推进加号就诊序号计数器，用法同 advanceAppointmentNumber
+     */
+    @Modifying
+    @Query(value = "UPDATE schedules SET last_add_on_number = GREATEST(last_add_on_number, :floor) + 1 WHERE schedule_id = :scheduleId", nativeQuery = true)
+    int advanceAddOnNumber(@Param("scheduleId") Integer scheduleId, @Param("floor") Integer floor);
+
+    @Query(value = "SELECT last_add_on_number FROM schedules WHERE schedule_id = :scheduleId", nativeQuery = true)
+    Integer findLastAddOnNumber(@Param("scheduleId") Integer scheduleId);
+
 }
\ No newline at end of file
@@ -25,6 +25,7 @@ public interface WaitlistRepository extends JpaRepository<Waitlist, Integer> {
     Page<Waitlist> findByScheduleAndStatusOrderByCreatedAtAsc(Schedule schedule, WaitlistStatus status, Pageable pageable);
     Page<Waitlist> findByScheduleOrderByCreatedAtAsc(Schedule schedule, Pageable pageable);
     long countByScheduleAndStatusAndCreatedAtBefore(Schedule schedule, WaitlistStatus status, LocalDateTime createdAt);
+    long countByScheduleAndStatus(Schedule schedule, WaitlistStatus status);
     
     /**
      * 查询超时的候补记录（状态为 notified，且通知发送时间超过指定时间）
@@ -34,4 +35,16 @@ public interface WaitlistRepository extends JpaRepository<Waitlist, Integer> {
      */
     @Query("SELECT w FROM Waitlist w WHERE w.status = :status AND w.notificationSentAt IS NOT NULL AND w.notificationSentAt < :expireTime")
     List<Waitlist> findExpiredNotifiedWaitlists(@Param("status") WaitlistStatus status, @Param("expireTime") LocalDateTime expireTime);
+
+    /**
+     * 按ID批量查询候补记录（同时加载患者和患者档案，用于候补匹配时批量过滤）
+     */
+    @Query("SELECT w FROM Waitlist w JOIN FETCH w.patient p LEFT JOIN FETCH p.patientProfile WHERE w.waitlistId IN :ids")
+    List<Waitlist> findAllWithPatientByIdIn(@Param("ids") List<Integer> ids);
+
+    /**
+     * 查询指定状态的全部候补记录（同时加载排班、医生，用于重建候补匹配索引）
+     */
+    @Query("SELECT w FROM Waitlist w JOIN FETCH w.schedule s JOIN FETCH s.doctor d WHERE w.status = :status")
+    List<Waitlist> findAllWithScheduleByStatus(@Param("status") WaitlistStatus status);
 }
@@ -10,6 +10,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -18,18 +19,22 @@ import java.util.UUID;
  * 参考候补（Waitlist）的实现方式
  */
 @Service
-public class AddOnSlotService {
+public class AddOnSlotService implements DeadlineHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(AddOnSlotService.class);
     
     // 支付期限配置（小时）
     private static final int PAYMENT_DEADLINE_HOURS = 24;
+    private static final String DEADLINE_TYPE = "add-on-payment";
 
     private final SlotApplicationRepository slotApplicationRepository;
     private final ScheduleRepository scheduleRepository;
     private final AppointmentRepository appointmentRepository;
     private final PatientRepository patientRepository;
     private final NotificationService notificationService;
+    private final SlotInventoryService slotInventoryService;
+    private final AppointmentNumberSequencer appointmentNumberSequencer;
+    private final DeadlineScheduler deadlineScheduler;
 
     @Autowired
     public AddOnSlotService(
@@ -37,12 +42,18 @@ public class AddOnSlotService {
             ScheduleRepository scheduleRepository,
             AppointmentRepository appointmentRepository,
             PatientRepository patientRepository,
-            NotificationService notificationService) {
+            NotificationService notificationService,
+            SlotInventoryService slotInventoryService,
+            AppointmentNumberSequencer appointmentNumberSequencer,
+            DeadlineScheduler deadlineScheduler) {
         this.slotApplicationRepository = slotApplicationRepository;
         this.scheduleRepository = scheduleRepository;
         this.appointmentRepository = appointmentRepository;
         this.patientRepository = patientRepository;
         this.notificationService = notificationService;
+        this.slotInventoryService = slotInventoryService;
+        this.appointmentNumberSequencer = appointmentNumberSequencer;
+        this.deadlineScheduler = deadlineScheduler;
     }
 
     /**
@@ -141,7 +152,8 @@ public class AddOnSlotService {
         logger.info("患者信息 - name: {}, phone: {}", patient.getFullName(), patient.getPhoneNumber());
 
         // 获取下一个就诊序号
-        Integer nextNumber = getNextAppointmentNumber(schedule);
+        // 加号患者使用独立的序号范围（从1001开始），避免与普通预约冲突
+        Integer nextNumber = appointmentNumberSequencer.nextAddOnNumber(schedule);
         logger.info("分配就诊序号: {}", nextNumber);
 
         // 创建预约记录
@@ -165,6 +177,8 @@ public class AddOnSlotService {
         try {
             Appointment saved = appointmentRepository.save(appointment);
             logger.info("预约记录保存成功 - appointmentId: {}", saved.getAppointmentId());
+            // 登记支付截止时间，到期未支付时自动取消（见 onDeadline）
+            deadlineScheduler.schedule(DEADLINE_TYPE, saved.getAppointmentId(), deadline);
             return saved;
         } catch (Exception e) {
             logger.error("保存预约记录失败", e);
@@ -172,26 +186,6 @@ public class AddOnSlotService {
         }
     }
 
-    /**
-     * 获取下一个就诊序号
-     * 加号患者使用独立的序号范围（从101开始），避免与普通预约冲突
-     */
-    private Integer getNextAppointmentNumber(Schedule schedule) {
-        // 加号预约从 101 开始编号
-        Integer maxAddOnNumber = appointmentRepository.findMaxAppointmentNumberByScheduleAndType(
-                schedule, AppointmentType.ADD_ON);
-        
-        Integer nextNumber;
-        if (maxAddOnNumber == null || maxAddOnNumber < 101) {
-            nextNumber = 101; // 第一个加号从101开始
-        } else {
-            nextNumber = maxAddOnNumber + 1;
-        }
-        
-        logger.info("分配加号序号 - 当前最大加号序号: {}, 新序号: {}", maxAddOnNumber, nextNumber);
-        return nextNumber;
-    }
-
     /**
      * 发送通知
      */
@@ -266,11 +260,10 @@ public class AddOnSlotService {
         appointment.setUpdatedAt(LocalDateTime.now());
         appointmentRepository.save(appointment);
 
-        // 更新排班的已预约数（加号支付成功后才占用号源）
+        // 更新排班的已预约数（加号支付成功后才占用号源，加号不受总号源数限制）
         Schedule schedule = appointment.getSchedule();
         Integer currentBooked = schedule.getBookedSlots();
-        schedule.setBookedSlots(currentBooked + 1);
-        scheduleRepository.save(schedule);
+        slotInventoryService.acquireBeyondCapacity(schedule);
         
         logger.info("更新排班已预约数 - scheduleId: {}, 原已预约: {}, 新已预约: {}",
                 schedule.getScheduleId(), currentBooked, schedule.getBookedSlots());
@@ -295,4 +288,104 @@ public class AddOnSlotService {
             logger.error("发送支付成功通知失败", e);
         }
     }
+
+    /**
+     * 取消所有超时未支付的加号预约（兜底扫描，正常情况下由 onDeadline 在到期时逐条处理）
+     *
+     * @return 取消的预约数
+     */
+    @Transactional
+    public int expireOverduePayments() {
+        // 查询超时未支付的加号预约（参考候补的expireNotifiedWaitlists）
+        List<Appointment> expiredAppointments = appointmentRepository.findExpiredAddOnPayments(
+                AppointmentType.ADD_ON,
+                AppointmentStatus.PENDING_PAYMENT,
+                LocalDateTime.now()
+        );
+        if (expiredAppointments.isEmpty()) {
+            logger.debug("没有超时的加号预约");
+            return 0;
+        }
+
+        logger.info("找到 {} 个超时的加号预约", expiredAppointments.size());
+        int expired = 0;
+        for (Appointment appointment : expiredAppointments) {
+            try {
+                expirePayment(appointment);
+                expired++;
+            } catch (Exception e) {
+                logger.error("处理超时预约失败 - appointmentId: {}", 
+                        appointment.getAppointmentId(), e);
+                // 单个失败不影响其他记录的处理
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public String deadlineType() {
+        return DEADLINE_TYPE;
+    }
+
+    /**
+     * 加号支付截止时间到达：仍未支付时取消预约
+     */
+    @Override
+    @Transactional
+    public void onDeadline(String id) {
+        Appointment appointment = appointmentRepository.findById(Integer.valueOf(id)).orElse(null);
+        if (appointment == null
+                || appointment.getAppointmentType() != AppointmentType.ADD_ON
+                || appointment.getStatus() != AppointmentStatus.PENDING_PAYMENT
+                || appointment.getPaymentDeadline() == null
+                || appointment.getPaymentDeadline().isAfter(LocalDateTime.now())) {
+            return; // 已支付、已取消或已被兜底扫描处理
+        }
+        expirePayment(appointment);
+    }
+
+    /**
+     * 取消单个超时未支付的加号预约并通知患者
+     */
+    private void expirePayment(Appointment appointment) {
+        logger.info("处理超时加号预约 - appointmentId: {}, patientId: {}, deadline: {}", 
+                appointment.getAppointmentId(),
+                appointment.getPatient().getPatientId(),
+                appointment.getPaymentDeadline());
+
+        // 1. 取消预约
+        appointment.setStatus(AppointmentStatus.cancelled);
+        appointment.setUpdatedAt(LocalDateTime.now());
+        appointmentRepository.save(appointment);
+        logger.info("预约已取消 - appointmentId: {}", appointment.getAppointmentId());
+
+        // 2. 释放加号号源
+        // 注意：加号采用预留机制，支付前不占用bookedSlots，因此超时时无需修改号源数量
+        // 只需取消预约即可，号源会自动释放
+        logger.info("加号预约已取消，号源自动释放（预留机制）- scheduleId: {}", 
+                appointment.getSchedule().getScheduleId());
+
+        // 3. 通知患者
+        try {
+            com.example.springboot.dto.notification.NotificationCreateRequest notification = 
+                new com.example.springboot.dto.notification.NotificationCreateRequest();
+            notification.setUserId(appointment.getPatient().getPatientId().intValue());
+            notification.setUserType(com.example.springboot.entity.enums.UserType.patient);
+            notification.setType(com.example.springboot.entity.enums.NotificationType.cancellation);
+            notification.setTitle("加号已失效");
+            notification.setContent(String.format("由于未在规定时间内完成支付，您的加号预约（预约号: %d）已自动取消。如需就诊，请重新申请。",
+                    appointment.getAppointmentId()));
+            notification.setRelatedEntity("appointment");
+            notification.setRelatedId(appointment.getAppointmentId());
+            notification.setPriority(com.example.springboot.entity.enums.NotificationPriority.high);
+            notificationService.createNotification(notification);
+            
+            logger.info("已发送超时通知给患者 - patientId: {}", 
+                    appointment.getPatient().getPatientId());
+        } catch (Exception e) {
+            logger.error("发送超时通知失败 - patientId: {}", 
+                    appointment.getPatient().getPatientId(), e);
+            // 通知失败不影响主流程
+        }
+    }
 }
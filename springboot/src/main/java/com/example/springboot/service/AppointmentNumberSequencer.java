@@ -0,0 +1,160 @@
+package com.example.springboot.service;
+
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.enums.AppointmentType;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.repository.AppointmentRepository;
+import com.example.springboot.repository.ScheduleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 就诊序号分配器
+ * 每个排班在 Redis 中维护一个序号计数器，通过一次原子 INCR 分配序号，
+ * 替代每次预约都执行的 MAX(appointment_number) 查询，并保证并发预约不会拿到相同的序号。
+ *
+ * 序号范围（互不重叠）：
+ * - 普通预约、现场挂号、候补转预约：1 ~ 1000，用完后拒绝预约
+ * - 加号（AppointmentType.ADD_ON）：从 1001 开始，使用独立的计数器
+ *
+ * 计数器不存在时（首次使用或过期）从数据库中的最大序号加载。
+ * Redis 不可用时在 schedules 行上原子递增计数器字段分配序号（预约事务本来就会更新该行，不增加锁竞争）；
+ * Redis 分配时以排班实体上读到的计数器字段为下限，Redis 恢复后不会与降级期间分配的序号重复。
+ * 事务回滚时已分配的序号不会回收，序号可能出现空号，但不会重复。
+ */
+@Service
+public class AppointmentNumberSequencer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppointmentNumberSequencer.class);
+
+    private static final String SEQUENCE_KEY_PREFIX = "appointment:seq:";
+    private static final String ADD_ON_SEQUENCE_KEY_PREFIX = "appointment:seq:addon:";
+    private static final long SEQUENCE_EXPIRE_HOURS = 48;
+
+    // 加号序号从 1001 开始，普通序号不超过 1000
+    public static final int ADD_ON_NUMBER_START = 1001;
+
+    /** 计数器不存在，需要先从数据库加载 */
+    private static final long NOT_LOADED = -1L;
+
+    /**
+     * 分配脚本：计数器存在时加 1 并续期，返回新序号；不存在返回 -1
+     * 新序号不大于 ARGV[2]（数据库计数器，降级期间分配过的最大序号）时跳到 ARGV[2] + 1
+     */
+    private static final DefaultRedisScript<Long> NEXT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end " +
+            "local n = redis.call('INCR', KEYS[1]) " +
+            "local floor = tonumber(ARGV[2]) " +
+            "if n <= floor then n = floor + 1 redis.call('SET', KEYS[1], n) end " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "return n",
+            Long.class);
+
+    private final AppointmentRepository appointmentRepository;
+    private final ScheduleRepository scheduleRepository;
+    private final RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    public AppointmentNumberSequencer(AppointmentRepository appointmentRepository,
+                                      ScheduleRepository scheduleRepository,
+                                      RedisTemplate<String, String> redisTemplate) {
+        this.appointmentRepository = appointmentRepository;
+        this.scheduleRepository = scheduleRepository;
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 分配普通就诊序号（预约、现场挂号、候补转预约、恢复已取消的预约）
+     * 必须在预约事务中调用
+     *
+     * @throws BadRequestException 该排班的普通序号已用完
+     */
+    @Transactional
+    public int nextNumber(Schedule schedule) {
+        int number = next(schedule, false);
+        if (number >= ADD_ON_NUMBER_START) {
+            logger.warn("排班的普通就诊序号已用完 - scheduleId: {}, 序号: {}", schedule.getScheduleId(), number);
+            throw new BadRequestException("该排班的就诊序号已用完，无法预约");
+        }
+        return number;
+    }
+
+    /**
+     * 分配加号就诊序号（1001 起）
+     * 必须在加号事务中调用
+     */
+    @Transactional
+    public int nextAddOnNumber(Schedule schedule) {
+        return next(schedule, true);
+    }
+
+    private int next(Schedule schedule, boolean addOn) {
+        String key = (addOn ? ADD_ON_SEQUENCE_KEY_PREFIX : SEQUENCE_KEY_PREFIX) + schedule.getScheduleId();
+        String expireSeconds = String.valueOf(TimeUnit.HOURS.toSeconds(SEQUENCE_EXPIRE_HOURS));
+        Integer counter = addOn ? schedule.getLastAddOnNumber() : schedule.getLastAppointmentNumber();
+        String floor = String.valueOf(counter != null ? counter : 0);
+        try {
+            Long number = redisTemplate.execute(NEXT_SCRIPT, Collections.singletonList(key), expireSeconds, floor);
+            if (number != null && number == NOT_LOADED) {
+                // 多个请求同时加载时只有一个生效，其余请求直接在其基础上 INCR
+                redisTemplate.opsForValue().setIfAbsent(key, String.valueOf(loadCurrentMax(schedule, addOn)),
+                        SEQUENCE_EXPIRE_HOURS, TimeUnit.HOURS);
+                number = redisTemplate.execute(NEXT_SCRIPT, Collections.singletonList(key), expireSeconds, floor);
+            }
+            if (number != null && number > 0) {
+                return number.intValue();
+            }
+        } catch (Exception e) {
+            logger.warn("Redis 分配就诊序号失败，退化为数据库计数器 - scheduleId: {}, 错误: {}",
+                    schedule.getScheduleId(), e.getMessage());
+        }
+        return nextFromDatabase(schedule, addOn);
+    }
+
+    /**
+     * 在排班行上原子递增计数器分配序号，计数器不小于已使用的最大序号
+     * 行锁持有到事务结束，并发请求依次递增，不会拿到相同的序号
+     */
+    private int nextFromDatabase(Schedule schedule, boolean addOn) {
+        Integer scheduleId = schedule.getScheduleId();
+        int currentMax = loadCurrentMax(schedule, addOn);
+        Integer number;
+        if (addOn) {
+            scheduleRepository.advanceAddOnNumber(scheduleId, currentMax);
+            number = scheduleRepository.findLastAddOnNumber(scheduleId);
+            schedule.setLastAddOnNumber(number);
+        } else {
+            scheduleRepository.advanceAppointmentNumber(scheduleId, currentMax);
+            number = scheduleRepository.findLastAppointmentNumber(scheduleId);
+            schedule.setLastAppointmentNumber(number);
+        }
+        if (number == null) {
+            throw new IllegalStateException("排班不存在，无法分配就诊序号 - scheduleId: " + scheduleId);
+        }
+        return number;
+    }
+
+    /**
+     * 从数据库读取当前已使用的最大序号
+     */
+    private int loadCurrentMax(Schedule schedule, boolean addOn) {
+        if (addOn) {
+            Integer maxAddOnNumber = appointmentRepository.findMaxAppointmentNumberByScheduleAndType(
+                    schedule, AppointmentType.ADD_ON);
+            return (maxAddOnNumber == null || maxAddOnNumber < ADD_ON_NUMBER_START)
+                    ? ADD_ON_NUMBER_START - 1
+                    : maxAddOnNumber;
+        }
+        Integer maxNumber = appointmentRepository.findMaxAppointmentNumberByScheduleExcludingType(
+                schedule, AppointmentType.ADD_ON);
+        return maxNumber == null ? 0 : maxNumber;
+    }
+}
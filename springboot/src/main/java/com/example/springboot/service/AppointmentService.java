@@ -1,6 +1,5 @@
 package com.example.springboot.service;
 
-import com.example.springboot.common.Constants;
 import com.example.springboot.dto.appointment.AppointmentCreateRequest;
 import com.example.springboot.dto.appointment.AppointmentResponse;
 import com.example.springboot.dto.appointment.AppointmentUpdateRequest;
@@ -12,6 +11,9 @@ import com.example.springboot.entity.Appointment;
 import com.example.springboot.entity.Patient;
 import com.example.springboot.entity.Schedule;
 import com.example.springboot.entity.enums.*;
+import com.example.springboot.event.AppointmentEventBus;
+import com.example.springboot.event.AppointmentEventListener;
+import com.example.springboot.event.AppointmentLifecycleEvent;
 import com.example.springboot.exception.BadRequestException;
 import com.example.springboot.exception.ResourceNotFoundException;
 import com.example.springboot.repository.AppointmentRepository;
@@ -19,26 +21,22 @@ import com.example.springboot.repository.PatientRepository;
 import com.example.springboot.repository.ScheduleRepository;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Lazy;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
-import java.util.Random;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
-public class AppointmentService {
+public class AppointmentService implements AppointmentEventListener {
 
     private static final Logger logger = LoggerFactory.getLogger(AppointmentService.class);
 
@@ -51,12 +49,12 @@ public class AppointmentService {
     private final TimeSlotService timeSlotService; // To get TimeSlot details for response
     private final ScheduleService scheduleService;
     private final NotificationService notificationService;
-    private final WaitlistService waitlistService;
+    private final SlotInventoryService slotInventoryService;
+    private final AppointmentNumberSequencer appointmentNumberSequencer;
+    private final AppointmentEventBus appointmentEventBus;
+    private final CallQueueEngine callQueueEngine;
+    private final QrTokenService qrTokenService;
     
-    @Autowired
-    private RedisTemplate<String, String> redisTemplate;
-    
-    private static final String QR_TOKEN_PREFIX = "qr:token:";
     private static final int QR_TOKEN_MIN_EXPIRE_SECONDS = 1800; // 最小30分钟过期
     private static final int QR_REFRESH_INTERVAL_SECONDS = 60; // 建议60秒刷新一次
     // 签到时间限制：已改为随到随签，只要在工作时间结束之前都可以签到
@@ -72,7 +70,11 @@ public class AppointmentService {
                               TimeSlotService timeSlotService,
                               ScheduleService scheduleService,
                               NotificationService notificationService,
-                              @Lazy WaitlistService waitlistService) {
+                              SlotInventoryService slotInventoryService,
+                              AppointmentNumberSequencer appointmentNumberSequencer,
+                              AppointmentEventBus appointmentEventBus,
+                              CallQueueEngine callQueueEngine,
+                              QrTokenService qrTokenService) {
         this.appointmentRepository = appointmentRepository;
         this.patientRepository = patientRepository;
         this.scheduleRepository = scheduleRepository;
@@ -82,7 +84,11 @@ public class AppointmentService {
         this.timeSlotService = timeSlotService;
         this.scheduleService = scheduleService;
         this.notificationService = notificationService;
-        this.waitlistService = waitlistService;
+        this.slotInventoryService = slotInventoryService;
+        this.appointmentNumberSequencer = appointmentNumberSequencer;
+        this.appointmentEventBus = appointmentEventBus;
+        this.callQueueEngine = callQueueEngine;
+        this.qrTokenService = qrTokenService;
     }
 
     @Transactional(readOnly = true)
@@ -122,10 +128,6 @@ public class AppointmentService {
         if (schedule.getStatus() != ScheduleStatus.available) {
             throw new BadRequestException("Schedule is not active for booking.");
         }
-        if (schedule.getBookedSlots() >= schedule.getTotalSlots()) {
-            System.out.println("创建预约失败 - 号源已满: bookedSlots(" + schedule.getBookedSlots() + ") >= totalSlots(" + schedule.getTotalSlots() + ")");
-            throw new BadRequestException("No available slots for this schedule.");
-        }
         if (schedule.getScheduleDate().isBefore(java.time.LocalDate.now()) ||
                 (schedule.getScheduleDate().isEqual(java.time.LocalDate.now()) && schedule.getSlot().getEndTime().isBefore(java.time.LocalTime.now()))) {
             throw new BadRequestException("Cannot book past or ongoing schedules.");
@@ -136,60 +138,26 @@ public class AppointmentService {
             throw new BadRequestException("Patient already has an appointment for this schedule.");
         }
 
+        // 通过号源库存原子占用号源（同时更新排班的已预约数），事务回滚时自动归还
+        if (!slotInventoryService.tryAcquire(schedule)) {
+            System.out.println("创建预约失败 - 号源已满: scheduleId(" + schedule.getScheduleId() + "), totalSlots(" + schedule.getTotalSlots() + ")");
+            throw new BadRequestException("No available slots for this schedule.");
+        }
+
         Appointment appointment = new Appointment();
         appointment.setPatient(patient);
         appointment.setSchedule(schedule);
-        appointment.setAppointmentNumber(getNextAppointmentNumberForRebooking(schedule, patient)); // 自动分配就诊序号
+        appointment.setAppointmentNumber(appointmentNumberSequencer.nextNumber(schedule)); // 自动分配就诊序号
         appointment.setStatus(AppointmentStatus.scheduled); // 初始状态为待支付
         appointment.setPaymentStatus(PaymentStatus.unpaid);
         appointment.setCreatedAt(LocalDateTime.now());
 
-        // 增加排班的已预约数
-        schedule.setBookedSlots(schedule.getBookedSlots() + 1);
-        scheduleRepository.save(schedule); // 保存更新后的排班信息
-
         Appointment savedAppointment = appointmentRepository.save(appointment);
 
-        // 发送预约通知
-        try {
-            String departmentName = "未知科室";
-            String doctorName = "未知医生";
-            String scheduleDate = "";
-            String slotName = "";
-            String locationName = "";
-            
-            if (schedule != null) {
-                if (schedule.getDoctor() != null && schedule.getDoctor().getDepartment() != null) {
-                    departmentName = schedule.getDoctor().getDepartment().getName();
-                }
-                if (schedule.getDoctor() != null) {
-                    doctorName = schedule.getDoctor().getFullName();
-                }
-                if (schedule.getScheduleDate() != null) {
-                    scheduleDate = schedule.getScheduleDate().toString();
-                }
-                if (schedule.getSlot() != null) {
-                    slotName = schedule.getSlot().getSlotName();
-                }
-                if (schedule.getLocation() != null) {
-                    locationName = schedule.getLocation().getName();
-                }
-            }
-            
-            notificationService.sendAppointmentNotification(
-                    patient.getPatientId().intValue(),
-                    savedAppointment.getAppointmentId(),
-                    departmentName,
-                    doctorName,
-                    scheduleDate,
-                    slotName,
-                    locationName,
-                    savedAppointment.getAppointmentNumber()
-            );
-        } catch (Exception e) {
-            // 通知发送失败不影响预约创建流程，只记录日志
-            logger.error("发送预约通知失败 - 预约ID: {}, 错误: {}", savedAppointment.getAppointmentId(), e.getMessage());
-        }
+        // 预约通知由事件监听器在事务提交后发送
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.AppointmentCreated(
+                savedAppointment.getAppointmentId(), schedule.getScheduleId(), patient.getPatientId(),
+                false, LocalDateTime.now()));
 
         return convertToResponseDto(savedAppointment);
     }
@@ -219,9 +187,6 @@ public class AppointmentService {
         if (schedule.getStatus() != ScheduleStatus.available) {
             throw new BadRequestException("Schedule is not active for booking.");
         }
-        if (schedule.getBookedSlots() >= schedule.getTotalSlots()) {
-            throw new BadRequestException("No available slots for this schedule.");
-        }
         if (schedule.getScheduleDate().isBefore(java.time.LocalDate.now()) ||
                 (schedule.getScheduleDate().isEqual(java.time.LocalDate.now()) && schedule.getSlot().getEndTime().isBefore(java.time.LocalTime.now()))) {
             throw new BadRequestException("Cannot book past or ongoing schedules.");
@@ -232,24 +197,31 @@ public class AppointmentService {
             throw new BadRequestException("Patient already has an appointment for this schedule.");
         }
 
+        // 通过号源库存原子占用号源（同时更新排班的已预约数），事务回滚时自动归还
+        if (!slotInventoryService.tryAcquire(schedule)) {
+            System.out.println("创建预约失败 - 号源已满: scheduleId(" + schedule.getScheduleId() + "), totalSlots(" + schedule.getTotalSlots() + ")");
+            throw new BadRequestException("No available slots for this schedule.");
+        }
+
         Appointment appointment = new Appointment();
         appointment.setPatient(patient);
         appointment.setSchedule(schedule);
-        appointment.setAppointmentNumber(getNextAppointmentNumberForRebooking(schedule, patient));
+        appointment.setAppointmentNumber(appointmentNumberSequencer.nextNumber(schedule));
         appointment.setStatus(AppointmentStatus.scheduled); // 现场挂号创建后为已预约状态
         appointment.setPaymentStatus(PaymentStatus.unpaid); // 现场挂号需要现场缴费，初始为未支付
         appointment.setIsWalkIn(true); // 标记为现场挂号
         appointment.setAppointmentType(AppointmentType.WALK_IN); // 设置预约类型为现场挂号
         appointment.setCreatedAt(LocalDateTime.now());
 
-        // 增加排班的已预约数
-        schedule.setBookedSlots(schedule.getBookedSlots() + 1);
-        scheduleRepository.save(schedule);
+        Appointment savedAppointment = appointmentRepository.save(appointment);
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.AppointmentCreated(
+                savedAppointment.getAppointmentId(), schedule.getScheduleId(), patient.getPatientId(),
+                true, LocalDateTime.now()));
 
         logger.info("现场挂号创建成功 - 预约ID: {}, 患者: {}, 排班ID: {}", 
-                appointment.getAppointmentId(), patient.getFullName(), schedule.getScheduleId());
+                savedAppointment.getAppointmentId(), patient.getFullName(), schedule.getScheduleId());
 
-        return convertToResponseDto(appointmentRepository.save(appointment));
+        return convertToResponseDto(savedAppointment);
     }
 
     @Transactional
@@ -274,63 +246,23 @@ public class AppointmentService {
                 
                 System.out.println("取消预约 - appointmentId: " + existingAppointment.getAppointmentId() + ", scheduleId: " + schedule.getScheduleId() + ", 取消前 bookedSlots: " + schedule.getBookedSlots());
                 
-                // 确保 bookedSlots 不会小于 0
-                int currentBookedSlots = schedule.getBookedSlots();
-                if (currentBookedSlots > 0) {
-                    schedule.setBookedSlots(currentBookedSlots - 1);
-                    scheduleRepository.save(schedule);
+                // 通过号源库存归还号源（bookedSlots 为 0 时不会再减少）
+                if (slotInventoryService.release(schedule)) {
                     System.out.println("取消预约后 - bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
                 } else {
-                    System.out.println("警告：取消预约时 bookedSlots 已经是 0 或负数(" + currentBookedSlots + ")，无法减少");
+                    System.out.println("警告：取消预约时 bookedSlots 已经是 0，无法减少");
                 }
                 
-                // 取消预约后，触发候补自动填充
-                // 注意：这里 schedule.getBookedSlots() 已经是减少后的值了
-                System.out.println("取消预约后，检查候补填充 - bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
-                if (schedule.getBookedSlots() < schedule.getTotalSlots()) {
-                    // 有空余号源，尝试从候补队列中填充
-                    try {
-                        // 刷新 schedule 对象，确保获取最新的 bookedSlots 值
-                        schedule = scheduleRepository.findById(schedule.getScheduleId())
-                                .orElseThrow(() -> new ResourceNotFoundException("Schedule not found"));
-                        
-                        System.out.println("刷新后检查 - bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
-                        // 再次检查是否有空余号源（防止并发问题）
-                        if (schedule.getBookedSlots() < schedule.getTotalSlots()) {
-                            System.out.println("开始触发候补自动填充，scheduleId: " + schedule.getScheduleId());
-                            Appointment filledAppointment = waitlistService.createAppointmentFromWaitlist(schedule.getScheduleId());
-                            if (filledAppointment != null) {
-                                System.out.println("候补填充成功，创建预约ID: " + filledAppointment.getAppointmentId());
-                            } else {
-                                System.out.println("候补填充返回null，可能没有可用的候补或候补不符合条件");
-                            }
-                        } else {
-                            System.out.println("刷新后发现号源已满，跳过候补填充");
-                        }
-                    } catch (Exception e) {
-                        // 候补填充失败不影响取消预约流程，只记录日志
-                        System.err.println("Failed to fill waitlist after appointment cancellation: " + e.getMessage());
-                        e.printStackTrace(); // 打印完整堆栈，便于调试
-                    }
-                } else {
-                    System.out.println("取消预约后号源仍满，无需候补填充");
-                }
+                // 候补自动填充和取消通知由事件监听器在事务提交后处理
+                appointmentEventBus.publish(new AppointmentLifecycleEvent.AppointmentCancelled(
+                        existingAppointment.getAppointmentId(), schedule.getScheduleId(),
+                        existingAppointment.getPatient().getPatientId(), LocalDateTime.now()));
             } else if (newStatus == AppointmentStatus.NO_SHOW && originalStatus != AppointmentStatus.NO_SHOW) {
-                // 如果是爽约，增加患者爽约次数并检查是否加入黑名单
-                Patient patient = existingAppointment.getPatient();
-                if (patient.getPatientProfile() != null) {
-                    patient.getPatientProfile().setNoShowCount(patient.getPatientProfile().getNoShowCount() + 1);
-                    if (patient.getPatientProfile().getNoShowCount() >= Constants.MAX_NO_SHOW_COUNT) {
-                        patient.getPatientProfile().setBlacklistStatus(BlacklistStatus.blacklisted);
-                    }
-                    patientService.savePatientProfile(patient.getPatientProfile()); // 更新患者档案
-                }
-                // 爽约也应减少号源
-                Schedule schedule = existingAppointment.getSchedule();
-                if (schedule.getBookedSlots() > 0) {
-                    schedule.setBookedSlots(schedule.getBookedSlots() - 1);
-                    scheduleRepository.save(schedule);
-                }
+                // 爽约应减少号源；患者爽约次数和黑名单由事件监听器在事务提交后更新
+                slotInventoryService.release(existingAppointment.getSchedule());
+                appointmentEventBus.publish(new AppointmentLifecycleEvent.NoShow(
+                        existingAppointment.getAppointmentId(), existingAppointment.getSchedule().getScheduleId(),
+                        existingAppointment.getPatient().getPatientId(), LocalDateTime.now()));
             } else if (newStatus == AppointmentStatus.cancelled && originalStatus == AppointmentStatus.CHECKED_IN) {
                 // 已签到的预约不能取消
                 throw new BadRequestException("已签到的预约不能取消，如需取消请联系管理员");
@@ -347,15 +279,15 @@ public class AppointmentService {
         // 如果请求中包含 checkInTime，忽略它（避免误操作）
         // if (request.getCheckInTime() != null) existingAppointment.setCheckInTime(request.getCheckInTime());
 
-        if (shouldAssignNewNumber) {
-            existingAppointment.setAppointmentNumber(
-                    getNextAppointmentNumberForRebooking(existingAppointment.getSchedule(), existingAppointment.getPatient()));
+        if (shouldRestoreSlots) {
+            // 恢复已取消的预约需要重新占用号源，号源已满时不允许恢复
+            if (!slotInventoryService.tryAcquire(existingAppointment.getSchedule())) {
+                throw new BadRequestException("No available slots for this schedule.");
+            }
         }
 
-        if (shouldRestoreSlots) {
-            Schedule schedule = existingAppointment.getSchedule();
-            schedule.setBookedSlots(schedule.getBookedSlots() + 1);
-            scheduleRepository.save(schedule);
+        if (shouldAssignNewNumber) {
+            existingAppointment.setAppointmentNumber(appointmentNumberSequencer.nextNumber(existingAppointment.getSchedule()));
         }
 
         return convertToResponseDto(appointmentRepository.save(existingAppointment));
@@ -367,11 +299,7 @@ public class AppointmentService {
                 .orElseThrow(() -> new ResourceNotFoundException("Appointment not found with id " + id));
 
         // 删除预约时，应减少对应排班的已预约数
-        Schedule schedule = appointment.getSchedule();
-        if (schedule.getBookedSlots() > 0) {
-            schedule.setBookedSlots(schedule.getBookedSlots() - 1);
-            scheduleRepository.save(schedule);
-        }
+        slotInventoryService.release(appointment.getSchedule());
         appointmentRepository.delete(appointment);
     }
 
@@ -444,48 +372,8 @@ public class AppointmentService {
 
         AppointmentUpdateRequest request = new AppointmentUpdateRequest();
         request.setStatus(AppointmentStatus.cancelled);
-        AppointmentResponse response = updateAppointment(appointmentId, request);
-        
-        // 注意：候补自动填充已在 updateAppointment 方法中处理（当状态变为 cancelled 时）
-        // 这里只需要发送通知即可
-        
-        // 取消预约后发送通知
-        try {
-            Schedule schedule = appointment.getSchedule();
-            String departmentName = "未知科室";
-            String doctorName = "未知医生";
-            String scheduleDate = "";
-            String slotName = "";
-            
-            if (schedule != null) {
-                if (schedule.getDoctor() != null && schedule.getDoctor().getDepartment() != null) {
-                    departmentName = schedule.getDoctor().getDepartment().getName();
-                }
-                if (schedule.getDoctor() != null) {
-                    doctorName = schedule.getDoctor().getFullName();
-                }
-                if (schedule.getScheduleDate() != null) {
-                    scheduleDate = schedule.getScheduleDate().toString();
-                }
-                if (schedule.getSlot() != null) {
-                    slotName = schedule.getSlot().getSlotName();
-                }
-            }
-            
-            notificationService.sendCancellationNotification(
-                    appointment.getPatient().getPatientId().intValue(),
-                    appointmentId,
-                    departmentName,
-                    doctorName,
-                    scheduleDate,
-                    slotName
-            );
-        } catch (Exception e) {
-            // 通知发送失败不影响取消流程，只记录日志
-            System.err.println("Failed to send cancellation notification: " + e.getMessage());
-        }
-        
-        return response;
+        // 号源归还、候补自动填充和取消通知都在 updateAppointment 中处理（通过预约取消事件）
+        return updateAppointment(appointmentId, request);
     }
 
     @Transactional
@@ -598,20 +486,6 @@ public class AppointmentService {
         return convertToResponseDto(appointment);
     }
 
-    private int getNextAppointmentNumberForRebooking(Schedule schedule, Patient patient) {
-        Appointment lastAppointment = appointmentRepository.findTopByScheduleOrderByAppointmentNumberDesc(schedule);
-        int baseNumber = (lastAppointment == null || lastAppointment.getAppointmentNumber() == null)
-                ? 0
-                : lastAppointment.getAppointmentNumber();
-
-        if (lastAppointment != null && lastAppointment.getPatient() != null
-                && Objects.equals(lastAppointment.getPatient().getPatientId(), patient.getPatientId())) {
-            return baseNumber + 1;
-        }
-
-        return baseNumber + 1;
-    }
-
     private boolean isActiveStatus(AppointmentStatus status) {
         return status == AppointmentStatus.scheduled || 
                status == AppointmentStatus.PENDING_PAYMENT || 
@@ -683,35 +557,9 @@ public class AppointmentService {
                 QR_TOKEN_MIN_EXPIRE_SECONDS / 60, QR_TOKEN_MIN_EXPIRE_SECONDS,
                 expireMinutes, expireSeconds);
         
-        // 生成Token
-        long timestamp = System.currentTimeMillis();
-        String random = generateRandomString(6); // 6位随机字符串
-        String qrToken = String.format("APPOINTMENT_%d_%d_%s", appointmentId, timestamp, random);
-        logger.info("Token生成成功 - Token: {}, 生成时间戳: {}", qrToken, timestamp);
-
-        // 5. 存储到Redis（动态过期时间：排班结束时间或最小30分钟，取较大值）
-        String redisKey = QR_TOKEN_PREFIX + qrToken;
-        try {
-            redisTemplate.opsForValue().set(redisKey, 
-                    String.valueOf(appointmentId), 
-                    expireSeconds, 
-                    TimeUnit.SECONDS);
-            logger.info("Token已存储到Redis - Redis Key: {}, 预约ID: {}, 过期时间: {}秒 ({}分钟)", 
-                    redisKey, appointmentId, expireSeconds, expireMinutes);
-            
-            // 验证Redis存储是否成功
-            String storedValue = redisTemplate.opsForValue().get(redisKey);
-            if (storedValue != null && storedValue.equals(String.valueOf(appointmentId))) {
-                logger.info("Redis存储验证成功 - Key: {}, Value: {}", redisKey, storedValue);
-            } else {
-                logger.error("Redis存储验证失败 - Key: {}, 期望值: {}, 实际值: {}", 
-                        redisKey, appointmentId, storedValue);
-            }
-        } catch (Exception e) {
-            logger.error("Redis存储失败 - Key: {}, 预约ID: {}, 错误信息: {}", 
-                    redisKey, appointmentId, e.getMessage(), e);
-            throw new BadRequestException("二维码Token存储失败，请重试");
-        }
+        // 5. 签发Token（自带预约ID和过期时间并签名，签到时本地校验，不再存储到Redis）
+        String qrToken = qrTokenService.issue(appointmentId, Instant.now().plusSeconds(expireSeconds));
+        logger.info("Token生成成功 - Token: {}, 过期时间: {}秒 ({}分钟)", qrToken, expireSeconds, expireMinutes);
 
         // 6. 返回响应
         QrCodeResponse response = new QrCodeResponse();
@@ -742,44 +590,10 @@ public class AppointmentService {
             throw new BadRequestException("二维码Token不能为空");
         }
 
-        // 1. 从Redis查询Token对应的预约ID
-        String redisKey = QR_TOKEN_PREFIX + qrToken;
-        logger.info("查询Redis - Key: {}", redisKey);
-        
-        String appointmentIdStr = null;
-        try {
-            appointmentIdStr = redisTemplate.opsForValue().get(redisKey);
-            logger.info("Redis查询结果 - Key: {}, Value: {}", redisKey, appointmentIdStr);
-        } catch (Exception e) {
-            logger.error("Redis查询失败 - Key: {}, 错误信息: {}", redisKey, e.getMessage(), e);
-            throw new BadRequestException("二维码验证失败，请重试");
-        }
-
-        if (appointmentIdStr == null) {
-            logger.warn("二维码Token在Redis中不存在或已过期 - Token: {}, Redis Key: {}", qrToken, redisKey);
-            
-            // 尝试解析Token获取预约ID（用于调试）
-            try {
-                String[] tokenParts = qrToken.split("_");
-                if (tokenParts.length >= 2) {
-                    String possibleAppointmentId = tokenParts[1];
-                    logger.info("从Token解析可能的预约ID: {}", possibleAppointmentId);
-                }
-            } catch (Exception e) {
-                logger.debug("Token解析失败: {}", e.getMessage());
-            }
-            
-            throw new BadRequestException("二维码已过期或无效，请患者刷新二维码后重试");
-        }
-
-        final Integer appointmentId;
-        try {
-            appointmentId = Integer.parseInt(appointmentIdStr);
-            logger.info("预约ID解析成功: {}", appointmentId);
-        } catch (NumberFormatException e) {
-            logger.error("预约ID格式错误 - 原始值: {}, 错误信息: {}", appointmentIdStr, e.getMessage());
-            throw new BadRequestException("二维码Token格式错误，请刷新二维码后重试");
-        }
+        // 1. 本地校验Token签名、过期时间和是否已使用
+        QrTokenService.QrToken verifiedToken = qrTokenService.verify(qrToken);
+        final Integer appointmentId = verifiedToken.appointmentId();
+        logger.info("Token校验通过 - 预约ID: {}", appointmentId);
 
         // 2. 查询预约
         Appointment appointment = appointmentRepository.findById(appointmentId)
@@ -793,14 +607,6 @@ public class AppointmentService {
 
         // 3. 验证预约状态（必须是 scheduled，已签到的不能重复签到）
         if (appointment.getStatus() == AppointmentStatus.CHECKED_IN) {
-            // Token已使用，删除Token
-            try {
-                redisTemplate.delete(redisKey);
-                logger.info("已删除Redis中的Token - Key: {}", redisKey);
-            } catch (Exception e) {
-                logger.error("删除Redis Token失败 - Key: {}, 错误: {}", redisKey, e.getMessage());
-            }
-
             String errorMessage = String.format(
                 "该预约已签到（签到时间：%s），请勿重复操作。预约ID：%d。",
                 appointment.getCheckInTime(), appointmentId
@@ -811,13 +617,6 @@ public class AppointmentService {
         if (appointment.getStatus() != AppointmentStatus.scheduled) {
             logger.warn("预约状态不正确，无法签到 - 预约ID: {}, 当前状态: {}, 期望状态: scheduled", 
                     appointmentId, appointment.getStatus());
-            // Token已使用，删除Token
-            try {
-                redisTemplate.delete(redisKey);
-                logger.info("已删除Redis中的Token - Key: {}", redisKey);
-            } catch (Exception e) {
-                logger.error("删除Redis Token失败 - Key: {}, 错误: {}", redisKey, e.getMessage());
-            }
             throw new BadRequestException("预约状态不正确，无法签到。当前状态: " + appointment.getStatus() + "，只有已预约（scheduled）状态的预约才能签到。");
         }
         logger.info("预约状态验证通过 - 状态: scheduled");
@@ -829,11 +628,6 @@ public class AppointmentService {
                     appointmentId, schedule != null, 
                     schedule != null ? schedule.getScheduleDate() : null,
                     schedule != null && schedule.getSlot() != null ? schedule.getSlot().getSlotId() : null);
-            try {
-                redisTemplate.delete(redisKey);
-            } catch (Exception e) {
-                logger.error("删除Redis Token失败: {}", e.getMessage());
-            }
             throw new BadRequestException("预约排班信息不完整");
         }
         logger.info("排班信息查询成功 - 排班ID: {}, 排班日期: {}, 时间段: {} - {}", 
@@ -859,11 +653,6 @@ public class AppointmentService {
             // 签到时间未到
             logger.warn("签到时间未到 - 预约ID: {}, 签到开始时间: {}, 当前时间: {}", 
                     appointmentId, checkInStartTime, now);
-            try {
-                redisTemplate.delete(redisKey);
-            } catch (Exception e) {
-                logger.error("删除Redis Token失败: {}", e.getMessage());
-            }
             throw new BadRequestException("签到时间未到，请在时段开始前30分钟开始签到（" + checkInStartTime + "）");
         }
         
@@ -871,11 +660,6 @@ public class AppointmentService {
             // 时段已结束，不能签到
             logger.warn("时段已结束，无法签到 - 预约ID: {}, 排班结束时间: {}, 当前时间: {}", 
                     appointmentId, scheduleEndTime, now);
-            try {
-                redisTemplate.delete(redisKey);
-            } catch (Exception e) {
-                logger.error("删除Redis Token失败: {}", e.getMessage());
-            }
             throw new BadRequestException("时段已结束，无法签到。请改约后续时段或退号");
         }
         
@@ -890,11 +674,6 @@ public class AppointmentService {
             // 跨场：直接作废预约
             logger.warn("跨场迟到，预约作废 - 预约ID: {}, 排班结束时间: {}, 当前时间: {}", 
                     appointmentId, scheduleEndTime, now);
-            try {
-                redisTemplate.delete(redisKey);
-            } catch (Exception e) {
-                logger.error("删除Redis Token失败: {}", e.getMessage());
-            }
             appointment.setStatus(AppointmentStatus.cancelled);
             appointmentRepository.save(appointment);
             throw new BadRequestException("预约已过期（跨场迟到），预约已作废，请重新挂号");
@@ -933,15 +712,12 @@ public class AppointmentService {
         appointment.setRealTimeQueueNumber(realTimeQueueNumber);
         appointmentRepository.save(appointment);
         logger.info("实时候诊序号已分配 - 预约ID: {}, 实时候诊序号: {}", appointmentId, realTimeQueueNumber);
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.CheckedIn(
+                appointmentId, schedule.getScheduleId(), appointment.getPatient().getPatientId(),
+                realTimeQueueNumber, isLate, false, now));
 
-        // 7. 立即删除Token（确保一次性使用）
-        try {
-            Boolean deleted = redisTemplate.delete(redisKey);
-            logger.info("Token已删除 - Key: {}, 删除结果: {}", redisKey, deleted);
-        } catch (Exception e) {
-            logger.error("删除Token失败 - Key: {}, 错误信息: {}", redisKey, e.getMessage(), e);
-            // 即使删除失败也不影响签到结果，只记录日志
-        }
+        // 7. 标记Token已使用（确保一次性使用）
+        qrTokenService.markUsed(verifiedToken);
 
         // 8. 返回签到信息
         CheckInResponse response = new CheckInResponse();
@@ -986,6 +762,9 @@ public class AppointmentService {
         appointment.setRecheckInTime(null); // 清除重新签到时间
         appointment.setStatus(AppointmentStatus.scheduled); // 改回已预约状态
         appointmentRepository.save(appointment);
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.CheckInCleared(
+                appointmentId, appointment.getSchedule().getScheduleId(),
+                appointment.getPatient().getPatientId(), LocalDateTime.now()));
         
         return convertToResponseDto(appointment);
     }
@@ -999,199 +778,18 @@ public class AppointmentService {
      * 4. 当日复诊号（不同医生）：排在该医生所有患者的最后面
      * 5. 过号：重新扫码后排当前时段队尾
      * 6. 加号：加在所有号源的最后
+     * 队列由 CallQueueEngine 在内存中维护，查询时不访问数据库
      */
-    @Transactional(readOnly = true)
     public List<AppointmentResponse> getCallQueue(Integer scheduleId) {
-        Schedule schedule = scheduleRepository.findById(scheduleId)
-                .orElseThrow(() -> new ResourceNotFoundException("Schedule not found with id " + scheduleId));
-        
-        // 查询已签到且未就诊的预约
-        List<Appointment> appointments = appointmentRepository
-                .findByScheduleAndStatus(schedule, AppointmentStatus.CHECKED_IN);
-        
-        // 分离不同类型的预约
-        List<Appointment> normalAppointments = new ArrayList<>();  // 正常预约和现场挂号
-        List<Appointment> sameDayFollowUps = new ArrayList<>();     // 当日复诊号（同医生）
-        List<Appointment> differentDoctorFollowUps = new ArrayList<>(); // 当日复诊号（不同医生）
-        List<Appointment> missedCallAppointments = new ArrayList<>(); // 过号（重新扫码后排队尾）
-        List<Appointment> addOnAppointments = new ArrayList<>();    // 加号
-        
-        for (Appointment appointment : appointments) {
-            AppointmentType type = appointment.getAppointmentType();
-            if (type == null) {
-                // 兼容旧数据，根据isWalkIn判断
-                type = Boolean.TRUE.equals(appointment.getIsWalkIn()) 
-                    ? AppointmentType.WALK_IN 
-                    : AppointmentType.APPOINTMENT;
-            }
-            
-            if (Boolean.TRUE.equals(appointment.getIsAddOn())) {
-                addOnAppointments.add(appointment);
-            } else if (appointment.getRecheckInTime() != null && appointment.getMissedCallCount() != null && appointment.getMissedCallCount() > 0) {
-                // 过号：有重新签到时间且过号次数>0
-                missedCallAppointments.add(appointment);
-            } else if (type == AppointmentType.SAME_DAY_FOLLOW_UP) {
-                // 判断是否同医生（通过originalAppointmentId关联的预约是否在同一排班）
-                if (appointment.getOriginalAppointmentId() != null) {
-                    Appointment originalAppointment = appointmentRepository.findById(appointment.getOriginalAppointmentId()).orElse(null);
-                    if (originalAppointment != null && originalAppointment.getSchedule().getScheduleId().equals(scheduleId)) {
-                        sameDayFollowUps.add(appointment);
-                    } else {
-                        differentDoctorFollowUps.add(appointment);
-                    }
-                } else {
-                    differentDoctorFollowUps.add(appointment);
-                }
-            } else {
-                normalAppointments.add(appointment);
-            }
-            }
-            
-        // 对正常预约和现场挂号进行排序
-        normalAppointments.sort((a1, a2) -> {
-            // 1. 预约优先于现场挂号
-            boolean a1WalkIn = a1.getAppointmentType() == AppointmentType.WALK_IN || Boolean.TRUE.equals(a1.getIsWalkIn());
-            boolean a2WalkIn = a2.getAppointmentType() == AppointmentType.WALK_IN || Boolean.TRUE.equals(a2.getIsWalkIn());
-            
-            if (!a1WalkIn && a2WalkIn) {
-                return -1; // a1是预约，a2是现场挂号，a1优先
-            }
-            if (a1WalkIn && !a2WalkIn) {
-                return 1; // a1是现场挂号，a2是预约，a2优先
-            }
-            
-            // 2. 迟到降档
-            boolean a1Late = Boolean.TRUE.equals(a1.getIsLate());
-            boolean a2Late = Boolean.TRUE.equals(a2.getIsLate());
-            
-            if (!a1Late && a2Late) {
-                return -1; // a1按时，a2迟到，a1优先
-            }
-            if (a1Late && !a2Late) {
-                return 1; // a1迟到，a2按时，a2优先
-            }
-            
-            // 3. 按时签到的按实时候诊序号排序
-            if (!a1Late && !a2Late) {
-                Integer num1 = a1.getRealTimeQueueNumber();
-                Integer num2 = a2.getRealTimeQueueNumber();
-                if (num1 != null && num2 != null) {
-                    return Integer.compare(num1, num2);
-            }
-                // 如果实时候诊序号为空，按签到时间排序
-                if (a1.getCheckInTime() != null && a2.getCheckInTime() != null) {
-            return a1.getCheckInTime().compareTo(a2.getCheckInTime());
-                }
-            }
-            
-            // 4. 都迟到，按签到时间排序
-            if (a1Late && a2Late) {
-                if (a1.getCheckInTime() != null && a2.getCheckInTime() != null) {
-                    return a1.getCheckInTime().compareTo(a2.getCheckInTime());
-                }
-            }
-            
-            // 5. 默认按挂号序号排序
-            return Integer.compare(
-                    a1.getAppointmentNumber() != null ? a1.getAppointmentNumber() : 0,
-                    a2.getAppointmentNumber() != null ? a2.getAppointmentNumber() : 0
-            );
-        });
-        
-        // 对当日复诊号排序（按签到时间）
-        sameDayFollowUps.sort((a1, a2) -> {
-            if (a1.getCheckInTime() != null && a2.getCheckInTime() != null) {
-                return a1.getCheckInTime().compareTo(a2.getCheckInTime());
-            }
-            return Integer.compare(
-                    a1.getAppointmentNumber() != null ? a1.getAppointmentNumber() : 0,
-                    a2.getAppointmentNumber() != null ? a2.getAppointmentNumber() : 0
-            );
-        });
-        
-        // 对不同医生的复诊号排序（按签到时间）
-        differentDoctorFollowUps.sort((a1, a2) -> {
-            if (a1.getCheckInTime() != null && a2.getCheckInTime() != null) {
-                return a1.getCheckInTime().compareTo(a2.getCheckInTime());
-            }
-            return Integer.compare(
-                    a1.getAppointmentNumber() != null ? a1.getAppointmentNumber() : 0,
-                    a2.getAppointmentNumber() != null ? a2.getAppointmentNumber() : 0
-            );
-        });
-        
-        // 对过号排序（按重新签到时间）
-        missedCallAppointments.sort((a1, a2) -> {
-            if (a1.getRecheckInTime() != null && a2.getRecheckInTime() != null) {
-                return a1.getRecheckInTime().compareTo(a2.getRecheckInTime());
-            }
-            return Integer.compare(
-                    a1.getAppointmentNumber() != null ? a1.getAppointmentNumber() : 0,
-                    a2.getAppointmentNumber() != null ? a2.getAppointmentNumber() : 0
-            );
-        });
-        
-        // 对加号排序（按签到时间）
-        addOnAppointments.sort((a1, a2) -> {
-            if (a1.getCheckInTime() != null && a2.getCheckInTime() != null) {
-                return a1.getCheckInTime().compareTo(a2.getCheckInTime());
-            }
-            return Integer.compare(
-                    a1.getAppointmentNumber() != null ? a1.getAppointmentNumber() : 0,
-                    a2.getAppointmentNumber() != null ? a2.getAppointmentNumber() : 0
-            );
-        });
-        
-        // 构建最终队列
-        List<Appointment> finalQueue = new ArrayList<>();
-        
-        // 1. 先添加正常预约和现场挂号
-        finalQueue.addAll(normalAppointments);
-        
-        // 2. 插入当日复诊号（同医生）：每两位正常挂号患者之后插入一个复诊号
-        int followUpIndex = 0;
-        for (int i = 2; i < finalQueue.size() && followUpIndex < sameDayFollowUps.size(); i += 3) {
-            finalQueue.add(i, sameDayFollowUps.get(followUpIndex));
-            followUpIndex++;
-        }
-        // 剩余的复诊号添加到末尾（如果还有）
-        while (followUpIndex < sameDayFollowUps.size()) {
-            finalQueue.add(sameDayFollowUps.get(followUpIndex));
-            followUpIndex++;
-        }
-        
-        // 3. 添加不同医生的复诊号（排在最后）
-        finalQueue.addAll(differentDoctorFollowUps);
-        
-        // 4. 添加过号（排在最后，按重新签到时间排序）
-        finalQueue.addAll(missedCallAppointments);
-        
-        // 5. 添加加号（排在最后）
-        finalQueue.addAll(addOnAppointments);
-        
-        return finalQueue.stream()
-                .map(this::convertToResponseDto)
-                .collect(Collectors.toList());
+        return callQueueEngine.getQueue(scheduleId);
     }
 
     /**
      * 获取下一个应该叫号的预约
      * 规则：先叫按时签到的（按序号），再叫迟到的（按签到时间），最后叫过号重新签到的
      */
-    @Transactional(readOnly = true)
     public AppointmentResponse getNextAppointmentToCall(Integer scheduleId) {
-        List<AppointmentResponse> queue = getCallQueue(scheduleId);
-        
-        // 找到第一个未叫号的
-        for (AppointmentResponse response : queue) {
-            Appointment appointment = appointmentRepository.findById(response.getAppointmentId())
-                    .orElse(null);
-            if (appointment != null && appointment.getCalledAt() == null) {
-                return response;
-            }
-        }
-        
-        return null; // 没有待叫号的预约
+        return callQueueEngine.peekNext(scheduleId);
     }
 
     /**
@@ -1216,6 +814,9 @@ public class AppointmentService {
         // 更新叫号时间
         appointment.setCalledAt(LocalDateTime.now());
         appointmentRepository.save(appointment);
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.Called(
+                appointmentId, appointment.getSchedule().getScheduleId(),
+                appointment.getPatient().getPatientId(), appointment.getCalledAt()));
         
         logger.info("叫号成功 - 预约ID: {}, 患者: {}, 就诊序号: {}, 是否按时: {}, 叫号时间: {}", 
                 appointmentId, appointment.getPatient().getFullName(), 
@@ -1243,22 +844,36 @@ public class AppointmentService {
         // 标记就诊完成
         appointment.setStatus(AppointmentStatus.completed);
         appointmentRepository.save(appointment);
+        // 自动叫号下一位由事件监听器在事务提交后处理（见 onAppointmentEvent）
+        Schedule schedule = appointment.getSchedule();
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.Completed(
+                appointmentId, schedule.getScheduleId(), appointment.getPatient().getPatientId(),
+                schedule.getDoctor().getDoctorId(), schedule.getSlot().getSlotId(),
+                appointment.getCalledAt(), LocalDateTime.now()));
 
         logger.info("就诊完成 - 预约ID: {}, 患者: {}, 医生: {}, 完成时间: {}",
                 appointmentId, appointment.getPatient().getFullName(),
                 appointment.getSchedule().getDoctor().getFullName(), LocalDateTime.now());
 
-        // 自动叫号下一位
-        try {
-            autoCallNextPatient(appointment.getSchedule().getScheduleId(), appointmentId);
-        } catch (Exception e) {
-            logger.error("自动叫号下一位失败 - 预约ID: {}, 错误: {}", appointmentId, e.getMessage());
-            // 不抛出异常，因为就诊完成已经成功了
-        }
-
         return convertToResponseDto(appointment);
     }
 
+    /**
+     * 预约事件监听：就诊完成后自动叫号下一位
+     */
+    @Override
+    @Transactional
+    public void onAppointmentEvent(AppointmentLifecycleEvent event) {
+        if (event instanceof AppointmentLifecycleEvent.Completed completed) {
+            try {
+                autoCallNextPatient(completed.scheduleId(), completed.appointmentId());
+            } catch (Exception e) {
+                logger.error("自动叫号下一位失败 - 预约ID: {}, 错误: {}", completed.appointmentId(), e.getMessage());
+                // 不抛出异常，因为就诊完成已经成功了
+            }
+        }
+    }
+
     /**
      * 自动叫号下一位患者
      * @param scheduleId 时段ID
@@ -1268,7 +883,16 @@ public class AppointmentService {
         logger.info("开始自动叫号下一位 - 时段ID: {}, 刚完成预约ID: {}", scheduleId, completedAppointmentId);
 
         // 获取下一个待叫号的预约
+        // 叫号队列由事件异步更新，可能还没收到最近的叫号事件：叫号前以数据库为准核对，不符时同步该预约后重新获取
         AppointmentResponse nextAppointment = getNextAppointmentToCall(scheduleId);
+        for (int attempt = 0; nextAppointment != null && attempt < 5; attempt++) {
+            Appointment candidate = appointmentRepository.findById(nextAppointment.getAppointmentId()).orElse(null);
+            if (candidate != null && candidate.getStatus() == AppointmentStatus.CHECKED_IN && candidate.getCalledAt() == null) {
+                break;
+            }
+            callQueueEngine.refresh(scheduleId, nextAppointment.getAppointmentId());
+            nextAppointment = getNextAppointmentToCall(scheduleId);
+        }
 
         if (nextAppointment == null) {
             logger.info("没有待叫号的患者 - 时段ID: {}", scheduleId);
@@ -1322,6 +946,9 @@ public class AppointmentService {
         appointment.setIsLate(false);
 
         appointmentRepository.save(appointment);
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.MissedCall(
+                appointmentId, appointment.getSchedule().getScheduleId(),
+                appointment.getPatient().getPatientId(), LocalDateTime.now()));
 
         logger.info("标记过号成功 - 预约ID: {}, 患者: {}, 过号次数: {}, 状态已改回scheduled",
                 appointmentId, appointment.getPatient().getFullName(), appointment.getMissedCallCount());
@@ -1391,6 +1018,9 @@ public class AppointmentService {
                 (appointment.getMissedCallCount() == null ? 0 : appointment.getMissedCallCount()) + 1);
         
         appointmentRepository.save(appointment);
+        appointmentEventBus.publish(new AppointmentLifecycleEvent.CheckedIn(
+                appointmentId, schedule.getScheduleId(), appointment.getPatient().getPatientId(),
+                appointment.getRealTimeQueueNumber(), false, true, now));
         
         logger.info("过号重新签到成功 - 预约ID: {}, 患者: {}, 就诊序号: {} (不变), 实时候诊序号: {} (最后一位), 重新签到时间: {}", 
                 appointmentId, appointment.getPatient().getFullName(), 
@@ -1498,17 +1128,4 @@ public class AppointmentService {
         // 如果当前预约不在按时签到列表中（理论上不会发生），返回列表大小+1
         return sortedAppointments.size() + 1;
     }
-
-    /**
-     * 生成随机字符串
-     */
-    private String generateRandomString(int length) {
-        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
-        Random random = new Random();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            sb.append(chars.charAt(random.nextInt(chars.length())));
-        }
-        return sb.toString();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,281 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.AutoScheduleRequest;
+import com.example.springboot.dto.AutoScheduleResponse;
+import com.example.springboot.dto.schedule.AutoScheduleJobResponse;
+import com.example.springboot.entity.enums.AutoScheduleJobStatus;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.exception.ResourceNotFoundException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步排班任务服务
+ *
+ * 提交后立即返回任务ID，排班在有界线程池中以预览模式生成（不保存），完成后进入 preview_ready 状态，
+ * 审批通过时才保存到数据库。线程池大小限制了同时进行的排班数量，避免大量排班请求占满数据库连接池；
+ * 排队已满时拒绝提交。
+ *
+ * 任务只保存在当前实例的内存中，查询、审批需要路由到提交任务的实例；
+ * 结束（审批、取消、失败）超过保留时间的任务由 AutoScheduleJobCleanupTask 定期清理，重启后任务丢失。
+ */
+@Service
+public class AutoScheduleJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AutoScheduleJobService.class);
+
+    private final AutoScheduleService autoScheduleService;
+    private final ThreadPoolExecutor executor;
+    // key: jobId
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    @Value("${auto-schedule.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+
+    @Autowired
+    public AutoScheduleJobService(AutoScheduleService autoScheduleService,
+                                  @Value("${auto-schedule.jobs.concurrency:2}") int concurrency,
+                                  @Value("${auto-schedule.jobs.queue-capacity:20}") int queueCapacity) {
+        this.autoScheduleService = autoScheduleService;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "auto-schedule-job-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交排班任务
+     */
+    public AutoScheduleJobResponse submit(AutoScheduleRequest request) {
+        Job job = new Job(UUID.randomUUID().toString(), request);
+        jobs.put(job.id, job);
+        try {
+            job.future = executor.submit(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            throw new BadRequestException("排班任务过多，请稍后再试");
+        }
+        logger.info("排班任务已提交 - jobId: {}, departmentId: {}, {} ~ {}",
+                job.id, request.getDepartmentId(), request.getStartDate(), request.getEndDate());
+        return job.toResponse();
+    }
+
+    /**
+     * 查询任务状态和进度
+     */
+    public AutoScheduleJobResponse getJob(String jobId) {
+        return findJob(jobId).toResponse();
+    }
+
+    /**
+     * 查询排班预览（生成完成后可用）
+     */
+    public AutoScheduleResponse getPreview(String jobId) {
+        Job job = findJob(jobId);
+        if (job.preview == null) {
+            throw new BadRequestException("排班预览尚未生成，当前状态: " + job.status);
+        }
+        return job.preview;
+    }
+
+    /**
+     * 查询保存结果（审批通过后可用）
+     */
+    public AutoScheduleResponse getResult(String jobId) {
+        Job job = findJob(jobId);
+        if (job.result == null) {
+            throw new BadRequestException("排班任务尚未审批，当前状态: " + job.status);
+        }
+        return job.result;
+    }
+
+    /**
+     * 审批通过：保存预览的排班
+     */
+    public AutoScheduleResponse approve(String jobId) {
+        Job job = findJob(jobId);
+        synchronized (job) {
+            if (job.status == AutoScheduleJobStatus.approved) {
+                return job.result;
+            }
+            if (job.status != AutoScheduleJobStatus.preview_ready) {
+                throw new BadRequestException("只有已生成预览的排班任务可以审批，当前状态: " + job.status);
+            }
+            job.result = autoScheduleService.saveGeneratedSchedules(job.request, job.preview);
+            job.status = AutoScheduleJobStatus.approved;
+            job.message = job.result.getMessage();
+            job.finishedAt = LocalDateTime.now();
+        }
+        logger.info("排班任务已审批 - jobId: {}", jobId);
+        return job.result;
+    }
+
+    /**
+     * 取消任务：排队中的不再执行，生成中的在下一个检查点结束，已生成预览的直接丢弃
+     */
+    public AutoScheduleJobResponse cancel(String jobId) {
+        Job job = findJob(jobId);
+        synchronized (job) {
+            if (job.status == AutoScheduleJobStatus.approved) {
+                throw new BadRequestException("排班任务已审批，不能取消");
+            }
+            if (!job.isFinished() || job.status == AutoScheduleJobStatus.preview_ready) {
+                job.cancelled = true;
+                if (job.future != null) {
+                    job.future.cancel(false);
+                }
+                job.preview = null;
+                job.status = AutoScheduleJobStatus.cancelled;
+                job.message = "排班任务已取消";
+                job.finishedAt = LocalDateTime.now();
+            }
+        }
+        logger.info("排班任务已取消 - jobId: {}", jobId);
+        return job.toResponse();
+    }
+
+    /**
+     * 清理结束超过保留时间的任务（以及超过保留时间未审批的预览）
+     *
+     * @return 清理的任务数
+     */
+    public int evictExpiredJobs() {
+        LocalDateTime threshold = LocalDateTime.now().minusMinutes(retentionMinutes);
+        int before = jobs.size();
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(threshold));
+        return before - jobs.size();
+    }
+
+    private void run(Job job) {
+        synchronized (job) {
+            if (job.cancelled) {
+                return;
+            }
+            job.status = AutoScheduleJobStatus.running;
+            job.startedAt = LocalDateTime.now();
+        }
+        AutoScheduleRequest request = job.request;
+        // 任务只生成预览，审批时再保存
+        AutoScheduleRequest previewRequest = new AutoScheduleRequest();
+        previewRequest.setDepartmentId(request.getDepartmentId());
+        previewRequest.setStartDate(request.getStartDate());
+        previewRequest.setEndDate(request.getEndDate());
+        previewRequest.setRules(request.getRules());
+        previewRequest.setOverwriteExisting(request.getOverwriteExisting());
+        previewRequest.setPreviewOnly(true);
+
+        try {
+            AutoScheduleResponse preview = autoScheduleService.autoGenerateSchedule(previewRequest, job);
+            synchronized (job) {
+                if (job.cancelled) {
+                    return;
+                }
+                job.preview = preview;
+                job.progress = 100;
+                job.stage = "已完成";
+                job.message = preview.getMessage();
+                job.finishedAt = LocalDateTime.now();
+                // 生成失败时返回的结果没有统计信息（参数错误、没有可用医生等）
+                job.status = preview.getStatistics() != null
+                        ? AutoScheduleJobStatus.preview_ready : AutoScheduleJobStatus.failed;
+            }
+            logger.info("排班任务生成完成 - jobId: {}, 状态: {}", job.id, job.status);
+        } catch (CancellationException e) {
+            logger.info("排班任务已在生成过程中取消 - jobId: {}", job.id);
+        } catch (Exception e) {
+            logger.error("排班任务执行失败 - jobId: {}", job.id, e);
+            synchronized (job) {
+                job.status = AutoScheduleJobStatus.failed;
+                job.message = "自动排班失败: " + e.getMessage();
+                job.finishedAt = LocalDateTime.now();
+            }
+        }
+    }
+
+    private Job findJob(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            throw new ResourceNotFoundException("排班任务不存在或已过期: " + jobId);
+        }
+        return job;
+    }
+
+    /**
+     * 排班任务（同时作为排班进度回调）
+     */
+    private static class Job implements AutoScheduleProgress {
+        private final String id;
+        private final AutoScheduleRequest request;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private Future<?> future;
+        private volatile AutoScheduleJobStatus status = AutoScheduleJobStatus.queued;
+        private volatile boolean cancelled;
+        private volatile int progress;
+        private volatile String stage = "排队中";
+        private volatile String message;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile AutoScheduleResponse preview;
+        private volatile AutoScheduleResponse result;
+
+        private Job(String id, AutoScheduleRequest request) {
+            this.id = id;
+            this.request = request;
+        }
+
+        @Override
+        public void update(int percent, String stage) {
+            this.progress = percent;
+            this.stage = stage;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private boolean isFinished() {
+            return status != AutoScheduleJobStatus.queued && status != AutoScheduleJobStatus.running;
+        }
+
+        private AutoScheduleJobResponse toResponse() {
+            AutoScheduleJobResponse response = new AutoScheduleJobResponse();
+            response.setJobId(id);
+            response.setStatus(status);
+            response.setDepartmentId(request.getDepartmentId());
+            response.setStartDate(request.getStartDate());
+            response.setEndDate(request.getEndDate());
+            response.setProgress(progress);
+            response.setStage(stage);
+            response.setMessage(message);
+            response.setCreatedAt(createdAt);
+            response.setStartedAt(startedAt);
+            response.setFinishedAt(finishedAt);
+            return response;
+        }
+    }
+}
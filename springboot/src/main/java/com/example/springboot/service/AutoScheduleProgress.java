@@ -0,0 +1,27 @@
+package com.example.springboot.service;
+
+/**
+ * 自动排班进度回调（异步排班任务用来汇报进度和检查是否已取消）
+ */
+public interface AutoScheduleProgress {
+
+    /**
+     * 不汇报进度、不可取消（同步接口使用）
+     */
+    AutoScheduleProgress NONE = (percent, stage) -> { };
+
+    /**
+     * 汇报进度
+     *
+     * @param percent 完成百分比（0-100）
+     * @param stage 当前阶段
+     */
+    void update(int percent, String stage);
+
+    /**
+     * 是否已取消（排班过程中定期检查，已取消时抛出 CancellationException 结束排班）
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
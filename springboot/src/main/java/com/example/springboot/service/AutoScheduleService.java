@@ -2,6 +2,8 @@ package com.example.springboot.service;
 
 import com.example.springboot.dto.AutoScheduleRequest;
 import com.example.springboot.dto.AutoScheduleResponse;
+import com.example.springboot.dto.HospitalAutoScheduleRequest;
+import com.example.springboot.dto.HospitalAutoScheduleResponse;
 
 /**
  * 自动排班服务接口
@@ -15,6 +17,32 @@ public interface AutoScheduleService {
      * @return 排班结果
      */
     AutoScheduleResponse autoGenerateSchedule(AutoScheduleRequest request);
+    
+    /**
+     * 自动生成排班（汇报进度，可取消）
+     * 
+     * @param request 排班请求参数
+     * @param progress 进度回调
+     * @return 排班结果
+     * @throws java.util.concurrent.CancellationException 排班过程中被取消
+     */
+    AutoScheduleResponse autoGenerateSchedule(AutoScheduleRequest request, AutoScheduleProgress progress);
+    
+    /**
+     * 保存预览的排班结果（异步排班任务审批通过时调用）
+     * 保存前按当前数据库中的排班重新检测冲突，有冲突时不保存
+     * 
+     * @param request 排班请求参数
+     * @param preview 预览模式生成的排班结果
+     * @return 保存后的排班结果（包含排班ID）
+     */
+    AutoScheduleResponse saveGeneratedSchedules(AutoScheduleRequest request, AutoScheduleResponse preview);
+    
+    /**
+     * 全院自动排班：按科室划分，预先分配诊室后并行生成各科室排班，合并后统一检测冲突
+     * 
+     * @param request 全院排班请求参数
+     * @return 各科室的排班结果和合并后的冲突
+     */
+    HospitalAutoScheduleResponse autoGenerateHospitalSchedule(HospitalAutoScheduleRequest request);
 }
-
-
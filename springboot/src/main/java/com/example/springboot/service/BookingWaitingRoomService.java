@@ -0,0 +1,274 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.appointment.AppointmentCreateRequest;
+import com.example.springboot.dto.appointment.AppointmentResponse;
+import com.example.springboot.dto.appointment.BookingTicketResponse;
+import com.example.springboot.dto.appointment.BookingTicketStatus;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.exception.ResourceNotFoundException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预约排队服务（放号高峰的虚拟等候室）
+ *
+ * 热门医生放号时，大量预约请求集中在少数几个排班上。如果每个请求都占用一个 Tomcat 线程同步等待数据库，
+ * 线程池会被占满，签到、叫号、管理端等其他接口也随之卡住。
+ *
+ * 这里改为：请求进入排班对应的有界队列后立即返回票据，由固定数量的工作线程按先进先出顺序处理，
+ * 客户端凭票据轮询结果。同一排班的请求串行处理，不同排班之间并行；
+ * 每个排班每轮最多处理 DRAIN_BATCH_SIZE 个请求后让出线程，避免一个热门排班长期占用工作线程。
+ */
+@Service
+public class BookingWaitingRoomService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingWaitingRoomService.class);
+
+    // 每个排班每轮最多处理的请求数
+    private static final int DRAIN_BATCH_SIZE = 20;
+    // 建议客户端轮询间隔（秒）
+    private static final int POLL_INTERVAL_SECONDS = 2;
+
+    private final AppointmentService appointmentService;
+    private final SlotInventoryService slotInventoryService;
+
+    @Value("${booking.waiting-room.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${booking.waiting-room.worker-threads:8}")
+    private int workerThreads;
+
+    @Value("${booking.waiting-room.ticket-retention-minutes:10}")
+    private long ticketRetentionMinutes;
+
+    private ExecutorService workers;
+
+    // key: scheduleId
+    private final Map<Integer, ScheduleQueue> queues = new ConcurrentHashMap<>();
+    // key: ticketId
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+
+    @Autowired
+    public BookingWaitingRoomService(AppointmentService appointmentService,
+                                     SlotInventoryService slotInventoryService) {
+        this.appointmentService = appointmentService;
+        this.slotInventoryService = slotInventoryService;
+    }
+
+    @PostConstruct
+    private void initWorkers() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "booking-waiting-room-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("预约排队服务已启动 - 工作线程数: {}, 每个排班队列容量: {}", workerThreads, queueCapacity);
+    }
+
+    @PreDestroy
+    private void shutdownWorkers() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交排队预约，立即返回票据
+     */
+    public BookingTicketResponse submit(AppointmentCreateRequest request) {
+        if (request.getScheduleId() == null || request.getPatientId() == null) {
+            throw new BadRequestException("排班ID和患者ID不能为空");
+        }
+        Integer scheduleId = request.getScheduleId();
+
+        // 已确定约满的排班不再排队，直接拒绝（只读 Redis，不访问数据库）
+        if (slotInventoryService.isSoldOut(scheduleId)) {
+            throw new BadRequestException("No available slots for this schedule.");
+        }
+
+        ScheduleQueue queue;
+        Ticket ticket;
+        boolean startDrain;
+        while (true) {
+            queue = queues.computeIfAbsent(scheduleId, ScheduleQueue::new);
+            synchronized (queue) {
+                // 取到的队列刚被清理任务移除时重新获取，保证每个排班只有一个队列、一个工作线程在处理
+                if (queue.removed) {
+                    continue;
+                }
+                if (queue.pending.size() >= queueCapacity) {
+                    logger.warn("排班 #{} 排队人数已达上限 {}，拒绝新请求", scheduleId, queueCapacity);
+                    throw new BadRequestException("当前排队人数过多，请稍后再试");
+                }
+                ticket = new Ticket(UUID.randomUUID().toString(), request, queue);
+                ticket.sequence = ++queue.enqueued;
+                queue.pending.add(ticket);
+                tickets.put(ticket.ticketId, ticket);
+                startDrain = !queue.draining;
+                queue.draining = true;
+            }
+            break;
+        }
+        ScheduleQueue drainQueue = queue;
+        if (startDrain) {
+            workers.execute(() -> drain(drainQueue));
+        }
+
+        logger.debug("排队预约已受理 - ticketId: {}, scheduleId: {}, patientId: {}, 序号: {}",
+                ticket.ticketId, scheduleId, request.getPatientId(), ticket.sequence);
+        return toResponse(ticket);
+    }
+
+    /**
+     * 查询票据状态
+     */
+    public BookingTicketResponse getTicket(String ticketId) {
+        Ticket ticket = tickets.get(ticketId);
+        if (ticket == null) {
+            throw new ResourceNotFoundException("排队票据不存在或已过期: " + ticketId);
+        }
+        return toResponse(ticket);
+    }
+
+    /**
+     * 清理已完成且超过保留时间的票据，以及已空闲的排班队列
+     */
+    public void purgeFinishedTickets() {
+        LocalDateTime threshold = LocalDateTime.now().minusMinutes(ticketRetentionMinutes);
+        int before = tickets.size();
+        tickets.values().removeIf(ticket -> ticket.finishedAt != null && ticket.finishedAt.isBefore(threshold));
+        // 在队列锁内标记移除，与 submit 互斥：submit 拿到已移除的队列时会重新获取
+        for (ScheduleQueue queue : queues.values()) {
+            synchronized (queue) {
+                if (!queue.draining && queue.pending.isEmpty()) {
+                    queue.removed = true;
+                    queues.remove(queue.scheduleId, queue);
+                }
+            }
+        }
+        if (before != tickets.size()) {
+            logger.debug("清理排队票据 - 清理前: {}, 清理后: {}", before, tickets.size());
+        }
+    }
+
+    /**
+     * 处理排班队列中的请求，每轮最多处理 DRAIN_BATCH_SIZE 个后重新提交，让其他排班有机会执行
+     */
+    private void drain(ScheduleQueue queue) {
+        for (int processed = 0; processed < DRAIN_BATCH_SIZE; processed++) {
+            Ticket ticket;
+            synchronized (queue) {
+                ticket = queue.pending.poll();
+                if (ticket == null) {
+                    queue.draining = false;
+                    return;
+                }
+            }
+            process(queue.scheduleId, ticket);
+            queue.completed = ticket.sequence;
+        }
+        workers.execute(() -> drain(queue));
+    }
+
+    private void process(Integer scheduleId, Ticket ticket) {
+        ticket.status = BookingTicketStatus.PROCESSING;
+        try {
+            // 排队期间号源已被抢完的，不再访问数据库
+            if (slotInventoryService.isSoldOut(scheduleId)) {
+                ticket.fail("No available slots for this schedule.");
+                return;
+            }
+            ticket.succeed(appointmentService.createAppointment(ticket.request));
+        } catch (BadRequestException | ResourceNotFoundException e) {
+            ticket.fail(e.getMessage());
+        } catch (Exception e) {
+            logger.error("排队预约处理失败 - ticketId: {}, scheduleId: {}", ticket.ticketId, scheduleId, e);
+            ticket.fail("预约失败，请稍后重试");
+        }
+    }
+
+    private BookingTicketResponse toResponse(Ticket ticket) {
+        BookingTicketResponse response = new BookingTicketResponse();
+        response.setTicketId(ticket.ticketId);
+        response.setScheduleId(ticket.request.getScheduleId());
+        response.setStatus(ticket.status);
+        response.setCreatedAt(ticket.createdAt);
+        response.setAppointment(ticket.appointment);
+        response.setMessage(ticket.message);
+        if (ticket.status == BookingTicketStatus.QUEUED) {
+            response.setPosition(Math.max(0, ticket.sequence - ticket.queue.completed - 1));
+            response.setPollInterval(POLL_INTERVAL_SECONDS);
+        } else if (ticket.status == BookingTicketStatus.PROCESSING) {
+            response.setPosition(0L);
+            response.setPollInterval(POLL_INTERVAL_SECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * 单个排班的排队队列
+     */
+    private static class ScheduleQueue {
+        private final Integer scheduleId;
+        private final Queue<Ticket> pending = new ArrayDeque<>();
+        private long enqueued;               // 已入队的请求数（用于分配序号）
+        private volatile long completed;     // 最后处理完成的请求序号（用于计算排队位置）
+        private boolean draining;            // 是否已有工作线程在处理
+        private boolean removed;             // 是否已被清理任务从 queues 中移除
+
+        private ScheduleQueue(Integer scheduleId) {
+            this.scheduleId = scheduleId;
+        }
+    }
+
+    /**
+     * 排队票据
+     */
+    private static class Ticket {
+        private final String ticketId;
+        private final AppointmentCreateRequest request;
+        private final ScheduleQueue queue;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private long sequence;
+        private volatile BookingTicketStatus status = BookingTicketStatus.QUEUED;
+        private volatile AppointmentResponse appointment;
+        private volatile String message;
+        private volatile LocalDateTime finishedAt;
+
+        private Ticket(String ticketId, AppointmentCreateRequest request, ScheduleQueue queue) {
+            this.ticketId = ticketId;
+            this.request = request;
+            this.queue = queue;
+        }
+
+        private void succeed(AppointmentResponse appointment) {
+            this.appointment = appointment;
+            this.finishedAt = LocalDateTime.now();
+            this.status = BookingTicketStatus.SUCCESS;
+        }
+
+        private void fail(String message) {
+            this.message = message;
+            this.finishedAt = LocalDateTime.now();
+            this.status = BookingTicketStatus.FAILED;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.appointment.AppointmentResponse;
+import com.example.springboot.dto.appointment.CallQueueDelta;
+import com.example.springboot.dto.appointment.CallQueueSnapshot;
+import com.example.springboot.dto.schedule.ScheduleResponse;
+import com.example.springboot.entity.Appointment;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.enums.AppointmentStatus;
+import com.example.springboot.entity.enums.AppointmentType;
+import com.example.springboot.event.AppointmentEventListener;
+import com.example.springboot.event.AppointmentLifecycleEvent;
+import com.example.springboot.exception.ResourceNotFoundException;
+import com.example.springboot.repository.AppointmentRepository;
+import com.example.springboot.repository.ScheduleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 叫号队列引擎
+ *
+ * 候诊大屏和医生工作站会持续轮询叫号队列。原来每次查询都要加载全部已签到预约、
+ * 为每个复诊号单独查询原预约并重新分组排序，查询下一位时还要对队列中的每个预约再查一次数据库。
+ *
+ * 这里按排班在内存中维护队列：首次查询时从数据库加载一次，之后由预约事件（签到、叫号、过号、
+ * 重新签到、清除签到、就诊完成等）逐条更新，只重新读取发生变化的那一个预约。
+ * 查询完整队列为 O(n)、查询下一位为 O(1)，命中缓存时不访问数据库。
+ *
+ * 排序规则与原 getCallQueue 完全一致：
+ * 1. 预约挂号在现场挂号之前；按时签到在迟到签到之前；按时签到按实时候诊序号，迟到按签到时间
+ * 2. 当日复诊号（同医生）：每两位正常挂号患者之后插入一个
+ * 3. 当日复诊号（不同医生）、过号重新签到、加号：依次排在队尾
+ *
+ * 事件只在本实例内发布，多实例部署时其他实例的变更由定期全量同步（resync-seconds）兜底：
+ * 被查询的队列在查询时同步，被推送订阅固定（pin）的队列由定时任务同步，不依赖是否有人查询。
+ * 每次变化都会生成 CallQueueDelta 通知给订阅方（如 CallQueueStreamService 推送给候诊大屏）；
+ * 有推送订阅的队列不会因长时间未被查询而被清理。
+ */
+@Service
+public class CallQueueEngine implements AppointmentEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallQueueEngine.class);
+
+    private final AppointmentRepository appointmentRepository;
+    private final ScheduleRepository scheduleRepository;
+    private final PatientService patientService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${call-queue.resync-seconds:30}")
+    private long resyncSeconds;
+
+    @Value("${call-queue.idle-evict-minutes:30}")
+    private long idleEvictMinutes;
+
+    // key: scheduleId
+    private final Map<Integer, ScheduleQueue> queues = new ConcurrentHashMap<>();
+    // key: scheduleId, value: 固定该队列的订阅主题数
+    private final Map<Integer, Integer> pinned = new ConcurrentHashMap<>();
+    private final List<Consumer<CallQueueDelta>> changeListeners = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public CallQueueEngine(AppointmentRepository appointmentRepository,
+                           ScheduleRepository scheduleRepository,
+                           PatientService patientService,
+                           PlatformTransactionManager transactionManager) {
+        this.appointmentRepository = appointmentRepository;
+        this.scheduleRepository = scheduleRepository;
+        this.patientService = patientService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * 获取完整叫号队列（已签到但未就诊的预约，含已叫号未完成的）
+     */
+    public List<AppointmentResponse> getQueue(Integer scheduleId) {
+        ScheduleQueue queue = acquire(scheduleId);
+        synchronized (queue) {
+            return queue.ordered().stream()
+                    .map(Entry::response)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 获取队列快照（队列和版本号一致，用于推送订阅的初始数据）
+     */
+    public CallQueueSnapshot getSnapshot(Integer scheduleId) {
+        ScheduleQueue queue = acquire(scheduleId);
+        synchronized (queue) {
+            CallQueueSnapshot snapshot = new CallQueueSnapshot();
+            snapshot.setScheduleId(scheduleId);
+            snapshot.setVersion(queue.version);
+            snapshot.setQueue(queue.ordered().stream().map(Entry::response).collect(Collectors.toList()));
+            snapshot.setNextAppointmentId(queue.next != null ? queue.next.appointmentId() : null);
+            return snapshot;
+        }
+    }
+
+    /**
+     * 注册队列变化监听（在更新队列的线程中回调，回调应尽快返回）
+     */
+    public void addChangeListener(Consumer<CallQueueDelta> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * 固定排班队列：立即加载，之后定时同步，不会被空闲清理（推送订阅开始时调用，与 unpin 成对使用）
+     */
+    public void pin(Integer scheduleId) {
+        pinned.merge(scheduleId, 1, Integer::sum);
+        try {
+            acquire(scheduleId);
+        } catch (RuntimeException e) {
+            // 加载失败时由定时同步重试
+            logger.warn("叫号队列加载失败 - 排班ID: {}, 错误: {}", scheduleId, e.getMessage());
+        }
+    }
+
+    /**
+     * 取消固定（推送订阅结束时调用）
+     */
+    public void unpin(Integer scheduleId) {
+        pinned.computeIfPresent(scheduleId, (id, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * 全量同步所有被固定的队列（超过 resync-seconds 未同步的才重新加载），有变化时通知订阅方
+     */
+    public void resyncPinnedQueues() {
+        for (Integer scheduleId : pinned.keySet()) {
+            try {
+                acquire(scheduleId);
+            } catch (ResourceNotFoundException e) {
+                logger.debug("固定的叫号队列排班已不存在 - 排班ID: {}", scheduleId);
+            } catch (RuntimeException e) {
+                logger.warn("叫号队列同步失败 - 排班ID: {}, 错误: {}", scheduleId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取下一个应该叫号的预约（队列中第一个未叫号的），没有时返回 null
+     */
+    public AppointmentResponse peekNext(Integer scheduleId) {
+        ScheduleQueue queue = acquire(scheduleId);
+        synchronized (queue) {
+            queue.ordered();
+            return queue.next != null ? queue.next.response() : null;
+        }
+    }
+
+    /**
+     * 从数据库重新读取单个预约并更新队列（排班未加载时忽略，下次查询时会完整加载）
+     */
+    public void refresh(Integer scheduleId, Integer appointmentId) {
+        apply(scheduleId, appointmentId, "Refresh");
+    }
+
+    /**
+     * 预约事件监听：任何状态变化都按数据库中的最新状态更新对应预约（已不是已签到状态的从队列移除）
+     */
+    @Override
+    public void onAppointmentEvent(AppointmentLifecycleEvent event) {
+        apply(event.scheduleId(), event.appointmentId(), event.getClass().getSimpleName());
+    }
+
+    private void apply(Integer scheduleId, Integer appointmentId, String cause) {
+        ScheduleQueue queue = queues.get(scheduleId);
+        if (queue == null) {
+            return;
+        }
+        CallQueueDelta delta;
+        synchronized (queue) {
+            if (queue.loadedAt == null) {
+                return;
+            }
+            Entry entry = transactionTemplate.execute(status -> appointmentRepository.findById(appointmentId)
+                    .filter(appointment -> appointment.getStatus() == AppointmentStatus.CHECKED_IN)
+                    .filter(appointment -> scheduleId.equals(appointment.getSchedule().getScheduleId()))
+                    .map(appointment -> toEntry(appointment, originalScheduleIds(List.of(appointment))))
+                    .orElse(null));
+            boolean changed = entry != null ? queue.upsert(entry) : queue.remove(appointmentId);
+            if (!changed) {
+                return;
+            }
+            delta = newDelta(queue, entry != null ? "upsert" : "remove", cause);
+            delta.setAppointmentId(appointmentId);
+            if (entry != null) {
+                delta.setAppointment(entry.response());
+                delta.setPosition(queue.positionOf(appointmentId));
+            }
+        }
+        notifyChange(delta);
+    }
+
+    private CallQueueDelta newDelta(ScheduleQueue queue, String action, String cause) {
+        queue.version++;
+        List<Entry> ordered = queue.ordered();
+        CallQueueDelta delta = new CallQueueDelta();
+        delta.setScheduleId(queue.scheduleId);
+        delta.setVersion(queue.version);
+        delta.setAction(action);
+        delta.setCause(cause);
+        delta.setQueueSize(ordered.size());
+        delta.setNextAppointmentId(queue.next != null ? queue.next.appointmentId() : null);
+        delta.setOccurredAt(LocalDateTime.now());
+        return delta;
+    }
+
+    private void notifyChange(CallQueueDelta delta) {
+        for (Consumer<CallQueueDelta> listener : changeListeners) {
+            try {
+                listener.accept(delta);
+            } catch (Exception e) {
+                logger.error("叫号队列变化通知失败 - 排班ID: {}", delta.getScheduleId(), e);
+            }
+        }
+    }
+
+    /**
+     * 清理长时间未被查询且没有推送订阅的排班队列
+     */
+    public void evictIdleQueues() {
+        LocalDateTime threshold = LocalDateTime.now().minusMinutes(idleEvictMinutes);
+        int before = queues.size();
+        queues.values().removeIf(queue -> !pinned.containsKey(queue.scheduleId) && queue.lastAccessAt.isBefore(threshold));
+        if (before != queues.size()) {
+            logger.debug("清理空闲叫号队列 - 清理前: {}, 清理后: {}", before, queues.size());
+        }
+    }
+
+    private ScheduleQueue acquire(Integer scheduleId) {
+        ScheduleQueue queue = queues.computeIfAbsent(scheduleId, ScheduleQueue::new);
+        CallQueueDelta delta = null;
+        synchronized (queue) {
+            queue.lastAccessAt = LocalDateTime.now();
+            if (queue.loadedAt == null || queue.loadedAt.isBefore(LocalDateTime.now().minusSeconds(resyncSeconds))) {
+                boolean resync = queue.loadedAt != null;
+                boolean changed;
+                try {
+                    changed = load(queue);
+                } catch (RuntimeException e) {
+                    queues.remove(scheduleId, queue);
+                    throw e;
+                }
+                if (resync && changed) {
+                    // 全量同步带入了未经事件通知的变化，通知订阅方重新获取完整队列
+                    delta = newDelta(queue, "reset", "Resync");
+                }
+            }
+        }
+        if (delta != null) {
+            notifyChange(delta);
+        }
+        return queue;
+    }
+
+    /**
+     * 从数据库完整加载排班的叫号队列
+     *
+     * @return 队列内容是否有变化
+     */
+    private boolean load(ScheduleQueue queue) {
+        List<Entry> entries = transactionTemplate.execute(status -> {
+            Schedule schedule = scheduleRepository.findById(queue.scheduleId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Schedule not found with id " + queue.scheduleId));
+            List<Appointment> appointments = appointmentRepository.findByScheduleAndStatus(schedule, AppointmentStatus.CHECKED_IN);
+            Map<Integer, Integer> originalScheduleIds = originalScheduleIds(appointments);
+            return appointments.stream()
+                    .map(appointment -> toEntry(appointment, originalScheduleIds))
+                    .collect(Collectors.toList());
+        });
+        boolean changed = queue.reset(entries);
+        logger.debug("叫号队列已加载 - 排班ID: {}, 已签到人数: {}", queue.scheduleId, entries.size());
+        return changed;
+    }
+
+    /**
+     * 批量查询当日复诊号的原预约所在排班（key: 原预约ID, value: 排班ID）
+     */
+    private Map<Integer, Integer> originalScheduleIds(List<Appointment> appointments) {
+        List<Integer> originalIds = appointments.stream()
+                .filter(appointment -> appointment.getAppointmentType() == AppointmentType.SAME_DAY_FOLLOW_UP)
+                .map(Appointment::getOriginalAppointmentId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        if (originalIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, Integer> result = new HashMap<>();
+        for (Appointment original : appointmentRepository.findAllById(originalIds)) {
+            result.put(original.getAppointmentId(), original.getSchedule().getScheduleId());
+        }
+        return result;
+    }
+
+    private Entry toEntry(Appointment appointment, Map<Integer, Integer> originalScheduleIds) {
+        Integer scheduleId = appointment.getSchedule().getScheduleId();
+        AppointmentType type = appointment.getAppointmentType();
+        if (type == null) {
+            // 兼容旧数据，根据isWalkIn判断
+            type = Boolean.TRUE.equals(appointment.getIsWalkIn())
+                    ? AppointmentType.WALK_IN
+                    : AppointmentType.APPOINTMENT;
+        }
+
+        Bucket bucket;
+        if (Boolean.TRUE.equals(appointment.getIsAddOn())) {
+            bucket = Bucket.ADD_ON;
+        } else if (appointment.getRecheckInTime() != null && appointment.getMissedCallCount() != null && appointment.getMissedCallCount() > 0) {
+            // 过号：有重新签到时间且过号次数>0
+            bucket = Bucket.MISSED_CALL;
+        } else if (type == AppointmentType.SAME_DAY_FOLLOW_UP) {
+            // 判断是否同医生（通过originalAppointmentId关联的预约是否在同一排班）
+            Integer originalScheduleId = appointment.getOriginalAppointmentId() != null
+                    ? originalScheduleIds.get(appointment.getOriginalAppointmentId())
+                    : null;
+            bucket = scheduleId.equals(originalScheduleId) ? Bucket.SAME_DOCTOR_FOLLOW_UP : Bucket.OTHER_DOCTOR_FOLLOW_UP;
+        } else {
+            bucket = Bucket.NORMAL;
+        }
+
+        boolean walkIn = appointment.getAppointmentType() == AppointmentType.WALK_IN || Boolean.TRUE.equals(appointment.getIsWalkIn());
+        return new Entry(appointment.getAppointmentId(), bucket, walkIn, Boolean.TRUE.equals(appointment.getIsLate()),
+                appointment.getRealTimeQueueNumber(), appointment.getCheckInTime(), appointment.getRecheckInTime(),
+                appointment.getAppointmentNumber(), appointment.getCalledAt(), toResponse(appointment));
+    }
+
+    /**
+     * 与 AppointmentService.convertToResponseDto 保持一致
+     */
+    private AppointmentResponse toResponse(Appointment appointment) {
+        AppointmentResponse response = new AppointmentResponse();
+        BeanUtils.copyProperties(appointment, response);
+        response.setPatient(patientService.convertToResponseDto(appointment.getPatient()));
+        response.setSchedule(ScheduleResponse.fromEntity(appointment.getSchedule()));
+        return response;
+    }
+
+    /**
+     * 队列分组（按在最终队列中的先后顺序）
+     */
+    private enum Bucket {
+        NORMAL,                  // 正常预约和现场挂号
+        SAME_DOCTOR_FOLLOW_UP,   // 当日复诊号（同医生）
+        OTHER_DOCTOR_FOLLOW_UP,  // 当日复诊号（不同医生）
+        MISSED_CALL,             // 过号（重新扫码后排队尾）
+        ADD_ON                   // 加号
+    }
+
+    /**
+     * 队列中的一个预约（排序所需字段的快照和响应DTO）
+     */
+    private record Entry(Integer appointmentId, Bucket bucket, boolean walkIn, boolean late,
+                         Integer realTimeQueueNumber, LocalDateTime checkInTime, LocalDateTime recheckInTime,
+                         Integer appointmentNumber, LocalDateTime calledAt, AppointmentResponse response) {
+    }
+
+    /**
+     * 正常预约和现场挂号的排序
+     */
+    private static int compareNormal(Entry a1, Entry a2) {
+        // 1. 预约优先于现场挂号
+        if (a1.walkIn() != a2.walkIn()) {
+            return a1.walkIn() ? 1 : -1;
+        }
+        // 2. 迟到降档
+        if (a1.late() != a2.late()) {
+            return a1.late() ? 1 : -1;
+        }
+        // 3. 按时签到的按实时候诊序号排序
+        if (!a1.late() && a1.realTimeQueueNumber() != null && a2.realTimeQueueNumber() != null) {
+            return Integer.compare(a1.realTimeQueueNumber(), a2.realTimeQueueNumber());
+        }
+        // 4. 实时候诊序号为空或都迟到，按签到时间排序
+        if (a1.checkInTime() != null && a2.checkInTime() != null) {
+            return a1.checkInTime().compareTo(a2.checkInTime());
+        }
+        // 5. 默认按挂号序号排序
+        return compareAppointmentNumber(a1, a2);
+    }
+
+    private static Comparator<Entry> byTime(Function<Entry, LocalDateTime> time) {
+        return (a1, a2) -> {
+            if (time.apply(a1) != null && time.apply(a2) != null) {
+                return time.apply(a1).compareTo(time.apply(a2));
+            }
+            return compareAppointmentNumber(a1, a2);
+        };
+    }
+
+    private static int compareAppointmentNumber(Entry a1, Entry a2) {
+        return Integer.compare(
+                a1.appointmentNumber() != null ? a1.appointmentNumber() : 0,
+                a2.appointmentNumber() != null ? a2.appointmentNumber() : 0
+        );
+    }
+
+    private static final Map<Bucket, Comparator<Entry>> COMPARATORS = new EnumMap<>(Map.of(
+            Bucket.NORMAL, CallQueueEngine::compareNormal,
+            Bucket.SAME_DOCTOR_FOLLOW_UP, byTime(Entry::checkInTime),     // 按签到时间
+            Bucket.OTHER_DOCTOR_FOLLOW_UP, byTime(Entry::checkInTime),    // 按签到时间
+            Bucket.MISSED_CALL, byTime(Entry::recheckInTime),             // 按重新签到时间
+            Bucket.ADD_ON, byTime(Entry::checkInTime)                     // 按签到时间
+    ));
+
+    /**
+     * 单个排班的叫号队列：各分组分别保持有序，合并后的完整队列在变化后首次读取时重建
+     */
+    private static class ScheduleQueue {
+        private final Integer scheduleId;
+        private final Map<Integer, Entry> entries = new HashMap<>();
+        private final Map<Bucket, List<Entry>> buckets = new EnumMap<>(Bucket.class);
+        private List<Entry> ordered;     // 合并后的完整队列，为 null 表示需要重建
+        private Entry next;              // 第一个未叫号的预约
+        private LocalDateTime loadedAt;
+        private long version;            // 每次变化加一，供推送客户端检测漏收
+        private volatile LocalDateTime lastAccessAt = LocalDateTime.now();
+
+        private ScheduleQueue(Integer scheduleId) {
+            this.scheduleId = scheduleId;
+            for (Bucket bucket : Bucket.values()) {
+                buckets.put(bucket, new ArrayList<>());
+            }
+        }
+
+        /**
+         * 用完整加载的结果替换队列，返回排序相关字段是否有变化
+         */
+        private boolean reset(List<Entry> loaded) {
+            boolean changed = loaded.size() != entries.size();
+            for (Entry entry : loaded) {
+                Entry existing = entries.get(entry.appointmentId());
+                if (existing == null || !sameSortFields(existing, entry)) {
+                    changed = true;
+                    break;
+                }
+            }
+            entries.clear();
+            buckets.values().forEach(List::clear);
+            for (Entry entry : loaded) {
+                entries.put(entry.appointmentId(), entry);
+                buckets.get(entry.bucket()).add(entry);
+            }
+            buckets.forEach((bucket, list) -> list.sort(COMPARATORS.get(bucket)));
+            ordered = null;
+            loadedAt = LocalDateTime.now();
+            return changed;
+        }
+
+        /**
+         * 新增或更新预约，排序相关字段没有变化时返回 false（重复事件不产生推送）
+         */
+        private boolean upsert(Entry entry) {
+            Entry existing = entries.get(entry.appointmentId());
+            if (existing != null && sameSortFields(existing, entry)) {
+                return false;
+            }
+            remove(entry.appointmentId());
+            entries.put(entry.appointmentId(), entry);
+            List<Entry> list = buckets.get(entry.bucket());
+            Comparator<Entry> comparator = COMPARATORS.get(entry.bucket());
+            // 插到所有"不大于"它的元素之后，与稳定排序的结果一致
+            int index = list.size();
+            while (index > 0 && comparator.compare(list.get(index - 1), entry) > 0) {
+                index--;
+            }
+            list.add(index, entry);
+            ordered = null;
+            return true;
+        }
+
+        /**
+         * 移除预约，不在队列中时返回 false
+         */
+        private boolean remove(Integer appointmentId) {
+            Entry existing = entries.remove(appointmentId);
+            if (existing == null) {
+                return false;
+            }
+            buckets.get(existing.bucket()).remove(existing);
+            ordered = null;
+            return true;
+        }
+
+        private int positionOf(Integer appointmentId) {
+            List<Entry> list = ordered();
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i).appointmentId().equals(appointmentId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean sameSortFields(Entry a, Entry b) {
+            return a.bucket() == b.bucket() && a.walkIn() == b.walkIn() && a.late() == b.late()
+                    && Objects.equals(a.realTimeQueueNumber(), b.realTimeQueueNumber())
+                    && Objects.equals(a.checkInTime(), b.checkInTime())
+                    && Objects.equals(a.recheckInTime(), b.recheckInTime())
+                    && Objects.equals(a.appointmentNumber(), b.appointmentNumber())
+                    && Objects.equals(a.calledAt(), b.calledAt());
+        }
+
+        /**
+         * 合并各分组得到完整队列
+         */
+        private List<Entry> ordered() {
+            if (ordered != null) {
+                return ordered;
+            }
+            List<Entry> result = new ArrayList<>(entries.size());
+            List<Entry> followUps = buckets.get(Bucket.SAME_DOCTOR_FOLLOW_UP);
+            int followUpIndex = 0;
+            int normalCount = 0;
+            for (Entry entry : buckets.get(Bucket.NORMAL)) {
+                result.add(entry);
+                normalCount++;
+                // 每两位正常挂号患者之后插入一个复诊号
+                if (normalCount % 2 == 0 && followUpIndex < followUps.size()) {
+                    result.add(followUps.get(followUpIndex++));
+                }
+            }
+            // 剩余的复诊号添加到末尾
+            result.addAll(followUps.subList(followUpIndex, followUps.size()));
+            result.addAll(buckets.get(Bucket.OTHER_DOCTOR_FOLLOW_UP));
+            result.addAll(buckets.get(Bucket.MISSED_CALL));
+            result.addAll(buckets.get(Bucket.ADD_ON));
+
+            ordered = Collections.unmodifiableList(result);
+            next = result.stream().filter(entry -> entry.calledAt() == null).findFirst().orElse(null);
+            return ordered;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.appointment.CallQueueDelta;
+import com.example.springboot.dto.appointment.CallQueueSnapshot;
+import com.example.springboot.entity.enums.ScheduleStatus;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.repository.ScheduleRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 叫号队列推送服务（Server-Sent Events）
+ *
+ * 候诊大屏和患者手机原来轮询叫号队列接口，这里改为订阅推送：
+ * - 按排班订阅：先推送一次完整队列快照（snapshot），之后推送队列变化（delta）
+ * - 按科室、按楼层订阅：只推送该科室/楼层所有排班的队列变化，大屏按 scheduleId 自行归并
+ *
+ * 主题有订阅者期间，其包含的排班队列在 CallQueueEngine 中被固定（加载并定时同步，不会被空闲清理），
+ * 推送不依赖是否有客户端在轮询。科室、楼层主题包含当天的排班，由定时任务重新查询，
+ * 排班换人（代班）、换诊室、新增排班后在下一轮同步时归入新的主题。
+ *
+ * 每个变化只序列化一次，再分发给所有订阅者。SseEmitter 基于 Servlet 异步请求，连接空闲时不占用线程；
+ * 每个订阅者有自己的待发送队列，有数据时才由虚拟线程按顺序写出，慢连接只会积压自己的队列，
+ * 积压超过上限时断开，由客户端重连后重新获取快照。
+ */
+@Service
+public class CallQueueStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallQueueStreamService.class);
+
+    // 单个订阅者最多积压的待发送消息数
+    private static final int MAX_PENDING_MESSAGES = 100;
+
+    private final CallQueueEngine callQueueEngine;
+    private final ScheduleRepository scheduleRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${call-queue.stream.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${call-queue.stream.max-subscribers:2000}")
+    private int maxSubscribers;
+
+    // key: 订阅主题（schedule:{id} / department:{id} / floor:{building}:{floorLevel}）
+    private final Map<String, Set<Subscriber>> topics = new ConcurrentHashMap<>();
+    // key: 有订阅者的主题, value: 主题包含的排班ID（已在 CallQueueEngine 中固定）
+    private final Map<String, Set<Integer>> watchedSchedules = new ConcurrentHashMap<>();
+    // 订阅者加入/离开与固定、取消固定排班队列互斥
+    private final Object watchLock = new Object();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    @Autowired
+    public CallQueueStreamService(CallQueueEngine callQueueEngine,
+                                  ScheduleRepository scheduleRepository,
+                                  ObjectMapper objectMapper,
+                                  PlatformTransactionManager transactionManager) {
+        this.callQueueEngine = callQueueEngine;
+        this.scheduleRepository = scheduleRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @PostConstruct
+    private void registerChangeListener() {
+        callQueueEngine.addChangeListener(this::onQueueChanged);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        topics.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+        executor.shutdownNow();
+    }
+
+    /**
+     * 订阅单个排班的叫号队列
+     */
+    public SseEmitter subscribeSchedule(Integer scheduleId) {
+        // 先订阅再取快照，快照之前积压的变化中版本号不大于快照的会被丢弃
+        Subscriber subscriber = register(scheduleTopic(scheduleId), true);
+        try {
+            CallQueueSnapshot snapshot = callQueueEngine.getSnapshot(scheduleId);
+            subscriber.start(new Message("snapshot", snapshot.getVersion(), toJson(snapshot)));
+        } catch (RuntimeException e) {
+            unregister(subscriber);
+            throw e;
+        }
+        return subscriber.emitter;
+    }
+
+    /**
+     * 订阅科室下所有排班的叫号队列变化
+     */
+    public SseEmitter subscribeDepartment(Integer departmentId) {
+        Subscriber subscriber = register(departmentTopic(departmentId), false);
+        return subscriber.emitter;
+    }
+
+    /**
+     * 订阅楼层内所有排班的叫号队列变化
+     */
+    public SseEmitter subscribeFloor(String building, Integer floorLevel) {
+        Subscriber subscriber = register(floorTopic(building, floorLevel), false);
+        return subscriber.emitter;
+    }
+
+    /**
+     * 向所有订阅者发送心跳（SSE 注释行），防止代理断开空闲连接，同时及时清理已断开的连接
+     */
+    public void sendHeartbeats() {
+        Message heartbeat = new Message(null, null, "heartbeat");
+        topics.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.offer(heartbeat)));
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * 重新查询科室、楼层主题当天包含的排班，固定新增的排班队列、取消固定已移出的
+     */
+    public void refreshWatchedTopics() {
+        for (String topic : new ArrayList<>(watchedSchedules.keySet())) {
+            if (topic.startsWith("schedule:")) {
+                continue;
+            }
+            Set<Integer> current;
+            try {
+                current = loadTopicSchedules(topic);
+            } catch (RuntimeException e) {
+                logger.warn("叫号队列推送主题排班查询失败 - 主题: {}, 错误: {}", topic, e.getMessage());
+                continue;
+            }
+            synchronized (watchLock) {
+                Set<Integer> previous = watchedSchedules.get(topic);
+                if (previous == null || previous.equals(current)) {
+                    continue;
+                }
+                current.stream().filter(id -> !previous.contains(id)).forEach(callQueueEngine::pin);
+                previous.stream().filter(id -> !current.contains(id)).forEach(callQueueEngine::unpin);
+                watchedSchedules.put(topic, current);
+                logger.debug("叫号队列推送主题排班已更新 - 主题: {}, 排班数: {}", topic, current.size());
+            }
+        }
+    }
+
+    private void onQueueChanged(CallQueueDelta delta) {
+        List<Set<Subscriber>> targets = new ArrayList<>();
+        for (String topic : topicsOf(delta.getScheduleId())) {
+            Set<Subscriber> subscribers = topics.get(topic);
+            if (subscribers != null && !subscribers.isEmpty()) {
+                targets.add(subscribers);
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        Message message = new Message("delta", delta.getVersion(), toJson(delta));
+        targets.forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.offer(message)));
+    }
+
+    /**
+     * 包含该排班、且有订阅者的主题
+     */
+    private List<String> topicsOf(Integer scheduleId) {
+        List<String> result = new ArrayList<>();
+        watchedSchedules.forEach((topic, scheduleIds) -> {
+            if (scheduleIds.contains(scheduleId)) {
+                result.add(topic);
+            }
+        });
+        return result;
+    }
+
+    private Subscriber register(String topic, boolean paused) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new BadRequestException("当前订阅连接数过多，请稍后再试");
+        }
+        Subscriber subscriber = new Subscriber(topic, new SseEmitter(TimeUnit.MINUTES.toMillis(timeoutMinutes)), paused);
+        subscriber.emitter.onCompletion(() -> unregister(subscriber));
+        subscriber.emitter.onTimeout(() -> unregister(subscriber));
+        subscriber.emitter.onError(e -> unregister(subscriber));
+        synchronized (watchLock) {
+            Set<Subscriber> subscribers = topics.computeIfAbsent(topic, key -> ConcurrentHashMap.newKeySet());
+            if (subscribers.isEmpty()) {
+                // 主题的第一个订阅者：固定主题包含的排班队列
+                try {
+                    Set<Integer> scheduleIds = loadTopicSchedules(topic);
+                    scheduleIds.forEach(callQueueEngine::pin);
+                    watchedSchedules.put(topic, scheduleIds);
+                } catch (RuntimeException e) {
+                    topics.remove(topic, subscribers);
+                    subscriberCount.decrementAndGet();
+                    throw e;
+                }
+            }
+            subscribers.add(subscriber);
+        }
+        logger.debug("叫号队列订阅 - 主题: {}, 当前订阅数: {}", topic, subscriberCount.get());
+        return subscriber;
+    }
+
+    private void unregister(Subscriber subscriber) {
+        synchronized (watchLock) {
+            Set<Subscriber> subscribers = topics.get(subscriber.topic);
+            if (subscribers == null || !subscribers.remove(subscriber)) {
+                return;
+            }
+            subscriberCount.decrementAndGet();
+            if (subscribers.isEmpty()) {
+                // 主题的最后一个订阅者：取消固定
+                topics.remove(subscriber.topic);
+                Set<Integer> scheduleIds = watchedSchedules.remove(subscriber.topic);
+                if (scheduleIds != null) {
+                    scheduleIds.forEach(callQueueEngine::unpin);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询主题包含的排班：排班主题即该排班，科室、楼层主题为当天未取消的排班
+     */
+    private Set<Integer> loadTopicSchedules(String topic) {
+        String type = topic.substring(0, topic.indexOf(':'));
+        String key = topic.substring(type.length() + 1);
+        if (type.equals("schedule")) {
+            return Set.of(Integer.valueOf(key));
+        }
+        LocalDate today = LocalDate.now();
+        List<Integer> scheduleIds = transactionTemplate.execute(status -> {
+            if (type.equals("department")) {
+                return scheduleRepository.findIdsByDateAndDepartment(today, Integer.valueOf(key), ScheduleStatus.cancelled);
+            }
+            // floor:{building}:{floorLevel}，楼栋名称中可能含有冒号，从最后一个冒号拆分
+            int separator = key.lastIndexOf(':');
+            String building = key.substring(0, separator);
+            return scheduleRepository.findIdsByDateAndFloor(today, building.isEmpty() ? null : building,
+                    Integer.valueOf(key.substring(separator + 1)), ScheduleStatus.cancelled);
+        });
+        return scheduleIds != null ? new HashSet<>(scheduleIds) : new HashSet<>();
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("叫号队列推送内容序列化失败", e);
+        }
+    }
+
+    private static String scheduleTopic(Integer scheduleId) {
+        return "schedule:" + scheduleId;
+    }
+
+    private static String departmentTopic(Integer departmentId) {
+        return "department:" + departmentId;
+    }
+
+    private static String floorTopic(String building, Integer floorLevel) {
+        return "floor:" + (building != null ? building : "") + ":" + floorLevel;
+    }
+
+    /**
+     * 待发送的消息（name 为 null 时是心跳注释）
+     */
+    private record Message(String name, Long version, String data) {
+    }
+
+    /**
+     * 单个订阅连接：消息按顺序排队，有消息时由虚拟线程写出
+     */
+    private class Subscriber {
+        private final String topic;
+        private final SseEmitter emitter;
+        private final Deque<Message> pending = new ArrayDeque<>();
+        private boolean paused;    // 等待快照期间只积压不发送
+        private boolean draining;
+        private boolean closed;
+
+        private Subscriber(String topic, SseEmitter emitter, boolean paused) {
+            this.topic = topic;
+            this.emitter = emitter;
+            this.paused = paused;
+        }
+
+        /**
+         * 发送快照并开始发送积压的变化（丢弃快照已包含的旧版本）
+         */
+        private synchronized void start(Message snapshot) {
+            pending.removeIf(message -> message.version() != null && message.version() <= snapshot.version());
+            pending.addFirst(snapshot);
+            paused = false;
+            scheduleDrain();
+        }
+
+        private void offer(Message message) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (pending.size() < MAX_PENDING_MESSAGES) {
+                    pending.addLast(message);
+                    scheduleDrain();
+                    return;
+                }
+                closed = true;
+                pending.clear();
+            }
+            // 在订阅者锁外取消订阅，避免与持有 watchLock 的订阅/同步线程互相等待
+            logger.warn("叫号队列订阅者积压过多，断开连接 - 主题: {}", topic);
+            unregister(this);
+            emitter.complete();
+        }
+
+        private void scheduleDrain() {
+            if (!paused && !draining && !pending.isEmpty()) {
+                draining = true;
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Message message;
+                synchronized (this) {
+                    message = pending.pollFirst();
+                    if (message == null || closed) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    if (message.name() == null) {
+                        emitter.send(SseEmitter.event().comment(message.data()));
+                    } else {
+                        emitter.send(SseEmitter.event()
+                                .name(message.name())
+                                .id(String.valueOf(message.version()))
+                                .data(message.data(), MediaType.APPLICATION_JSON));
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // 客户端已断开
+                    synchronized (this) {
+                        closed = true;
+                        pending.clear();
+                        draining = false;
+                    }
+                    unregister(this);
+                    emitter.completeWithError(e);
+                    return;
+                }
+            }
+        }
+    }
+}
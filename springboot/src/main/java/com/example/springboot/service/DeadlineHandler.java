@@ -0,0 +1,18 @@
+package com.example.springboot.service;
+
+/**
+ * 截止时间处理器
+ * 实现该接口的 Bean 会被 DeadlineScheduler 自动发现，按 deadlineType 分发到期的截止时间。
+ */
+public interface DeadlineHandler {
+
+    /**
+     * 截止时间类型（如 "waitlist"），与 DeadlineScheduler.schedule 的 type 一致
+     */
+    String deadlineType();
+
+    /**
+     * 截止时间已到。处理前应重新检查业务状态（期间可能已支付或已取消），重复调用必须无副作用
+     */
+    void onDeadline(String id);
+}
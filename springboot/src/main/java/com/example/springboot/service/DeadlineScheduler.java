@@ -0,0 +1,261 @@
+package com.example.springboot.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 截止时间调度器（分层时间轮）
+ *
+ * 候补支付超时、加号支付超时等截止时间在登记时写入 Redis 有序集合（score 为截止时间），
+ * 同时放入本地分层时间轮：最低层每格1秒、共64格，上层每格是下层一整圈，超出范围的逐层上移，
+ * 到期前逐层降级，最终在截止时间后约1秒内触发，不需要定时扫表。
+ *
+ * - 重启和多实例：每30秒从 Redis 加载即将到期（10分钟内）的截止时间，包括其他实例登记的和重启前登记的
+ * - 只触发一次：触发前从 Redis 有序集合中删除该成员，删除成功的实例才执行处理器；Redis 不可用时直接执行
+ * - 处理器必须重新检查业务状态，原有的定时任务降为低频兜底扫描
+ */
+@Service
+public class DeadlineScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadlineScheduler.class);
+
+    private static final String REDIS_KEY = "deadline:queue";
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 64;
+    // 每隔多少个刻度从 Redis 加载一次，以及加载多长时间内到期的截止时间
+    private static final int LOAD_INTERVAL_TICKS = 30;
+    private static final long LOAD_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectProvider<DeadlineHandler> handlers;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "deadline-ticker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // 其他线程登记的截止时间先放入收件箱，由 ticker 线程放入时间轮
+    private final Queue<Deadline> inbox = new ConcurrentLinkedQueue<>();
+
+    // 以下字段只由 ticker 线程访问
+    private TimingWheel wheel;
+    // key: 成员（type:id），value: 截止时间；同一成员重复登记时以最新的为准
+    private final Map<String, Long> pending = new HashMap<>();
+    private long ticks;
+
+    @Autowired
+    public DeadlineScheduler(RedisTemplate<String, String> redisTemplate,
+                             ObjectProvider<DeadlineHandler> handlers) {
+        this.redisTemplate = redisTemplate;
+        // 延迟获取处理器，避免处理器（如 WaitlistService）与调度器之间的循环依赖
+        this.handlers = handlers;
+    }
+
+    @PostConstruct
+    private void start() {
+        wheel = new TimingWheel(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis(), true);
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        ticker.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * 登记截止时间（重复登记同一 type 和 id 时以最新的截止时间为准）
+     */
+    public void schedule(String type, Object id, LocalDateTime dueAt) {
+        String member = type + ":" + id;
+        long dueAtMillis = dueAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try {
+            redisTemplate.opsForZSet().add(REDIS_KEY, member, dueAtMillis);
+        } catch (Exception e) {
+            logger.warn("截止时间写入Redis失败，仅在本实例登记 - {}, 截止时间: {}, 错误: {}", member, dueAt, e.getMessage());
+        }
+        inbox.add(new Deadline(member, dueAtMillis));
+    }
+
+    private void tick() {
+        // 异常不能抛出，否则后续刻度不再执行
+        try {
+            long now = System.currentTimeMillis();
+            if (ticks++ % LOAD_INTERVAL_TICKS == 0) {
+                loadFromRedis(now);
+            }
+            Deadline deadline;
+            while ((deadline = inbox.poll()) != null) {
+                pending.put(deadline.member(), deadline.dueAt());
+                addOrFire(deadline, now);
+            }
+            List<Deadline> flushed = new ArrayList<>();
+            wheel.advance(now, flushed);
+            for (Deadline item : flushed) {
+                addOrFire(item, now);
+            }
+        } catch (Exception e) {
+            logger.error("截止时间调度失败", e);
+        }
+    }
+
+    private void addOrFire(Deadline deadline, long now) {
+        Long dueAt = pending.get(deadline.member());
+        if (dueAt == null || dueAt != deadline.dueAt()) {
+            return; // 已触发或已被重新登记
+        }
+        if (!wheel.add(deadline, now)) {
+            pending.remove(deadline.member());
+            executor.execute(() -> fire(deadline));
+        }
+    }
+
+    /**
+     * 从 Redis 加载即将到期的截止时间（其他实例登记的、本实例重启前登记的）
+     */
+    private void loadFromRedis(long now) {
+        Set<ZSetOperations.TypedTuple<String>> due;
+        try {
+            due = redisTemplate.opsForZSet().rangeByScoreWithScores(REDIS_KEY, 0, now + LOAD_AHEAD_MILLIS, 0, LOAD_BATCH_SIZE);
+        } catch (Exception e) {
+            logger.warn("从Redis加载截止时间失败: {}", e.getMessage());
+            return;
+        }
+        if (due == null) {
+            return;
+        }
+        for (ZSetOperations.TypedTuple<String> tuple : due) {
+            if (tuple.getValue() == null || tuple.getScore() == null) {
+                continue;
+            }
+            long dueAt = tuple.getScore().longValue();
+            Long existing = pending.get(tuple.getValue());
+            if (existing == null || existing != dueAt) {
+                pending.put(tuple.getValue(), dueAt);
+                addOrFire(new Deadline(tuple.getValue(), dueAt), now);
+            }
+        }
+    }
+
+    private void fire(Deadline deadline) {
+        String member = deadline.member();
+        try {
+            Long removed = redisTemplate.opsForZSet().remove(REDIS_KEY, member);
+            if (removed != null && removed == 0) {
+                return; // 已由其他实例处理
+            }
+        } catch (Exception e) {
+            logger.warn("截止时间认领失败，直接处理 - {}, 错误: {}", member, e.getMessage());
+        }
+
+        int separator = member.indexOf(':');
+        String type = member.substring(0, separator);
+        String id = member.substring(separator + 1);
+        DeadlineHandler handler = handlers.orderedStream()
+                .filter(candidate -> type.equals(candidate.deadlineType()))
+                .findFirst()
+                .orElse(null);
+        if (handler == null) {
+            logger.error("没有找到截止时间处理器 - {}", member);
+            return;
+        }
+        try {
+            handler.onDeadline(id);
+        } catch (Exception e) {
+            logger.error("截止时间处理失败，等待兜底扫描 - 处理器: {}, {}",
+                    AopUtils.getTargetClass(handler).getSimpleName(), member, e);
+        }
+    }
+
+    private record Deadline(String member, long dueAt) {
+    }
+
+    /**
+     * 单层时间轮，超出本层范围的交给上一层（每格是本层一整圈）
+     */
+    private static final class TimingWheel {
+        private final long tickMillis;
+        private final int wheelSize;
+        private final boolean lowest;
+        private final List<List<Deadline>> buckets;
+        private long currentTime; // 当前格的起点
+        private TimingWheel overflowWheel;
+
+        private TimingWheel(long tickMillis, int wheelSize, long now, boolean lowest) {
+            this.tickMillis = tickMillis;
+            this.wheelSize = wheelSize;
+            this.lowest = lowest;
+            this.currentTime = now - now % tickMillis;
+            this.buckets = new ArrayList<>(wheelSize);
+            for (int i = 0; i < wheelSize; i++) {
+                buckets.add(new ArrayList<>());
+            }
+        }
+
+        /**
+         * 放入时间轮，已到期时返回 false
+         */
+        private boolean add(Deadline deadline, long now) {
+            if (deadline.dueAt() <= now) {
+                return false;
+            }
+            if (deadline.dueAt() < currentTime + tickMillis * wheelSize) {
+                buckets.get(index(deadline.dueAt())).add(deadline);
+                return true;
+            }
+            if (overflowWheel == null) {
+                overflowWheel = new TimingWheel(tickMillis * wheelSize, wheelSize, currentTime, false);
+            }
+            return overflowWheel.add(deadline, now);
+        }
+
+        /**
+         * 推进到当前时间，取出需要触发或降级的条目：
+         * 最低层在格结束后取出（保证不提前触发），上层在格开始时取出并降级到下层
+         */
+        private void advance(long now, List<Deadline> flushed) {
+            long target = now - now % tickMillis;
+            if (target > currentTime) {
+                long from = lowest ? currentTime : currentTime + tickMillis;
+                long to = lowest ? target - tickMillis : target;
+                int steps = 0;
+                for (long time = from; time <= to && steps < wheelSize; time += tickMillis, steps++) {
+                    List<Deadline> bucket = buckets.get(index(time));
+                    flushed.addAll(bucket);
+                    bucket.clear();
+                }
+                currentTime = target;
+            }
+            if (overflowWheel != null) {
+                overflowWheel.advance(now, flushed);
+            }
+        }
+
+        private int index(long time) {
+            return (int) ((time / tickMillis) % wheelSize);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.CapacitySuggestion;
+import com.example.springboot.dto.schedule.ScheduleDemandObservation;
+import com.example.springboot.entity.DemandForecast;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.TimeSlot;
+import com.example.springboot.repository.DemandForecastRepository;
+import com.example.springboot.repository.ScheduleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 号源需求预测服务
+ *
+ * 按 医生+星期几+时段 统计历史需求，需求 = 有效预约数 + 未转为预约的候补数
+ * （号源约满时预约数被总号源数截断，候补人数反映了超出的部分）。同一医生同一天同一时段的排班（含加号虚拟号源）合并为一次观测，
+ * 同一星期几的观测按日期顺序做指数平滑：F = α·需求 + (1-α)·F，星期几作为周季节性。
+ *
+ * 预测由每晚的定时任务增量更新：从已参与预测的最晚排班日期的次日处理到昨天，每条预测记录保存自己的水位，重复执行不会重复计入。
+ * 自动排班只读取预测表，不在请求时统计历史数据。
+ */
+@Service
+public class DemandForecastService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DemandForecastService.class);
+
+    // 多实例部署时只允许一个实例执行增量更新
+    private static final String REFRESH_LOCK_KEY = "demand-forecast:refresh-lock";
+    private static final long REFRESH_LOCK_HOURS = 2;
+
+    private final DemandForecastRepository demandForecastRepository;
+    private final ScheduleRepository scheduleRepository;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${demand-forecast.alpha:0.3}")
+    private double alpha;
+
+    @Value("${demand-forecast.initial-lookback-days:180}")
+    private int initialLookbackDays;
+
+    @Value("${demand-forecast.chunk-days:31}")
+    private int chunkDays;
+
+    @Value("${demand-forecast.min-samples:3}")
+    private int minSamples;
+
+    @Value("${demand-forecast.headroom:0.1}")
+    private double headroom;
+
+    @Value("${demand-forecast.min-total-slots:5}")
+    private int minTotalSlots;
+
+    @Value("${demand-forecast.max-total-slots:60}")
+    private int maxTotalSlots;
+
+    @Autowired
+    public DemandForecastService(DemandForecastRepository demandForecastRepository,
+                                 ScheduleRepository scheduleRepository,
+                                 RedisTemplate<String, String> redisTemplate,
+                                 PlatformTransactionManager transactionManager) {
+        this.demandForecastRepository = demandForecastRepository;
+        this.scheduleRepository = scheduleRepository;
+        this.redisTemplate = redisTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 增量更新需求预测（处理到昨天为止的历史排班）
+     *
+     * @return 本次计入预测的观测数，其他实例正在更新时返回 -1
+     */
+    public int refreshForecasts() {
+        String token = UUID.randomUUID().toString();
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(REFRESH_LOCK_KEY, token, REFRESH_LOCK_HOURS, TimeUnit.HOURS);
+        if (!Boolean.TRUE.equals(acquired)) {
+            logger.info("其他实例正在更新需求预测，跳过本次更新");
+            return -1;
+        }
+        try {
+            return refreshUntilYesterday();
+        } finally {
+            if (token.equals(redisTemplate.opsForValue().get(REFRESH_LOCK_KEY))) {
+                redisTemplate.delete(REFRESH_LOCK_KEY);
+            }
+        }
+    }
+
+    private int refreshUntilYesterday() {
+        LocalDate endDate = LocalDate.now().minusDays(1);
+        LocalDate latest = demandForecastRepository.findLatestScheduleDate();
+        LocalDate from = latest != null ? latest.plusDays(1) : endDate.minusDays(initialLookbackDays - 1L);
+
+        int observations = 0;
+        while (!from.isAfter(endDate)) {
+            LocalDate to = from.plusDays(Math.max(1, chunkDays) - 1L);
+            if (to.isAfter(endDate)) {
+                to = endDate;
+            }
+            LocalDate chunkStart = from;
+            LocalDate chunkEnd = to;
+            // 每批单独提交，中途失败时已提交的批次不会重复计入
+            Integer applied = transactionTemplate.execute(status -> refreshChunk(chunkStart, chunkEnd));
+            observations += applied != null ? applied : 0;
+            from = chunkEnd.plusDays(1);
+        }
+        return observations;
+    }
+
+    private int refreshChunk(LocalDate startDate, LocalDate endDate) {
+        List<ScheduleDemandObservation> rows = scheduleRepository.findDemandObservations(startDate, endDate);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        // 同一医生同一天同一时段的排班合并为一次观测（按日期顺序）
+        Map<String, Observation> observations = new LinkedHashMap<>();
+        for (ScheduleDemandObservation row : rows) {
+            String key = row.getDoctorId() + "_" + row.getScheduleDate() + "_" + row.getSlotId();
+            long demand = row.getAppointmentCount() + row.getWaitlistCount();
+            observations.merge(key,
+                    new Observation(row.getDoctorId(), row.getSlotId(), row.getScheduleDate(), demand),
+                    (a, b) -> new Observation(a.doctorId(), a.slotId(), a.date(), a.demand() + b.demand()));
+        }
+
+        Set<Integer> doctorIds = observations.values().stream()
+                .map(Observation::doctorId)
+                .collect(Collectors.toSet());
+        Map<String, DemandForecast> forecasts = demandForecastRepository.findByDoctorIdIn(doctorIds).stream()
+                .collect(Collectors.toMap(
+                        f -> forecastKey(f.getDoctorId(), f.getDayOfWeek(), f.getSlotId()), f -> f));
+
+        Map<String, DemandForecast> changed = new HashMap<>();
+        int applied = 0;
+        for (Observation observation : observations.values()) {
+            int dayOfWeek = observation.date().getDayOfWeek().getValue();
+            String key = forecastKey(observation.doctorId(), dayOfWeek, observation.slotId());
+            DemandForecast forecast = forecasts.get(key);
+            if (forecast == null) {
+                forecast = new DemandForecast();
+                forecast.setDoctorId(observation.doctorId());
+                forecast.setDayOfWeek(dayOfWeek);
+                forecast.setSlotId(observation.slotId());
+                forecasts.put(key, forecast);
+            } else if (!observation.date().isAfter(forecast.getLastScheduleDate())) {
+                // 已计入过
+                continue;
+            }
+
+            double smoothed = forecast.getSampleCount() == 0
+                    ? observation.demand()
+                    : alpha * observation.demand() + (1 - alpha) * forecast.getSmoothedDemand().doubleValue();
+            forecast.setSmoothedDemand(BigDecimal.valueOf(smoothed).setScale(2, RoundingMode.HALF_UP));
+            forecast.setSampleCount(forecast.getSampleCount() + 1);
+            forecast.setLastScheduleDate(observation.date());
+            changed.put(key, forecast);
+            applied++;
+        }
+
+        demandForecastRepository.saveAll(changed.values());
+        logger.info("需求预测已更新 - 日期: {} ~ {}, 观测数: {}, 更新预测: {}", startDate, endDate, applied, changed.size());
+        return applied;
+    }
+
+    /**
+     * 加载医生的需求预测，用于自动排班时建议号源数量
+     *
+     * @param doctorIds 医生ID列表
+     * @return 号源建议
+     */
+    public CapacityPlan loadCapacityPlan(Collection<Integer> doctorIds) {
+        if (doctorIds.isEmpty()) {
+            return new CapacityPlan(Map.of());
+        }
+        Map<String, DemandForecast> forecasts = demandForecastRepository.findByDoctorIdIn(doctorIds).stream()
+                .filter(f -> f.getSampleCount() >= minSamples)
+                .collect(Collectors.toMap(
+                        f -> forecastKey(f.getDoctorId(), f.getDayOfWeek(), f.getSlotId()), f -> f));
+        return new CapacityPlan(forecasts);
+    }
+
+    private static String forecastKey(Integer doctorId, Integer dayOfWeek, Integer slotId) {
+        return doctorId + "_" + dayOfWeek + "_" + slotId;
+    }
+
+    /**
+     * 一次观测：某医生某天某时段的需求
+     */
+    private record Observation(Integer doctorId, Integer slotId, LocalDate date, long demand) {
+    }
+
+    /**
+     * 号源建议（已加载的预测，只在一次排班生成中使用）
+     */
+    public class CapacityPlan {
+        private final Map<String, DemandForecast> forecasts;
+
+        private CapacityPlan(Map<String, DemandForecast> forecasts) {
+            this.forecasts = forecasts;
+        }
+
+        /**
+         * 建议号源数量：预测需求留出余量后取整，限制在配置的上下限之间；
+         * 该星期几没有足够的历史数据时，使用该医生同一时段其他星期几预测的加权平均；都没有时使用默认号源数量
+         *
+         * @param defaultSlots 规则中的默认号源数量
+         */
+        public CapacitySuggestion suggest(Doctor doctor, LocalDate date, TimeSlot slot, int defaultSlots) {
+            CapacitySuggestion suggestion = new CapacitySuggestion();
+            suggestion.setDoctorId(doctor.getDoctorId());
+            suggestion.setDoctorName(doctor.getFullName());
+            suggestion.setDate(date);
+            suggestion.setSlotId(slot.getSlotId());
+            suggestion.setSlotName(slot.getSlotName());
+            suggestion.setDefaultSlots(defaultSlots);
+            suggestion.setSuggestedSlots(defaultSlots);
+
+            DemandForecast forecast = forecasts.get(
+                    forecastKey(doctor.getDoctorId(), date.getDayOfWeek().getValue(), slot.getSlotId()));
+            double demand;
+            int samples;
+            if (forecast != null) {
+                demand = forecast.getSmoothedDemand().doubleValue();
+                samples = forecast.getSampleCount();
+            } else {
+                List<DemandForecast> sameSlot = new ArrayList<>();
+                for (int day = 1; day <= 7; day++) {
+                    DemandForecast other = forecasts.get(forecastKey(doctor.getDoctorId(), day, slot.getSlotId()));
+                    if (other != null) {
+                        sameSlot.add(other);
+                    }
+                }
+                samples = sameSlot.stream().mapToInt(DemandForecast::getSampleCount).sum();
+                if (samples == 0) {
+                    suggestion.setSampleCount(0);
+                    return suggestion;
+                }
+                demand = sameSlot.stream()
+                        .mapToDouble(f -> f.getSmoothedDemand().doubleValue() * f.getSampleCount())
+                        .sum() / samples;
+            }
+
+            int suggested = (int) Math.ceil(demand * (1 + headroom));
+            suggestion.setForecastDemand(BigDecimal.valueOf(demand).setScale(2, RoundingMode.HALF_UP).doubleValue());
+            suggestion.setSampleCount(samples);
+            suggestion.setSuggestedSlots(Math.max(minTotalSlots, Math.min(maxTotalSlots, suggested)));
+            return suggestion;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.*;
 
 import com.example.springboot.entity.Department;
@@ -551,20 +552,12 @@ public class DoctorService {
         List<Schedule> schedules = scheduleRepository.findByDoctorAndScheduleDateBetween(
                 doctor, startDate, endDate);
         
-        // 3. 获取请假信息
-        List<LeaveRequest> leaveRequests = leaveRequestRepository.findByDoctor(doctor);
+        // 3. 获取与查询时间段有交集的请假记录（所有状态，由数据库按时间范围过滤）
+        List<LeaveRequest> filteredLeaves = leaveRequestRepository
+                .findByDoctorAndStartTimeLessThanEqualAndEndTimeGreaterThanEqual(
+                        doctor, endDate.atTime(LocalTime.MAX), startDate.atStartOfDay());
         
-        // 4. 过滤请假记录（只保留与查询时间段有交集的记录）
-        List<LeaveRequest> filteredLeaves = leaveRequests.stream()
-                .filter(leave -> {
-                    LocalDate leaveStart = leave.getStartTime().toLocalDate();
-                    LocalDate leaveEnd = leave.getEndTime().toLocalDate();
-                    // 检查是否有时间交集
-                    return !(leaveEnd.isBefore(startDate) || leaveStart.isAfter(endDate));
-                })
-                .toList();
-        
-        // 5. 转换为简化的DTO格式
+        // 4. 转换为简化的DTO格式
         List<Map<String, Object>> scheduleDTOs = schedules.stream()
                 .map(schedule -> {
                     Map<String, Object> dto = new HashMap<>();
@@ -592,7 +585,7 @@ public class DoctorService {
                 })
                 .toList();
         
-        // 6. 构建返回结果
+        // 5. 构建返回结果
         Map<String, Object> result = new HashMap<>();
         result.put("schedules", scheduleDTOs);
         result.put("leaves", leaveDTOs);
@@ -0,0 +1,177 @@
+package com.example.springboot.service;
+
+import com.example.springboot.exception.BadRequestException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 幂等请求服务
+ * 移动端（uni_app）在超时后会自动重试，预约、支付、退款等接口会被重复提交。
+ * 客户端在请求头 Idempotency-Key 中携带唯一键，首次请求的结果序列化后保存在 Redis 中，
+ * 相同键的重放请求只需一次 Redis 读取即可返回首次结果，不会再访问数据库。
+ *
+ * 记录格式（JSON）：{"fingerprint": 请求指纹, "state": "PROCESSING" | "COMPLETED", "body": 响应体}
+ * - 相同键但请求内容不同（指纹不一致）：拒绝
+ * - 首次请求仍在处理中：拒绝，提示客户端稍后重试
+ * - 首次请求失败：删除记录，允许客户端用相同键重试
+ * - Redis 不可用（读取或占位失败）：跳过幂等保护直接执行并记录警告，与号源库存等服务的降级方式一致；
+ *   重复提交由业务本身的状态校验（重复预约、已支付、已退款）拦截
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+    public static final String HEADER_NAME = "Idempotency-Key";
+
+    private static final String KEY_PREFIX = "idempotency:";
+    private static final int MAX_KEY_LENGTH = 128;
+    // 处理中标记的过期时间（秒），防止进程异常退出后键一直被占用
+    private static final long PROCESSING_EXPIRE_SECONDS = 60;
+    // 完成结果的保留时间（小时）
+    private static final long RESULT_EXPIRE_HOURS = 24;
+    // 占位失败后重新读取记录的最大次数（记录在读取和占位之间过期或被删除时重试）
+    private static final int MAX_ACQUIRE_ATTEMPTS = 3;
+
+    private static final String STATE_PROCESSING = "PROCESSING";
+    private static final String STATE_COMPLETED = "COMPLETED";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public IdempotencyService(RedisTemplate<String, String> redisTemplate, ObjectMapper objectMapper) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 以幂等方式执行操作
+     *
+     * @param idempotencyKey 请求头中的幂等键，为空时直接执行
+     * @param scope 接口标识（如 "appointment:pay"），不同接口的相同键互不影响
+     * @param request 请求内容（路径参数和请求体），用于计算指纹
+     * @param responseType 响应类型
+     * @param action 实际执行的操作
+     * @return 首次执行的结果
+     */
+    public <T> T execute(String idempotencyKey, String scope, Object request, Class<T> responseType, Supplier<T> action) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return action.get();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new BadRequestException(HEADER_NAME + " 长度不能超过 " + MAX_KEY_LENGTH);
+        }
+
+        String redisKey = KEY_PREFIX + scope + ":" + idempotencyKey;
+        String fingerprint = fingerprint(scope, request);
+
+        // 1. 重放请求：一次 Redis 读取直接返回
+        // 2. 首次请求：先占位，并发的相同请求只有一个能占位成功；占位失败时重新读取记录
+        for (int attempt = 1; ; attempt++) {
+            String existing;
+            boolean acquired = false;
+            try {
+                existing = redisTemplate.opsForValue().get(redisKey);
+                if (existing == null) {
+                    acquired = Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(redisKey,
+                            toRecord(fingerprint, STATE_PROCESSING, null), PROCESSING_EXPIRE_SECONDS, TimeUnit.SECONDS));
+                }
+            } catch (Exception e) {
+                logger.warn("Redis 不可用，跳过幂等保护直接执行请求 - key: {}, 错误: {}", redisKey, e.getMessage());
+                return action.get();
+            }
+            if (existing != null) {
+                return replay(redisKey, existing, fingerprint, responseType);
+            }
+            if (acquired) {
+                break;
+            }
+            if (attempt >= MAX_ACQUIRE_ATTEMPTS) {
+                throw new BadRequestException("相同的请求正在处理中，请稍后再查询结果");
+            }
+        }
+
+        // 3. 执行并保存结果；失败时删除占位，允许使用相同键重试
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            try {
+                redisTemplate.delete(redisKey);
+            } catch (Exception deleteError) {
+                logger.warn("删除幂等占位失败，{} 秒后自动过期 - key: {}, 错误: {}",
+                        PROCESSING_EXPIRE_SECONDS, redisKey, deleteError.getMessage());
+            }
+            throw e;
+        }
+        try {
+            redisTemplate.opsForValue().set(redisKey,
+                    toRecord(fingerprint, STATE_COMPLETED, objectMapper.valueToTree(result)),
+                    RESULT_EXPIRE_HOURS, TimeUnit.HOURS);
+        } catch (Exception e) {
+            logger.warn("保存幂等结果失败 - key: {}, 错误: {}", redisKey, e.getMessage());
+        }
+        return result;
+    }
+
+    private <T> T replay(String redisKey, String record, String fingerprint, Class<T> responseType) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(record);
+        } catch (JsonProcessingException e) {
+            logger.error("幂等记录格式错误 - key: {}", redisKey, e);
+            throw new BadRequestException("幂等记录异常，请更换 " + HEADER_NAME + " 后重试");
+        }
+        if (!fingerprint.equals(node.path("fingerprint").asText())) {
+            throw new BadRequestException(HEADER_NAME + " 已被用于其他请求，请勿复用");
+        }
+        if (!STATE_COMPLETED.equals(node.path("state").asText())) {
+            throw new BadRequestException("相同的请求正在处理中，请稍后再查询结果");
+        }
+        logger.info("幂等重放，直接返回首次结果 - key: {}", redisKey);
+        try {
+            return objectMapper.treeToValue(node.get("body"), responseType);
+        } catch (JsonProcessingException e) {
+            logger.error("幂等结果反序列化失败 - key: {}", redisKey, e);
+            throw new BadRequestException("幂等记录异常，请更换 " + HEADER_NAME + " 后重试");
+        }
+    }
+
+    private String toRecord(String fingerprint, String state, JsonNode body) {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("fingerprint", fingerprint);
+        node.put("state", state);
+        if (body != null) {
+            node.set("body", body);
+        }
+        return node.toString();
+    }
+
+    /**
+     * 请求指纹：SHA-256(接口标识 + 请求内容JSON)
+     */
+    private String fingerprint(String scope, Object request) {
+        try {
+            String content = scope + "|" + objectMapper.writeValueAsString(request);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("计算请求指纹失败", e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.springboot.service;
+
+import com.example.springboot.entity.LeaveRequest;
+import com.example.springboot.entity.enums.LeaveRequestStatus;
+import com.example.springboot.repository.LeaveRequestRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 请假区间索引
+ *
+ * 按医生缓存已批准的请假区间：区间按开始时间排序，并记录前缀最大结束时间（静态的区间树），
+ * "医生在 [t1, t2] 内是否请假" 只需一次二分查找，O(log n)；"哪些医生在 [t1, t2] 内有空" 对每个医生各查一次。
+ * 排班生成、替班推荐等需要判断请假冲突的地方都通过这里查询，不再加载请假列表逐条比较。
+ *
+ * 请假审批、修改、删除后调用 invalidate，事务提交后清除该医生的缓存，下次查询时重新从数据库加载。
+ */
+@Service
+public class LeaveIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaveIndex.class);
+
+    private final LeaveRequestRepository leaveRequestRepository;
+    private final TransactionTemplate transactionTemplate;
+    // key: doctorId
+    private final Map<Integer, DoctorLeaves> cache = new ConcurrentHashMap<>();
+    // 每次失效加一，批量加载期间发生失效时不写入缓存，避免写入旧数据
+    private final AtomicLong version = new AtomicLong();
+
+    @Autowired
+    public LeaveIndex(LeaveRequestRepository leaveRequestRepository,
+                      PlatformTransactionManager transactionManager) {
+        this.leaveRequestRepository = leaveRequestRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * 医生在 [start, end] 内是否有已批准的请假（端点相接也算冲突）
+     */
+    public boolean isOnLeave(Integer doctorId, LocalDateTime start, LocalDateTime end) {
+        DoctorLeaves leaves = cache.computeIfAbsent(doctorId, id -> transactionTemplate.execute(status ->
+                DoctorLeaves.of(leaveRequestRepository.findByDoctorDoctorIdInAndStatus(List.of(id), LeaveRequestStatus.APPROVED))));
+        return leaves.overlaps(start, end);
+    }
+
+    /**
+     * 筛选在 [start, end] 内没有请假的医生（保持传入顺序）
+     */
+    public List<Integer> findAvailableDoctors(Collection<Integer> doctorIds, LocalDateTime start, LocalDateTime end) {
+        preload(doctorIds);
+        return doctorIds.stream()
+                .filter(doctorId -> !isOnLeave(doctorId, start, end))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 一次查询加载多个医生的请假区间（已缓存的跳过）
+     */
+    public void preload(Collection<Integer> doctorIds) {
+        List<Integer> missing = doctorIds.stream()
+                .filter(doctorId -> !cache.containsKey(doctorId))
+                .distinct()
+                .collect(Collectors.toList());
+        if (missing.isEmpty()) {
+            return;
+        }
+        long loadedVersion = version.get();
+        Map<Integer, List<LeaveRequest>> byDoctor = transactionTemplate.execute(status ->
+                leaveRequestRepository.findByDoctorDoctorIdInAndStatus(missing, LeaveRequestStatus.APPROVED).stream()
+                        .collect(Collectors.groupingBy(leave -> leave.getDoctor().getDoctorId())));
+        if (version.get() != loadedVersion) {
+            return;
+        }
+        for (Integer doctorId : missing) {
+            cache.putIfAbsent(doctorId, DoctorLeaves.of(byDoctor.getOrDefault(doctorId, List.of())));
+        }
+    }
+
+    /**
+     * 医生的请假记录发生变化（审批、修改、删除）：当前事务提交后清除缓存，不在事务中时立即清除
+     */
+    public void invalidate(Integer doctorId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(doctorId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict(doctorId);
+            }
+        });
+    }
+
+    private void evict(Integer doctorId) {
+        version.incrementAndGet();
+        cache.remove(doctorId);
+        logger.debug("请假区间索引已失效 - doctorId: {}", doctorId);
+    }
+
+    /**
+     * 单个医生的请假区间：按开始时间排序，maxEnds[i] 为前 i+1 个区间的最大结束时间
+     */
+    private static class DoctorLeaves {
+        private static final DoctorLeaves EMPTY = new DoctorLeaves(new LocalDateTime[0], new LocalDateTime[0]);
+
+        private final LocalDateTime[] starts;
+        private final LocalDateTime[] maxEnds;
+
+        private DoctorLeaves(LocalDateTime[] starts, LocalDateTime[] maxEnds) {
+            this.starts = starts;
+            this.maxEnds = maxEnds;
+        }
+
+        private static DoctorLeaves of(List<LeaveRequest> leaves) {
+            if (leaves.isEmpty()) {
+                return EMPTY;
+            }
+            List<LeaveRequest> sorted = new ArrayList<>(leaves);
+            sorted.sort(Comparator.comparing(LeaveRequest::getStartTime));
+            LocalDateTime[] starts = new LocalDateTime[sorted.size()];
+            LocalDateTime[] maxEnds = new LocalDateTime[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                starts[i] = sorted.get(i).getStartTime();
+                LocalDateTime end = sorted.get(i).getEndTime();
+                maxEnds[i] = i > 0 && maxEnds[i - 1].isAfter(end) ? maxEnds[i - 1] : end;
+            }
+            return new DoctorLeaves(starts, maxEnds);
+        }
+
+        /**
+         * 开始时间不晚于 end 的区间中，只要最大结束时间不早于 start 就有交集
+         */
+        private boolean overlaps(LocalDateTime start, LocalDateTime end) {
+            int low = 0;
+            int high = starts.length - 1;
+            int last = -1; // 最后一个开始时间 <= end 的区间
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid].isAfter(end)) {
+                    high = mid - 1;
+                } else {
+                    last = mid;
+                    low = mid + 1;
+                }
+            }
+            return last >= 0 && !maxEnds[last].isBefore(start);
+        }
+    }
+}
@@ -18,8 +18,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.time.LocalDate;
@@ -39,6 +45,9 @@ public class LeaveRequestService {
     private final AdminService adminService; // For converting admin entity to DTO
     private final NotificationService notificationService; // For sending notifications
     private final com.example.springboot.repository.AppointmentRepository appointmentRepository;
+    private final WaitlistService waitlistService;
+    private final LeaveIndex leaveIndex;
+    private final TransactionTemplate requiresNewTemplate;
 
     @Autowired
     public LeaveRequestService(LeaveRequestRepository leaveRequestRepository,
@@ -48,7 +57,10 @@ public class LeaveRequestService {
                                DoctorService doctorService,
                                AdminService adminService,
                                NotificationService notificationService,
-                               com.example.springboot.repository.AppointmentRepository appointmentRepository) {
+                               com.example.springboot.repository.AppointmentRepository appointmentRepository,
+                               @Lazy WaitlistService waitlistService,
+                               LeaveIndex leaveIndex,
+                               PlatformTransactionManager transactionManager) {
         this.leaveRequestRepository = leaveRequestRepository;
         this.doctorRepository = doctorRepository;
         this.adminRepository = adminRepository;
@@ -57,6 +69,10 @@ public class LeaveRequestService {
         this.adminService = adminService;
         this.notificationService = notificationService;
         this.appointmentRepository = appointmentRepository;
+        this.waitlistService = waitlistService;
+        this.leaveIndex = leaveIndex;
+        this.requiresNewTemplate = new TransactionTemplate(transactionManager);
+        this.requiresNewTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
     }
 
     @Transactional(readOnly = true)
@@ -232,6 +248,10 @@ public class LeaveRequestService {
 
         existingRequest.setUpdatedAt(LocalDateTime.now());
         LeaveRequest savedRequest = leaveRequestRepository.save(existingRequest);
+        // 审批通过或修改已批准的请假后，请假区间索引需要重新加载
+        if (savedRequest.getStatus() == LeaveRequestStatus.APPROVED) {
+            leaveIndex.invalidate(savedRequest.getDoctor().getDoctorId());
+        }
         System.out.println("保存后的状态: " + savedRequest.getStatus());
         System.out.println("保存后的审批人ID: " + (savedRequest.getApprover() != null ? savedRequest.getApprover().getAdminId() : "null"));
         return convertToResponseDto(savedRequest);
@@ -239,10 +259,12 @@ public class LeaveRequestService {
 
     @Transactional
     public void deleteLeaveRequest(Integer id) {
-        if (!leaveRequestRepository.existsById(id)) {
-            throw new ResourceNotFoundException("LeaveRequest not found with id " + id);
+        LeaveRequest leaveRequest = leaveRequestRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("LeaveRequest not found with id " + id));
+        if (leaveRequest.getStatus() == LeaveRequestStatus.APPROVED) {
+            leaveIndex.invalidate(leaveRequest.getDoctor().getDoctorId());
         }
-        leaveRequestRepository.deleteById(id);
+        leaveRequestRepository.delete(leaveRequest);
     }
 
     /**
@@ -307,7 +329,7 @@ public class LeaveRequestService {
     /**
      * 获取受影响的排班列表
      */
-    private List<Schedule> getAffectedSchedules(Doctor doctor, LocalDateTime startTime, LocalDateTime endTime) {
+    List<Schedule> getAffectedSchedules(Doctor doctor, LocalDateTime startTime, LocalDateTime endTime) {
         LocalDate startDate = startTime.toLocalDate();
         LocalDate endDate = endTime.toLocalDate();
         
@@ -357,6 +379,13 @@ public class LeaveRequestService {
                 schedule.getSlot().getEndTime()
         );
         
+        // 一次筛选出该时间段没有请假的医生
+        Set<Integer> availableDoctorIds = new HashSet<>(leaveIndex.findAvailableDoctors(
+                sameDepartmentDoctors.stream().map(Doctor::getDoctorId).collect(Collectors.toList()),
+                scheduleStartTime,
+                scheduleEndTime
+        ));
+        
         for (Doctor doctor : sameDepartmentDoctors) {
             // 检查排班冲突
             List<Schedule> doctorSchedules = scheduleRepository.findByDoctorAndScheduleDateBetween(
@@ -368,16 +397,8 @@ public class LeaveRequestService {
                     .anyMatch(s -> s.getSlot().getSlotId().equals(schedule.getSlot().getSlotId()));
             conflictMap.put(doctor.getDoctorId(), hasConflict);
             
-            // 检查是否在请假中
-            List<LeaveRequest> doctorLeaves = leaveRequestRepository.findByDoctor(doctor);
-            boolean isOnLeave = doctorLeaves.stream()
-                    .filter(leave -> leave.getStatus() == LeaveRequestStatus.APPROVED)
-                    .anyMatch(leave -> {
-                        // 检查请假时间是否与排班时间有交集
-                        return !leave.getEndTime().isBefore(scheduleStartTime) 
-                                && !leave.getStartTime().isAfter(scheduleEndTime);
-                    });
-            onLeaveMap.put(doctor.getDoctorId(), isOnLeave);
+            // 检查是否在请假中（请假时间与排班时间有交集）
+            onLeaveMap.put(doctor.getDoctorId(), !availableDoctorIds.contains(doctor.getDoctorId()));
         }
         
         // 转换为响应DTO并设置匹配等级
@@ -492,6 +513,8 @@ public class LeaveRequestService {
         int successCount = 0;
         int failedCount = 0;
         int cancelledCount = 0;
+        // 替班后仍有空余号源的排班，key: 排班ID, value: 空余号源数
+        Map<Integer, Integer> freeSlots = new LinkedHashMap<>();
         
         for (Map.Entry<Integer, Integer> entry : request.getSubstitutions().entrySet()) {
             Integer scheduleId = entry.getKey();
@@ -560,8 +583,8 @@ public class LeaveRequestService {
                     Integer substituteLevel = substituteDoctor.getTitleLevel() != null ? substituteDoctor.getTitleLevel() : 999;
                     boolean isDowngrade = substituteLevel > originalLevel; // 替班医生职称更低
                     
-                    // 更新排班的医生和状态
-                    schedule.setDoctor(substituteDoctor);
+                    // 更新排班的医生和状态（同时更新候补匹配索引）
+                    waitlistService.changeScheduleDoctor(schedule, substituteDoctor);
                     // 恢复排班状态为可用（如果之前被取消了）
                     if (schedule.getStatus() == ScheduleStatus.cancelled) {
                         // 根据号源情况设置状态
@@ -573,6 +596,9 @@ public class LeaveRequestService {
                         logger.info("恢复排班状态: cancelled -> {}", schedule.getStatus());
                     }
                     scheduleRepository.save(schedule);
+                    if (schedule.getStatus() == ScheduleStatus.available && schedule.getBookedSlots() < schedule.getTotalSlots()) {
+                        freeSlots.put(scheduleId, schedule.getTotalSlots() - schedule.getBookedSlots());
+                    }
                     
                     logger.info("排班 #{} 医生已更新，职称变化: {}", scheduleId, 
                         isDowngrade ? "降级" : (substituteLevel < originalLevel ? "升级" : "平级"));
@@ -646,6 +672,11 @@ public class LeaveRequestService {
             }
         }
         
+        // 恢复的排班空出的号源一次批量填充候补（也包括接受新医生的候补）
+        if (!freeSlots.isEmpty()) {
+            fillWaitlistsAfterCommit(freeSlots);
+        }
+        
         response.setSuccessCount(successCount);
         response.setFailedCount(failedCount);
         response.setCancelledCount(cancelledCount);
@@ -657,6 +688,31 @@ public class LeaveRequestService {
         return response;
     }
 
+    /**
+     * 替班事务提交后在独立事务中填充候补
+     * 填充失败只回滚填充本身，不会把替班事务标记为只能回滚
+     */
+    private void fillWaitlistsAfterCommit(Map<Integer, Integer> freeSlots) {
+        Runnable fill = () -> {
+            try {
+                Integer filled = requiresNewTemplate.execute(status -> waitlistService.fillWaitlists(freeSlots));
+                logger.info("替班后候补填充完成，已通知 {} 位候补患者", filled);
+            } catch (Exception e) {
+                logger.error("替班后候补填充失败: {}", e.getMessage(), e);
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            fill.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                fill.run();
+            }
+        });
+    }
+
     /**
      * 计算退款金额
      * 根据职称等级差异计算退款金额
@@ -0,0 +1,241 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.notification.NotificationCreateRequest;
+import com.example.springboot.dto.notification.NotificationOutboxMetrics;
+import com.example.springboot.entity.NotificationOutbox;
+import com.example.springboot.entity.enums.NotificationPriority;
+import com.example.springboot.entity.enums.NotificationStatus;
+import com.example.springboot.entity.enums.OutboxStatus;
+import com.example.springboot.repository.NotificationOutboxRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通知发件箱分发器
+ * 从 notification_outbox 中批量取出待分发记录，展开后通过 JDBC 批量插入 notifications 表。
+ * 批量插入失败时逐条重试，单条记录失败超过 MAX_ATTEMPTS 次后标记为 failed，不再阻塞后续记录。
+ */
+@Service
+public class NotificationOutboxDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationOutboxDispatcher.class);
+
+    // 每批最多处理的发件箱记录数
+    private static final int BATCH_SIZE = 100;
+    // 单条发件箱记录最大分发次数
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final String INSERT_SQL = "INSERT INTO notifications " +
+            "(user_id, user_type, type, title, content, related_entity, related_id, status, priority, sent_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final TypeReference<List<NotificationCreateRequest>> PAYLOAD_TYPE = new TypeReference<>() {};
+
+    private final NotificationOutboxRepository outboxRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    // 分发指标
+    private final AtomicLong dispatchedMessagesTotal = new AtomicLong();
+    private final AtomicLong dispatchedBatchesTotal = new AtomicLong();
+    private volatile long lastBatchLagMillis;
+    private volatile long lastDispatchDurationMillis;
+    private volatile LocalDateTime lastDispatchAt;
+    // 最近一分钟每批的 [分发时间戳, 通知条数]，用于计算吞吐量
+    private final Deque<long[]> recentDispatches = new ConcurrentLinkedDeque<>();
+
+    @Autowired
+    public NotificationOutboxDispatcher(NotificationOutboxRepository outboxRepository,
+                                        JdbcTemplate jdbcTemplate,
+                                        ObjectMapper objectMapper,
+                                        PlatformTransactionManager transactionManager) {
+        this.outboxRepository = outboxRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 分发所有待分发记录，返回本次分发的通知条数
+     */
+    public int dispatchPending() {
+        int total = 0;
+        while (true) {
+            BatchResult result;
+            try {
+                result = transactionTemplate.execute(status -> dispatchBatch());
+            } catch (Exception e) {
+                logger.error("通知批量分发失败，改为逐条分发", e);
+                result = transactionTemplate.execute(status -> dispatchIndividually());
+                total += result.messages;
+                break; // 出现过失败的记录时本轮不再继续，等下一轮重试
+            }
+            total += result.messages;
+            if (result.outboxes < BATCH_SIZE) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 获取分发指标
+     */
+    public NotificationOutboxMetrics getMetrics() {
+        NotificationOutboxMetrics metrics = new NotificationOutboxMetrics();
+        metrics.setPendingBatches(outboxRepository.countByStatus(OutboxStatus.pending));
+        metrics.setFailedBatches(outboxRepository.countByStatus(OutboxStatus.failed));
+        LocalDateTime oldestPending = outboxRepository.findOldestPendingCreatedAt();
+        metrics.setOldestPendingAgeSeconds(oldestPending != null
+                ? Math.max(0, Duration.between(oldestPending, LocalDateTime.now()).getSeconds())
+                : 0L);
+        metrics.setDispatchedMessagesTotal(dispatchedMessagesTotal.get());
+        metrics.setDispatchedBatchesTotal(dispatchedBatchesTotal.get());
+
+        pruneRecentDispatches();
+        long lastMinute = recentDispatches.stream().mapToLong(entry -> entry[1]).sum();
+        metrics.setDispatchedMessagesLastMinute(lastMinute);
+        metrics.setThroughputPerSecond(lastMinute / 60.0);
+        metrics.setLastBatchLagMillis(lastBatchLagMillis);
+        metrics.setLastDispatchDurationMillis(lastDispatchDurationMillis);
+        metrics.setLastDispatchAt(lastDispatchAt);
+        return metrics;
+    }
+
+    /**
+     * 批量分发：锁定一批记录，一次批量插入全部通知
+     */
+    private BatchResult dispatchBatch() {
+        long start = System.currentTimeMillis();
+        List<NotificationOutbox> outboxes = outboxRepository.lockPendingBatch(BATCH_SIZE);
+        if (outboxes.isEmpty()) {
+            return new BatchResult(0, 0);
+        }
+
+        List<Object[]> rows = new ArrayList<>();
+        List<Long> ids = new ArrayList<>(outboxes.size());
+        for (NotificationOutbox outbox : outboxes) {
+            rows.addAll(toRows(outbox));
+            ids.add(outbox.getOutboxId());
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+        LocalDateTime now = LocalDateTime.now();
+        outboxRepository.markDispatched(ids, now);
+
+        recordDispatch(outboxes, rows.size(), start, now);
+        logger.debug("通知批量分发完成 - 发件箱记录: {}, 通知条数: {}", outboxes.size(), rows.size());
+        return new BatchResult(outboxes.size(), rows.size());
+    }
+
+    /**
+     * 逐条分发：批量插入失败时找出有问题的记录，其余记录正常分发
+     */
+    private BatchResult dispatchIndividually() {
+        long start = System.currentTimeMillis();
+        List<NotificationOutbox> outboxes = outboxRepository.lockPendingBatch(BATCH_SIZE);
+        List<NotificationOutbox> dispatched = new ArrayList<>();
+        int messages = 0;
+        for (NotificationOutbox outbox : outboxes) {
+            try {
+                List<Object[]> rows = toRows(outbox);
+                jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+                outbox.setStatus(OutboxStatus.dispatched);
+                outbox.setDispatchedAt(LocalDateTime.now());
+                dispatched.add(outbox);
+                messages += rows.size();
+            } catch (Exception e) {
+                int attempts = outbox.getAttempts() + 1;
+                outbox.setAttempts(attempts);
+                outbox.setLastError(truncate(e.getMessage()));
+                if (attempts >= MAX_ATTEMPTS) {
+                    outbox.setStatus(OutboxStatus.failed);
+                    logger.error("通知发件箱记录分发失败次数过多，标记为失败 - outboxId: {}", outbox.getOutboxId(), e);
+                } else {
+                    logger.warn("通知发件箱记录分发失败 - outboxId: {}, 第 {} 次, 错误: {}",
+                            outbox.getOutboxId(), attempts, e.getMessage());
+                }
+            }
+        }
+        outboxRepository.saveAll(outboxes);
+        if (!dispatched.isEmpty()) {
+            recordDispatch(dispatched, messages, start, LocalDateTime.now());
+        }
+        return new BatchResult(dispatched.size(), messages);
+    }
+
+    private List<Object[]> toRows(NotificationOutbox outbox) {
+        List<NotificationCreateRequest> requests;
+        try {
+            requests = objectMapper.readValue(outbox.getPayload(), PAYLOAD_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("发件箱记录内容无法解析 - outboxId: " + outbox.getOutboxId(), e);
+        }
+        Timestamp sentAt = Timestamp.valueOf(outbox.getCreatedAt() != null ? outbox.getCreatedAt() : LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(requests.size());
+        for (NotificationCreateRequest request : requests) {
+            NotificationPriority priority = request.getPriority() != null ? request.getPriority() : NotificationPriority.normal;
+            rows.add(new Object[]{
+                    request.getUserId(),
+                    request.getUserType() != null ? request.getUserType().name() : null,
+                    request.getType() != null ? request.getType().name() : null,
+                    request.getTitle(),
+                    request.getContent(),
+                    request.getRelatedEntity(),
+                    request.getRelatedId(),
+                    NotificationStatus.unread.name(),
+                    priority.name(),
+                    sentAt
+            });
+        }
+        return rows;
+    }
+
+    private void recordDispatch(List<NotificationOutbox> outboxes, int messages, long start, LocalDateTime now) {
+        dispatchedMessagesTotal.addAndGet(messages);
+        dispatchedBatchesTotal.addAndGet(outboxes.size());
+        lastBatchLagMillis = (long) outboxes.stream()
+                .filter(outbox -> outbox.getCreatedAt() != null)
+                .mapToLong(outbox -> Duration.between(outbox.getCreatedAt(), now).toMillis())
+                .average()
+                .orElse(0);
+        lastDispatchDurationMillis = System.currentTimeMillis() - start;
+        lastDispatchAt = now;
+        recentDispatches.addLast(new long[]{System.currentTimeMillis(), messages});
+        pruneRecentDispatches();
+    }
+
+    private void pruneRecentDispatches() {
+        long threshold = System.currentTimeMillis() - 60_000;
+        while (!recentDispatches.isEmpty() && recentDispatches.peekFirst()[0] < threshold) {
+            recentDispatches.pollFirst();
+        }
+    }
+
+    private String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    private record BatchResult(int outboxes, int messages) {
+    }
+}
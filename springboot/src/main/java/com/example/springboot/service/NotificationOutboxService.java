@@ -0,0 +1,114 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.notification.NotificationCreateRequest;
+import com.example.springboot.entity.NotificationOutbox;
+import com.example.springboot.repository.NotificationOutboxRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 通知发件箱服务
+ * 业务事务中产生的通知先缓存在当前事务上，在事务提交前合并写入一行 notification_outbox 记录，
+ * 与业务数据一起提交或回滚；真正写入 notifications 表由 NotificationOutboxDispatcher 在后台批量完成。
+ * 不在事务中调用时，每次调用直接写入一行发件箱记录；在只读事务中调用时，在独立的新事务中直接写入。
+ */
+@Service
+public class NotificationOutboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationOutboxService.class);
+
+    private final NotificationOutboxRepository outboxRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate requiresNewTemplate;
+
+    @Autowired
+    public NotificationOutboxService(NotificationOutboxRepository outboxRepository, ObjectMapper objectMapper,
+                                     PlatformTransactionManager transactionManager) {
+        this.outboxRepository = outboxRepository;
+        this.objectMapper = objectMapper;
+        this.requiresNewTemplate = new TransactionTemplate(transactionManager);
+        this.requiresNewTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 加入发件箱
+     */
+    public void enqueue(NotificationCreateRequest request) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            save(List.of(request));
+            return;
+        }
+        // 只读事务没有需要一起提交的业务数据，也无法在提交前写入发件箱
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            saveInNewTransaction(List.of(request));
+            return;
+        }
+        currentBuffer().requests.add(request);
+    }
+
+    /**
+     * 获取当前事务的通知缓存（每个事务注册一个，REQUIRES_NEW 的内层事务有自己的缓存）
+     */
+    private OutboxBuffer currentBuffer() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof OutboxBuffer buffer && buffer.owner == this) {
+                return buffer;
+            }
+        }
+        OutboxBuffer buffer = new OutboxBuffer(this);
+        TransactionSynchronizationManager.registerSynchronization(buffer);
+        return buffer;
+    }
+
+    private void save(List<NotificationCreateRequest> requests) {
+        NotificationOutbox outbox = new NotificationOutbox();
+        try {
+            outbox.setPayload(objectMapper.writeValueAsString(requests));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("通知序列化失败", e);
+        }
+        outbox.setMessageCount(requests.size());
+        outboxRepository.save(outbox);
+        logger.debug("通知已写入发件箱 - outboxId: {}, 通知条数: {}", outbox.getOutboxId(), requests.size());
+    }
+
+    private void saveInNewTransaction(List<NotificationCreateRequest> requests) {
+        requiresNewTemplate.executeWithoutResult(status -> save(requests));
+    }
+
+    /**
+     * 事务内的通知缓存，提交前写入发件箱
+     */
+    private static class OutboxBuffer implements TransactionSynchronization {
+        private final NotificationOutboxService owner;
+        private final List<NotificationCreateRequest> requests = new ArrayList<>();
+
+        private OutboxBuffer(NotificationOutboxService owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (requests.isEmpty()) {
+                return;
+            }
+            if (readOnly) {
+                owner.saveInNewTransaction(requests);
+            } else {
+                owner.save(requests);
+            }
+        }
+    }
+}
@@ -3,11 +3,17 @@ package com.example.springboot.service;
 import com.example.springboot.dto.notification.NotificationCreateRequest;
 import com.example.springboot.dto.notification.NotificationResponse;
 import com.example.springboot.entity.Notification;
+import com.example.springboot.entity.Schedule;
 import com.example.springboot.entity.enums.NotificationPriority;
 import com.example.springboot.entity.enums.NotificationStatus;
 import com.example.springboot.entity.enums.NotificationType;
 import com.example.springboot.entity.enums.UserType;
+import com.example.springboot.event.AppointmentEventListener;
+import com.example.springboot.event.AppointmentLifecycleEvent;
+import com.example.springboot.repository.AppointmentRepository;
 import com.example.springboot.repository.NotificationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -18,43 +24,64 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 @Service
-public class NotificationService {
+public class NotificationService implements AppointmentEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
 
     private final NotificationRepository notificationRepository;
+    private final NotificationOutboxService notificationOutboxService;
+    private final AppointmentRepository appointmentRepository;
 
     @Autowired
-    public NotificationService(NotificationRepository notificationRepository) {
+    public NotificationService(NotificationRepository notificationRepository,
+                               NotificationOutboxService notificationOutboxService,
+                               AppointmentRepository appointmentRepository) {
         this.notificationRepository = notificationRepository;
+        this.notificationOutboxService = notificationOutboxService;
+        this.appointmentRepository = appointmentRepository;
     }
 
     /**
-     * 创建通知
+     * 预约事件监听：预约成功（现场挂号除外）和取消预约时通知患者
      */
+    @Override
     @Transactional
-    public NotificationResponse createNotification(NotificationCreateRequest request) {
-        Notification notification = new Notification();
-        notification.setUserId(request.getUserId());
-        notification.setUserType(request.getUserType());
-        notification.setType(request.getType());
-        notification.setTitle(request.getTitle());
-        notification.setContent(request.getContent());
-        notification.setRelatedEntity(request.getRelatedEntity());
-        notification.setRelatedId(request.getRelatedId());
-        notification.setPriority(request.getPriority() != null ? request.getPriority() : NotificationPriority.normal);
-        notification.setStatus(NotificationStatus.unread);
+    public void onAppointmentEvent(AppointmentLifecycleEvent event) {
+        if (event instanceof AppointmentLifecycleEvent.AppointmentCreated created && !created.walkIn()) {
+            appointmentRepository.findById(created.appointmentId()).ifPresent(appointment -> {
+                ScheduleInfo info = ScheduleInfo.of(appointment.getSchedule());
+                sendAppointmentNotification(created.patientId().intValue(), appointment.getAppointmentId(),
+                        info.departmentName, info.doctorName, info.scheduleDate, info.slotName,
+                        info.locationName, appointment.getAppointmentNumber());
+            });
+        } else if (event instanceof AppointmentLifecycleEvent.AppointmentCancelled cancelled) {
+            appointmentRepository.findById(cancelled.appointmentId()).ifPresent(appointment -> {
+                ScheduleInfo info = ScheduleInfo.of(appointment.getSchedule());
+                sendCancellationNotification(cancelled.patientId().intValue(), appointment.getAppointmentId(),
+                        info.departmentName, info.doctorName, info.scheduleDate, info.slotName);
+            });
+        } else {
+            return;
+        }
+        logger.debug("预约事件通知已加入发件箱 - 事件: {}, 预约ID: {}",
+                event.getClass().getSimpleName(), event.appointmentId());
+    }
 
-        Notification saved = notificationRepository.save(notification);
-        return convertToResponse(saved);
+    /**
+     * 创建通知
+     * 通知先写入发件箱，与当前业务事务一起提交，由 NotificationOutboxDispatcher 异步批量写入通知表
+     */
+    public void createNotification(NotificationCreateRequest request) {
+        notificationOutboxService.enqueue(request);
     }
 
     /**
      * 发送预约成功通知
      */
-    @Transactional
-    public NotificationResponse sendAppointmentNotification(Integer patientId, Integer appointmentId,
-                                                           String departmentName, String doctorName,
-                                                           String scheduleDate, String slotName,
-                                                           String locationName, Integer appointmentNumber) {
+    public void sendAppointmentNotification(Integer patientId, Integer appointmentId,
+                                           String departmentName, String doctorName,
+                                           String scheduleDate, String slotName,
+                                           String locationName, Integer appointmentNumber) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(patientId);
         request.setUserType(UserType.patient);
@@ -71,17 +98,16 @@ public class NotificationService {
         request.setRelatedId(appointmentId);
         request.setPriority(NotificationPriority.high);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送支付成功通知
      */
-    @Transactional
-    public NotificationResponse sendPaymentSuccessNotification(Integer patientId, Integer appointmentId, 
-                                                               String departmentName, String doctorName, 
-                                                               String scheduleDate, String slotName, 
-                                                               Double fee) {
+    public void sendPaymentSuccessNotification(Integer patientId, Integer appointmentId, 
+                                               String departmentName, String doctorName, 
+                                               String scheduleDate, String slotName, 
+                                               Double fee) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(patientId);
         request.setUserType(UserType.patient);
@@ -93,16 +119,15 @@ public class NotificationService {
         request.setRelatedId(appointmentId);
         request.setPriority(NotificationPriority.high);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送候补可用通知
      */
-    @Transactional
-    public NotificationResponse sendWaitlistAvailableNotification(Integer patientId, Integer waitlistId,
-                                                                  String departmentName, String doctorName,
-                                                                  String scheduleDate, String slotName) {
+    public void sendWaitlistAvailableNotification(Integer patientId, Integer waitlistId,
+                                                  String departmentName, String doctorName,
+                                                  String scheduleDate, String slotName) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(patientId);
         request.setUserType(UserType.patient);
@@ -114,16 +139,15 @@ public class NotificationService {
         request.setRelatedId(waitlistId);
         request.setPriority(NotificationPriority.urgent);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送取消预约通知
      */
-    @Transactional
-    public NotificationResponse sendCancellationNotification(Integer patientId, Integer appointmentId,
-                                                             String departmentName, String doctorName,
-                                                             String scheduleDate, String slotName) {
+    public void sendCancellationNotification(Integer patientId, Integer appointmentId,
+                                             String departmentName, String doctorName,
+                                             String scheduleDate, String slotName) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(patientId);
         request.setUserType(UserType.patient);
@@ -135,16 +159,15 @@ public class NotificationService {
         request.setRelatedId(appointmentId);
         request.setPriority(NotificationPriority.normal);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送请假批准通知
      */
-    @Transactional
-    public NotificationResponse sendLeaveApprovedNotification(Integer doctorId, Integer leaveRequestId,
-                                                              String startTime, String endTime,
-                                                              String approverComments) {
+    public void sendLeaveApprovedNotification(Integer doctorId, Integer leaveRequestId,
+                                              String startTime, String endTime,
+                                              String approverComments) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(doctorId);
         request.setUserType(UserType.doctor);
@@ -161,16 +184,15 @@ public class NotificationService {
         request.setRelatedId(leaveRequestId);
         request.setPriority(NotificationPriority.high);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送请假拒绝通知
      */
-    @Transactional
-    public NotificationResponse sendLeaveRejectedNotification(Integer doctorId, Integer leaveRequestId,
-                                                              String startTime, String endTime,
-                                                              String approverComments) {
+    public void sendLeaveRejectedNotification(Integer doctorId, Integer leaveRequestId,
+                                              String startTime, String endTime,
+                                              String approverComments) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(doctorId);
         request.setUserType(UserType.doctor);
@@ -187,17 +209,16 @@ public class NotificationService {
         request.setRelatedId(leaveRequestId);
         request.setPriority(NotificationPriority.high);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送医生替换通知（给患者）
      */
-    @Transactional
-    public NotificationResponse sendDoctorChangeNotification(Integer patientId, Integer appointmentId,
-                                                             String originalDoctorName, String newDoctorName,
-                                                             String departmentName, String scheduleDate, 
-                                                             String slotName, String locationName) {
+    public void sendDoctorChangeNotification(Integer patientId, Integer appointmentId,
+                                             String originalDoctorName, String newDoctorName,
+                                             String departmentName, String scheduleDate, 
+                                             String slotName, String locationName) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(patientId);
         request.setUserType(UserType.patient);
@@ -216,16 +237,15 @@ public class NotificationService {
         request.setRelatedId(appointmentId);
         request.setPriority(NotificationPriority.high);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送排班取消通知（给患者）
      */
-    @Transactional
-    public NotificationResponse sendScheduleCancelledNotification(Integer patientId, Integer appointmentId,
-                                                                  String doctorName, String departmentName,
-                                                                  String scheduleDate, String slotName) {
+    public void sendScheduleCancelledNotification(Integer patientId, Integer appointmentId,
+                                                  String doctorName, String departmentName,
+                                                  String scheduleDate, String slotName) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(patientId);
         request.setUserType(UserType.patient);
@@ -244,18 +264,17 @@ public class NotificationService {
         request.setRelatedId(appointmentId);
         request.setPriority(NotificationPriority.urgent);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
      * 发送医生降级退款通知（给患者）
      */
-    @Transactional
-    public NotificationResponse sendDoctorDowngradeRefundNotification(Integer patientId, Integer appointmentId,
-                                                                       String originalDoctorName, String originalTitle,
-                                                                       String newDoctorName, String newTitle,
-                                                                       String departmentName, String scheduleDate,
-                                                                       String slotName, Double refundAmount) {
+    public void sendDoctorDowngradeRefundNotification(Integer patientId, Integer appointmentId,
+                                                       String originalDoctorName, String originalTitle,
+                                                       String newDoctorName, String newTitle,
+                                                       String departmentName, String scheduleDate,
+                                                       String slotName, Double refundAmount) {
         NotificationCreateRequest request = new NotificationCreateRequest();
         request.setUserId(patientId);
         request.setUserType(UserType.patient);
@@ -275,7 +294,7 @@ public class NotificationService {
         request.setRelatedId(appointmentId);
         request.setPriority(NotificationPriority.high);
 
-        return createNotification(request);
+        createNotification(request);
     }
 
     /**
@@ -355,6 +374,40 @@ public class NotificationService {
         notificationRepository.save(notification);
     }
 
+    /**
+     * 通知内容中使用的排班信息（缺失时使用默认值）
+     */
+    private static class ScheduleInfo {
+        private String departmentName = "未知科室";
+        private String doctorName = "未知医生";
+        private String scheduleDate = "";
+        private String slotName = "";
+        private String locationName = "";
+
+        private static ScheduleInfo of(Schedule schedule) {
+            ScheduleInfo info = new ScheduleInfo();
+            if (schedule == null) {
+                return info;
+            }
+            if (schedule.getDoctor() != null && schedule.getDoctor().getDepartment() != null) {
+                info.departmentName = schedule.getDoctor().getDepartment().getName();
+            }
+            if (schedule.getDoctor() != null) {
+                info.doctorName = schedule.getDoctor().getFullName();
+            }
+            if (schedule.getScheduleDate() != null) {
+                info.scheduleDate = schedule.getScheduleDate().toString();
+            }
+            if (schedule.getSlot() != null) {
+                info.slotName = schedule.getSlot().getSlotName();
+            }
+            if (schedule.getLocation() != null) {
+                info.locationName = schedule.getLocation().getLocationName();
+            }
+            return info;
+        }
+    }
+
     /**
      * 转换为响应DTO
      */
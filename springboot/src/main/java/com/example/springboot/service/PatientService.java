@@ -186,6 +186,7 @@
 package com.example.springboot.service;
 
 // 导入 Spring Boot 核心组件和实体/DTO
+import com.example.springboot.common.Constants;
 import com.example.springboot.dto.auth.LoginResponse;
 import com.example.springboot.dto.common.PageResponse; // 导入新增方法所需的DTO
 import com.example.springboot.dto.patient.MedicalHistoryResponse; // 导入新增方法所需的DTO
@@ -196,6 +197,8 @@ import com.example.springboot.entity.Patient;
 import com.example.springboot.entity.PatientProfile;
 import com.example.springboot.entity.enums.BlacklistStatus;
 import com.example.springboot.entity.enums.PatientStatus; // <<<<<< 确保导入您的 PatientStatus 枚举
+import com.example.springboot.event.AppointmentEventListener;
+import com.example.springboot.event.AppointmentLifecycleEvent;
 import com.example.springboot.exception.ResourceNotFoundException;
 import com.example.springboot.repository.PatientRepository;
 import com.example.springboot.repository.PatientProfileRepository;
@@ -219,7 +222,7 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Service
-public class PatientService {
+public class PatientService implements AppointmentEventListener {
 
     private final PatientRepository patientRepository;
     private final PatientProfileRepository patientProfileRepository;
@@ -428,6 +431,17 @@ public class PatientService {
         return patientProfileRepository.save(patientProfile);
     }
 
+    /**
+     * 预约事件监听：患者爽约时增加爽约次数，达到上限后加入黑名单
+     */
+    @Override
+    @Transactional
+    public void onAppointmentEvent(AppointmentLifecycleEvent event) {
+        if (event instanceof AppointmentLifecycleEvent.NoShow noShow) {
+            patientProfileRepository.incrementNoShowCount(noShow.patientId(), Constants.MAX_NO_SHOW_COUNT);
+        }
+    }
+
     public PatientResponse convertToResponseDto(Patient patient) {
         if (patient == null) {
             return null;
@@ -0,0 +1,205 @@
+package com.example.springboot.service;
+
+import com.example.springboot.exception.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 签到二维码Token服务
+ *
+ * Token 自带预约ID、过期时间和随机数，并用 HMAC-SHA256 签名，签到时在本地校验，不需要访问 Redis：
+ * APPOINTMENT_{预约ID}_{过期时间(epoch秒)}_{随机数(16位hex)}_{签名(32位hex)}
+ * 保持 APPOINTMENT_{预约ID}_... 的前缀格式，扫码端（vue_admin CheckIn.vue）无需修改。
+ *
+ * 一次性使用：
+ * - 本地按过期时间分桶的布隆过滤器记录已使用的随机数，重放的 Token 在本地即可拒绝
+ * - 签到成功时对随机数执行一次 Redis SETNX，拦截在其他实例上已使用过的 Token；Redis 不可用时只依赖本地过滤器，不影响签到
+ * 预约状态校验（已签到的不能重复签到）仍是最终保障。
+ */
+@Service
+public class QrTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(QrTokenService.class);
+
+    public static final String TOKEN_PREFIX = "APPOINTMENT";
+
+    private static final String USED_KEY_PREFIX = "qr:used:";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_BYTES = 16;
+    // 布隆过滤器：每个桶覆盖1小时内过期的Token，2^20位（128KB），7个哈希函数
+    private static final long BUCKET_SECONDS = 3600;
+    private static final int FILTER_BITS = 1 << 20;
+    private static final int FILTER_HASHES = 7;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final SecretKeySpec key;
+    private final SecureRandom secureRandom = new SecureRandom();
+    // key: 桶的过期时间上界（epoch秒）
+    private final Map<Long, AtomicLongArray> usedFilters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public QrTokenService(RedisTemplate<String, String> redisTemplate,
+                          @Value("${qr-token.secret:}") String secret) {
+        this.redisTemplate = redisTemplate;
+        byte[] keyBytes;
+        if (secret == null || secret.isBlank()) {
+            // 未配置密钥时每次启动随机生成：重启后旧二维码失效，多实例部署时必须配置相同的密钥
+            logger.warn("未配置 qr-token.secret，使用随机密钥，多实例部署时各实例签发的二维码无法互相校验");
+            keyBytes = new byte[32];
+            secureRandom.nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+    }
+
+    /**
+     * 签发Token
+     */
+    public String issue(Integer appointmentId, Instant expiresAt) {
+        byte[] nonce = new byte[8];
+        secureRandom.nextBytes(nonce);
+        String payload = TOKEN_PREFIX + "_" + appointmentId + "_" + expiresAt.getEpochSecond()
+                + "_" + HexFormat.of().formatHex(nonce);
+        return payload + "_" + HexFormat.of().formatHex(sign(payload));
+    }
+
+    /**
+     * 本地校验Token（签名、过期时间、是否已使用），不访问 Redis
+     *
+     * @return Token 中的预约信息
+     */
+    public QrToken verify(String token) {
+        String[] parts = token.split("_");
+        if (parts.length != 5 || !TOKEN_PREFIX.equals(parts[0])) {
+            throw new BadRequestException("二维码已过期或无效，请患者刷新二维码后重试");
+        }
+
+        String payload = token.substring(0, token.lastIndexOf('_'));
+        byte[] signature;
+        try {
+            signature = HexFormat.of().parseHex(parts[4]);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("二维码Token格式错误，请刷新二维码后重试");
+        }
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            logger.warn("二维码Token签名校验失败 - Token: {}", token);
+            throw new BadRequestException("二维码已过期或无效，请患者刷新二维码后重试");
+        }
+
+        QrToken qrToken;
+        try {
+            qrToken = new QrToken(Integer.parseInt(parts[1]), Long.parseLong(parts[2]), parts[3]);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("二维码Token格式错误，请刷新二维码后重试");
+        }
+        if (Instant.now().getEpochSecond() > qrToken.expiresAt()) {
+            throw new BadRequestException("二维码已过期或无效，请患者刷新二维码后重试");
+        }
+        if (mightBeUsed(qrToken)) {
+            throw new BadRequestException("二维码已使用，请患者刷新二维码后重试");
+        }
+        return qrToken;
+    }
+
+    /**
+     * 标记Token已使用（签到成功时调用）：本地过滤器记录，并通过 Redis SETNX 拦截其他实例上的重复使用
+     */
+    public void markUsed(QrToken qrToken) {
+        markUsedLocally(qrToken);
+        long ttl = qrToken.expiresAt() - Instant.now().getEpochSecond();
+        if (ttl <= 0) {
+            return;
+        }
+        Boolean firstUse;
+        try {
+            firstUse = redisTemplate.opsForValue().setIfAbsent(USED_KEY_PREFIX + qrToken.nonce(),
+                    String.valueOf(qrToken.appointmentId()), ttl, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.warn("记录二维码使用状态失败，仅使用本地防重放 - 预约ID: {}, 错误: {}",
+                    qrToken.appointmentId(), e.getMessage());
+            return;
+        }
+        if (Boolean.FALSE.equals(firstUse)) {
+            throw new BadRequestException("二维码已使用，请患者刷新二维码后重试");
+        }
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return Arrays.copyOf(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)), SIGNATURE_BYTES);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("二维码Token签名失败", e);
+        }
+    }
+
+    private boolean mightBeUsed(QrToken qrToken) {
+        AtomicLongArray filter = usedFilters.get(bucketOf(qrToken.expiresAt()));
+        if (filter == null) {
+            return false;
+        }
+        for (int index : bitIndexes(qrToken.nonce())) {
+            if ((filter.get(index >>> 6) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void markUsedLocally(QrToken qrToken) {
+        // 顺便清理已全部过期的桶
+        long now = Instant.now().getEpochSecond();
+        usedFilters.keySet().removeIf(bucket -> bucket < now);
+
+        AtomicLongArray filter = usedFilters.computeIfAbsent(bucketOf(qrToken.expiresAt()),
+                bucket -> new AtomicLongArray(FILTER_BITS / 64));
+        for (int index : bitIndexes(qrToken.nonce())) {
+            long mask = 1L << index;
+            filter.getAndUpdate(index >>> 6, word -> word | mask);
+        }
+    }
+
+    private static long bucketOf(long expiresAt) {
+        return (expiresAt / BUCKET_SECONDS + 1) * BUCKET_SECONDS;
+    }
+
+    /**
+     * 随机数本身是均匀分布的，直接拆成两个哈希值做双重哈希
+     */
+    private static int[] bitIndexes(String nonce) {
+        long value = Long.parseUnsignedLong(nonce, 16);
+        int h1 = (int) value;
+        int h2 = (int) (value >>> 32) | 1;
+        int[] indexes = new int[FILTER_HASHES];
+        for (int i = 0; i < FILTER_HASHES; i++) {
+            indexes[i] = (h1 + i * h2) & (FILTER_BITS - 1);
+        }
+        return indexes;
+    }
+
+    /**
+     * 校验通过的Token内容
+     */
+    public record QrToken(Integer appointmentId, long expiresAt, String nonce) {
+    }
+}
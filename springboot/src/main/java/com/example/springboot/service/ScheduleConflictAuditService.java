@@ -0,0 +1,181 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.ConflictType;
+import com.example.springboot.dto.ScheduleConflict;
+import com.example.springboot.dto.schedule.ScheduleConflictAuditSummary;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.enums.ScheduleStatus;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.repository.ScheduleRepository;
+import com.example.springboot.util.ConflictDetector;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 全院排班冲突审计服务（Server-Sent Events）
+ *
+ * 按日期分批读取全院排班，用 ConflictDetector 的扫描线算法找出医生时间重叠和诊室占用冲突，边审计边推送：
+ * - conflict 事件：每个冲突一条（ScheduleConflict）
+ * - progress 事件：每批审计完成后推送累计进度
+ * - summary 事件：审计完成后推送汇总，随后关闭连接
+ *
+ * 冲突只发生在同一天内，按天分批不会漏报，内存中只保留一批排班；每批的查询在只读事务中完成，
+ * 推送在事务外进行，慢连接不会占用数据库连接。客户端断开后审计随之停止。
+ */
+@Service
+public class ScheduleConflictAuditService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleConflictAuditService.class);
+
+    private final ScheduleRepository scheduleRepository;
+    private final ConflictDetector conflictDetector;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+
+    @Value("${schedule-audit.chunk-days:7}")
+    private int chunkDays;
+
+    @Value("${schedule-audit.max-days:366}")
+    private int maxDays;
+
+    @Value("${schedule-audit.timeout-minutes:10}")
+    private long timeoutMinutes;
+
+    @Autowired
+    public ScheduleConflictAuditService(ScheduleRepository scheduleRepository,
+                                        ConflictDetector conflictDetector,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${schedule-audit.max-concurrent:2}") int maxConcurrent) {
+        this.scheduleRepository = scheduleRepository;
+        this.conflictDetector = conflictDetector;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.permits = new Semaphore(Math.max(1, maxConcurrent));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 开始审计日期范围内的全院排班
+     *
+     * @param startDate 开始日期
+     * @param endDate 结束日期
+     * @return SSE 连接
+     */
+    public SseEmitter audit(LocalDate startDate, LocalDate endDate) {
+        if (startDate == null || endDate == null) {
+            throw new BadRequestException("开始日期和结束日期不能为空");
+        }
+        if (endDate.isBefore(startDate)) {
+            throw new BadRequestException("结束日期不能早于开始日期");
+        }
+        if (ChronoUnit.DAYS.between(startDate, endDate) + 1 > maxDays) {
+            throw new BadRequestException("单次审计的日期跨度不能超过" + maxDays + "天");
+        }
+        if (!permits.tryAcquire()) {
+            throw new BadRequestException("正在进行的排班冲突审计过多，请稍后再试");
+        }
+
+        SseEmitter emitter = new SseEmitter(TimeUnit.MINUTES.toMillis(timeoutMinutes));
+        AtomicBoolean closed = new AtomicBoolean();
+        emitter.onCompletion(() -> closed.set(true));
+        emitter.onTimeout(() -> closed.set(true));
+        emitter.onError(e -> closed.set(true));
+        try {
+            executor.execute(() -> {
+                try {
+                    run(startDate, endDate, emitter, closed);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return emitter;
+    }
+
+    private void run(LocalDate startDate, LocalDate endDate, SseEmitter emitter, AtomicBoolean closed) {
+        long begin = System.currentTimeMillis();
+        ScheduleConflictAuditSummary summary = new ScheduleConflictAuditSummary();
+        summary.setStartDate(startDate);
+        summary.setEndDate(endDate);
+        summary.setScannedSchedules(0);
+        summary.setDoctorConflicts(0);
+        summary.setLocationConflicts(0);
+        summary.setCompleted(false);
+        try {
+            LocalDate from = startDate;
+            while (!from.isAfter(endDate)) {
+                if (closed.get()) {
+                    logger.info("排班冲突审计连接已关闭，停止审计 - 范围: {} ~ {}", startDate, endDate);
+                    return;
+                }
+                LocalDate to = from.plusDays(Math.max(1, chunkDays) - 1);
+                if (to.isAfter(endDate)) {
+                    to = endDate;
+                }
+                LocalDate chunkStart = from;
+                LocalDate chunkEnd = to;
+                List<Schedule> schedules = transactionTemplate.execute(status ->
+                        scheduleRepository.findForConflictAudit(chunkStart, chunkEnd, ScheduleStatus.cancelled));
+
+                List<ScheduleConflict> conflicts = new ArrayList<>();
+                conflictDetector.auditConflicts(schedules, conflicts::add);
+                for (ScheduleConflict conflict : conflicts) {
+                    if (conflict.getType() == ConflictType.LOCATION_CONFLICT) {
+                        summary.setLocationConflicts(summary.getLocationConflicts() + 1);
+                    } else {
+                        summary.setDoctorConflicts(summary.getDoctorConflicts() + 1);
+                    }
+                    emitter.send(SseEmitter.event().name("conflict").data(conflict, MediaType.APPLICATION_JSON));
+                }
+
+                summary.setScannedSchedules(summary.getScannedSchedules() + schedules.size());
+                summary.setAuditedUntil(chunkEnd);
+                summary.setElapsedMillis(System.currentTimeMillis() - begin);
+                emitter.send(SseEmitter.event().name("progress").data(summary, MediaType.APPLICATION_JSON));
+                from = chunkEnd.plusDays(1);
+            }
+
+            summary.setCompleted(true);
+            summary.setElapsedMillis(System.currentTimeMillis() - begin);
+            emitter.send(SseEmitter.event().name("summary").data(summary, MediaType.APPLICATION_JSON));
+            emitter.complete();
+            logger.info("排班冲突审计完成 - 范围: {} ~ {}, 排班数: {}, 医生冲突: {}, 诊室冲突: {}, 耗时: {}ms",
+                    startDate, endDate, summary.getScannedSchedules(), summary.getDoctorConflicts(),
+                    summary.getLocationConflicts(), summary.getElapsedMillis());
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            logger.info("排班冲突审计推送失败，停止审计 - 范围: {} ~ {}: {}", startDate, endDate, e.getMessage());
+            emitter.completeWithError(e);
+        } catch (RuntimeException e) {
+            logger.error("排班冲突审计失败 - 范围: {} ~ {}", startDate, endDate, e);
+            emitter.completeWithError(e);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.ScheduleRules;
+import com.example.springboot.dto.leaverequest.ScheduleRepairPlanResponse;
+import com.example.springboot.dto.leaverequest.SubstituteConfirmRequest;
+import com.example.springboot.dto.leaverequest.SubstituteConfirmResponse;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.LeaveRequest;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.enums.DoctorStatus;
+import com.example.springboot.entity.enums.LeaveRequestStatus;
+import com.example.springboot.entity.enums.ScheduleStatus;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.exception.ResourceNotFoundException;
+import com.example.springboot.repository.DoctorRepository;
+import com.example.springboot.repository.LeaveRequestRepository;
+import com.example.springboot.repository.ScheduleRepository;
+import com.example.springboot.util.ScheduleConstraintValidator;
+import com.example.springboot.util.ScheduleOccupancyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 请假排班增量修复
+ *
+ * 请假批准后只为受影响的排班重新分配医生，不重新生成整个科室的排班：
+ * - 候选医生为同科室其他在职医生，硬约束使用 ScheduleConstraintValidator 检查（时段冲突、请假、工作量上限、连续工作天数），
+ *   没有满足全部约束的医生时放宽连续工作天数限制（与自动排班相同）
+ * - 代价：职称降级（每个预约都要退款，按预约数加权）> 升级 > 平级，其次是否在平时出诊的诊室，最后是工作量
+ * - 预约多的排班优先分配，替班医生不足时尽量少影响预约；每分配一个排班都更新占用索引和工作量
+ * 只查询一次候选医生和他们的排班，典型的请假在毫秒级完成。
+ */
+@Service
+public class ScheduleRepairService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleRepairService.class);
+
+    // 连续工作天数检查需要往前加载的天数（与 ScheduleOccupancyIndex 一致）
+    private static final int LOOKBACK_DAYS = 31;
+    private static final double UPGRADE_COST = 1.0;
+    private static final double DOWNGRADE_COST = 3.0;
+    private static final double DOWNGRADE_COST_PER_APPOINTMENT = 1.0;
+    private static final double OTHER_LOCATION_COST = 1.0;
+    private static final double RELAXED_COST = 5.0;
+    private static final double WORKLOAD_COST = 0.1;
+
+    private final LeaveRequestRepository leaveRequestRepository;
+    private final DoctorRepository doctorRepository;
+    private final ScheduleRepository scheduleRepository;
+    private final LeaveRequestService leaveRequestService;
+    private final LeaveIndex leaveIndex;
+    private final ScheduleConstraintValidator constraintValidator;
+
+    @Autowired
+    public ScheduleRepairService(LeaveRequestRepository leaveRequestRepository,
+                                 DoctorRepository doctorRepository,
+                                 ScheduleRepository scheduleRepository,
+                                 LeaveRequestService leaveRequestService,
+                                 LeaveIndex leaveIndex,
+                                 ScheduleConstraintValidator constraintValidator) {
+        this.leaveRequestRepository = leaveRequestRepository;
+        this.doctorRepository = doctorRepository;
+        this.scheduleRepository = scheduleRepository;
+        this.leaveRequestService = leaveRequestService;
+        this.leaveIndex = leaveIndex;
+        this.constraintValidator = constraintValidator;
+    }
+
+    /**
+     * 为已批准请假影响的排班生成修复方案（不修改数据）
+     */
+    @Transactional(readOnly = true)
+    public ScheduleRepairPlanResponse planRepair(Integer leaveRequestId) {
+        long startTime = System.currentTimeMillis();
+        LeaveRequest leaveRequest = leaveRequestRepository.findById(leaveRequestId)
+                .orElseThrow(() -> new ResourceNotFoundException("LeaveRequest not found with id " + leaveRequestId));
+        if (leaveRequest.getStatus() != LeaveRequestStatus.APPROVED) {
+            throw new BadRequestException("只有已批准的请假可以生成排班修复方案");
+        }
+
+        Doctor originalDoctor = leaveRequest.getDoctor();
+        List<Schedule> affected = leaveRequestService.getAffectedSchedules(
+                originalDoctor, leaveRequest.getStartTime(), leaveRequest.getEndTime());
+        // 预约多的排班优先分配
+        affected.sort(Comparator.comparing((Schedule s) -> bookedSlots(s)).reversed()
+                .thenComparing(Schedule::getScheduleDate)
+                .thenComparing(s -> s.getSlot().getStartTime()));
+
+        List<ScheduleRepairPlanResponse.RepairItem> items = new ArrayList<>();
+        Map<Integer, Integer> substitutions = new LinkedHashMap<>();
+        int movedAppointments = 0;
+        if (!affected.isEmpty()) {
+            RepairState state = loadState(originalDoctor, affected);
+            for (Schedule schedule : affected) {
+                ScheduleRepairPlanResponse.RepairItem item = assign(schedule, originalDoctor, state);
+                items.add(item);
+                substitutions.put(schedule.getScheduleId(), item.getSubstituteDoctorId());
+                if (item.getSubstituteDoctorId() == null) {
+                    movedAppointments += bookedSlots(schedule);
+                }
+            }
+        }
+        items.sort(Comparator.comparing(ScheduleRepairPlanResponse.RepairItem::getScheduleDate)
+                .thenComparing(ScheduleRepairPlanResponse.RepairItem::getScheduleId));
+
+        ScheduleRepairPlanResponse response = new ScheduleRepairPlanResponse();
+        response.setLeaveRequestId(leaveRequestId);
+        response.setItems(items);
+        response.setSubstitutions(substitutions);
+        int covered = (int) items.stream().filter(item -> item.getSubstituteDoctorId() != null).count();
+        response.setCoveredCount(covered);
+        response.setUncoveredCount(items.size() - covered);
+        response.setMovedAppointments(movedAppointments);
+        response.setExecutionTime(System.currentTimeMillis() - startTime);
+        logger.info("请假排班修复方案 - 请假ID: {}, 受影响排班: {}, 已覆盖: {}, 需改约预约: {}, 耗时: {}ms",
+                leaveRequestId, items.size(), covered, movedAppointments, response.getExecutionTime());
+        return response;
+    }
+
+    /**
+     * 生成修复方案并按方案确认替班（没有替班医生的排班取消并通知患者）
+     */
+    @Transactional
+    public SubstituteConfirmResponse applyRepair(Integer leaveRequestId) {
+        ScheduleRepairPlanResponse plan = planRepair(leaveRequestId);
+        SubstituteConfirmRequest request = new SubstituteConfirmRequest();
+        request.setLeaveRequestId(leaveRequestId);
+        request.setSubstitutions(plan.getSubstitutions());
+        return leaveRequestService.confirmSubstitution(request);
+    }
+
+    /**
+     * 加载候选医生和他们在受影响日期范围内（含往前31天）的排班，构建占用索引和工作量
+     */
+    private RepairState loadState(Doctor originalDoctor, List<Schedule> affected) {
+        LocalDate firstDate = affected.stream().map(Schedule::getScheduleDate).min(LocalDate::compareTo).orElseThrow();
+        LocalDate lastDate = affected.stream().map(Schedule::getScheduleDate).max(LocalDate::compareTo).orElseThrow();
+
+        List<Doctor> candidates = doctorRepository.findByDepartmentAndStatus(originalDoctor.getDepartment(), DoctorStatus.active)
+                .stream()
+                .filter(doctor -> !doctor.getDoctorId().equals(originalDoctor.getDoctorId()))
+                .collect(Collectors.toList());
+        leaveIndex.preload(candidates.stream().map(Doctor::getDoctorId).collect(Collectors.toList()));
+
+        List<Schedule> schedules = candidates.isEmpty() ? List.of()
+                : scheduleRepository.findByScheduleDateBetweenAndDoctorIn(firstDate.minusDays(LOOKBACK_DAYS), lastDate, candidates)
+                .stream()
+                .filter(schedule -> schedule.getStatus() != ScheduleStatus.cancelled)
+                .collect(Collectors.toList());
+
+        RepairState state = new RepairState(candidates, ScheduleOccupancyIndex.of(firstDate, lastDate, schedules));
+        Map<Integer, Map<Integer, Integer>> locationCounts = new HashMap<>();
+        for (Schedule schedule : schedules) {
+            Integer doctorId = schedule.getDoctor().getDoctorId();
+            if (!schedule.getScheduleDate().isBefore(firstDate)) {
+                state.workloadMap.merge(doctorId, 1, Integer::sum);
+            }
+            locationCounts.computeIfAbsent(doctorId, id -> new HashMap<>())
+                    .merge(schedule.getLocation().getLocationId(), 1, Integer::sum);
+        }
+        // 医生平时出诊次数最多的诊室
+        locationCounts.forEach((doctorId, counts) -> state.usualLocations.put(doctorId,
+                counts.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(null)));
+        return state;
+    }
+
+    /**
+     * 为一个排班选择代价最小的替班医生，并更新占用索引和工作量
+     */
+    private ScheduleRepairPlanResponse.RepairItem assign(Schedule schedule, Doctor originalDoctor, RepairState state) {
+        ScheduleRepairPlanResponse.RepairItem item = new ScheduleRepairPlanResponse.RepairItem();
+        item.setScheduleId(schedule.getScheduleId());
+        item.setScheduleDate(schedule.getScheduleDate());
+        item.setSlotName(schedule.getSlot().getSlotName());
+        item.setLocationName(schedule.getLocation().getLocationName());
+        item.setBookedSlots(bookedSlots(schedule));
+
+        Doctor best = null;
+        double bestCost = Double.MAX_VALUE;
+        boolean bestRelaxed = false;
+        for (Doctor candidate : state.candidates) {
+            boolean relaxed;
+            if (constraintValidator.checkHardConstraints(candidate, schedule.getScheduleDate(), schedule.getSlot(),
+                    state.occupancy, state.workloadMap, state.rules)) {
+                relaxed = false;
+            } else if (constraintValidator.checkHardConstraintsRelaxed(candidate, schedule.getScheduleDate(), schedule.getSlot(),
+                    state.occupancy, state.workloadMap, state.rules)) {
+                relaxed = true;
+            } else {
+                continue;
+            }
+            double cost = cost(schedule, originalDoctor, candidate, state) + (relaxed ? RELAXED_COST : 0);
+            if (cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+                bestRelaxed = relaxed;
+            }
+        }
+
+        if (best == null) {
+            item.setReason("同科室没有可替班的医生，排班将取消");
+            return item;
+        }
+
+        Schedule assigned = new Schedule();
+        assigned.setDoctor(best);
+        assigned.setScheduleDate(schedule.getScheduleDate());
+        assigned.setSlot(schedule.getSlot());
+        state.occupancy.add(assigned);
+        state.workloadMap.merge(best.getDoctorId(), 1, Integer::sum);
+
+        int titleCompare = Integer.compare(titleLevel(best), titleLevel(originalDoctor));
+        boolean sameLocation = schedule.getLocation().getLocationId().equals(state.usualLocations.get(best.getDoctorId()));
+        item.setSubstituteDoctorId(best.getDoctorId());
+        item.setSubstituteDoctorName(best.getFullName());
+        item.setMatchLevel(titleCompare == 0 ? "high" : titleCompare < 0 ? "medium" : "low");
+        item.setSameLocation(sameLocation);
+        item.setRelaxed(bestRelaxed);
+        item.setReason((titleCompare == 0 ? "平级替换" : titleCompare < 0 ? "升级替换" : "降级替换")
+                + (sameLocation ? "，平时在该诊室出诊" : "")
+                + (bestRelaxed ? "，已放宽连续工作天数限制" : ""));
+        return item;
+    }
+
+    private double cost(Schedule schedule, Doctor originalDoctor, Doctor candidate, RepairState state) {
+        double cost = 0;
+        int titleCompare = Integer.compare(titleLevel(candidate), titleLevel(originalDoctor));
+        if (titleCompare > 0) {
+            // 降级需要给每个预约退款
+            cost += DOWNGRADE_COST + DOWNGRADE_COST_PER_APPOINTMENT * bookedSlots(schedule);
+        } else if (titleCompare < 0) {
+            cost += UPGRADE_COST;
+        }
+        if (!schedule.getLocation().getLocationId().equals(state.usualLocations.get(candidate.getDoctorId()))) {
+            cost += OTHER_LOCATION_COST;
+        }
+        cost += WORKLOAD_COST * state.workloadMap.getOrDefault(candidate.getDoctorId(), 0);
+        return cost;
+    }
+
+    /**
+     * 职称等级（0=主任医师，1=副主任医师，2=主治医师，数字越小职称越高；未设置时视为最低）
+     */
+    private static int titleLevel(Doctor doctor) {
+        return doctor.getTitleLevel() != null ? doctor.getTitleLevel() : 999;
+    }
+
+    private static int bookedSlots(Schedule schedule) {
+        return schedule.getBookedSlots() != null ? schedule.getBookedSlots() : 0;
+    }
+
+    /**
+     * 修复过程中的状态：候选医生、占用索引和工作量（每分配一个排班更新一次）
+     */
+    private static class RepairState {
+        private final List<Doctor> candidates;
+        private final ScheduleOccupancyIndex occupancy;
+        // key: doctorId, value: 受影响日期范围内的班次数
+        private final Map<Integer, Integer> workloadMap = new HashMap<>();
+        // key: doctorId, value: 平时出诊次数最多的诊室ID
+        private final Map<Integer, Integer> usualLocations = new HashMap<>();
+        private final ScheduleRules rules = new ScheduleRules();
+
+        private RepairState(List<Doctor> candidates, ScheduleOccupancyIndex occupancy) {
+            this.candidates = candidates;
+            this.occupancy = occupancy;
+        }
+    }
+}
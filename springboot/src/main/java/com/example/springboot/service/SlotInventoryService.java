@@ -0,0 +1,378 @@
+package com.example.springboot.service;
+
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.repository.ScheduleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 号源库存服务
+ * 在 Redis 中为每个排班维护剩余号源数，通过 Lua 脚本原子扣减，放号高峰时大部分请求在 Redis 层即可被拒绝，
+ * 只有抢到号源的请求才会去更新 MySQL 中的 schedules 行。
+ *
+ * 约定：
+ * 1. Redis key 不存在时从数据库加载（SET NX，多个节点并发加载时只有一个生效）
+ * 2. 扣减成功后在当前事务内用条件更新（booked_slots < total_slots）写回数据库，数据库拒绝时归还 Redis 号源；
+ *    事务回滚时自动归还 Redis 中的号源
+ * 3. 所有占用/释放号源的地方（预约、取消、爽约、候补锁定/释放、加号支付）都必须经过本服务
+ * 4. Redis 不可用时退化为直接使用数据库条件更新
+ * 5. 定时任务调用 reconcile() 以数据库为准校正 Redis 中的剩余数；每次在 Redis 中扣减/归还号源时脚本同时写入一个短期的变更标记，
+ *    校正时跳过带标记的排班，避免在多实例部署下用数据库中尚未包含其他节点未提交事务的数量覆盖 Redis
+ */
+@Service
+public class SlotInventoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlotInventoryService.class);
+
+    private static final String INVENTORY_KEY_PREFIX = "slot:inventory:";
+    private static final String TRACKED_SCHEDULES_KEY = "slot:inventory:tracked";
+    private static final String TOUCHED_KEY_PREFIX = "slot:inventory:touched:";
+    private static final long INVENTORY_EXPIRE_HOURS = 24;
+    /** 变更标记的有效期（毫秒），需大于预约事务的最长执行时间 */
+    private static final long TOUCHED_EXPIRE_MILLIS = 120000;
+
+    /** key 不存在，需要先从数据库加载 */
+    private static final long NOT_LOADED = -2L;
+    /** 号源已满 */
+    private static final long SOLD_OUT = -1L;
+
+    /**
+     * 扣减脚本：剩余数大于 0 时减 1 并返回扣减后的值；已满返回 -1；key 不存在返回 -2
+     * KEYS[2] 为变更标记，ARGV[1] 为标记有效期（毫秒）
+     */
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "local v = redis.call('GET', KEYS[1]) " +
+            "if not v then return -2 end " +
+            "if tonumber(v) <= 0 then return -1 end " +
+            "redis.call('SET', KEYS[2], '1', 'PX', ARGV[1]) " +
+            "return redis.call('DECR', KEYS[1])",
+            Long.class);
+
+    /**
+     * 强制扣减脚本（加号使用）：允许剩余数减到负数；key 不存在返回 -2
+     */
+    private static final DefaultRedisScript<Long> FORCE_ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return -2 end " +
+            "redis.call('SET', KEYS[2], '1', 'PX', ARGV[1]) " +
+            "return redis.call('DECR', KEYS[1])",
+            Long.class);
+
+    /**
+     * 归还脚本：key 存在时加 1；key 不存在返回 -2（下次扣减时会从数据库重新加载，无需处理）
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return -2 end " +
+            "redis.call('SET', KEYS[2], '1', 'PX', ARGV[1]) " +
+            "return redis.call('INCR', KEYS[1])",
+            Long.class);
+
+    private final ScheduleRepository scheduleRepository;
+    private final RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * 本节点已在 Redis 中扣减但事务尚未结束的号源数，校正时跳过这些排班，避免把正在提交的号源重新放出
+     * 计数归零时移除，只保留有进行中事务的排班
+     */
+    private final Map<Integer, Integer> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SlotInventoryService(ScheduleRepository scheduleRepository,
+                                RedisTemplate<String, String> redisTemplate) {
+        this.scheduleRepository = scheduleRepository;
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 占用一个号源（普通预约、现场挂号、候补锁定、恢复已取消的预约）
+     * 必须在事务中调用，事务回滚时号源会自动归还
+     *
+     * @param schedule 排班
+     * @return true 占用成功；false 号源已满
+     */
+    @Transactional
+    public boolean tryAcquire(Schedule schedule) {
+        Integer scheduleId = schedule.getScheduleId();
+        Long result;
+        try {
+            result = executeWithLoad(ACQUIRE_SCRIPT, scheduleId);
+        } catch (Exception e) {
+            logger.warn("Redis 号源扣减失败，退化为数据库扣减 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+            return acquireFromDatabase(schedule);
+        }
+
+        if (result == null || result == SOLD_OUT) {
+            logger.debug("号源已满 - scheduleId: {}", scheduleId);
+            return false;
+        }
+
+        // 数据库层面再做一次条件更新，Redis 与数据库不一致时以数据库为准，防止超卖
+        int updated;
+        try {
+            updated = scheduleRepository.incrementBookedSlotsIfAvailable(scheduleId);
+        } catch (RuntimeException e) {
+            releaseQuietly(scheduleId);
+            throw e;
+        }
+        if (updated == 0) {
+            logger.warn("Redis 放行但数据库号源已满，归还 Redis 号源 - scheduleId: {}", scheduleId);
+            releaseQuietly(scheduleId);
+            return false;
+        }
+
+        markInFlight(scheduleId);
+        registerCompensation(scheduleId, RELEASE_SCRIPT, true);
+        schedule.setBookedSlots(schedule.getBookedSlots() + 1);
+        logger.debug("号源占用成功 - scheduleId: {}, Redis 剩余: {}", scheduleId, result);
+        return true;
+    }
+
+    /**
+     * 占用一个号源且不检查剩余数（加号支付成功时使用，加号本身就是在号源之外追加的）
+     *
+     * @param schedule 排班
+     */
+    @Transactional
+    public void acquireBeyondCapacity(Schedule schedule) {
+        Integer scheduleId = schedule.getScheduleId();
+        try {
+            // key 不存在时无需处理，下次扣减会从数据库加载（届时已包含本次加号）
+            if (execute(FORCE_ACQUIRE_SCRIPT, scheduleId) != NOT_LOADED) {
+                markInFlight(scheduleId);
+                registerCompensation(scheduleId, RELEASE_SCRIPT, true);
+            }
+        } catch (Exception e) {
+            logger.warn("Redis 加号扣减失败，仅更新数据库 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+        }
+
+        scheduleRepository.incrementBookedSlots(scheduleId);
+        schedule.setBookedSlots(schedule.getBookedSlots() + 1);
+    }
+
+    /**
+     * 归还一个号源（取消、爽约、删除预约、候补取消/超时）
+     * 立即归还到 Redis，以便同一事务内后续的候补填充可以拿到该号源；事务回滚时重新扣回
+     *
+     * @param schedule 排班
+     * @return true 归还成功；false 已预约数已经为 0
+     */
+    @Transactional
+    public boolean release(Schedule schedule) {
+        Integer scheduleId = schedule.getScheduleId();
+        if (scheduleRepository.decrementBookedSlots(scheduleId) == 0) {
+            logger.warn("归还号源时已预约数已经为 0 - scheduleId: {}", scheduleId);
+            return false;
+        }
+        schedule.setBookedSlots(Math.max(0, schedule.getBookedSlots() - 1));
+
+        try {
+            if (execute(RELEASE_SCRIPT, scheduleId) != NOT_LOADED) {
+                registerCompensation(scheduleId, FORCE_ACQUIRE_SCRIPT, false);
+            }
+        } catch (Exception e) {
+            // Redis 中的剩余数会在下次校正时恢复
+            logger.warn("Redis 号源归还失败 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 获取剩余号源数（优先读取 Redis）
+     */
+    public int getRemainingSlots(Schedule schedule) {
+        Integer scheduleId = schedule.getScheduleId();
+        try {
+            String value = redisTemplate.opsForValue().get(INVENTORY_KEY_PREFIX + scheduleId);
+            if (value != null) {
+                return Math.max(0, Integer.parseInt(value));
+            }
+        } catch (Exception e) {
+            logger.warn("读取 Redis 剩余号源失败 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+        }
+        Integer remaining = scheduleRepository.findRemainingSlots(scheduleId);
+        return remaining != null ? Math.max(0, remaining) : 0;
+    }
+
+    /**
+     * 判断排班是否已确定约满（只读取 Redis，不访问数据库）
+     * Redis 中尚未加载或读取失败时返回 false，由后续的 tryAcquire 判断
+     */
+    public boolean isSoldOut(Integer scheduleId) {
+        try {
+            String value = redisTemplate.opsForValue().get(INVENTORY_KEY_PREFIX + scheduleId);
+            return value != null && Integer.parseInt(value) <= 0;
+        } catch (Exception e) {
+            logger.warn("读取 Redis 剩余号源失败 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 清除排班的库存缓存（总号源数变更或排班删除后调用），下次访问时从数据库重新加载
+     * 立即清除一次，使同一事务内后续的占用（如候补填充）按新的总号源数加载；
+     * 在事务中调用时，事务结束后再清除一次，丢弃其他节点在此期间按旧数据加载的值
+     */
+    public void evict(Integer scheduleId) {
+        deleteKey(scheduleId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    deleteKey(scheduleId);
+                }
+            });
+        }
+    }
+
+    /**
+     * 以数据库为准校正 Redis 中的剩余号源数
+     * 本节点存在未结束事务的排班、以及最近有节点扣减/归还过号源（变更标记未过期）的排班跳过，等下一轮再校正
+     */
+    public void reconcile() {
+        Set<String> trackedIds = redisTemplate.opsForSet().members(TRACKED_SCHEDULES_KEY);
+        if (trackedIds == null || trackedIds.isEmpty()) {
+            return;
+        }
+
+        int corrected = 0;
+        for (String idValue : trackedIds) {
+            Integer scheduleId = Integer.valueOf(idValue);
+            String key = INVENTORY_KEY_PREFIX + scheduleId;
+            String cached = redisTemplate.opsForValue().get(key);
+            if (cached == null) {
+                // key 已过期或被清除，不再跟踪
+                redisTemplate.opsForSet().remove(TRACKED_SCHEDULES_KEY, idValue);
+                continue;
+            }
+
+            if (inFlight.containsKey(scheduleId) || Boolean.TRUE.equals(redisTemplate.hasKey(TOUCHED_KEY_PREFIX + scheduleId))) {
+                continue;
+            }
+
+            Integer remaining = scheduleRepository.findRemainingSlots(scheduleId);
+            if (remaining == null) {
+                // 排班已被删除
+                deleteKey(scheduleId);
+                continue;
+            }
+            if (remaining != Integer.parseInt(cached)) {
+                logger.warn("号源库存不一致，以数据库为准校正 - scheduleId: {}, Redis: {}, 数据库: {}",
+                        scheduleId, cached, remaining);
+                redisTemplate.opsForValue().set(key, String.valueOf(remaining), INVENTORY_EXPIRE_HOURS, TimeUnit.HOURS);
+                corrected++;
+            }
+        }
+
+        if (corrected > 0) {
+            logger.info("号源库存校正完成 - 检查排班数: {}, 校正数: {}", trackedIds.size(), corrected);
+        }
+    }
+
+    /**
+     * Redis 不可用时的数据库扣减（条件更新，不会超卖）
+     */
+    private boolean acquireFromDatabase(Schedule schedule) {
+        if (scheduleRepository.incrementBookedSlotsIfAvailable(schedule.getScheduleId()) == 0) {
+            return false;
+        }
+        schedule.setBookedSlots(schedule.getBookedSlots() + 1);
+        return true;
+    }
+
+    private void releaseQuietly(Integer scheduleId) {
+        try {
+            execute(RELEASE_SCRIPT, scheduleId);
+        } catch (Exception e) {
+            logger.warn("归还 Redis 号源失败 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+        }
+    }
+
+    /**
+     * 执行脚本，key 不存在时从数据库加载后重试一次
+     */
+    private Long executeWithLoad(DefaultRedisScript<Long> script, Integer scheduleId) {
+        Long result = execute(script, scheduleId);
+        if (result != null && result == NOT_LOADED) {
+            load(scheduleId);
+            result = execute(script, scheduleId);
+        }
+        return result;
+    }
+
+    private Long execute(DefaultRedisScript<Long> script, Integer scheduleId) {
+        return redisTemplate.execute(script, List.of(INVENTORY_KEY_PREFIX + scheduleId, TOUCHED_KEY_PREFIX + scheduleId),
+                String.valueOf(TOUCHED_EXPIRE_MILLIS));
+    }
+
+    /**
+     * 从数据库加载剩余号源数到 Redis（SET NX，已存在时不覆盖）
+     */
+    private void load(Integer scheduleId) {
+        Integer remaining = scheduleRepository.findRemainingSlots(scheduleId);
+        if (remaining == null) {
+            return;
+        }
+        Boolean loaded = redisTemplate.opsForValue().setIfAbsent(INVENTORY_KEY_PREFIX + scheduleId,
+                String.valueOf(remaining), INVENTORY_EXPIRE_HOURS, TimeUnit.HOURS);
+        if (Boolean.TRUE.equals(loaded)) {
+            redisTemplate.opsForSet().add(TRACKED_SCHEDULES_KEY, String.valueOf(scheduleId));
+            logger.debug("号源库存已加载到 Redis - scheduleId: {}, 剩余: {}", scheduleId, remaining);
+        }
+    }
+
+    private void deleteKey(Integer scheduleId) {
+        try {
+            redisTemplate.delete(INVENTORY_KEY_PREFIX + scheduleId);
+            redisTemplate.opsForSet().remove(TRACKED_SCHEDULES_KEY, String.valueOf(scheduleId));
+        } catch (Exception e) {
+            logger.warn("清除号源库存缓存失败 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+        }
+    }
+
+    private void markInFlight(Integer scheduleId) {
+        inFlight.merge(scheduleId, 1, Integer::sum);
+    }
+
+    private void clearInFlight(Integer scheduleId) {
+        inFlight.computeIfPresent(scheduleId, (id, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * 注册事务回调：事务回滚时执行补偿脚本；事务结束后清除进行中标记
+     */
+    private void registerCompensation(Integer scheduleId, DefaultRedisScript<Long> compensation, boolean inFlightMarked) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (inFlightMarked) {
+                clearInFlight(scheduleId);
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (inFlightMarked) {
+                    clearInFlight(scheduleId);
+                }
+                if (status == STATUS_ROLLED_BACK) {
+                    try {
+                        execute(compensation, scheduleId);
+                    } catch (Exception e) {
+                        logger.warn("事务回滚后补偿 Redis 号源失败 - scheduleId: {}, 错误: {}", scheduleId, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.springboot.service;
+
+import com.example.springboot.dto.appointment.AppointmentResponse;
+import com.example.springboot.dto.appointment.WaitTimeEstimateResponse;
+import com.example.springboot.entity.Appointment;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.event.AppointmentEventListener;
+import com.example.springboot.event.AppointmentLifecycleEvent;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.exception.ResourceNotFoundException;
+import com.example.springboot.repository.AppointmentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 候诊等待时间预估
+ *
+ * 按"医生 + 时段"、"医生"、"全院"三级维护接诊用时（叫号到就诊完成）的指数加权移动平均和方差，
+ * 每次就诊完成时增量更新，启动时用最近一段时间的历史记录初始化。
+ * 查询预估时只读取统计值，不再扫描历史记录：
+ * - 叫号队列：前面未叫号人数 × 平均接诊用时 + 当前就诊患者的剩余用时
+ * - 候补队列：候补位置 × 平均接诊用时
+ * 样本数不足时逐级回退到更粗的统计，都没有时使用默认值。
+ */
+@Service
+public class WaitTimeEstimator implements AppointmentEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(WaitTimeEstimator.class);
+
+    // 接诊用时超出该范围的记录视为异常（如忘记点完成），不计入统计
+    private static final double MIN_SERVICE_MINUTES = 0.5;
+    private static final double MAX_SERVICE_MINUTES = 120;
+    // 约90%分位对应的标准差倍数（正态近似）
+    private static final double HIGH_QUANTILE_Z = 1.28;
+
+    private final AppointmentRepository appointmentRepository;
+    private final CallQueueEngine callQueueEngine;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${wait-estimate.ewma-alpha:0.2}")
+    private double alpha;
+
+    @Value("${wait-estimate.min-samples:5}")
+    private long minSamples;
+
+    @Value("${wait-estimate.default-service-minutes:10}")
+    private double defaultServiceMinutes;
+
+    @Value("${wait-estimate.warmup-days:30}")
+    private int warmupDays;
+
+    // key: doctorId:slotId
+    private final Map<String, ServiceTimeStats> slotStats = new ConcurrentHashMap<>();
+    // key: doctorId
+    private final Map<Integer, ServiceTimeStats> doctorStats = new ConcurrentHashMap<>();
+    private final ServiceTimeStats globalStats = new ServiceTimeStats();
+
+    @Autowired
+    public WaitTimeEstimator(AppointmentRepository appointmentRepository,
+                             CallQueueEngine callQueueEngine,
+                             PlatformTransactionManager transactionManager) {
+        this.appointmentRepository = appointmentRepository;
+        this.callQueueEngine = callQueueEngine;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * 启动后用最近的历史就诊记录初始化统计
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            int loaded = transactionTemplate.execute(status -> {
+                List<Appointment> appointments = appointmentRepository
+                        .findCompletedWithCalledAtSince(LocalDateTime.now().minusDays(warmupDays));
+                int count = 0;
+                for (Appointment appointment : appointments) {
+                    Schedule schedule = appointment.getSchedule();
+                    if (record(schedule.getDoctor().getDoctorId(), schedule.getSlot().getSlotId(),
+                            appointment.getCalledAt(), appointment.getUpdatedAt())) {
+                        count++;
+                    }
+                }
+                return count;
+            });
+            logger.info("接诊用时统计初始化完成 - 最近{}天有效样本: {}", warmupDays, loaded);
+        } catch (Exception e) {
+            logger.error("接诊用时统计初始化失败，使用默认值预估等待时间", e);
+        }
+    }
+
+    /**
+     * 预约事件监听：就诊完成时更新接诊用时统计
+     */
+    @Override
+    public void onAppointmentEvent(AppointmentLifecycleEvent event) {
+        if (event instanceof AppointmentLifecycleEvent.Completed completed) {
+            record(completed.doctorId(), completed.slotId(), completed.calledAt(), completed.occurredAt());
+        }
+    }
+
+    /**
+     * 预估叫号队列中每位患者的等待时间（按队列顺序）
+     */
+    public List<WaitTimeEstimateResponse> estimateCallQueue(Integer scheduleId) {
+        List<AppointmentResponse> queue = callQueueEngine.getQueue(scheduleId);
+        List<WaitTimeEstimateResponse> estimates = new ArrayList<>(queue.size());
+        if (queue.isEmpty()) {
+            return estimates;
+        }
+
+        Estimate estimate = expectedServiceTime(queue.get(0).getSchedule().getDoctorId(),
+                queue.get(0).getSchedule().getSlotId());
+        LocalDateTime now = LocalDateTime.now();
+        double remainingOfCurrent = remainingOfCurrent(queue, estimate.mean(), now);
+        int waitingAhead = 0;
+        for (int i = 0; i < queue.size(); i++) {
+            AppointmentResponse appointment = queue.get(i);
+            WaitTimeEstimateResponse response = newResponse(appointment, i + 1, estimate);
+            if (appointment.getCalledAt() == null) {
+                response.setWaitingAhead(waitingAhead);
+                fillWait(response, waitingAhead, remainingOfCurrent, estimate, now);
+                waitingAhead++;
+            } else {
+                // 已叫号（就诊中），无需等待
+                response.setWaitingAhead(0);
+                fillWait(response, 0, 0, estimate, now);
+                response.setEstimatedCallTime(appointment.getCalledAt());
+            }
+            estimates.add(response);
+        }
+        return estimates;
+    }
+
+    /**
+     * 预估单个预约的等待时间（预约必须已签到在叫号队列中）
+     */
+    public WaitTimeEstimateResponse estimateAppointment(Integer appointmentId) {
+        Appointment appointment = appointmentRepository.findById(appointmentId)
+                .orElseThrow(() -> new ResourceNotFoundException("Appointment not found with id " + appointmentId));
+        Integer scheduleId = appointment.getSchedule().getScheduleId();
+        return estimateCallQueue(scheduleId).stream()
+                .filter(estimate -> estimate.getAppointmentId().equals(appointmentId))
+                .findFirst()
+                .orElseThrow(() -> new BadRequestException("该预约不在叫号队列中（未签到或已就诊），无法预估等待时间"));
+    }
+
+    /**
+     * 预估候补等待时间（分钟），position 从1开始
+     */
+    public int estimateWaitlistMinutes(Integer doctorId, Integer slotId, int position) {
+        Estimate estimate = expectedServiceTime(doctorId, slotId);
+        return (int) Math.ceil(position * estimate.mean());
+    }
+
+    /**
+     * 获取医生某时段的预计接诊用时：样本足够时用该时段统计，否则依次回退到医生统计、全院统计、默认值
+     */
+    public Estimate expectedServiceTime(Integer doctorId, Integer slotId) {
+        ServiceTimeStats stats = slotStats.get(doctorId + ":" + slotId);
+        if (stats != null && stats.count() >= minSamples) {
+            return stats.toEstimate("slot");
+        }
+        stats = doctorStats.get(doctorId);
+        if (stats != null && stats.count() >= minSamples) {
+            return stats.toEstimate("doctor");
+        }
+        if (globalStats.count() >= minSamples) {
+            return globalStats.toEstimate("global");
+        }
+        return new Estimate(defaultServiceMinutes, 0, 0, "default");
+    }
+
+    private boolean record(Integer doctorId, Integer slotId, LocalDateTime calledAt, LocalDateTime completedAt) {
+        if (doctorId == null || slotId == null || calledAt == null || completedAt == null) {
+            return false;
+        }
+        double minutes = Duration.between(calledAt, completedAt).toSeconds() / 60.0;
+        if (minutes < MIN_SERVICE_MINUTES || minutes > MAX_SERVICE_MINUTES) {
+            return false;
+        }
+        slotStats.computeIfAbsent(doctorId + ":" + slotId, key -> new ServiceTimeStats()).add(minutes, alpha);
+        doctorStats.computeIfAbsent(doctorId, key -> new ServiceTimeStats()).add(minutes, alpha);
+        globalStats.add(minutes, alpha);
+        return true;
+    }
+
+    /**
+     * 当前就诊患者（最近叫号的）的剩余接诊用时
+     */
+    private double remainingOfCurrent(List<AppointmentResponse> queue, double mean, LocalDateTime now) {
+        LocalDateTime lastCalledAt = null;
+        for (AppointmentResponse appointment : queue) {
+            if (appointment.getCalledAt() != null
+                    && (lastCalledAt == null || appointment.getCalledAt().isAfter(lastCalledAt))) {
+                lastCalledAt = appointment.getCalledAt();
+            }
+        }
+        if (lastCalledAt == null) {
+            return 0;
+        }
+        double elapsed = Duration.between(lastCalledAt, now).toSeconds() / 60.0;
+        return Math.max(0, mean - elapsed);
+    }
+
+    private WaitTimeEstimateResponse newResponse(AppointmentResponse appointment, int position, Estimate estimate) {
+        WaitTimeEstimateResponse response = new WaitTimeEstimateResponse();
+        response.setAppointmentId(appointment.getAppointmentId());
+        response.setScheduleId(appointment.getSchedule().getScheduleId());
+        response.setPosition(position);
+        response.setExpectedServiceMinutes(Math.round(estimate.mean() * 10) / 10.0);
+        response.setBasis(estimate.basis());
+        response.setSampleCount(estimate.samples());
+        return response;
+    }
+
+    private void fillWait(WaitTimeEstimateResponse response, int waitingAhead, double remainingOfCurrent,
+                          Estimate estimate, LocalDateTime now) {
+        double wait = remainingOfCurrent + waitingAhead * estimate.mean();
+        // n 位患者用时之和的标准差为 sqrt(n) 倍单人标准差
+        double high = wait + HIGH_QUANTILE_Z * Math.sqrt(waitingAhead * estimate.variance());
+        response.setEstimatedWaitMinutes((int) Math.ceil(wait));
+        response.setEstimatedWaitMinutesHigh((int) Math.ceil(high));
+        response.setEstimatedCallTime(now.plusSeconds(Math.round(wait * 60)));
+    }
+
+    /**
+     * 预计接诊用时（分钟）
+     */
+    public record Estimate(double mean, double variance, long samples, String basis) {
+    }
+
+    /**
+     * 接诊用时的指数加权移动平均和方差
+     */
+    private static class ServiceTimeStats {
+        private double mean;
+        private double variance;
+        private long count;
+
+        private synchronized void add(double minutes, double alpha) {
+            if (count == 0) {
+                mean = minutes;
+                variance = 0;
+            } else {
+                double diff = minutes - mean;
+                double increment = alpha * diff;
+                mean += increment;
+                variance = (1 - alpha) * (variance + diff * increment);
+            }
+            count++;
+        }
+
+        private synchronized long count() {
+            return count;
+        }
+
+        private synchronized Estimate toEstimate(String basis) {
+            return new Estimate(mean, variance, count, basis);
+        }
+    }
+}
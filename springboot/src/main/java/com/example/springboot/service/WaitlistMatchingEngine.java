@@ -0,0 +1,321 @@
+package com.example.springboot.service;
+
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.Waitlist;
+import com.example.springboot.entity.enums.WaitlistMatchScope;
+import com.example.springboot.entity.enums.WaitlistStatus;
+import com.example.springboot.repository.WaitlistRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 候补匹配索引
+ *
+ * 等待中的候补按匹配范围放入 Redis 有序集合（score 为加入候补的时间，越早越靠前）：
+ * - schedule 范围：waitlist:queue:schedule:{排班ID}
+ * - doctor 范围：waitlist:queue:doctor:{医生ID}:{日期}
+ * - department 范围：waitlist:queue:department:{科室ID}:{日期}
+ * 排班空出号源时，只需读取这三个有序集合的队首并按加入时间归并，即可在 O(log n) 内找到最早的可匹配候补，
+ * 不再加载整个候补列表。索引只用于挑选候选人，候补状态仍以数据库为准（匹配时会重新校验）。
+ *
+ * 另外每个排班的全部等待中候补（不论匹配范围）放在 waitlist:queue:position:{排班ID}，
+ * 候补排名、等待总人数直接用 ZRANK / ZCARD 查询，患者轮询候补位置时不需要加载候补列表。
+ *
+ * 在事务中修改索引时，改动在事务提交后才写入 Redis，事务回滚时索引保持不变，与数据库中的候补状态一致。
+ */
+@Service
+public class WaitlistMatchingEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(WaitlistMatchingEngine.class);
+
+    private static final String KEY_PREFIX = "waitlist:queue:";
+    private static final String LOADED_KEY = "waitlist:queue-loaded";
+    // 重建时每批 SCAN、删除的键数
+    private static final int SCAN_BATCH_SIZE = 500;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final WaitlistRepository waitlistRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public WaitlistMatchingEngine(RedisTemplate<String, String> redisTemplate,
+                                  WaitlistRepository waitlistRepository,
+                                  PlatformTransactionManager transactionManager) {
+        this.redisTemplate = redisTemplate;
+        this.waitlistRepository = waitlistRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * 启动后检查索引是否存在（Redis 被清空或首次部署时从数据库重建）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfMissing() {
+        try {
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LOADED_KEY, "1"))) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            logger.error("候补匹配索引重建失败，候补匹配将回退为按排班查询数据库", e);
+        }
+    }
+
+    /**
+     * 从数据库重建全部候补匹配索引
+     */
+    public void rebuild() {
+        Map<String, Set<ZSetOperations.TypedTuple<String>>> byKey = loadWaiting();
+
+        deleteIndexKeys();
+        byKey.forEach((key, tuples) -> redisTemplate.opsForZSet().add(key, tuples));
+        logger.info("候补匹配索引已重建 - 队列数: {}, 候补数: {}",
+                byKey.size(), byKey.values().stream().mapToInt(Set::size).sum());
+    }
+
+    /**
+     * 补齐索引：数据库中等待中、但不在索引中的候补重新加入
+     * 提交后写入索引失败时（见 add）候补会一直不在索引中，只要队列里还有其他候补就不会回退查询数据库，
+     * 由 WaitlistExpirationTask 定期调用。已不是等待状态的残留成员不在这里删除，匹配时会重新校验并清理。
+     *
+     * @return 补入的候补数
+     */
+    public int reconcile() {
+        Map<String, Set<ZSetOperations.TypedTuple<String>>> byKey = loadWaiting();
+        Set<String> repaired = new HashSet<>();
+        byKey.forEach((key, tuples) -> {
+            Set<String> indexed = redisTemplate.opsForZSet().range(key, 0, -1);
+            Set<ZSetOperations.TypedTuple<String>> missing = tuples.stream()
+                    .filter(tuple -> indexed == null || !indexed.contains(tuple.getValue()))
+                    .collect(Collectors.toSet());
+            if (!missing.isEmpty()) {
+                redisTemplate.opsForZSet().add(key, missing);
+                missing.forEach(tuple -> repaired.add(tuple.getValue()));
+            }
+        });
+        if (!repaired.isEmpty()) {
+            logger.warn("候补匹配索引缺少等待中的候补，已补齐 - 候补数: {}", repaired.size());
+        }
+        return repaired.size();
+    }
+
+    /**
+     * 从数据库读取全部等待中的候补，按索引键分组
+     */
+    private Map<String, Set<ZSetOperations.TypedTuple<String>>> loadWaiting() {
+        return transactionTemplate.execute(status -> {
+            Map<String, Set<ZSetOperations.TypedTuple<String>>> result = new HashMap<>();
+            for (Waitlist waitlist : waitlistRepository.findAllWithScheduleByStatus(WaitlistStatus.waiting)) {
+                ZSetOperations.TypedTuple<String> tuple =
+                        new DefaultTypedTuple<>(String.valueOf(waitlist.getWaitlistId()), score(waitlist));
+                result.computeIfAbsent(queueKey(waitlist), key -> new HashSet<>()).add(tuple);
+                result.computeIfAbsent(positionKey(waitlist.getSchedule()), key -> new HashSet<>()).add(tuple);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 用 SCAN 分批删除全部索引键（不使用 KEYS，避免阻塞共用的 Redis）
+     */
+    private void deleteIndexKeys() {
+        ScanOptions options = ScanOptions.scanOptions().match(KEY_PREFIX + "*").count(SCAN_BATCH_SIZE).build();
+        List<String> batch = new ArrayList<>(SCAN_BATCH_SIZE);
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= SCAN_BATCH_SIZE) {
+                    redisTemplate.delete(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            redisTemplate.delete(batch);
+        }
+    }
+
+    /**
+     * 加入索引（新增候补或恢复为 waiting 时调用），在事务中调用时提交后生效
+     */
+    public void add(Waitlist waitlist) {
+        Integer waitlistId = waitlist.getWaitlistId();
+        String queueKey = queueKey(waitlist);
+        String positionKey = positionKey(waitlist.getSchedule());
+        double score = score(waitlist);
+        afterCommit(() -> {
+            try {
+                String member = String.valueOf(waitlistId);
+                redisTemplate.opsForZSet().add(queueKey, member, score);
+                redisTemplate.opsForZSet().add(positionKey, member, score);
+            } catch (Exception e) {
+                // 由定期的 reconcile 补齐
+                logger.warn("候补加入匹配索引失败，等待定期补齐 - waitlistId: {}, 错误: {}", waitlistId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 移出索引（候补被通知、取消、过期时调用；必须在修改候补的排班之前调用），在事务中调用时提交后生效
+     */
+    public void remove(Waitlist waitlist) {
+        Integer waitlistId = waitlist.getWaitlistId();
+        String queueKey = queueKey(waitlist);
+        String positionKey = positionKey(waitlist.getSchedule());
+        afterCommit(() -> {
+            try {
+                String member = String.valueOf(waitlistId);
+                redisTemplate.opsForZSet().remove(queueKey, member);
+                redisTemplate.opsForZSet().remove(positionKey, member);
+            } catch (Exception e) {
+                logger.warn("候补移出匹配索引失败 - waitlistId: {}, 错误: {}", waitlistId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 在当前事务提交后执行（事务回滚时不执行），不在事务中时立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 查找可以匹配该排班空出号源的候补（按加入时间排序，最多 limit 个）
+     * 每个队列从队首分页读取，跳过 exclude 中的候补（本次填充已处理过的），直到凑够 limit 个或读完队列；
+     * 事务中的索引改动在提交后才生效，已处理的候补仍留在队首，不跳过会反复读到同一批候补。
+     * Redis 不可用时抛出异常，由调用方回退为查询数据库
+     *
+     * @param exclude 跳过的候补ID
+     */
+    public List<Integer> candidates(Schedule schedule, int limit, Set<Integer> exclude) {
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>();
+        for (String key : matchKeys(schedule)) {
+            int found = 0;
+            long offset = 0;
+            while (found < limit) {
+                Set<ZSetOperations.TypedTuple<String>> page =
+                        redisTemplate.opsForZSet().rangeWithScores(key, offset, offset + limit - 1);
+                if (page == null || page.isEmpty()) {
+                    break;
+                }
+                for (ZSetOperations.TypedTuple<String> tuple : page) {
+                    if (tuple.getValue() != null && tuple.getScore() != null
+                            && !exclude.contains(Integer.valueOf(tuple.getValue()))) {
+                        merged.add(tuple);
+                        found++;
+                    }
+                }
+                if (page.size() < limit) {
+                    break;
+                }
+                offset += page.size();
+            }
+        }
+        return merged.stream()
+                .sorted(Comparator.<ZSetOperations.TypedTuple<String>>comparingDouble(ZSetOperations.TypedTuple::getScore)
+                        .thenComparing(tuple -> Integer.valueOf(tuple.getValue())))
+                .limit(limit)
+                .map(tuple -> Integer.valueOf(tuple.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 查询候补在所属排班中的排名（按加入时间，从1开始）和等待总人数
+     * 不在索引中时返回 null（已不是等待状态，或索引缺失），Redis 不可用时抛出异常，由调用方回退为查询数据库
+     */
+    public Position position(Waitlist waitlist) {
+        String key = positionKey(waitlist.getSchedule());
+        Long rank = redisTemplate.opsForZSet().rank(key, String.valueOf(waitlist.getWaitlistId()));
+        if (rank == null) {
+            return null;
+        }
+        Long total = redisTemplate.opsForZSet().zCard(key);
+        return new Position(rank.intValue() + 1, total != null ? total.intValue() : rank.intValue() + 1);
+    }
+
+    /**
+     * 候补所在的索引队列
+     */
+    private String queueKey(Waitlist waitlist) {
+        Schedule schedule = waitlist.getSchedule();
+        WaitlistMatchScope scope = waitlist.getMatchScope() != null ? waitlist.getMatchScope() : WaitlistMatchScope.schedule;
+        return switch (scope) {
+            case schedule -> scheduleKey(schedule);
+            case doctor -> doctorKey(schedule);
+            case department -> schedule.getDoctor().getDepartment() != null ? departmentKey(schedule) : doctorKey(schedule);
+        };
+    }
+
+    /**
+     * 可以匹配该排班的索引队列：本排班、同医生同日、同科室同日
+     */
+    private List<String> matchKeys(Schedule schedule) {
+        List<String> keys = new ArrayList<>(3);
+        keys.add(scheduleKey(schedule));
+        keys.add(doctorKey(schedule));
+        if (schedule.getDoctor().getDepartment() != null) {
+            keys.add(departmentKey(schedule));
+        }
+        return keys;
+    }
+
+    private static String scheduleKey(Schedule schedule) {
+        return KEY_PREFIX + "schedule:" + schedule.getScheduleId();
+    }
+
+    private static String positionKey(Schedule schedule) {
+        return KEY_PREFIX + "position:" + schedule.getScheduleId();
+    }
+
+    private static String doctorKey(Schedule schedule) {
+        return KEY_PREFIX + "doctor:" + schedule.getDoctor().getDoctorId() + ":" + schedule.getScheduleDate();
+    }
+
+    private static String departmentKey(Schedule schedule) {
+        return KEY_PREFIX + "department:" + schedule.getDoctor().getDepartment().getDepartmentId()
+                + ":" + schedule.getScheduleDate();
+    }
+
+    private static double score(Waitlist waitlist) {
+        return waitlist.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 候补排名（position 从1开始，前面还有 position - 1 人）
+     */
+    public record Position(int position, int totalWaiting) {
+    }
+}
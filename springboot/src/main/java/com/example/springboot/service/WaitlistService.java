@@ -8,6 +8,7 @@ import com.example.springboot.dto.payment.PaymentRequest;
 import com.example.springboot.dto.waitlist.*;
 import com.example.springboot.dto.schedule.ScheduleResponse;
 import com.example.springboot.entity.Appointment;
+import com.example.springboot.entity.Doctor;
 import com.example.springboot.entity.Patient;
 import com.example.springboot.entity.Schedule;
 import com.example.springboot.entity.Waitlist;
@@ -16,6 +17,8 @@ import com.example.springboot.entity.enums.BlacklistStatus;
 import com.example.springboot.entity.enums.WaitlistStatus;
 import com.example.springboot.entity.enums.PaymentStatus;
 import com.example.springboot.entity.enums.PatientStatus;
+import com.example.springboot.event.AppointmentEventListener;
+import com.example.springboot.event.AppointmentLifecycleEvent;
 import com.example.springboot.exception.BadRequestException;
 import com.example.springboot.exception.ResourceNotFoundException;
 import com.example.springboot.repository.AppointmentRepository;
@@ -32,12 +35,26 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
-public class WaitlistService {
+public class WaitlistService implements AppointmentEventListener, DeadlineHandler {
+
+    // 候补通知后的支付期限（分钟）
+    private static final int PAYMENT_EXPIRE_MINUTES = 15;
+    private static final String DEADLINE_TYPE = "waitlist";
+    // 候补匹配时每个排班在需要的号源数之外多取的候选人数（用于跳过黑名单和已有预约的候补）
+    private static final int MATCH_BATCH_SIZE = 20;
+    private static final int MAX_MATCH_ROUNDS = 5;
 
     private final WaitlistRepository waitlistRepository;
     private final PatientRepository patientRepository;
@@ -47,6 +64,11 @@ public class WaitlistService {
     private final ScheduleService scheduleService;
     private final AppointmentService appointmentService; // For converting schedule entity to DTO
     private final NotificationService notificationService;
+    private final SlotInventoryService slotInventoryService;
+    private final AppointmentNumberSequencer appointmentNumberSequencer;
+    private final WaitTimeEstimator waitTimeEstimator;
+    private final DeadlineScheduler deadlineScheduler;
+    private final WaitlistMatchingEngine waitlistMatchingEngine;
 
     @Autowired
     public WaitlistService(WaitlistRepository waitlistRepository,
@@ -56,7 +78,12 @@ public class WaitlistService {
                            PatientService patientService,
                            ScheduleService scheduleService,
                            AppointmentService appointmentService,
-                           NotificationService notificationService) {
+                           NotificationService notificationService,
+                           SlotInventoryService slotInventoryService,
+                           AppointmentNumberSequencer appointmentNumberSequencer,
+                           WaitTimeEstimator waitTimeEstimator,
+                           DeadlineScheduler deadlineScheduler,
+                           WaitlistMatchingEngine waitlistMatchingEngine) {
         this.waitlistRepository = waitlistRepository;
         this.patientRepository = patientRepository;
         this.scheduleRepository = scheduleRepository;
@@ -65,6 +92,11 @@ public class WaitlistService {
         this.scheduleService = scheduleService;
         this.appointmentService = appointmentService;
         this.notificationService = notificationService;
+        this.slotInventoryService = slotInventoryService;
+        this.appointmentNumberSequencer = appointmentNumberSequencer;
+        this.waitTimeEstimator = waitTimeEstimator;
+        this.deadlineScheduler = deadlineScheduler;
+        this.waitlistMatchingEngine = waitlistMatchingEngine;
     }
 
     @Transactional(readOnly = true)
@@ -119,9 +151,14 @@ public class WaitlistService {
         waitlist.setPatient(patient);
         waitlist.setSchedule(schedule);
         waitlist.setStatus(WaitlistStatus.waiting);  // 新候补记录状态为 waiting
+        if (request.getMatchScope() != null) {
+            waitlist.setMatchScope(request.getMatchScope());
+        }
         waitlist.setCreatedAt(LocalDateTime.now());
 
-        return convertToResponseDto(waitlistRepository.save(waitlist));
+        Waitlist saved = waitlistRepository.save(waitlist);
+        waitlistMatchingEngine.add(saved);
+        return convertToResponseDto(saved);
     }
 
     @Transactional
@@ -129,18 +166,40 @@ public class WaitlistService {
         Waitlist existingWaitlist = waitlistRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Waitlist entry not found with id " + id));
 
+        WaitlistStatus previousStatus = existingWaitlist.getStatus();
         if (request.getStatus() != null) existingWaitlist.setStatus(request.getStatus());
         if (request.getNotificationSentAt() != null) existingWaitlist.setNotificationSentAt(request.getNotificationSentAt());
 
-        return convertToResponseDto(waitlistRepository.save(existingWaitlist));
+        Waitlist saved = waitlistRepository.save(existingWaitlist);
+        // 同步候补匹配索引
+        if (previousStatus == WaitlistStatus.waiting && saved.getStatus() != WaitlistStatus.waiting) {
+            waitlistMatchingEngine.remove(saved);
+        } else if (previousStatus != WaitlistStatus.waiting && saved.getStatus() == WaitlistStatus.waiting) {
+            waitlistMatchingEngine.add(saved);
+        }
+        return convertToResponseDto(saved);
     }
 
     @Transactional
     public void deleteWaitlist(Integer id) {
-        if (!waitlistRepository.existsById(id)) {
-            throw new ResourceNotFoundException("Waitlist entry not found with id " + id);
+        Waitlist waitlist = waitlistRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Waitlist entry not found with id " + id));
+        if (waitlist.getStatus() == WaitlistStatus.waiting) {
+            waitlistMatchingEngine.remove(waitlist);
+        }
+        waitlistRepository.delete(waitlist);
+    }
+
+    /**
+     * 预约事件监听：预约取消归还号源后，从候补队列中填充
+     */
+    @Override
+    @Transactional
+    public void onAppointmentEvent(AppointmentLifecycleEvent event) {
+        if (event instanceof AppointmentLifecycleEvent.AppointmentCancelled cancelled) {
+            System.out.println("预约已取消，开始触发候补自动填充，scheduleId: " + cancelled.scheduleId());
+            createAppointmentFromWaitlist(cancelled.scheduleId());
         }
-        waitlistRepository.deleteById(id);
     }
 
     /**
@@ -153,104 +212,292 @@ public class WaitlistService {
     @Transactional
     public Appointment createAppointmentFromWaitlist(Integer scheduleId) {
         System.out.println("createAppointmentFromWaitlist 被调用，scheduleId: " + scheduleId);
-        Schedule schedule = scheduleRepository.findById(scheduleId)
-                .orElseThrow(() -> new ResourceNotFoundException("Schedule not found with id " + scheduleId));
+        fillWaitlists(Map.of(scheduleId, 1));
+        // 返回 null，因为此时还没有创建预约，等待患者支付时再创建
+        return null;
+    }
 
-        // 检查是否有空余号源
-        System.out.println("候补填充检查号源 - bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
-        
-        if (schedule.getBookedSlots() >= schedule.getTotalSlots()) {
-            System.out.println("号源已满（bookedSlots: " + schedule.getBookedSlots() + "），无法填充候补");
-            return null; // 没有空余号源
+    /**
+     * 批量候补填充：一个或多个排班同时空出号源时（调整号源数、替班恢复排班等），
+     * 一次选出所有可匹配的候补，逐个占用号源后批量更新候补状态。
+     * 候补通知在同一事务中加入发件箱，事务提交时合并为一条发件箱记录。
+     *
+     * @param freeSlots key: 排班ID, value: 空出的号源数
+     * @return 已通知的候补数
+     */
+    @Transactional
+    public int fillWaitlists(Map<Integer, Integer> freeSlots) {
+        // 每个排班实际可填充的号源数（以号源库存为准），key: 排班ID
+        Map<Integer, Schedule> schedules = new HashMap<>();
+        Map<Integer, Integer> demand = new LinkedHashMap<>();
+        for (Schedule schedule : scheduleRepository.findAllById(freeSlots.keySet())) {
+            int remainingSlots = slotInventoryService.getRemainingSlots(schedule);
+            int slots = Math.min(freeSlots.get(schedule.getScheduleId()), remainingSlots);
+            System.out.println("候补填充检查号源 - scheduleId: " + schedule.getScheduleId() + ", 剩余号源: " + remainingSlots
+                    + ", bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
+            if (slots > 0) {
+                schedules.put(schedule.getScheduleId(), schedule);
+                demand.put(schedule.getScheduleId(), slots);
+            }
         }
 
-        // 获取最早的等待中的候补条目
-        List<Waitlist> pendingWaitlists = waitlistRepository.findByScheduleAndStatusOrderByCreatedAtAsc(schedule, WaitlistStatus.waiting);
-        System.out.println("找到 " + pendingWaitlists.size() + " 个等待中的候补记录");
-        if (pendingWaitlists.isEmpty()) {
+        List<Waitlist> notified = new ArrayList<>();
+        // 本次已处理（已通知、已拒绝或已过时）的候补，同一候补可能同时出现在多个排班的候选人中
+        Set<Integer> settled = new HashSet<>();
+        for (int round = 0; round < MAX_MATCH_ROUNDS && !demand.isEmpty(); round++) {
+            Map<Integer, List<Waitlist>> candidates = loadCandidates(demand, schedules, settled);
+            Iterator<Map.Entry<Integer, Integer>> iterator = demand.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Integer> entry = iterator.next();
+                Schedule schedule = schedules.get(entry.getKey());
+                List<Waitlist> scheduleCandidates = candidates.getOrDefault(entry.getKey(), List.of());
+                int needed = entry.getValue();
+                for (Waitlist waitlist : filterEligible(schedule, scheduleCandidates, settled)) {
+                    if (needed == 0) {
+                        break;
+                    }
+                    // 通过号源库存原子占用号源：bookedSlots + 1（为候补患者预留）
+                    if (!slotInventoryService.tryAcquire(schedule)) {
+                        System.out.println("候补填充时号源已被占用，停止填充排班 " + schedule.getScheduleId());
+                        needed = 0;
+                        break;
+                    }
+                    settled.add(waitlist.getWaitlistId());
+                    assignSlot(waitlist, schedule);
+                    notified.add(waitlist);
+                    needed--;
+                }
+                // 已填满，或者索引中已没有更多未处理的候选人（每轮跳过已处理的候补继续往后读）
+                if (needed == 0 || scheduleCandidates.size() < candidateLimit(entry.getValue())) {
+                    iterator.remove();
+                } else {
+                    entry.setValue(needed);
+                }
+            }
+        }
+
+        if (notified.isEmpty()) {
             System.out.println("没有等待中的候补人员");
-            return null; // 没有等待中的候补人员
+            return 0;
         }
+        waitlistRepository.saveAll(notified);
+        for (Waitlist waitlist : notified) {
+            // 登记支付截止时间，到期未支付时自动过期（见 onDeadline）
+            deadlineScheduler.schedule(DEADLINE_TYPE, waitlist.getWaitlistId(),
+                    waitlist.getNotificationSentAt().plusMinutes(PAYMENT_EXPIRE_MINUTES));
+            sendAvailableNotification(waitlist);
+        }
+        System.out.println("候补填充完成，等待患者支付，已通知候补数: " + notified.size());
+        return notified.size();
+    }
 
-        for (Waitlist waitlist : pendingWaitlists) {
-            Patient patient = waitlist.getPatient();
-            // 再次检查患者状态和是否已预约
-            if (patient.getPatientProfile() != null && patient.getPatientProfile().getBlacklistStatus() == BlacklistStatus.blacklisted) {
-                waitlist.setStatus(WaitlistStatus.expired); // 标记为过期（拒绝）
-                waitlistRepository.save(waitlist);
-                continue;
+    /**
+     * 排班更换医生（替班）：候补匹配索引按医生、科室分组，先移出该排班的等待中候补，更换医生后再重新加入
+     */
+    @Transactional
+    public void changeScheduleDoctor(Schedule schedule, Doctor doctor) {
+        List<Waitlist> waiting = waitlistRepository.findByScheduleAndStatusOrderByCreatedAtAsc(schedule, WaitlistStatus.waiting);
+        waiting.forEach(waitlistMatchingEngine::remove);
+        schedule.setDoctor(doctor);
+        waiting.forEach(waitlistMatchingEngine::add);
+    }
+
+    /**
+     * 候补占用号源：移出匹配索引，标记为已通知（等待支付）
+     */
+    private void assignSlot(Waitlist waitlist, Schedule schedule) {
+        // 必须在修改排班之前移出索引（索引按原排班分组）
+        waitlistMatchingEngine.remove(waitlist);
+        if (!waitlist.getSchedule().getScheduleId().equals(schedule.getScheduleId())) {
+            // 跨排班匹配：候补转到空出号源的排班，之后的支付、超时都按新排班处理
+            System.out.println("候补跨排班匹配，waitlistId: " + waitlist.getWaitlistId() +
+                    ", 原排班: " + waitlist.getSchedule().getScheduleId() + ", 新排班: " + schedule.getScheduleId());
+            waitlist.setSchedule(schedule);
+        }
+        waitlist.setStatus(WaitlistStatus.notified); // 标记为已通知（等待支付）
+        waitlist.setNotificationSentAt(LocalDateTime.now()); // 记录通知发送时间
+        System.out.println("候补号源已锁定，waitlistId: " + waitlist.getWaitlistId() + ", bookedSlots: "
+                + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
+    }
+
+    /**
+     * 发送候补可用通知（失败不影响候补填充）
+     */
+    private void sendAvailableNotification(Waitlist waitlist) {
+        try {
+            Schedule schedule = waitlist.getSchedule();
+            String departmentName = "未知科室";
+            String doctorName = "未知医生";
+            String scheduleDate = "";
+            String slotName = "";
+
+            if (schedule.getDoctor() != null && schedule.getDoctor().getDepartment() != null) {
+                departmentName = schedule.getDoctor().getDepartment().getName();
             }
-            // 检查患者是否已有该排班的有效预约（排除已取消的预约）
-            if (appointmentRepository.existsByPatientAndScheduleAndStatusNotCancelled(patient, schedule)) {
-                System.out.println("候补患者 " + patient.getPatientId() + " 已有该排班的有效预约，跳过");
-                waitlist.setStatus(WaitlistStatus.expired); // 标记为过期（已有预约）
-                waitlistRepository.save(waitlist);
-                continue;
+            if (schedule.getDoctor() != null) {
+                doctorName = schedule.getDoctor().getFullName();
+            }
+            if (schedule.getScheduleDate() != null) {
+                scheduleDate = schedule.getScheduleDate().toString();
+            }
+            if (schedule.getSlot() != null) {
+                slotName = schedule.getSlot().getSlotName();
             }
 
-            // 找到合适的候补人员，通知患者支付
-            // 重要：此时需要锁定号源，防止其他人预约
-            // 刷新 schedule 对象，确保获取最新的 bookedSlots 值
-            schedule = scheduleRepository.findById(schedule.getScheduleId())
-                    .orElseThrow(() -> new ResourceNotFoundException("Schedule not found"));
-            
-            // 再次检查号源是否还有空位（防止并发问题）
-            if (schedule.getBookedSlots() >= schedule.getTotalSlots()) {
-                System.out.println("候补填充时号源已被占用，跳过此候补");
-                continue;
+            notificationService.sendWaitlistAvailableNotification(
+                    waitlist.getPatient().getPatientId().intValue(),
+                    waitlist.getWaitlistId(),
+                    departmentName,
+                    doctorName,
+                    scheduleDate,
+                    slotName
+            );
+        } catch (Exception e) {
+            // 通知发送失败不影响流程，只记录日志
+            System.err.println("Failed to send waitlist available notification: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 查询等待中候补的排名；索引不可用或索引中没有该候补时回退为数据库计数
+     *
+     * @return 非等待状态返回 null
+     */
+    private WaitlistMatchingEngine.Position findPosition(Waitlist waitlist) {
+        if (waitlist.getStatus() != WaitlistStatus.waiting) {
+            return null;
+        }
+        try {
+            WaitlistMatchingEngine.Position position = waitlistMatchingEngine.position(waitlist);
+            if (position != null) {
+                return position;
             }
-            
-            // 锁定号源：bookedSlots + 1（为候补患者预留）
-            schedule.setBookedSlots(schedule.getBookedSlots() + 1);
-            scheduleRepository.save(schedule);
-            System.out.println("候补号源已锁定，bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
-            
-            waitlist.setStatus(WaitlistStatus.notified); // 标记为已通知（等待支付）
-            waitlist.setNotificationSentAt(LocalDateTime.now()); // 记录通知发送时间
-            waitlistRepository.save(waitlist); // 保存候补
-            
-            System.out.println("候补通知已发送，号源已锁定，等待患者支付，waitlistId: " + waitlist.getWaitlistId());
-            
-            // 发送候补可用通知
+        } catch (Exception e) {
+            System.err.println("候补排名索引不可用，回退为查询数据库: " + e.getMessage());
+        }
+        Schedule schedule = waitlist.getSchedule();
+        long ahead = waitlistRepository.countByScheduleAndStatusAndCreatedAtBefore(
+                schedule, WaitlistStatus.waiting, waitlist.getCreatedAt());
+        long total = waitlistRepository.countByScheduleAndStatus(schedule, WaitlistStatus.waiting);
+        return new WaitlistMatchingEngine.Position((int) ahead + 1, (int) total);
+    }
+
+    /**
+     * 每个排班从索引读取的候选人数：需要的号源数再多取一批，用于跳过黑名单和已有预约的候补
+     */
+    private static int candidateLimit(int needed) {
+        return needed + MATCH_BATCH_SIZE;
+    }
+
+    /**
+     * 批量读取各排班的候选人（按加入候补的时间排序）：先从索引取出所有排班的候选ID，再一次查询数据库；
+     * Redis 不可用或索引中没有时回退为查询本排班的候补（与原有行为一致）
+     *
+     * @param settled 本次填充中已处理过的候补，不再读取；索引中已删除的候补也会加入
+     */
+    private Map<Integer, List<Waitlist>> loadCandidates(Map<Integer, Integer> demand, Map<Integer, Schedule> schedules,
+                                                        Set<Integer> settled) {
+        Map<Integer, List<Integer>> idsBySchedule = new LinkedHashMap<>();
+        Map<Integer, List<Waitlist>> result = new HashMap<>();
+        demand.forEach((scheduleId, needed) -> {
+            Schedule schedule = schedules.get(scheduleId);
+            List<Integer> ids;
             try {
-                String departmentName = "未知科室";
-                String doctorName = "未知医生";
-                String scheduleDate = "";
-                String slotName = "";
-                
-                if (schedule != null) {
-                    if (schedule.getDoctor() != null && schedule.getDoctor().getDepartment() != null) {
-                        departmentName = schedule.getDoctor().getDepartment().getName();
-                    }
-                    if (schedule.getDoctor() != null) {
-                        doctorName = schedule.getDoctor().getFullName();
-                    }
-                    if (schedule.getScheduleDate() != null) {
-                        scheduleDate = schedule.getScheduleDate().toString();
-                    }
-                    if (schedule.getSlot() != null) {
-                        slotName = schedule.getSlot().getSlotName();
-                    }
-                }
-                
-                notificationService.sendWaitlistAvailableNotification(
-                        patient.getPatientId().intValue(),
-                        waitlist.getWaitlistId(),
-                        departmentName,
-                        doctorName,
-                        scheduleDate,
-                        slotName
-                );
+                ids = waitlistMatchingEngine.candidates(schedule, candidateLimit(needed), settled);
             } catch (Exception e) {
-                // 通知发送失败不影响流程，只记录日志
-                System.err.println("Failed to send waitlist available notification: " + e.getMessage());
+                System.err.println("候补匹配索引不可用，回退为查询数据库: " + e.getMessage());
+                ids = List.of();
+            }
+            if (ids.isEmpty()) {
+                result.put(scheduleId, waitlistRepository.findByScheduleAndStatusOrderByCreatedAtAsc(schedule, WaitlistStatus.waiting).stream()
+                        .filter(waitlist -> !settled.contains(waitlist.getWaitlistId()))
+                        .limit(candidateLimit(needed))
+                        .collect(Collectors.toList()));
+            } else {
+                idsBySchedule.put(scheduleId, ids);
+            }
+        });
+        if (idsBySchedule.isEmpty()) {
+            return result;
+        }
+
+        List<Integer> allIds = idsBySchedule.values().stream()
+                .flatMap(List::stream)
+                .distinct()
+                .collect(Collectors.toList());
+        Map<Integer, Waitlist> loaded = waitlistRepository.findAllWithPatientByIdIn(allIds).stream()
+                .collect(Collectors.toMap(Waitlist::getWaitlistId, Function.identity()));
+        idsBySchedule.forEach((scheduleId, ids) -> {
+            List<Waitlist> candidates = new ArrayList<>(ids.size());
+            for (Integer id : ids) {
+                Waitlist waitlist = loaded.get(id);
+                if (waitlist != null) {
+                    candidates.add(waitlist);
+                } else {
+                    // 候补记录已删除，清理索引
+                    Waitlist removed = new Waitlist();
+                    removed.setWaitlistId(id);
+                    removed.setSchedule(schedules.get(scheduleId));
+                    waitlistMatchingEngine.remove(removed);
+                    settled.add(id);
+                }
+            }
+            result.put(scheduleId, candidates);
+        });
+        return result;
+    }
+
+    /**
+     * 批量过滤候选人：一次查询所有候选人在该排班的有效预约，黑名单的候补批量标记为过期；
+     * 已有该排班有效预约的，候补的就是该排班时标记为过期，候补的是其他排班（医生/科室范围匹配）时只跳过，保留原候补
+     *
+     * @param settled 本次填充中已处理过的候补，跳过；新拒绝的候补也会加入
+     */
+    private List<Waitlist> filterEligible(Schedule schedule, List<Waitlist> candidates, Set<Integer> settled) {
+        List<Waitlist> pending = candidates.stream()
+                .filter(waitlist -> !settled.contains(waitlist.getWaitlistId()))
+                .collect(Collectors.toList());
+        if (pending.isEmpty()) {
+            return pending;
+        }
+        List<Long> patientIds = pending.stream()
+                .map(waitlist -> waitlist.getPatient().getPatientId())
+                .distinct()
+                .collect(Collectors.toList());
+        Set<Long> alreadyBooked = new HashSet<>(appointmentRepository.findPatientIdsWithActiveAppointment(schedule, patientIds));
+
+        List<Waitlist> eligible = new ArrayList<>();
+        List<Waitlist> rejected = new ArrayList<>();
+        for (Waitlist waitlist : pending) {
+            if (waitlist.getStatus() != WaitlistStatus.waiting) {
+                // 索引中的记录已过时（已通知、已过期等），只清理索引
+                waitlistMatchingEngine.remove(waitlist);
+                settled.add(waitlist.getWaitlistId());
+                continue;
+            }
+            Patient patient = waitlist.getPatient();
+            if (patient.getPatientProfile() != null && patient.getPatientProfile().getBlacklistStatus() == BlacklistStatus.blacklisted) {
+                rejected.add(waitlist); // 黑名单患者
+            } else if (alreadyBooked.contains(patient.getPatientId())) {
+                System.out.println("候补患者 " + patient.getPatientId() + " 已有该排班的有效预约，跳过");
+                if (schedule.getScheduleId().equals(waitlist.getSchedule().getScheduleId())) {
+                    rejected.add(waitlist); // 已有所候补排班的预约
+                } else {
+                    settled.add(waitlist.getWaitlistId()); // 跨排班匹配的候选人，本次不填充，保留其原候补
+                }
+            } else {
+                eligible.add(waitlist);
             }
-            
-            // 返回 null，因为此时还没有创建预约，等待患者支付时再创建
-            System.out.println("候补填充完成，等待患者支付，waitlistId: " + waitlist.getWaitlistId());
-            return null;
         }
-        return null; // 没有找到可以成功转换的候补人员
+        if (!rejected.isEmpty()) {
+            rejected.forEach(waitlist -> {
+                waitlistMatchingEngine.remove(waitlist);
+                waitlist.setStatus(WaitlistStatus.expired); // 标记为过期（拒绝）
+                settled.add(waitlist.getWaitlistId());
+            });
+            waitlistRepository.saveAll(rejected);
+        }
+        return eligible;
     }
 
 
@@ -303,9 +550,7 @@ public class WaitlistService {
                         .orElseThrow(() -> new ResourceNotFoundException("Schedule not found"));
                 
                 // 释放号源：bookedSlots - 1（因为通知时已经锁定了）
-                if (schedule.getBookedSlots() > 0) {
-                    schedule.setBookedSlots(schedule.getBookedSlots() - 1);
-                    scheduleRepository.save(schedule);
+                if (slotInventoryService.release(schedule)) {
                     System.out.println("候补取消 - 释放号源，bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
                 }
                 
@@ -363,7 +608,7 @@ public class WaitlistService {
         Appointment appointment = new Appointment();
         appointment.setPatient(patient);
         appointment.setSchedule(schedule);
-        appointment.setAppointmentNumber(getNextAppointmentNumber(schedule, patient));
+        appointment.setAppointmentNumber(appointmentNumberSequencer.nextNumber(schedule));
         appointment.setStatus(AppointmentStatus.scheduled);  // 已预约状态
         appointment.setPaymentStatus(PaymentStatus.paid);    // 已支付
         appointment.setPaymentMethod(paymentData.getPaymentMethod());
@@ -424,39 +669,17 @@ public class WaitlistService {
         return appointmentService.findAppointmentById(savedAppointment.getAppointmentId());
     }
 
-    private int getNextAppointmentNumber(Schedule schedule, Patient patient) {
-        Appointment lastAppointment = appointmentRepository.findTopByScheduleOrderByAppointmentNumberDesc(schedule);
-        int baseNumber = (lastAppointment == null || lastAppointment.getAppointmentNumber() == null)
-                ? 0
-                : lastAppointment.getAppointmentNumber();
-
-        if (lastAppointment != null && lastAppointment.getPatient() != null
-                && patient != null
-                && Objects.equals(lastAppointment.getPatient().getPatientId(), patient.getPatientId())) {
-            return baseNumber + 1;
-        }
-
-        return baseNumber + 1;
-    }
-
     @Transactional(readOnly = true)
     public WaitlistPositionResponse getWaitlistPosition(Integer waitlistId) {
         // 获取候补记录
         Waitlist waitlist = waitlistRepository.findById(waitlistId)
                 .orElseThrow(() -> new ResourceNotFoundException("Waitlist entry not found with id " + waitlistId));
 
-        // 获取同一排班下状态为waiting的所有候补记录（按创建时间升序）
-        List<Waitlist> waitingList = waitlistRepository
-                .findByScheduleAndStatusOrderByCreatedAtAsc(waitlist.getSchedule(), WaitlistStatus.waiting);
-
-        // 计算当前位置
-        int position = 0;
-        for (int i = 0; i < waitingList.size(); i++) {
-            if (waitingList.get(i).getWaitlistId().equals(waitlistId)) {
-                position = i + 1; // 位置从1开始
-                break;
-            }
-        }
+        // 从候补匹配索引查询排名（ZRANK / ZCARD），不加载候补列表
+        WaitlistMatchingEngine.Position rank = findPosition(waitlist);
+        int position = rank != null ? rank.position() : 0; // 位置从1开始，非等待状态为0
+        int totalWaiting = rank != null ? rank.totalWaiting()
+                : (int) waitlistRepository.countByScheduleAndStatus(waitlist.getSchedule(), WaitlistStatus.waiting);
 
         // 构建响应对象
         WaitlistPositionResponse response = new WaitlistPositionResponse();
@@ -464,11 +687,15 @@ public class WaitlistService {
         response.setScheduleId(waitlist.getSchedule().getScheduleId());
         response.setStatus(waitlist.getStatus());
         response.setPosition(position);
-        response.setTotalWaiting(waitingList.size());
+        response.setTotalWaiting(totalWaiting);
+        response.setPeopleAhead(position > 0 ? position - 1 : null);
 
-        // 简单估算等待时间（实际项目中可根据历史数据进行更精确的估算）
+        // 按该医生该时段的历史接诊用时估算等待时间
         if (position > 0) {
-            response.setEstimatedTime("预计还需等待约" + (position * 10) + "分钟");
+            Schedule schedule = waitlist.getSchedule();
+            int minutes = waitTimeEstimator.estimateWaitlistMinutes(
+                    schedule.getDoctor().getDoctorId(), schedule.getSlot().getSlotId(), position);
+            response.setEstimatedTime("预计还需等待约" + minutes + "分钟");
         } else {
             response.setEstimatedTime(null);
         }
@@ -521,10 +748,9 @@ public class WaitlistService {
                     response.setPatient(patientResp);
 
                     // 计算候补位置（仅waiting状态有效）
-                    if (waitlist.getStatus() == WaitlistStatus.waiting) {
-                        long position = waitlistRepository.countByScheduleAndStatusAndCreatedAtBefore(
-                                schedule, WaitlistStatus.waiting, waitlist.getCreatedAt()) + 1;
-                        response.setPosition((int) position);
+                    WaitlistMatchingEngine.Position rank = findPosition(waitlist);
+                    if (rank != null) {
+                        response.setPosition(rank.position());
                     } else {
                         response.setPosition(null);
                     }
@@ -543,14 +769,14 @@ public class WaitlistService {
     }
 
     /**
-     * 处理超时的候补记录
+     * 处理超时的候补记录（兜底扫描，正常情况下由 onDeadline 在到期时逐条处理）
      * 将状态为 notified 且通知发送时间超过15分钟的候补记录更新为 expired
      * 如果该候补对应的排班还有空余号源，触发自动填充流程
      */
     @Transactional
     public void expireNotifiedWaitlists() {
         // 计算过期时间点（当前时间减去15分钟）
-        LocalDateTime expireTime = LocalDateTime.now().minusMinutes(15);
+        LocalDateTime expireTime = LocalDateTime.now().minusMinutes(PAYMENT_EXPIRE_MINUTES);
         
         // 查询超时的候补记录
         List<Waitlist> expiredWaitlists = waitlistRepository.findExpiredNotifiedWaitlists(
@@ -559,44 +785,70 @@ public class WaitlistService {
         System.out.println("候补超时处理 - 找到 " + expiredWaitlists.size() + " 个超时的候补记录");
         
         for (Waitlist waitlist : expiredWaitlists) {
-            System.out.println("处理超时候补 - waitlistId: " + waitlist.getWaitlistId() + 
-                    ", notificationSentAt: " + waitlist.getNotificationSentAt());
+            expireWaitlist(waitlist);
+        }
+        
+        System.out.println("候补超时处理完成 - 共处理 " + expiredWaitlists.size() + " 个超时的候补记录");
+    }
+
+    @Override
+    public String deadlineType() {
+        return DEADLINE_TYPE;
+    }
+
+    /**
+     * 候补支付截止时间到达：仍未支付时更新为 expired
+     */
+    @Override
+    @Transactional
+    public void onDeadline(String id) {
+        Waitlist waitlist = waitlistRepository.findById(Integer.valueOf(id)).orElse(null);
+        if (waitlist == null || waitlist.getStatus() != WaitlistStatus.notified || waitlist.getNotificationSentAt() == null) {
+            return; // 已支付、已取消或已被兜底扫描处理
+        }
+        if (waitlist.getNotificationSentAt().plusMinutes(PAYMENT_EXPIRE_MINUTES).isAfter(LocalDateTime.now())) {
+            return; // 重新通知过，以新的截止时间为准
+        }
+        expireWaitlist(waitlist);
+    }
+
+    /**
+     * 将单条候补更新为 expired，释放锁定的号源并通知下一个候补
+     */
+    private void expireWaitlist(Waitlist waitlist) {
+        System.out.println("处理超时候补 - waitlistId: " + waitlist.getWaitlistId() + 
+                ", notificationSentAt: " + waitlist.getNotificationSentAt());
+        
+        // 更新状态为 expired
+        waitlist.setStatus(WaitlistStatus.expired);
+        waitlistRepository.save(waitlist);
+        
+        // 释放锁定的号源（候补超时未支付）
+        Schedule schedule = waitlist.getSchedule();
+        if (schedule != null) {
+            // 刷新 schedule 对象，确保获取最新的 bookedSlots 值
+            schedule = scheduleRepository.findById(schedule.getScheduleId())
+                    .orElseThrow(() -> new ResourceNotFoundException("Schedule not found"));
             
-            // 更新状态为 expired
-            waitlist.setStatus(WaitlistStatus.expired);
-            waitlistRepository.save(waitlist);
+            // 释放号源：bookedSlots - 1（因为通知时已经锁定了）
+            if (slotInventoryService.release(schedule)) {
+                System.out.println("候补超时处理 - 释放号源，bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
+            }
             
-            // 释放锁定的号源（候补超时未支付）
-            Schedule schedule = waitlist.getSchedule();
-            if (schedule != null) {
-                // 刷新 schedule 对象，确保获取最新的 bookedSlots 值
-                schedule = scheduleRepository.findById(schedule.getScheduleId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Schedule not found"));
-                
-                // 释放号源：bookedSlots - 1（因为通知时已经锁定了）
-                if (schedule.getBookedSlots() > 0) {
-                    schedule.setBookedSlots(schedule.getBookedSlots() - 1);
-                    scheduleRepository.save(schedule);
-                    System.out.println("候补超时处理 - 释放号源，bookedSlots: " + schedule.getBookedSlots() + ", totalSlots: " + schedule.getTotalSlots());
-                }
-                
-                // 检查是否还有空余号源，触发自动填充（通知下一个候补）
-                if (schedule.getBookedSlots() < schedule.getTotalSlots()) {
-                    System.out.println("候补超时处理 - 触发自动填充，scheduleId: " + schedule.getScheduleId());
-                    try {
-                        createAppointmentFromWaitlist(schedule.getScheduleId());
-                    } catch (Exception e) {
-                        // 自动填充失败不影响超时处理流程，只记录日志
-                        System.err.println("候补超时处理 - 自动填充失败: " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                } else {
-                    System.out.println("候补超时处理 - 号源已满，无需自动填充");
+            // 检查是否还有空余号源，触发自动填充（通知下一个候补）
+            if (schedule.getBookedSlots() < schedule.getTotalSlots()) {
+                System.out.println("候补超时处理 - 触发自动填充，scheduleId: " + schedule.getScheduleId());
+                try {
+                    createAppointmentFromWaitlist(schedule.getScheduleId());
+                } catch (Exception e) {
+                    // 自动填充失败不影响超时处理流程，只记录日志
+                    System.err.println("候补超时处理 - 自动填充失败: " + e.getMessage());
+                    e.printStackTrace();
                 }
+            } else {
+                System.out.println("候补超时处理 - 号源已满，无需自动填充");
             }
         }
-        
-        System.out.println("候补超时处理完成 - 共处理 " + expiredWaitlists.size() + " 个超时的候补记录");
     }
 
 }
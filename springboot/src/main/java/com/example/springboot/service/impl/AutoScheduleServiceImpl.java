@@ -6,19 +6,39 @@ import com.example.springboot.entity.*;
 import com.example.springboot.entity.enums.DoctorStatus;
 import com.example.springboot.entity.enums.ScheduleStatus;
 import com.example.springboot.repository.*;
+import com.example.springboot.exception.BadRequestException;
+import com.example.springboot.service.AutoScheduleProgress;
 import com.example.springboot.service.AutoScheduleService;
+import com.example.springboot.service.DemandForecastService;
+import com.example.springboot.service.LeaveIndex;
 import com.example.springboot.util.ConflictDetector;
 import com.example.springboot.util.ScheduleConstraintValidator;
+import com.example.springboot.util.ScheduleOccupancyIndex;
+import com.example.springboot.util.ScheduleOptimizer;
 import com.example.springboot.util.WorkloadCalculator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.Period;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -42,7 +62,7 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
     private ScheduleRepository scheduleRepository;
     
     @Autowired
-    private LeaveRequestRepository leaveRequestRepository;
+    private LeaveIndex leaveIndex;
     
     @Autowired
     private ScheduleConstraintValidator constraintValidator;
@@ -53,9 +73,77 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
     @Autowired
     private ConflictDetector conflictDetector;
     
+    @Autowired
+    private ScheduleOptimizer scheduleOptimizer;
+    
+    @Autowired
+    private DepartmentRepository departmentRepository;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Autowired
+    private DemandForecastService demandForecastService;
+    
+    @Autowired
+    private ScheduleBulkWriter scheduleBulkWriter;
+    
+    // 全院排班时并行生成的科室数（每个科室读取数据期间占用一个数据库连接）
+    @Value("${auto-schedule.hospital.parallelism:4}")
+    private int hospitalParallelism;
+    
+    // 同时进行的全院排班数
+    @Value("${auto-schedule.hospital.max-concurrent:1}")
+    private int hospitalMaxConcurrent;
+    
+    private ForkJoinPool hospitalPool;
+    
+    private Semaphore hospitalPermits;
+    
+    @PostConstruct
+    private void initHospitalPool() {
+        hospitalPool = new ForkJoinPool(Math.max(1, hospitalParallelism));
+        hospitalPermits = new Semaphore(Math.max(1, hospitalMaxConcurrent));
+    }
+    
+    @PreDestroy
+    private void shutdownHospitalPool() {
+        hospitalPool.shutdownNow();
+    }
+    
     @Override
     @Transactional
     public AutoScheduleResponse autoGenerateSchedule(AutoScheduleRequest request) {
+        return autoGenerateSchedule(request, AutoScheduleProgress.NONE);
+    }
+    
+    @Override
+    @Transactional
+    public AutoScheduleResponse autoGenerateSchedule(AutoScheduleRequest request, AutoScheduleProgress progress) {
+        return generate(request, progress, null).response();
+    }
+    
+    /**
+     * 生成单个科室的排班（在调用方的事务中读取数据）
+     * 
+     * @param assignedLocations 预先分配给该科室的诊室（全院排班时使用），为空时使用科室自己的诊室
+     */
+    private Generation generate(
+            AutoScheduleRequest request,
+            AutoScheduleProgress progress,
+            List<Location> assignedLocations) {
+        return generateFrom(request, progress, () -> prepareInput(request, assignedLocations));
+    }
+    
+    /**
+     * 生成单个科室的排班
+     * 
+     * @param loader 读取排班所需的数据；之后的生成、优化、冲突检测只使用读取到的数据，不再访问数据库
+     */
+    private Generation generateFrom(
+            AutoScheduleRequest request,
+            AutoScheduleProgress progress,
+            Supplier<GenerationInput> loader) {
         long startTime = System.currentTimeMillis();
         
         try {
@@ -71,23 +159,23 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
             }
             
             // 2. 数据准备
-            List<Doctor> doctors = prepareActiveDoctors(request.getDepartmentId());
-            List<TimeSlot> allTimeSlots = timeSlotRepository.findAll();
-            
-            // 🔥 新增：上午/下午各选择一个时段
-            List<TimeSlot> timeSlots = selectRepresentativeSlots(allTimeSlots);
-            
-            List<Location> locations = prepareLocations(request.getDepartmentId());
-            List<Schedule> existingSchedules = loadExistingSchedules(request);
-            Map<Integer, List<LeaveRequest>> leaveMap = buildLeaveRequestMap(
-                doctors, request.getStartDate(), request.getEndDate()
-            );
-            
-            log.info("数据准备完成: doctors={}, timeSlots={} (从{}个筛选), locations={}", 
-                doctors.size(), timeSlots.size(), allTimeSlots.size(), locations.size());
+            progress.update(0, "数据准备");
+            GenerationInput input = loader.get();
+            List<Doctor> doctors = input.doctors();
+            List<TimeSlot> timeSlots = input.timeSlots();
+            List<Location> locations = input.locations();
+            List<Schedule> existingSchedules = input.existingSchedules();
             
             // 3. 初始化
             List<Schedule> generatedSchedules = new ArrayList<>();
+            // 排班占用索引：occupancy 包含已有排班和新生成的排班（硬约束检查），
+            // generatedOccupancy 只包含新生成的排班（选择医生时的连续工作天数）
+            ScheduleOccupancyIndex occupancy = ScheduleOccupancyIndex.of(
+                request.getStartDate(), request.getEndDate(), existingSchedules
+            );
+            ScheduleOccupancyIndex generatedOccupancy = new ScheduleOccupancyIndex(
+                request.getStartDate(), request.getEndDate()
+            );
             Map<Integer, Integer> workloadMap = new HashMap<>();
             List<UnassignedSlot> unassignedSlots = new ArrayList<>();
             int relaxedCount = 0; // 统计使用放宽限制的次数
@@ -96,8 +184,12 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
             Map<Integer, Location> doctorLocationMap = assignDoctorLocations(doctors, locations);
             
             // 4. 主算法循环 - CSP + 贪心策略
+            long totalDays = request.getStartDate().until(request.getEndDate(), ChronoUnit.DAYS) + 1;
             LocalDate currentDate = request.getStartDate();
             while (!currentDate.isAfter(request.getEndDate())) {
+                checkCancelled(progress);
+                long dayIndex = request.getStartDate().until(currentDate, ChronoUnit.DAYS);
+                progress.update((int) (10 + 70 * dayIndex / totalDays), "生成排班 " + currentDate);
                 for (TimeSlot slot : timeSlots) {
                     // 🔥 获取该时段需要的医生人数
                     int minDoctors = Math.max(1, request.getRules().getMinDoctorsPerSlot());
@@ -118,7 +210,7 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
                         // 4.1 筛选可用医生（只排除该时段已排班的医生）
                         List<Doctor> availableDoctors = filterAvailableDoctors(
                             doctors, currentDate, slot, workloadMap, 
-                            leaveMap, generatedSchedules, existingSchedules, request.getRules()
+                            occupancy, request.getRules()
                         );
                         
                         // 🔥 排除该时段已排班的医生（允许医生在同一天的不同时段工作）
@@ -139,7 +231,7 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
                                     currentDate, slot.getSlotName(), assignedCount, minDoctors);
                                 availableDoctors = filterAvailableDoctorsRelaxed(
                                     doctors, currentDate, slot, workloadMap, 
-                                    leaveMap, generatedSchedules, existingSchedules, request.getRules()
+                                    occupancy, request.getRules()
                                 );
                                 
                                 // 🔥 排除该时段已排班的医生（允许医生在同一天的不同时段工作）
@@ -161,7 +253,7 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
                         
                         // 4.2 智能选择医生（综合考虑工作量和连续工作天数）
                         Doctor selectedDoctor = selectBestDoctor(
-                            availableDoctors, workloadMap, generatedSchedules, 
+                            availableDoctors, workloadMap, generatedOccupancy, 
                             currentDate, request.getRules()
                         );
                         
@@ -188,6 +280,8 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
                         );
                         
                         generatedSchedules.add(schedule);
+                        occupancy.add(schedule);
+                        generatedOccupancy.add(schedule);
                         
                         // 4.6 更新工作量
                         workloadMap.merge(selectedDoctor.getDoctorId(), 1, Integer::sum);
@@ -205,23 +299,39 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
                     
                     // 如果未达到最小医生数，记录为未完全分配
                     if (assignedCount < minDoctors) {
-                        UnassignedSlot unassigned = new UnassignedSlot();
-                        unassigned.setDate(currentDate);
-                        unassigned.setSlotId(slot.getSlotId());
-                        unassigned.setSlotName(slot.getSlotName());
-                        unassigned.setReason(String.format("仅分配了%d个医生，未达到最小要求%d个", 
-                            assignedCount, minDoctors));
-                        unassigned.setSuggestions(Arrays.asList(
-                            "增加医生数量", 
-                            "减少每时段最小医生数", 
-                            "调整请假安排", 
-                            "关闭严格模式"));
-                        unassignedSlots.add(unassigned);
+                        unassignedSlots.add(buildUnassignedSlot(currentDate, slot, assignedCount, minDoctors));
                     }
                 }
                 currentDate = currentDate.plusDays(1);
             }
             
+            // 4.7 局部搜索优化：在贪心结果基础上补位、换人、交换，改进目标函数（未启用时只计算目标函数）
+            checkCancelled(progress);
+            progress.update(80, "局部搜索优化");
+            long optimizeTimeLimit = Boolean.TRUE.equals(request.getRules().getOptimize())
+                && request.getRules().getOptimizeTimeLimitMs() != null
+                ? request.getRules().getOptimizeTimeLimitMs() : 0;
+            ScheduleOptimizer.Result optimized = scheduleOptimizer.optimize(
+                doctors, timeSlots, request.getStartDate(), request.getEndDate(),
+                doctorLocationMap, existingSchedules, generatedSchedules,
+                request.getRules(), optimizeTimeLimit
+            );
+            if (optimized.objectiveAfter() < optimized.objectiveBefore()) {
+                generatedSchedules = new ArrayList<>();
+                workloadMap = new HashMap<>();
+                for (ScheduleOptimizer.Assignment assignment : optimized.assignments()) {
+                    Doctor doctor = assignment.doctor();
+                    generatedSchedules.add(buildSchedule(
+                        doctor, assignment.date(), assignment.slot(),
+                        doctorLocationMap.get(doctor.getDoctorId()), request.getRules()
+                    ));
+                    workloadMap.merge(doctor.getDoctorId(), 1, Integer::sum);
+                }
+                unassignedSlots = findUnassignedSlots(generatedSchedules, timeSlots, request);
+                relaxedCount = countRelaxedSchedules(generatedSchedules, existingSchedules, request);
+                log.info("局部搜索优化完成: 目标函数 {} -> {}", optimized.objectiveBefore(), optimized.objectiveAfter());
+            }
+            
             log.info("排班生成完成: 共生成{}条排班记录，其中{}条使用了放宽限制", 
                 generatedSchedules.size(), relaxedCount);
             
@@ -229,14 +339,21 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
                 log.warn("⚠️ 警告：有{}个时段因无可用医生而放宽了连续工作天数限制", relaxedCount);
             }
             
+            // 4.8 按需求预测设置号源数量（没有足够历史数据时使用默认号源数量）
+            List<CapacitySuggestion> capacitySuggestions = applyCapacitySuggestions(
+                generatedSchedules, input.capacityPlan(), request.getRules()
+            );
+            
             // 5. 冲突检测
+            checkCancelled(progress);
+            progress.update(95, "冲突检测");
             List<ScheduleConflict> conflicts = conflictDetector.detectConflicts(
                 generatedSchedules, existingSchedules
             );
             
             // 6. 保存到数据库（如果不是预览模式且无冲突）
             if (!request.getPreviewOnly() && conflicts.isEmpty()) {
-                scheduleRepository.saveAll(generatedSchedules);
+                scheduleBulkWriter.insertSchedules(generatedSchedules);
                 log.info("排班已保存到数据库");
             } else if (request.getPreviewOnly()) {
                 log.info("预览模式，排班未保存");
@@ -246,15 +363,286 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
             
             // 7. 生成统计和响应
             long executionTime = System.currentTimeMillis() - startTime;
-            return buildResponse(
+            AutoScheduleResponse response = buildResponse(
                 generatedSchedules, workloadMap, 
                 conflicts, unassignedSlots, doctors, 
                 request, executionTime
             );
+            response.getStatistics().setObjectiveBefore(optimized.objectiveBefore());
+            response.getStatistics().setObjectiveAfter(Math.min(optimized.objectiveBefore(), optimized.objectiveAfter()));
+            response.setCapacitySuggestions(capacitySuggestions);
+            return new Generation(response, generatedSchedules);
             
+        } catch (CancellationException e) {
+            log.info("自动排班已取消: departmentId={}", request.getDepartmentId());
+            throw e;
         } catch (Exception e) {
             log.error("自动排班生成失败", e);
-            return buildErrorResponse(e.getMessage());
+            return new Generation(buildErrorResponse(e.getMessage()), List.of());
+        }
+    }
+    
+    /**
+     * 全院自动排班
+     * 不在一个事务中执行：各科室在 ForkJoin 线程池中并行生成，只在读取数据时使用各自的只读事务，
+     * 生成和优化在事务外进行，不占用数据库连接；全部完成后在一个事务中保存。
+     * 同时进行的全院排班数有上限，超出时拒绝。
+     */
+    @Override
+    public HospitalAutoScheduleResponse autoGenerateHospitalSchedule(HospitalAutoScheduleRequest request) {
+        if (request.getStartDate() == null || request.getEndDate() == null) {
+            throw new BadRequestException("开始日期和结束日期不能为空");
+        }
+        if (!hospitalPermits.tryAcquire()) {
+            throw new BadRequestException("正在进行的全院排班过多，请稍后再试");
+        }
+        try {
+            return generateHospitalSchedule(request);
+        } finally {
+            hospitalPermits.release();
+        }
+    }
+    
+    private HospitalAutoScheduleResponse generateHospitalSchedule(HospitalAutoScheduleRequest request) {
+        long startTime = System.currentTimeMillis();
+        ScheduleRules rules = request.getRules() != null ? request.getRules() : new ScheduleRules();
+        TransactionTemplate readOnlyTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTemplate.setReadOnly(true);
+        
+        // 1. 按科室划分，并预先分配诊室（同一诊室只分给一个科室）
+        List<String> warnings = new ArrayList<>();
+        Map<Integer, List<Location>> departmentLocations = readOnlyTemplate.execute(
+            status -> partitionLocations(request.getDepartmentIds(), warnings)
+        );
+        log.info("全院自动排班开始: 科室数={}, startDate={}, endDate={}", 
+            departmentLocations.size(), request.getStartDate(), request.getEndDate());
+        
+        // 2. 各科室并行生成（预览模式，不保存）
+        List<Integer> departmentIds = new ArrayList<>(departmentLocations.keySet());
+        List<Callable<Generation>> tasks = new ArrayList<>();
+        for (Integer departmentId : departmentIds) {
+            AutoScheduleRequest departmentRequest = new AutoScheduleRequest();
+            departmentRequest.setDepartmentId(departmentId);
+            departmentRequest.setStartDate(request.getStartDate());
+            departmentRequest.setEndDate(request.getEndDate());
+            departmentRequest.setRules(rules);
+            departmentRequest.setPreviewOnly(true);
+            List<Location> locations = departmentLocations.get(departmentId);
+            tasks.add(() -> generateFrom(departmentRequest, AutoScheduleProgress.NONE, () -> readOnlyTemplate.execute(
+                status -> prepareInput(departmentRequest, locations)
+            )));
+        }
+        
+        Map<Integer, AutoScheduleResponse> departmentResults = new LinkedHashMap<>();
+        List<Schedule> allSchedules = new ArrayList<>();
+        Map<Integer, List<Schedule>> schedulesByDepartment = new HashMap<>();
+        boolean allSucceeded = true;
+        List<Future<Generation>> futures = hospitalPool.invokeAll(tasks);
+        for (int i = 0; i < departmentIds.size(); i++) {
+            Integer departmentId = departmentIds.get(i);
+            Generation generation;
+            try {
+                generation = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("全院自动排班被中断", e);
+            } catch (ExecutionException e) {
+                log.error("科室{}自动排班失败", departmentId, e.getCause());
+                generation = new Generation(buildErrorResponse(e.getCause().getMessage()), List.of());
+            }
+            departmentResults.put(departmentId, generation.response());
+            allSucceeded &= Boolean.TRUE.equals(generation.response().getSuccess());
+            allSchedules.addAll(generation.schedules());
+            schedulesByDepartment.put(departmentId, generation.schedules());
+        }
+        
+        // 3. 合并后统一检测冲突
+        List<ScheduleConflict> conflicts = conflictDetector.detectInternalConflicts(allSchedules);
+        boolean success = allSucceeded && conflicts.isEmpty();
+        
+        // 4. 保存到数据库（所有科室都成功且无冲突时）
+        if (!Boolean.TRUE.equals(request.getPreviewOnly()) && success) {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                scheduleBulkWriter.insertSchedules(allSchedules);
+                // 保存后回填排班ID
+                schedulesByDepartment.forEach((departmentId, schedules) ->
+                    departmentResults.get(departmentId).setSchedules(schedules.stream()
+                        .map(this::convertToScheduleResponse)
+                        .collect(Collectors.toList())));
+            });
+            log.info("全院排班已保存到数据库: 共{}条排班记录", allSchedules.size());
+        }
+        
+        HospitalAutoScheduleResponse response = new HospitalAutoScheduleResponse();
+        response.setSuccess(success);
+        if (success) {
+            response.setMessage(String.format("全院自动排班生成成功，%d个科室共生成%d条排班记录", 
+                departmentResults.size(), allSchedules.size()));
+        } else if (!conflicts.isEmpty()) {
+            response.setMessage(String.format("检测到%d个冲突，请处理后重试", conflicts.size()));
+        } else {
+            response.setMessage("部分科室排班生成失败或存在冲突，排班未保存");
+        }
+        response.setDepartmentResults(departmentResults);
+        response.setConflicts(conflicts);
+        response.setTotalSchedules(allSchedules.size());
+        response.setWarnings(warnings);
+        response.setExecutionTime(System.currentTimeMillis() - startTime);
+        log.info("全院自动排班完成: 科室数={}, 排班数={}, 冲突数={}, 耗时={}ms", 
+            departmentResults.size(), allSchedules.size(), conflicts.size(), response.getExecutionTime());
+        return response;
+    }
+    
+    /**
+     * 读取单个科室排班所需的数据（需要在事务中调用）
+     * 已有排班一并加载医生、时间段和诊室，医生一并加载科室，之后在事务外生成排班时不会触发延迟加载
+     */
+    private GenerationInput prepareInput(AutoScheduleRequest request, List<Location> assignedLocations) {
+        List<Doctor> doctors = prepareActiveDoctors(request.getDepartmentId());
+        doctors.forEach(doctor -> Hibernate.initialize(doctor.getDepartment()));
+        List<TimeSlot> allTimeSlots = timeSlotRepository.findAll();
+        
+        // 🔥 新增：上午/下午各选择一个时段
+        List<TimeSlot> timeSlots = selectRepresentativeSlots(allTimeSlots);
+        
+        List<Location> locations = assignedLocations != null
+            ? assignedLocations : prepareLocations(request.getDepartmentId());
+        List<Schedule> existingSchedules = loadExistingSchedules(request);
+        // 一次加载所有医生的请假区间
+        leaveIndex.preload(doctors.stream().map(Doctor::getDoctorId).collect(Collectors.toList()));
+        // 按需求预测设置号源数量时，一并读取医生的需求预测
+        DemandForecastService.CapacityPlan capacityPlan = Boolean.TRUE.equals(request.getRules().getUseDemandForecast())
+            ? demandForecastService.loadCapacityPlan(doctors.stream().map(Doctor::getDoctorId).collect(Collectors.toList()))
+            : null;
+        
+        log.info("数据准备完成: doctors={}, timeSlots={} (从{}个筛选), locations={}", 
+            doctors.size(), timeSlots.size(), allTimeSlots.size(), locations.size());
+        return new GenerationInput(doctors, timeSlots, locations, existingSchedules, capacityPlan);
+    }
+    
+    /**
+     * 全院排班的科室划分和诊室分配
+     * 诊室归属于科室，各科室使用自己的诊室；没有诊室的科室从同一父科室下其他科室的空闲诊室
+     * （诊室数多于医生数的部分）中借用，每个空闲诊室只借给一个科室，各科室并行排班时不会争用同一诊室。
+     * 
+     * @param departmentIds 参与排班的科室ID，为空时包括所有科室
+     * @param warnings 输出：借用诊室、跳过科室等提示
+     * @return 各科室分配到的诊室（key: departmentId），只包含有在职医生且有诊室的科室
+     */
+    private Map<Integer, List<Location>> partitionLocations(List<Integer> departmentIds, List<String> warnings) {
+        List<Department> departments = departmentIds == null || departmentIds.isEmpty()
+            ? departmentRepository.findAll()
+            : departmentRepository.findAllById(departmentIds);
+        
+        Map<Integer, List<Location>> result = new LinkedHashMap<>();
+        Map<Integer, Integer> doctorCounts = new HashMap<>();
+        List<Department> borrowers = new ArrayList<>();
+        // key: parentDepartmentId, value: 可借出的空闲诊室
+        Map<Integer, Deque<Location>> spareLocations = new HashMap<>();
+        for (Department department : departments) {
+            int doctorCount = doctorRepository.findByDepartmentDepartmentIdAndStatus(
+                department.getDepartmentId(), DoctorStatus.active
+            ).size();
+            if (doctorCount == 0) {
+                if (departmentIds != null && !departmentIds.isEmpty()) {
+                    warnings.add(String.format("科室%s没有在职医生，已跳过", department.getName()));
+                }
+                continue;
+            }
+            doctorCounts.put(department.getDepartmentId(), doctorCount);
+            
+            List<Location> locations = locationRepository.findByDepartmentDepartmentId(department.getDepartmentId());
+            if (locations.isEmpty()) {
+                borrowers.add(department);
+                continue;
+            }
+            // 每位医生一个固定诊室，多出的诊室可以借给同一父科室下没有诊室的科室
+            int kept = Math.min(doctorCount, locations.size());
+            result.put(department.getDepartmentId(), new ArrayList<>(locations.subList(0, kept)));
+            if (locations.size() > kept && department.getParentDepartment() != null) {
+                spareLocations.computeIfAbsent(department.getParentDepartment().getParentDepartmentId(),
+                    id -> new ArrayDeque<>()).addAll(locations.subList(kept, locations.size()));
+            }
+        }
+        
+        // 医生多的科室优先借用
+        borrowers.sort(Comparator.comparing(d -> -doctorCounts.get(d.getDepartmentId())));
+        for (Department department : borrowers) {
+            Deque<Location> spare = department.getParentDepartment() != null
+                ? spareLocations.get(department.getParentDepartment().getParentDepartmentId()) : null;
+            List<Location> borrowed = new ArrayList<>();
+            while (spare != null && !spare.isEmpty() && borrowed.size() < doctorCounts.get(department.getDepartmentId())) {
+                borrowed.add(spare.poll());
+            }
+            if (borrowed.isEmpty()) {
+                warnings.add(String.format("科室%s没有可用的诊室，已跳过", department.getName()));
+                continue;
+            }
+            warnings.add(String.format("科室%s没有诊室，借用同一父科室下的%d个空闲诊室", 
+                department.getName(), borrowed.size()));
+            result.put(department.getDepartmentId(), borrowed);
+        }
+        return result;
+    }
+    
+    /**
+     * 保存预览的排班结果
+     */
+    @Override
+    @Transactional
+    public AutoScheduleResponse saveGeneratedSchedules(AutoScheduleRequest request, AutoScheduleResponse preview) {
+        if (!Boolean.TRUE.equals(preview.getSuccess())) {
+            throw new BadRequestException("排班预览存在冲突或生成失败，不能保存");
+        }
+        
+        ScheduleRules rules = request.getRules() != null ? request.getRules() : new ScheduleRules();
+        Map<Integer, TimeSlot> slotMap = timeSlotRepository.findAll().stream()
+            .collect(Collectors.toMap(TimeSlot::getSlotId, slot -> slot));
+        List<Schedule> schedules = new ArrayList<>();
+        for (ScheduleResponse item : preview.getSchedules()) {
+            TimeSlot slot = slotMap.get(item.getSlotId());
+            if (slot == null) {
+                throw new BadRequestException("时段不存在: " + item.getSlotId());
+            }
+            Schedule schedule = buildSchedule(
+                doctorRepository.getReferenceById(item.getDoctorId()), item.getScheduleDate(), slot,
+                locationRepository.getReferenceById(item.getLocationId()), rules
+            );
+            schedule.setTotalSlots(item.getTotalSlots());
+            schedule.setFee(item.getFee());
+            schedules.add(schedule);
+        }
+        
+        // 预览生成后可能已有其他排班写入，按当前数据重新检测冲突
+        List<ScheduleConflict> conflicts = conflictDetector.detectConflicts(
+            schedules, loadExistingSchedules(request)
+        );
+        if (!conflicts.isEmpty()) {
+            throw new BadRequestException(String.format(
+                "排班预览生成后已有排班发生变化，检测到%d个冲突，请重新生成", conflicts.size()));
+        }
+        
+        scheduleBulkWriter.insertSchedules(schedules);
+        log.info("排班预览已保存: departmentId={}, 共{}条排班记录", request.getDepartmentId(), schedules.size());
+        
+        AutoScheduleResponse response = new AutoScheduleResponse();
+        response.setSuccess(true);
+        response.setMessage(String.format("排班已保存，共%d条排班记录", schedules.size()));
+        response.setSchedules(schedules.stream()
+            .map(this::convertToScheduleResponse)
+            .collect(Collectors.toList()));
+        response.setStatistics(preview.getStatistics());
+        response.setConflicts(conflicts);
+        response.setUnassignedSlots(preview.getUnassignedSlots());
+        response.setWorkloadDistribution(preview.getWorkloadDistribution());
+        response.setWarnings(preview.getWarnings());
+        response.setSchedulePreview(preview.getSchedulePreview());
+        return response;
+    }
+    
+    private void checkCancelled(AutoScheduleProgress progress) {
+        if (progress.isCancelled()) {
+            throw new CancellationException("自动排班已取消");
         }
     }
     
@@ -369,36 +757,12 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
      * 加载已有排班
      */
     private List<Schedule> loadExistingSchedules(AutoScheduleRequest request) {
-        return scheduleRepository.findByScheduleDateBetween(
+        return scheduleRepository.findWithDetailsByScheduleDateBetween(
             request.getStartDate(), 
             request.getEndDate()
         );
     }
     
-    /**
-     * 构建请假记录映射
-     */
-    private Map<Integer, List<LeaveRequest>> buildLeaveRequestMap(
-            List<Doctor> doctors,
-            LocalDate startDate,
-            LocalDate endDate) {
-        
-        List<Integer> doctorIds = doctors.stream()
-            .map(Doctor::getDoctorId)
-            .collect(Collectors.toList());
-        
-        List<LeaveRequest> leaveRequests = leaveRequestRepository
-            .findApprovedLeavesByDoctorIdsAndDateRange(
-                doctorIds,
-                startDate.atStartOfDay(),
-                endDate.atTime(23, 59, 59)
-            );
-        
-        // 按医生ID分组
-        return leaveRequests.stream()
-            .collect(Collectors.groupingBy(lr -> lr.getDoctor().getDoctorId()));
-    }
-    
     /**
      * 筛选可用医生
      */
@@ -407,19 +771,12 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
             LocalDate date,
             TimeSlot slot,
             Map<Integer, Integer> workloadMap,
-            Map<Integer, List<LeaveRequest>> leaveMap,
-            List<Schedule> generatedSchedules,
-            List<Schedule> existingSchedules,
+            ScheduleOccupancyIndex occupancy,
             ScheduleRules rules) {
         
-        // 合并已有排班和新生成的排班
-        List<Schedule> allSchedules = new ArrayList<>();
-        allSchedules.addAll(existingSchedules);
-        allSchedules.addAll(generatedSchedules);
-        
         return doctors.stream()
             .filter(doctor -> constraintValidator.checkHardConstraints(
-                doctor, date, slot, leaveMap, allSchedules, workloadMap, rules
+                doctor, date, slot, occupancy, workloadMap, rules
             ))
             .collect(Collectors.toList());
     }
@@ -433,19 +790,12 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
             LocalDate date,
             TimeSlot slot,
             Map<Integer, Integer> workloadMap,
-            Map<Integer, List<LeaveRequest>> leaveMap,
-            List<Schedule> generatedSchedules,
-            List<Schedule> existingSchedules,
+            ScheduleOccupancyIndex occupancy,
             ScheduleRules rules) {
         
-        // 合并已有排班和新生成的排班
-        List<Schedule> allSchedules = new ArrayList<>();
-        allSchedules.addAll(existingSchedules);
-        allSchedules.addAll(generatedSchedules);
-        
         return doctors.stream()
             .filter(doctor -> constraintValidator.checkHardConstraintsRelaxed(
-                doctor, date, slot, leaveMap, allSchedules, workloadMap, rules
+                doctor, date, slot, occupancy, workloadMap, rules
             ))
             .collect(Collectors.toList());
     }
@@ -457,7 +807,7 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
     private Doctor selectBestDoctor(
             List<Doctor> availableDoctors,
             Map<Integer, Integer> workloadMap,
-            List<Schedule> generatedSchedules,
+            ScheduleOccupancyIndex generatedOccupancy,
             LocalDate date,
             ScheduleRules rules) {
         
@@ -479,7 +829,7 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
             
             // 计算连续工作天数
             int consecutiveDays = constraintValidator.getConsecutiveWorkDays(
-                doctor, date, generatedSchedules
+                doctor, date, generatedOccupancy
             );
             
             // 综合评分：工作量权重0.6 + 连续天数权重0.4
@@ -530,6 +880,114 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
         return schedule;
     }
     
+    /**
+     * 按需求预测设置生成排班的号源数量
+     * 
+     * @return 每条排班的号源建议；未启用需求预测时返回空列表
+     */
+    private List<CapacitySuggestion> applyCapacitySuggestions(
+            List<Schedule> schedules,
+            DemandForecastService.CapacityPlan plan,
+            ScheduleRules rules) {
+        if (!Boolean.TRUE.equals(rules.getUseDemandForecast()) || plan == null || schedules.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        List<CapacitySuggestion> suggestions = new ArrayList<>();
+        for (Schedule schedule : schedules) {
+            CapacitySuggestion suggestion = plan.suggest(
+                schedule.getDoctor(), schedule.getScheduleDate(), schedule.getSlot(), rules.getDefaultTotalSlots()
+            );
+            schedule.setTotalSlots(suggestion.getSuggestedSlots());
+            suggestions.add(suggestion);
+        }
+        return suggestions;
+    }
+    
+    /**
+     * 单个科室的排班生成结果（响应和生成的排班实体）
+     */
+    private record Generation(AutoScheduleResponse response, List<Schedule> schedules) {
+    }
+    
+    /**
+     * 单个科室排班所需的数据（见 prepareInput）
+     * 
+     * @param capacityPlan 需求预测，未启用按需求预测设置号源数量时为 null
+     */
+    private record GenerationInput(
+            List<Doctor> doctors,
+            List<TimeSlot> timeSlots,
+            List<Location> locations,
+            List<Schedule> existingSchedules,
+            DemandForecastService.CapacityPlan capacityPlan) {
+    }
+    
+    /**
+     * 构建未完全分配的时段信息
+     */
+    private UnassignedSlot buildUnassignedSlot(LocalDate date, TimeSlot slot, int assignedCount, int minDoctors) {
+        UnassignedSlot unassigned = new UnassignedSlot();
+        unassigned.setDate(date);
+        unassigned.setSlotId(slot.getSlotId());
+        unassigned.setSlotName(slot.getSlotName());
+        unassigned.setReason(String.format("仅分配了%d个医生，未达到最小要求%d个", 
+            assignedCount, minDoctors));
+        unassigned.setSuggestions(Arrays.asList(
+            "增加医生数量", 
+            "减少每时段最小医生数", 
+            "调整请假安排", 
+            "关闭严格模式"));
+        return unassigned;
+    }
+    
+    /**
+     * 重新统计未达到最小医生数的时段（局部搜索优化之后调用）
+     */
+    private List<UnassignedSlot> findUnassignedSlots(
+            List<Schedule> schedules,
+            List<TimeSlot> timeSlots,
+            AutoScheduleRequest request) {
+        
+        int minDoctors = Math.max(1, request.getRules().getMinDoctorsPerSlot());
+        Map<String, Integer> assignedCounts = new HashMap<>();
+        for (Schedule schedule : schedules) {
+            assignedCounts.merge(schedule.getScheduleDate() + "_" + schedule.getSlot().getSlotId(), 1, Integer::sum);
+        }
+        
+        List<UnassignedSlot> unassignedSlots = new ArrayList<>();
+        for (LocalDate date = request.getStartDate(); !date.isAfter(request.getEndDate()); date = date.plusDays(1)) {
+            for (TimeSlot slot : timeSlots) {
+                int assignedCount = assignedCounts.getOrDefault(date + "_" + slot.getSlotId(), 0);
+                if (assignedCount < minDoctors) {
+                    unassignedSlots.add(buildUnassignedSlot(date, slot, assignedCount, minDoctors));
+                }
+            }
+        }
+        return unassignedSlots;
+    }
+    
+    /**
+     * 统计超出连续工作天数限制的排班数（局部搜索优化之后调用）
+     */
+    private int countRelaxedSchedules(
+            List<Schedule> generatedSchedules,
+            List<Schedule> existingSchedules,
+            AutoScheduleRequest request) {
+        
+        Integer limit = request.getRules().getConsecutiveWorkDaysLimit();
+        if (limit == null || limit <= 0) {
+            return 0;
+        }
+        ScheduleOccupancyIndex occupancy = ScheduleOccupancyIndex.of(
+            request.getStartDate(), request.getEndDate(), existingSchedules
+        );
+        generatedSchedules.forEach(occupancy::add);
+        return (int) generatedSchedules.stream()
+            .filter(s -> occupancy.consecutiveWorkDaysBefore(s.getDoctor().getDoctorId(), s.getScheduleDate()) >= limit)
+            .count();
+    }
+    
     /**
      * 构建成功响应
      */
@@ -736,6 +1194,8 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
         List<SchedulePreviewDay> previewDays = new ArrayList<>();
         String[] weekDayNames = {"周日", "周一", "周二", "周三", "周四", "周五", "周六"};
         
+        ScheduleOccupancyIndex generatedOccupancy = ScheduleOccupancyIndex.of(startDate, endDate, generatedSchedules);
+        
         // 按日期组织排班
         Map<LocalDate, List<Schedule>> schedulesByDate = generatedSchedules.stream()
             .collect(Collectors.groupingBy(Schedule::getScheduleDate));
@@ -771,7 +1231,7 @@ public class AutoScheduleServiceImpl implements AutoScheduleService {
                 
                 // 计算连续工作天数
                 int consecutiveDays = constraintValidator.getConsecutiveWorkDays(
-                    schedule.getDoctor(), currentDate, generatedSchedules
+                    schedule.getDoctor(), currentDate, generatedOccupancy
                 );
                 previewSlot.setConsecutiveDays(consecutiveDays + 1); // +1 包括当天
                 previewSlot.setIsRelaxed(false); // 这里简化处理，实际可以在生成时标记
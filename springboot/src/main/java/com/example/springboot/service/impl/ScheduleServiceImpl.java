@@ -10,19 +10,30 @@ import com.example.springboot.exception.BadRequestException;
 import com.example.springboot.exception.ResourceNotFoundException;
 import com.example.springboot.repository.DoctorRepository;
 import com.example.springboot.repository.LocationRepository;
+import com.example.springboot.repository.ScheduleBulkWriter;
 import com.example.springboot.repository.ScheduleRepository;
 import com.example.springboot.repository.TimeSlotRepository;
 import com.example.springboot.service.ScheduleService;
+import com.example.springboot.service.SlotInventoryService;
 import com.example.springboot.service.WaitlistService;
+import com.example.springboot.util.OptimisticLockRetryExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -52,6 +63,18 @@ public class ScheduleServiceImpl implements ScheduleService {
     @Autowired
     private com.example.springboot.repository.AppointmentRepository appointmentRepository;
 
+    @Autowired
+    private SlotInventoryService slotInventoryService;
+
+    @Autowired
+    private OptimisticLockRetryExecutor optimisticLockRetryExecutor;
+
+    @Autowired
+    private ScheduleBulkWriter scheduleBulkWriter;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
 
     
 //    @Override
@@ -121,44 +144,26 @@ public class ScheduleServiceImpl implements ScheduleService {
     }
     
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // 字段更新与候补填充各自使用独立事务，见 OptimisticLockRetryExecutor
     public ScheduleResponse updateSchedule(Integer scheduleId, ScheduleUpdateRequest request) {
-        Schedule schedule = scheduleRepository.findById(scheduleId)
-                .orElseThrow(() -> new RuntimeException("排班不存在"));
-        
         // 记录原来的总号源数
-        Integer oldTotalSlots = schedule.getTotalSlots();
-        boolean slotsIncreased = false;
-        
-        if (request.getTotalSlots() != null) {
-            schedule.setTotalSlots(request.getTotalSlots());
-            // 检查号源是否增加
-            if (request.getTotalSlots() > oldTotalSlots) {
-                slotsIncreased = true;
-            }
-        }
-        if (request.getFee() != null) {
-            schedule.setFee(request.getFee());
-        }
-        
-        Schedule savedSchedule = scheduleRepository.save(schedule);
+        Integer[] oldTotal = new Integer[1];
+        // 字段更新在独立事务中执行，与其他管理员的并发修改发生乐观锁冲突时重新读取并重试
+        Schedule savedSchedule = optimisticLockRetryExecutor.execute("更新排班 #" + scheduleId, () -> {
+            Schedule schedule = scheduleRepository.findById(scheduleId)
+                    .orElseThrow(() -> new RuntimeException("排班不存在"));
+            oldTotal[0] = schedule.getTotalSlots();
+            applyScheduleUpdate(schedule, request.getTotalSlots(), request.getFee());
+            return scheduleRepository.saveAndFlush(schedule);
+        });
+        Integer oldTotalSlots = oldTotal[0];
+        boolean slotsIncreased = request.getTotalSlots() != null && request.getTotalSlots() > oldTotalSlots;
         
-        // 如果号源数量增加了，尝试触发候补自动填充
+        // 如果号源数量增加了，尝试触发候补自动填充（新增的号源一次批量填充）
         if (slotsIncreased) {
             System.out.println("号源数量从 " + oldTotalSlots + " 增加到 " + request.getTotalSlots() + "，触发候补填充");
             try {
-                // 尝试填充多个候补（根据新增的号源数量）
-                int slotsToFill = request.getTotalSlots() - oldTotalSlots;
-                for (int i = 0; i < slotsToFill; i++) {
-                    // 检查是否还有空位
-                    Schedule refreshedSchedule = scheduleRepository.findById(scheduleId)
-                            .orElseThrow(() -> new RuntimeException("排班不存在"));
-                    if (refreshedSchedule.getBookedSlots() < refreshedSchedule.getTotalSlots()) {
-                        waitlistService.createAppointmentFromWaitlist(scheduleId);
-                    } else {
-                        System.out.println("号源已满，停止填充候补");
-                        break;
-                    }
-                }
+                waitlistService.fillWaitlists(Map.of(scheduleId, request.getTotalSlots() - oldTotalSlots));
             } catch (Exception e) {
                 System.err.println("触发候补填充失败: " + e.getMessage());
                 e.printStackTrace();
@@ -173,61 +178,113 @@ public class ScheduleServiceImpl implements ScheduleService {
         return response;
     }
     
+    /**
+     * 批量更新排班：全部成功或全部不生效
+     * 所有排班在同一个新事务中读取、校验并按版本号批量更新，任一排班不存在时不做任何修改；
+     * 读取后被其他请求修改（版本号不一致）时整批回滚，重新读取后整批重试，重试用尽仍冲突则整批失败。
+     * 候补填充在批量更新提交之后执行（同 updateSchedule）。
+     */
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // 同 updateSchedule
     public List<ScheduleResponse> batchUpdateSchedules(ScheduleBatchUpdateRequest request) {
-        return request.getUpdates().stream()
-                .map(updateItem -> {
-                    Schedule schedule = scheduleRepository.findById(updateItem.getScheduleId())
-                            .orElseThrow(() -> new RuntimeException("排班不存在: " + updateItem.getScheduleId()));
-                    
-                    // 记录原来的总号源数
-                    Integer oldTotalSlots = schedule.getTotalSlots();
-                    boolean slotsIncreased = false;
-                    
-                    if (updateItem.getTotalSlots() != null) {
-                        schedule.setTotalSlots(updateItem.getTotalSlots());
-                        // 检查号源是否增加
-                        if (updateItem.getTotalSlots() > oldTotalSlots) {
-                            slotsIncreased = true;
-                        }
-                    }
-                    if (updateItem.getFee() != null) {
-                        schedule.setFee(updateItem.getFee());
-                    }
-                    
-                    Schedule savedSchedule = scheduleRepository.save(schedule);
-                    
-                    // 如果号源数量增加了，尝试触发候补自动填充
-                    if (slotsIncreased) {
-                        System.out.println("批量更新：号源数量从 " + oldTotalSlots + " 增加到 " + updateItem.getTotalSlots() + "，触发候补填充");
-                        try {
-                            // 尝试填充多个候补（根据新增的号源数量）
-                            int slotsToFill = updateItem.getTotalSlots() - oldTotalSlots;
-                            for (int i = 0; i < slotsToFill; i++) {
-                                // 检查是否还有空位
-                                Schedule refreshedSchedule = scheduleRepository.findById(updateItem.getScheduleId())
-                                        .orElseThrow(() -> new RuntimeException("排班不存在"));
-                                if (refreshedSchedule.getBookedSlots() < refreshedSchedule.getTotalSlots()) {
-                                    waitlistService.createAppointmentFromWaitlist(updateItem.getScheduleId());
-                                } else {
-                                    System.out.println("号源已满，停止填充候补");
-                                    break;
-                                }
-                            }
-                        } catch (Exception e) {
-                            System.err.println("批量更新：触发候补填充失败: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    }
-                    
-                    // 返回时使用动态统计的已预约数
-                    ScheduleResponse response = ScheduleResponse.fromEntity(savedSchedule);
-                    long actualBookedCount = appointmentRepository.countByScheduleAndStatusNotCancelled(savedSchedule);
-                    response.setBookedSlots((int) actualBookedCount);
-                    
-                    return response;
-                })
+        List<ScheduleBatchUpdateRequest.ScheduleUpdateItem> items = request.getUpdates();
+        List<Integer> scheduleIds = items.stream()
+                .map(ScheduleBatchUpdateRequest.ScheduleUpdateItem::getScheduleId)
+                .distinct()
                 .collect(Collectors.toList());
+        
+        // 1. 一次读取所有排班，用 JDBC 按版本号批量更新（几次数据库往返）
+        //    同一排班在请求中出现多次时按请求顺序合并为一条更新
+        // key: 排班ID, value: 批量更新前、更新后的总号源数
+        Map<Integer, Integer> oldTotals = new HashMap<>();
+        Map<Integer, Integer> newTotals = new LinkedHashMap<>();
+        optimisticLockRetryExecutor.execute("批量更新排班", () -> {
+            oldTotals.clear();
+            newTotals.clear();
+            Map<Integer, Schedule> schedules = scheduleRepository.findAllById(scheduleIds).stream()
+                    .collect(Collectors.toMap(Schedule::getScheduleId, schedule -> schedule));
+            for (Integer scheduleId : scheduleIds) {
+                if (!schedules.containsKey(scheduleId)) {
+                    throw new RuntimeException("排班不存在: " + scheduleId);
+                }
+            }
+            Map<Integer, ScheduleBulkWriter.ScheduleUpdate> updates = new LinkedHashMap<>();
+            for (ScheduleBatchUpdateRequest.ScheduleUpdateItem item : items) {
+                Schedule schedule = schedules.get(item.getScheduleId());
+                oldTotals.putIfAbsent(item.getScheduleId(), schedule.getTotalSlots());
+                // 只读取实体、不修改，避免提交时 Hibernate 再按旧版本号回写
+                ScheduleBulkWriter.ScheduleUpdate previous = updates.getOrDefault(item.getScheduleId(),
+                        new ScheduleBulkWriter.ScheduleUpdate(schedule.getScheduleId(), schedule.getVersion(),
+                                schedule.getTotalSlots(), schedule.getFee()));
+                updates.put(item.getScheduleId(), new ScheduleBulkWriter.ScheduleUpdate(
+                        previous.scheduleId(),
+                        previous.version(),
+                        item.getTotalSlots() != null ? item.getTotalSlots() : previous.totalSlots(),
+                        item.getFee() != null ? item.getFee() : previous.fee()));
+            }
+            updates.values().forEach(update -> newTotals.put(update.scheduleId(), update.totalSlots()));
+            List<Integer> conflicted = scheduleBulkWriter.updateSchedules(new ArrayList<>(updates.values()));
+            if (!conflicted.isEmpty()) {
+                // 抛出后整批回滚，由重试执行器重新读取后整批重试
+                throw new OptimisticLockingFailureException("批量更新排班版本号冲突: " + conflicted);
+            }
+            return null;
+        });
+        
+        // key: 排班ID, value: 新增的号源数
+        Map<Integer, Integer> slotsToFill = new LinkedHashMap<>();
+        newTotals.forEach((scheduleId, newTotalSlots) -> {
+            Integer oldTotalSlots = oldTotals.get(scheduleId);
+            if (!newTotalSlots.equals(oldTotalSlots)) {
+                // 总号源数变更，号源库存需要按新的总号源数重新加载
+                slotInventoryService.evict(scheduleId);
+                if (newTotalSlots > oldTotalSlots) {
+                    slotsToFill.put(scheduleId, newTotalSlots - oldTotalSlots);
+                }
+            }
+        });
+        
+        // 所有排班新增的号源一次批量填充候补
+        if (!slotsToFill.isEmpty()) {
+            try {
+                waitlistService.fillWaitlists(slotsToFill);
+            } catch (Exception e) {
+                System.err.println("批量更新：触发候补填充失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        
+        // 2. 重新读取更新后的排班返回（按请求顺序）
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return transactionTemplate.execute(status -> {
+            Map<Integer, Schedule> savedSchedules = scheduleRepository.findAllById(scheduleIds).stream()
+                    .collect(Collectors.toMap(Schedule::getScheduleId, schedule -> schedule));
+            return items.stream()
+                    .map(item -> {
+                        Schedule savedSchedule = savedSchedules.get(item.getScheduleId());
+                        // 返回时使用动态统计的已预约数
+                        ScheduleResponse response = ScheduleResponse.fromEntity(savedSchedule);
+                        long actualBookedCount = appointmentRepository.countByScheduleAndStatusNotCancelled(savedSchedule);
+                        response.setBookedSlots((int) actualBookedCount);
+                        return response;
+                    })
+                    .collect(Collectors.toList());
+        });
+    }
+    
+    /**
+     * 更新排班的总号源数和费用（在乐观锁重试的事务中调用）
+     */
+    private void applyScheduleUpdate(Schedule schedule, Integer totalSlots, java.math.BigDecimal fee) {
+        if (totalSlots != null && !totalSlots.equals(schedule.getTotalSlots())) {
+            schedule.setTotalSlots(totalSlots);
+            // 总号源数变更，号源库存需要按新的总号源数重新加载
+            slotInventoryService.evict(schedule.getScheduleId());
+        }
+        if (fee != null) {
+            schedule.setFee(fee);
+        }
     }
     
 //    @Override
@@ -242,6 +299,7 @@ public class ScheduleServiceImpl implements ScheduleService {
             throw new RuntimeException("排班不存在");
         }
         scheduleRepository.deleteById(scheduleId);
+        slotInventoryService.evict(scheduleId);
     }
 
     @Override
@@ -268,6 +326,7 @@ public class ScheduleServiceImpl implements ScheduleService {
 
         // 4. 执行删除
         scheduleRepository.delete(schedule);
+        slotInventoryService.evict(schedule.getScheduleId());
     }
 
     @Override
@@ -0,0 +1,37 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.AutoScheduleJobService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 异步排班任务清理定时任务
+ * 每10分钟执行一次，清理结束超过保留时间的排班任务（包括长时间未审批的预览）
+ */
+@Component
+public class AutoScheduleJobCleanupTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(AutoScheduleJobCleanupTask.class);
+
+    private final AutoScheduleJobService autoScheduleJobService;
+
+    @Autowired
+    public AutoScheduleJobCleanupTask(AutoScheduleJobService autoScheduleJobService) {
+        this.autoScheduleJobService = autoScheduleJobService;
+    }
+
+    @Scheduled(fixedRate = 600000) // 每10分钟执行一次
+    public void evictExpiredJobs() {
+        try {
+            int evicted = autoScheduleJobService.evictExpiredJobs();
+            if (evicted > 0) {
+                logger.info("已清理{}个过期的排班任务", evicted);
+            }
+        } catch (Exception e) {
+            logger.error("排班任务清理任务执行失败", e);
+        }
+    }
+}
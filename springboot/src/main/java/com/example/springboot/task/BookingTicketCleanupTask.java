@@ -0,0 +1,34 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.BookingWaitingRoomService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 排队预约票据清理定时任务
+ * 每1分钟执行一次，清理已完成且超过保留时间的排队票据
+ */
+@Component
+public class BookingTicketCleanupTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingTicketCleanupTask.class);
+
+    private final BookingWaitingRoomService bookingWaitingRoomService;
+
+    @Autowired
+    public BookingTicketCleanupTask(BookingWaitingRoomService bookingWaitingRoomService) {
+        this.bookingWaitingRoomService = bookingWaitingRoomService;
+    }
+
+    @Scheduled(fixedRate = 60000) // 每60秒执行一次
+    public void purgeFinishedTickets() {
+        try {
+            bookingWaitingRoomService.purgeFinishedTickets();
+        } catch (Exception e) {
+            logger.error("排队票据清理任务执行失败", e);
+        }
+    }
+}
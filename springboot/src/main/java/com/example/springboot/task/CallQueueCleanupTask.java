@@ -0,0 +1,34 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.CallQueueEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 叫号队列清理定时任务
+ * 每5分钟执行一次，清理长时间未被查询的排班叫号队列（通常是已结束的排班）
+ */
+@Component
+public class CallQueueCleanupTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallQueueCleanupTask.class);
+
+    private final CallQueueEngine callQueueEngine;
+
+    @Autowired
+    public CallQueueCleanupTask(CallQueueEngine callQueueEngine) {
+        this.callQueueEngine = callQueueEngine;
+    }
+
+    @Scheduled(fixedRate = 300000) // 每5分钟执行一次
+    public void evictIdleQueues() {
+        try {
+            callQueueEngine.evictIdleQueues();
+        } catch (Exception e) {
+            logger.error("叫号队列清理任务执行失败", e);
+        }
+    }
+}
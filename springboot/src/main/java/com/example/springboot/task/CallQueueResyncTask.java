@@ -0,0 +1,41 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.CallQueueEngine;
+import com.example.springboot.service.CallQueueStreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 叫号队列定时同步任务
+ * 每隔 resync-seconds 更新科室、楼层推送主题包含的排班，并全量同步有推送订阅的排班队列，
+ * 其他实例或未发布事件的变更也能推送给候诊大屏，不依赖是否有客户端在查询
+ */
+@Component
+public class CallQueueResyncTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallQueueResyncTask.class);
+
+    private final CallQueueEngine callQueueEngine;
+    private final CallQueueStreamService callQueueStreamService;
+
+    @Autowired
+    public CallQueueResyncTask(CallQueueEngine callQueueEngine, CallQueueStreamService callQueueStreamService) {
+        this.callQueueEngine = callQueueEngine;
+        this.callQueueStreamService = callQueueStreamService;
+    }
+
+    @Scheduled(fixedDelayString = "${call-queue.resync-seconds:30}", timeUnit = TimeUnit.SECONDS)
+    public void resync() {
+        try {
+            callQueueStreamService.refreshWatchedTopics();
+            callQueueEngine.resyncPinnedQueues();
+        } catch (Exception e) {
+            logger.error("叫号队列同步任务执行失败", e);
+        }
+    }
+}
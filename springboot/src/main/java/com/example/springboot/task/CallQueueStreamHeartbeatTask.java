@@ -0,0 +1,34 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.CallQueueStreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 叫号队列推送心跳任务
+ * 每20秒向所有 SSE 订阅连接发送一次心跳，防止 Nginx 等代理断开空闲连接，并清理已断开的连接
+ */
+@Component
+public class CallQueueStreamHeartbeatTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallQueueStreamHeartbeatTask.class);
+
+    private final CallQueueStreamService callQueueStreamService;
+
+    @Autowired
+    public CallQueueStreamHeartbeatTask(CallQueueStreamService callQueueStreamService) {
+        this.callQueueStreamService = callQueueStreamService;
+    }
+
+    @Scheduled(fixedRate = 20000) // 每20秒执行一次
+    public void sendHeartbeats() {
+        try {
+            callQueueStreamService.sendHeartbeats();
+        } catch (Exception e) {
+            logger.error("叫号队列推送心跳任务执行失败", e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.DemandForecastService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 号源需求预测更新定时任务
+ * 每天凌晨执行一次，将前一天（及之前未处理的）排班的预约和候补数据增量计入需求预测
+ */
+@Component
+public class DemandForecastTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(DemandForecastTask.class);
+
+    private final DemandForecastService demandForecastService;
+
+    @Autowired
+    public DemandForecastTask(DemandForecastService demandForecastService) {
+        this.demandForecastService = demandForecastService;
+    }
+
+    /**
+     * 需求预测更新任务
+     * 默认每天 02:30 执行
+     */
+    @Scheduled(cron = "${demand-forecast.cron:0 30 2 * * ?}")
+    public void refreshDemandForecasts() {
+        try {
+            logger.debug("开始执行需求预测更新任务");
+            int observations = demandForecastService.refreshForecasts();
+            logger.info("需求预测更新任务执行完成，本次计入 {} 个观测", observations);
+        } catch (Exception e) {
+            logger.error("需求预测更新任务执行失败", e);
+        }
+    }
+}
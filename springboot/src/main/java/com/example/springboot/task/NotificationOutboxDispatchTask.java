@@ -0,0 +1,41 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.NotificationOutboxDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 通知发件箱分发定时任务
+ * 每秒执行一次，将发件箱中待分发的通知批量写入通知表
+ */
+@Component
+public class NotificationOutboxDispatchTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationOutboxDispatchTask.class);
+
+    private final NotificationOutboxDispatcher notificationOutboxDispatcher;
+
+    @Autowired
+    public NotificationOutboxDispatchTask(NotificationOutboxDispatcher notificationOutboxDispatcher) {
+        this.notificationOutboxDispatcher = notificationOutboxDispatcher;
+    }
+
+    /**
+     * 通知分发任务
+     * 每秒执行一次（1000毫秒）
+     */
+    @Scheduled(fixedDelay = 1000) // 上一次执行完成后间隔1秒
+    public void dispatchNotifications() {
+        try {
+            int dispatched = notificationOutboxDispatcher.dispatchPending();
+            if (dispatched > 0) {
+                logger.debug("通知分发任务完成，本次分发 {} 条通知", dispatched);
+            }
+        } catch (Exception e) {
+            logger.error("通知分发任务执行失败", e);
+        }
+    }
+}
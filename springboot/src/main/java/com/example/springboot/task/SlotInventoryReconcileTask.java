@@ -0,0 +1,40 @@
+package com.example.springboot.task;
+
+import com.example.springboot.service.SlotInventoryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 号源库存校正定时任务
+ * 每5分钟执行一次，以数据库中的 total_slots - booked_slots 为准校正 Redis 中的剩余号源数
+ */
+@Component
+public class SlotInventoryReconcileTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlotInventoryReconcileTask.class);
+
+    private final SlotInventoryService slotInventoryService;
+
+    @Autowired
+    public SlotInventoryReconcileTask(SlotInventoryService slotInventoryService) {
+        this.slotInventoryService = slotInventoryService;
+    }
+
+    /**
+     * 号源库存校正任务
+     * 每5分钟执行一次（300000毫秒）
+     */
+    @Scheduled(fixedDelay = 300000) // 上一次执行完成后间隔5分钟
+    public void reconcileSlotInventory() {
+        try {
+            logger.debug("开始执行号源库存校正任务");
+            slotInventoryService.reconcile();
+            logger.debug("号源库存校正任务执行完成");
+        } catch (Exception e) {
+            logger.error("号源库存校正任务执行失败", e);
+        }
+    }
+}
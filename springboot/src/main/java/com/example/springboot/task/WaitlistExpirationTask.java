@@ -1,5 +1,6 @@
 package com.example.springboot.task;
 
+import com.example.springboot.service.WaitlistMatchingEngine;
 import com.example.springboot.service.WaitlistService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,8 +9,10 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 /**
- * 候补超时处理定时任务
- * 每1分钟执行一次，检查状态为 notified 的候补记录，如果通知发送时间超过15分钟仍未支付，自动将状态更新为 expired
+ * 候补超时兜底扫描任务
+ * 候补支付超时由 DeadlineScheduler 在截止时间到达时逐条处理（WaitlistService.onDeadline），
+ * 本任务每10分钟检查一次状态为 notified 的候补记录，兜底处理Redis不可用等情况下遗漏的记录；
+ * 同时把等待中、但写入候补匹配索引失败的候补补回索引
  */
 @Component
 public class WaitlistExpirationTask {
@@ -17,24 +20,31 @@ public class WaitlistExpirationTask {
     private static final Logger logger = LoggerFactory.getLogger(WaitlistExpirationTask.class);
 
     private final WaitlistService waitlistService;
+    private final WaitlistMatchingEngine waitlistMatchingEngine;
 
     @Autowired
-    public WaitlistExpirationTask(WaitlistService waitlistService) {
+    public WaitlistExpirationTask(WaitlistService waitlistService, WaitlistMatchingEngine waitlistMatchingEngine) {
         this.waitlistService = waitlistService;
+        this.waitlistMatchingEngine = waitlistMatchingEngine;
     }
 
     /**
-     * 候补超时处理任务
-     * 每1分钟执行一次（60000毫秒）
+     * 候补超时兜底扫描
+     * 每10分钟执行一次（600000毫秒）
      */
-    @Scheduled(fixedRate = 60000) // 每60秒执行一次
+    @Scheduled(fixedRate = 600000) // 每10分钟执行一次
     public void checkExpiredWaitlists() {
         try {
-            logger.debug("开始执行候补超时处理任务");
+            logger.debug("开始执行候补超时兜底扫描");
             waitlistService.expireNotifiedWaitlists();
-            logger.debug("候补超时处理任务执行完成");
+            logger.debug("候补超时兜底扫描执行完成");
         } catch (Exception e) {
-            logger.error("候补超时处理任务执行失败", e);
+            logger.error("候补超时兜底扫描执行失败", e);
+        }
+        try {
+            waitlistMatchingEngine.reconcile();
+        } catch (Exception e) {
+            logger.error("候补匹配索引补齐失败", e);
         }
     }
 }
@@ -5,9 +5,17 @@ import com.example.springboot.dto.ScheduleConflict;
 import com.example.springboot.entity.Schedule;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 
 /**
  * 冲突检测器
@@ -35,16 +43,20 @@ public class ConflictDetector {
         allSchedules.addAll(existingSchedules);
         
         // 检查时空冲突（同一医生在同一时间有多个排班）
-        for (int i = 0; i < allSchedules.size(); i++) {
-            for (int j = i + 1; j < allSchedules.size(); j++) {
-                Schedule s1 = allSchedules.get(i);
-                Schedule s2 = allSchedules.get(j);
-                
-                if (isTimeConflict(s1, s2)) {
+        // 按 医生+日期+时间段 分桶，只有同一个桶内的排班两两冲突，不必对全部排班两两比较
+        Map<String, List<Schedule>> buckets = new LinkedHashMap<>();
+        for (Schedule schedule : allSchedules) {
+            String key = schedule.getDoctor().getDoctorId() + "_" + schedule.getScheduleDate()
+                    + "_" + schedule.getSlot().getSlotId();
+            buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(schedule);
+        }
+        for (List<Schedule> bucket : buckets.values()) {
+            for (int i = 0; i < bucket.size(); i++) {
+                for (int j = i + 1; j < bucket.size(); j++) {
                     conflicts.add(buildConflict(
                         ConflictType.TIME_CONFLICT,
                         "医生在同一时间有多个排班",
-                        s1, s2
+                        bucket.get(i), bucket.get(j)
                     ));
                 }
             }
@@ -54,29 +66,93 @@ public class ConflictDetector {
     }
     
     /**
-     * 判断两个排班是否存在时间冲突
+     * 全院排班冲突审计（扫描线）
      * 
-     * @param s1 排班1
-     * @param s2 排班2
-     * @return true表示有冲突
+     * 与 detectConflicts 只比较同一时间段不同，这里按时间区间判断重叠，不同时间段只要时间有交叉也算冲突：
+     * - 同一医生同一天的排班时间重叠：TIME_CONFLICT
+     * - 同一诊室同一天被不同医生的排班同时占用：LOCATION_CONFLICT（同一医生的已按 TIME_CONFLICT 报告）
+     * 
+     * 先按 医生+日期、诊室+日期 分组，组内按开始时间排序后扫描，用按结束时间排序的堆维护仍在进行中的排班，
+     * 复杂度 O(n log n + 冲突数)。冲突按分组逐个交给 consumer，调用方可以边审计边输出。
+     * 
+     * @param schedules 待审计的排班（调用方负责排除已取消的排班和加号虚拟号源）
+     * @param consumer 冲突处理
+     * @return 发现的冲突数
      */
-    private boolean isTimeConflict(Schedule s1, Schedule s2) {
-        // 必须是同一个医生
-        if (!s1.getDoctor().getDoctorId().equals(s2.getDoctor().getDoctorId())) {
-            return false;
+    public int auditConflicts(List<Schedule> schedules, Consumer<ScheduleConflict> consumer) {
+        Map<AuditKey, List<Schedule>> byDoctor = new HashMap<>();
+        Map<AuditKey, List<Schedule>> byLocation = new HashMap<>();
+        for (Schedule schedule : schedules) {
+            byDoctor.computeIfAbsent(new AuditKey(schedule.getDoctor().getDoctorId(), schedule.getScheduleDate()),
+                    k -> new ArrayList<>()).add(schedule);
+            if (schedule.getLocation() != null) {
+                byLocation.computeIfAbsent(new AuditKey(schedule.getLocation().getLocationId(), schedule.getScheduleDate()),
+                        k -> new ArrayList<>()).add(schedule);
+            }
         }
         
-        // 必须是同一天
-        if (!s1.getScheduleDate().equals(s2.getScheduleDate())) {
-            return false;
+        int count = 0;
+        for (List<Schedule> group : byDoctor.values()) {
+            count += sweep(group, (s1, s2) -> {
+                consumer.accept(buildConflict(
+                    ConflictType.TIME_CONFLICT,
+                    "医生在同一时间有多个排班",
+                    s1, s2
+                ));
+                return true;
+            });
         }
-        
-        // 必须是同一个时间段
-        if (!s1.getSlot().getSlotId().equals(s2.getSlot().getSlotId())) {
-            return false;
+        for (List<Schedule> group : byLocation.values()) {
+            count += sweep(group, (s1, s2) -> {
+                if (s1.getDoctor().getDoctorId().equals(s2.getDoctor().getDoctorId())) {
+                    return false;
+                }
+                consumer.accept(buildConflict(
+                    ConflictType.LOCATION_CONFLICT,
+                    "诊室" + s1.getLocation().getLocationName() + "在同一时间被多个医生的排班占用",
+                    s1, s2
+                ));
+                return true;
+            });
+        }
+        return count;
+    }
+    
+    /**
+     * 扫描同一分组（同一天）内时间重叠的排班对
+     * 
+     * @param group 同一医生或同一诊室同一天的排班
+     * @param onOverlap 发现重叠时调用（先开始的排班在前），返回是否计为冲突
+     * @return 冲突数
+     */
+    private int sweep(List<Schedule> group, BiPredicate<Schedule, Schedule> onOverlap) {
+        if (group.size() < 2) {
+            return 0;
         }
+        group.sort(Comparator.comparing((Schedule s) -> s.getSlot().getStartTime())
+                .thenComparing(s -> s.getSlot().getEndTime()));
         
-        return true;
+        int count = 0;
+        PriorityQueue<Schedule> active = new PriorityQueue<>(Comparator.comparing((Schedule s) -> s.getSlot().getEndTime()));
+        for (Schedule current : group) {
+            // 移除在当前排班开始前已结束的排班，堆中剩下的都与当前排班重叠
+            while (!active.isEmpty() && !active.peek().getSlot().getEndTime().isAfter(current.getSlot().getStartTime())) {
+                active.poll();
+            }
+            for (Schedule previous : active) {
+                if (onOverlap.test(previous, current)) {
+                    count++;
+                }
+            }
+            active.add(current);
+        }
+        return count;
+    }
+    
+    /**
+     * 审计分组键：医生ID或诊室ID + 日期
+     */
+    private record AuditKey(Integer id, LocalDate date) {
     }
     
     /**
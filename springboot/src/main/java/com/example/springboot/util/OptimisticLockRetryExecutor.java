@@ -0,0 +1,61 @@
+package com.example.springboot.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * 乐观锁重试执行器
+ * 在独立的新事务中执行更新操作，遇到 @Version 乐观锁冲突时重新执行（有次数上限）。
+ * 每次重试都是新事务，action 内部需要重新查询实体，不能复用外部已加载的实体。
+ */
+@Component
+public class OptimisticLockRetryExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(OptimisticLockRetryExecutor.class);
+
+    // 最大尝试次数（含第一次）
+    private static final int MAX_ATTEMPTS = 3;
+    // 重试前的基础等待时间（毫秒），按尝试次数递增
+    private static final long BACKOFF_MILLIS = 20;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public OptimisticLockRetryExecutor(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 执行更新操作，乐观锁冲突时重试
+     *
+     * @param description 操作描述（用于日志）
+     * @param action 更新操作
+     * @return 操作结果
+     */
+    public <T> T execute(String description, Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> action.get());
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    logger.error("{} - 乐观锁冲突，已重试 {} 次仍失败", description, attempt);
+                    throw e;
+                }
+                logger.warn("{} - 乐观锁冲突，第 {} 次重试", description, attempt);
+                try {
+                    Thread.sleep(BACKOFF_MILLIS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.springboot.util;
+
+import com.example.springboot.entity.Schedule;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 排班占用索引（自动排班时使用）
+ *
+ * 每个医生按天保存一个时段位图（第 i 位表示第 i 个时段已排班），以及截至每天的连续工作天数，
+ * 时间冲突和连续工作天数检查都是 O(1)，不再每次遍历全部排班。
+ * 每次排班运行开始时用已有排班构建一次，之后每生成一条排班调用 add 增量更新。
+ *
+ * 只记录 [开始日期 - 31天, 结束日期] 范围内的排班（连续工作天数最多往前查31天），范围外的排班忽略。
+ * 不是线程安全的，每次排班运行各自创建。
+ */
+public class ScheduleOccupancyIndex {
+
+    // 连续工作天数最多往前查的天数
+    private static final int MAX_CONSECUTIVE_DAYS = 31;
+    // 时段位图用 long 保存，每天最多64个时段
+    private static final int MAX_SLOTS = Long.SIZE;
+
+    private final LocalDate firstDate;
+    private final int days;
+    // key: slotId, value: 时段在位图中的位置
+    private final Map<Integer, Integer> slotBits = new HashMap<>();
+    // key: doctorId
+    private final Map<Integer, DoctorOccupancy> doctors = new HashMap<>();
+
+    public ScheduleOccupancyIndex(LocalDate startDate, LocalDate endDate) {
+        this.firstDate = startDate.minusDays(MAX_CONSECUTIVE_DAYS);
+        this.days = (int) ChronoUnit.DAYS.between(firstDate, endDate) + 1;
+    }
+
+    /**
+     * 用排班列表构建索引
+     */
+    public static ScheduleOccupancyIndex of(LocalDate startDate, LocalDate endDate, Collection<Schedule> schedules) {
+        ScheduleOccupancyIndex index = new ScheduleOccupancyIndex(startDate, endDate);
+        schedules.forEach(index::add);
+        return index;
+    }
+
+    /**
+     * 记录一条排班
+     */
+    public void add(Schedule schedule) {
+        int day = dayIndex(schedule.getScheduleDate());
+        if (day < 0 || day >= days) {
+            return;
+        }
+        DoctorOccupancy occupancy = doctors.computeIfAbsent(schedule.getDoctor().getDoctorId(),
+                id -> new DoctorOccupancy(days));
+        boolean newWorkDay = occupancy.slots[day] == 0;
+        occupancy.slots[day] |= 1L << slotBit(schedule.getSlot().getSlotId());
+        if (newWorkDay) {
+            occupancy.updateRuns(day);
+        }
+    }
+
+    /**
+     * 医生在该日期、时段是否已有排班
+     */
+    public boolean isOccupied(Integer doctorId, LocalDate date, Integer slotId) {
+        DoctorOccupancy occupancy = doctors.get(doctorId);
+        Integer bit = slotBits.get(slotId);
+        int day = dayIndex(date);
+        if (occupancy == null || bit == null || day < 0 || day >= days) {
+            return false;
+        }
+        return (occupancy.slots[day] & (1L << bit)) != 0;
+    }
+
+    /**
+     * 医生在指定日期之前（不含当天）的连续工作天数，最多31天
+     */
+    public int consecutiveWorkDaysBefore(Integer doctorId, LocalDate date) {
+        DoctorOccupancy occupancy = doctors.get(doctorId);
+        int previousDay = dayIndex(date) - 1;
+        if (occupancy == null || previousDay < 0 || previousDay >= days) {
+            return 0;
+        }
+        return Math.min(occupancy.runs[previousDay], MAX_CONSECUTIVE_DAYS);
+    }
+
+    private int dayIndex(LocalDate date) {
+        return (int) ChronoUnit.DAYS.between(firstDate, date);
+    }
+
+    private int slotBit(Integer slotId) {
+        Integer bit = slotBits.get(slotId);
+        if (bit == null) {
+            if (slotBits.size() >= MAX_SLOTS) {
+                throw new IllegalStateException("时段数量超过" + MAX_SLOTS + "个，无法建立排班占用索引");
+            }
+            bit = slotBits.size();
+            slotBits.put(slotId, bit);
+        }
+        return bit;
+    }
+
+    /**
+     * 单个医生的占用情况
+     */
+    private static class DoctorOccupancy {
+        // 每天的时段位图，0 表示当天没有排班
+        private final long[] slots;
+        // 截至每天（含当天）的连续工作天数
+        private final int[] runs;
+
+        private DoctorOccupancy(int days) {
+            this.slots = new long[days];
+            this.runs = new int[days];
+        }
+
+        /**
+         * 某天新增为工作日：更新当天及之后相连工作日的连续天数
+         * 排班按日期顺序生成时，之后的日期还没有排班，只更新当天
+         */
+        private void updateRuns(int day) {
+            for (int d = day; d < slots.length && slots[d] != 0; d++) {
+                runs[d] = (d > 0 ? runs[d - 1] : 0) + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package com.example.springboot.util;
+
+import com.example.springboot.dto.ScheduleRules;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.Location;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.TimeSlot;
+import com.example.springboot.entity.enums.DoctorStatus;
+import com.example.springboot.service.LeaveIndex;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 排班局部搜索优化器
+ *
+ * 在贪心排班结果的基础上做模拟退火，邻域包括：
+ * - 补位：给医生数不足的时段增加一位可用医生
+ * - 换人：把某个班次换给另一位可用医生
+ * - 交换：两个不同时段的班次互换医生
+ * 目标函数由 WorkloadCalculator.calculateObjective 计算（未覆盖需求、超出连续工作天数限制、工作量方差）。
+ * 硬约束（请假、医生状态、已有排班、诊室占用、每时段医生数上限、班次上限）在生成邻域时保证，严格模式下不接受超出连续工作天数限制的解。
+ *
+ * 按 CPU 核数并行做多次独立重启（不同随机种子），取最优解。
+ */
+@Slf4j
+@Component
+public class ScheduleOptimizer {
+
+    // 退火温度：从 T0 按时间进度几何下降到 T_END
+    private static final double T0 = 2.0;
+    private static final double T_END = 0.01;
+    // 每隔多少次迭代检查一次时间
+    private static final int TIME_CHECK_INTERVAL = 256;
+
+    private final WorkloadCalculator workloadCalculator;
+    private final LeaveIndex leaveIndex;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    @Value("${auto-schedule.optimizer.max-time-ms:10000}")
+    private long maxTimeMillis;
+
+    @Autowired
+    public ScheduleOptimizer(WorkloadCalculator workloadCalculator,
+                             LeaveIndex leaveIndex,
+                             @Value("${auto-schedule.optimizer.parallelism:0}") int parallelism) {
+        this.workloadCalculator = workloadCalculator;
+        this.leaveIndex = leaveIndex;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(this.parallelism);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 优化排班
+     *
+     * @param doctors 可排班的医生
+     * @param slots 参与排班的时段
+     * @param startDate 开始日期
+     * @param endDate 结束日期
+     * @param doctorLocations 医生的固定诊室（key: doctorId）
+     * @param existingSchedules 已有排班（不可修改，计入时间冲突和连续工作天数）
+     * @param generatedSchedules 贪心排班生成的排班（优化的初始解）
+     * @param rules 排班规则
+     * @param timeLimitMillis 时间预算（毫秒），不大于0时只计算目标函数
+     * @return 优化结果
+     */
+    public Result optimize(List<Doctor> doctors,
+                           List<TimeSlot> slots,
+                           LocalDate startDate,
+                           LocalDate endDate,
+                           Map<Integer, Location> doctorLocations,
+                           List<Schedule> existingSchedules,
+                           List<Schedule> generatedSchedules,
+                           ScheduleRules rules,
+                           long timeLimitMillis) {
+        Problem problem = new Problem(doctors, slots, startDate, endDate, doctorLocations, existingSchedules, rules);
+        State initial = problem.initialState(generatedSchedules);
+        double objectiveBefore = problem.evaluate(initial);
+
+        long budget = Math.min(timeLimitMillis, maxTimeMillis);
+        if (budget <= 0 || problem.cellCount == 0 || problem.doctorCount == 0) {
+            return new Result(problem.toAssignments(initial), objectiveBefore, objectiveBefore, 0);
+        }
+
+        long deadline = System.nanoTime() + budget * 1_000_000L;
+        long baseSeed = System.nanoTime();
+        List<Future<Run>> futures = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            long seed = baseSeed + i * 0x9E3779B97F4A7C15L;
+            futures.add(executor.submit(() -> anneal(problem, initial.copy(), seed, deadline)));
+        }
+
+        Run best = new Run(initial, objectiveBefore, 0);
+        long iterations = 0;
+        for (Future<Run> future : futures) {
+            try {
+                Run run = future.get();
+                iterations += run.iterations;
+                if (run.objective < best.objective) {
+                    best = run;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("排班局部搜索失败", e.getCause());
+            }
+        }
+        log.info("排班局部搜索完成: 目标函数 {} -> {}, 并行数={}, 总迭代次数={}",
+            objectiveBefore, best.objective, parallelism, iterations);
+        return new Result(problem.toAssignments(best.state), objectiveBefore, best.objective, iterations);
+    }
+
+    /**
+     * 单次模拟退火
+     */
+    private Run anneal(Problem problem, State state, long seed, long deadline) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double current = problem.evaluate(state);
+        State best = state.copy();
+        double bestObjective = current;
+
+        long start = System.nanoTime();
+        double duration = Math.max(1, deadline - start);
+        double temperature = T0;
+        long iterations = 0;
+        Move move = new Move();
+        while (true) {
+            if (iterations % TIME_CHECK_INTERVAL == 0) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    break;
+                }
+                temperature = T0 * Math.pow(T_END / T0, (now - start) / duration);
+            }
+            iterations++;
+
+            if (!problem.randomMove(state, random, move)) {
+                continue;
+            }
+            double candidate = problem.evaluate(state);
+            boolean feasible = !problem.strict || state.violations == 0;
+            double delta = candidate - current;
+            if (feasible && (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature))) {
+                current = candidate;
+                if (current < bestObjective) {
+                    bestObjective = current;
+                    best = state.copy();
+                }
+            } else {
+                problem.undo(state, move);
+            }
+        }
+        return new Run(best, bestObjective, iterations);
+    }
+
+    /**
+     * 排班问题：医生 × 时段格子（日期 × 时段）的0/1分配
+     */
+    private class Problem {
+        private final List<Doctor> doctors;
+        private final List<TimeSlot> slots;
+        private final LocalDate startDate;
+        private final int doctorCount;
+        private final int dayCount;
+        private final int slotCount;
+        private final int cellCount;
+        private final int locationCount;
+        private final int minDoctors;
+        private final int maxDoctors;
+        private final int maxShifts;
+        private final int consecutiveLimit;
+        private final boolean strict;
+        // 医生的诊室下标，-1 表示没有分配诊室（不能排班）
+        private final int[] doctorLocation;
+        // 医生在该格子不可排班（请假、停诊、已有排班）
+        private final boolean[][] blocked;
+        // 医生当天有已有排班（计入连续工作天数）
+        private final boolean[][] existingDay;
+        private final Map<Integer, Integer> doctorIndex = new HashMap<>();
+        private final Map<Integer, Integer> slotIndex = new HashMap<>();
+
+        private Problem(List<Doctor> doctors, List<TimeSlot> slots, LocalDate startDate, LocalDate endDate,
+                        Map<Integer, Location> doctorLocations, List<Schedule> existingSchedules, ScheduleRules rules) {
+            this.doctors = doctors;
+            this.slots = slots;
+            this.startDate = startDate;
+            this.doctorCount = doctors.size();
+            this.dayCount = (int) ChronoUnit.DAYS.between(startDate, endDate) + 1;
+            this.slotCount = slots.size();
+            this.cellCount = dayCount * slotCount;
+            this.minDoctors = rules.getMinDoctorsPerSlot() != null ? Math.max(1, rules.getMinDoctorsPerSlot()) : 1;
+            this.maxDoctors = rules.getMaxDoctorsPerSlot() != null ? Math.max(minDoctors, rules.getMaxDoctorsPerSlot()) : minDoctors;
+            this.maxShifts = rules.getMaxShiftsPerDoctor() != null ? rules.getMaxShiftsPerDoctor() : Integer.MAX_VALUE;
+            this.consecutiveLimit = rules.getConsecutiveWorkDaysLimit() != null && rules.getConsecutiveWorkDaysLimit() > 0
+                ? rules.getConsecutiveWorkDaysLimit() : Integer.MAX_VALUE;
+            this.strict = Boolean.TRUE.equals(rules.getStrictMode());
+
+            for (int s = 0; s < slotCount; s++) {
+                slotIndex.put(slots.get(s).getSlotId(), s);
+            }
+            Map<Integer, Integer> locationIndex = new HashMap<>();
+            this.doctorLocation = new int[doctorCount];
+            for (int n = 0; n < doctorCount; n++) {
+                Doctor doctor = doctors.get(n);
+                doctorIndex.put(doctor.getDoctorId(), n);
+                Location location = doctorLocations.get(doctor.getDoctorId());
+                doctorLocation[n] = location == null ? -1
+                    : locationIndex.computeIfAbsent(location.getLocationId(), id -> locationIndex.size());
+            }
+            this.locationCount = locationIndex.size();
+
+            this.blocked = new boolean[doctorCount][cellCount];
+            this.existingDay = new boolean[doctorCount][dayCount];
+            for (int n = 0; n < doctorCount; n++) {
+                Doctor doctor = doctors.get(n);
+                for (int d = 0; d < dayCount; d++) {
+                    LocalDate date = startDate.plusDays(d);
+                    boolean unavailable = doctor.getStatus() != DoctorStatus.active || doctorLocation[n] < 0
+                        || leaveIndex.isOnLeave(doctor.getDoctorId(), date.atStartOfDay(), date.atTime(23, 59, 59));
+                    if (unavailable) {
+                        Arrays.fill(blocked[n], d * slotCount, (d + 1) * slotCount, true);
+                    }
+                }
+            }
+            for (Schedule schedule : existingSchedules) {
+                Integer n = doctorIndex.get(schedule.getDoctor().getDoctorId());
+                int d = dayOf(schedule.getScheduleDate());
+                if (n == null || d < 0 || d >= dayCount) {
+                    continue;
+                }
+                existingDay[n][d] = true;
+                Integer s = slotIndex.get(schedule.getSlot().getSlotId());
+                if (s != null) {
+                    blocked[n][d * slotCount + s] = true;
+                }
+            }
+        }
+
+        private int dayOf(LocalDate date) {
+            return (int) ChronoUnit.DAYS.between(startDate, date);
+        }
+
+        private State initialState(List<Schedule> generatedSchedules) {
+            State state = new State(doctorCount, dayCount, cellCount, locationCount);
+            for (Schedule schedule : generatedSchedules) {
+                Integer n = doctorIndex.get(schedule.getDoctor().getDoctorId());
+                Integer s = slotIndex.get(schedule.getSlot().getSlotId());
+                int d = dayOf(schedule.getScheduleDate());
+                if (n != null && s != null && d >= 0 && d < dayCount && !state.assigned[n][d * slotCount + s]) {
+                    assign(state, n, d * slotCount + s);
+                }
+            }
+            return state;
+        }
+
+        /**
+         * 计算目标函数（同时更新 state.violations）
+         */
+        private double evaluate(State state) {
+            int uncovered = 0;
+            for (int c = 0; c < cellCount; c++) {
+                uncovered += Math.max(0, minDoctors - state.cellDoctors[c]);
+            }
+            int violations = 0;
+            if (consecutiveLimit != Integer.MAX_VALUE) {
+                for (int n = 0; n < doctorCount; n++) {
+                    int run = 0;
+                    for (int d = 0; d < dayCount; d++) {
+                        boolean generated = state.dayShifts[n][d] > 0;
+                        run = generated || existingDay[n][d] ? run + 1 : 0;
+                        if (generated && run > consecutiveLimit) {
+                            violations++;
+                        }
+                    }
+                }
+            }
+            state.violations = violations;
+            return workloadCalculator.calculateObjective(state.shifts, uncovered, violations);
+        }
+
+        /**
+         * 医生能否排在该格子（不含连续工作天数，由目标函数处理）
+         */
+        private boolean canAssign(State state, int n, int c) {
+            return !blocked[n][c] && !state.assigned[n][c] && state.shifts[n] < maxShifts
+                && state.cellDoctors[c] < maxDoctors
+                && state.locationUse[c * locationCount + doctorLocation[n]] == 0;
+        }
+
+        private void assign(State state, int n, int c) {
+            state.assigned[n][c] = true;
+            state.cellDoctors[c]++;
+            state.shifts[n]++;
+            state.dayShifts[n][c / slotCount]++;
+            state.locationUse[c * locationCount + doctorLocation[n]]++;
+        }
+
+        private void unassign(State state, int n, int c) {
+            state.assigned[n][c] = false;
+            state.cellDoctors[c]--;
+            state.shifts[n]--;
+            state.dayShifts[n][c / slotCount]--;
+            state.locationUse[c * locationCount + doctorLocation[n]]--;
+        }
+
+        /**
+         * 随机生成并应用一个邻域动作，记录在 move 中以便撤销
+         *
+         * @return 没有找到可行动作时返回 false（状态不变）
+         */
+        private boolean randomMove(State state, SplittableRandom random, Move move) {
+            int type = random.nextInt(3);
+            if (type == 0) {
+                // 补位
+                int c = random.nextInt(cellCount);
+                if (state.cellDoctors[c] >= minDoctors) {
+                    return false;
+                }
+                int n = randomFeasibleDoctor(state, random, c, -1);
+                if (n < 0) {
+                    return false;
+                }
+                assign(state, n, c);
+                move.set(Move.ADD, n, c, -1, -1);
+                return true;
+            }
+
+            int c1 = random.nextInt(cellCount);
+            int n1 = randomAssignedDoctor(state, random, c1);
+            if (n1 < 0) {
+                return false;
+            }
+            if (type == 1) {
+                // 换人
+                unassign(state, n1, c1);
+                int n2 = randomFeasibleDoctor(state, random, c1, n1);
+                if (n2 < 0) {
+                    assign(state, n1, c1);
+                    return false;
+                }
+                assign(state, n2, c1);
+                move.set(Move.REPLACE, n1, c1, n2, -1);
+                return true;
+            }
+
+            // 交换
+            int c2 = random.nextInt(cellCount);
+            int n2 = c2 == c1 ? -1 : randomAssignedDoctor(state, random, c2);
+            if (n2 < 0 || n2 == n1) {
+                return false;
+            }
+            unassign(state, n1, c1);
+            unassign(state, n2, c2);
+            if (canAssign(state, n2, c1) && canAssign(state, n1, c2)) {
+                assign(state, n2, c1);
+                assign(state, n1, c2);
+                move.set(Move.SWAP, n1, c1, n2, c2);
+                return true;
+            }
+            assign(state, n1, c1);
+            assign(state, n2, c2);
+            return false;
+        }
+
+        private void undo(State state, Move move) {
+            switch (move.type) {
+                case Move.ADD -> unassign(state, move.n1, move.c1);
+                case Move.REPLACE -> {
+                    unassign(state, move.n2, move.c1);
+                    assign(state, move.n1, move.c1);
+                }
+                case Move.SWAP -> {
+                    unassign(state, move.n2, move.c1);
+                    unassign(state, move.n1, move.c2);
+                    assign(state, move.n1, move.c1);
+                    assign(state, move.n2, move.c2);
+                }
+                default -> throw new IllegalStateException("未知的邻域动作: " + move.type);
+            }
+        }
+
+        private int randomAssignedDoctor(State state, SplittableRandom random, int c) {
+            int count = state.cellDoctors[c];
+            if (count == 0) {
+                return -1;
+            }
+            int pick = random.nextInt(count);
+            for (int n = 0; n < doctorCount; n++) {
+                if (state.assigned[n][c] && pick-- == 0) {
+                    return n;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 从随机位置开始找一位可以排在该格子的医生
+         */
+        private int randomFeasibleDoctor(State state, SplittableRandom random, int c, int excluded) {
+            int offset = random.nextInt(doctorCount);
+            for (int i = 0; i < doctorCount; i++) {
+                int n = (offset + i) % doctorCount;
+                if (n != excluded && canAssign(state, n, c)) {
+                    return n;
+                }
+            }
+            return -1;
+        }
+
+        private List<Assignment> toAssignments(State state) {
+            List<Assignment> assignments = new ArrayList<>();
+            for (int c = 0; c < cellCount; c++) {
+                for (int n = 0; n < doctorCount; n++) {
+                    if (state.assigned[n][c]) {
+                        assignments.add(new Assignment(doctors.get(n), startDate.plusDays(c / slotCount),
+                            slots.get(c % slotCount)));
+                    }
+                }
+            }
+            return assignments;
+        }
+    }
+
+    /**
+     * 搜索状态
+     */
+    private static class State {
+        private final boolean[][] assigned;
+        private final int[] cellDoctors;
+        private final int[] shifts;
+        private final int[][] dayShifts;
+        private final int[] locationUse;
+        private int violations;
+
+        private State(int doctorCount, int dayCount, int cellCount, int locationCount) {
+            this.assigned = new boolean[doctorCount][cellCount];
+            this.cellDoctors = new int[cellCount];
+            this.shifts = new int[doctorCount];
+            this.dayShifts = new int[doctorCount][dayCount];
+            this.locationUse = new int[cellCount * Math.max(1, locationCount)];
+        }
+
+        private State(State other) {
+            this.assigned = deepCopy(other.assigned);
+            this.cellDoctors = other.cellDoctors.clone();
+            this.shifts = other.shifts.clone();
+            this.dayShifts = new int[other.dayShifts.length][];
+            for (int i = 0; i < dayShifts.length; i++) {
+                dayShifts[i] = other.dayShifts[i].clone();
+            }
+            this.locationUse = other.locationUse.clone();
+            this.violations = other.violations;
+        }
+
+        private State copy() {
+            return new State(this);
+        }
+
+        private static boolean[][] deepCopy(boolean[][] source) {
+            boolean[][] copy = new boolean[source.length][];
+            for (int i = 0; i < source.length; i++) {
+                copy[i] = source[i].clone();
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * 最近一次邻域动作（用于撤销）
+     */
+    private static class Move {
+        private static final int ADD = 0;
+        private static final int REPLACE = 1;
+        private static final int SWAP = 2;
+
+        private int type;
+        private int n1;
+        private int c1;
+        private int n2;
+        private int c2;
+
+        private void set(int type, int n1, int c1, int n2, int c2) {
+            this.type = type;
+            this.n1 = n1;
+            this.c1 = c1;
+            this.n2 = n2;
+            this.c2 = c2;
+        }
+    }
+
+    private record Run(State state, double objective, long iterations) {
+    }
+
+    /**
+     * 优化后的一个班次
+     */
+    public record Assignment(Doctor doctor, LocalDate date, TimeSlot slot) {
+    }
+
+    /**
+     * 优化结果
+     *
+     * @param assignments 优化后的全部班次（按日期、时段排序）
+     * @param objectiveBefore 优化前的目标函数值
+     * @param objectiveAfter 优化后的目标函数值
+     * @param iterations 所有并行搜索的总迭代次数
+     */
+    public record Result(List<Assignment> assignments, double objectiveBefore, double objectiveAfter, long iterations) {
+    }
+}
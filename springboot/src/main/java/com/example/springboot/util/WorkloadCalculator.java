@@ -15,6 +15,10 @@ import java.util.*;
 @Component
 public class WorkloadCalculator {
     
+    // 目标函数权重：未覆盖的医生需求 > 超出连续工作天数限制 > 工作量不均衡
+    private static final double UNCOVERED_WEIGHT = 100.0;
+    private static final double CONSECUTIVE_VIOLATION_WEIGHT = 10.0;
+    
     /**
      * 计算医生工作量分布
      * 
@@ -122,6 +126,32 @@ public class WorkloadCalculator {
         return maxConsecutive;
     }
     
+    /**
+     * 计算排班目标函数（越小越好）
+     * 未覆盖的医生需求 × 100 + 超出连续工作天数限制的工作日 × 10 + 医生班次数的方差
+     * 
+     * @param shiftsPerDoctor 每位医生的班次数（包括没有排班的医生）
+     * @param uncoveredDemand 未满足的医生需求（各时段最少医生数减去实际分配数之和）
+     * @param consecutiveViolations 超出连续工作天数限制的工作日数（放宽限制分配的班次）
+     * @return 目标函数值
+     */
+    public double calculateObjective(int[] shiftsPerDoctor, int uncoveredDemand, int consecutiveViolations) {
+        double variance = 0.0;
+        if (shiftsPerDoctor.length > 0) {
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (int shifts : shiftsPerDoctor) {
+                sum += shifts;
+                sumOfSquares += (double) shifts * shifts;
+            }
+            double mean = sum / shiftsPerDoctor.length;
+            variance = sumOfSquares / shiftsPerDoctor.length - mean * mean;
+        }
+        return uncoveredDemand * UNCOVERED_WEIGHT
+            + consecutiveViolations * CONSECUTIVE_VIOLATION_WEIGHT
+            + variance;
+    }
+    
     /**
      * 计算工作量统计摘要
      * 
@@ -0,0 +1,288 @@
+package com.example.springboot.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.example.springboot.dto.AutoScheduleResponse;
+import com.example.springboot.dto.HospitalAutoScheduleRequest;
+import com.example.springboot.dto.HospitalAutoScheduleResponse;
+import com.example.springboot.dto.ScheduleRules;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.TimeSlot;
+import com.example.springboot.service.DemandForecastService;
+import com.example.springboot.service.LeaveIndex;
+import com.example.springboot.service.impl.AutoScheduleServiceImpl;
+import com.example.springboot.util.ConflictDetector;
+import com.example.springboot.util.ScheduleConstraintValidator;
+import com.example.springboot.util.ScheduleOccupancyIndex;
+import com.example.springboot.util.ScheduleOptimizer;
+import com.example.springboot.util.WorkloadCalculator;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 自动排班基准测试
+ *
+ * 用合成医院数据（SyntheticHospital）测量排班各组件在不同规模下的耗时、内存分配和排班质量：
+ * - validator：对每个医生、日期、时段检查一次硬约束
+ * - conflict-detector：已有排班与一半医生的模拟新排班之间的冲突检测
+ * - workload-calculator：工作量分布和目标函数
+ * - end-to-end / end-to-end-optimized：全院排班（预览模式，内存仓库），不启用 / 启用局部搜索优化
+ *
+ * 直接运行 main 方法（IDE 中运行，或 mvn test-compile 后用测试类路径运行），可用系统属性调整：
+ * -Dbenchmark.doctors=10,100,500,2000  -Dbenchmark.days=7,30,180  -Dbenchmark.iterations=3
+ * -Dbenchmark.warmup=1  -Dbenchmark.seed=42  -Dbenchmark.optimize-ms=1000
+ * -Dbenchmark.output=target/benchmark/auto-schedule.csv
+ * 结果打印到控制台并追加到 CSV 文件，每次运行带时间戳，便于对比回归。
+ * 内存分配为所有存活线程分配字节数之差（需要 HotSpot），并行部分已结束的线程不计入。
+ */
+public class AutoScheduleBenchmark {
+
+    private static final String CSV_HEADER = "run_at,benchmark,doctors,days,departments,iterations,"
+            + "avg_ms,min_ms,alloc_mb_per_op,schedules,unassigned_slots,conflicts,objective_before,objective_after,note";
+
+    private final int iterations = Integer.getInteger("benchmark.iterations", 3);
+    private final int warmup = Integer.getInteger("benchmark.warmup", 1);
+    private final long seed = Long.getLong("benchmark.seed", 42L);
+    private final int optimizeMillis = Integer.getInteger("benchmark.optimize-ms", 1000);
+    private final String runAt = LocalDateTime.now().withNano(0).toString();
+    private final List<String> rows = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        // 排班服务逐条记录分配日志，基准测试时关闭
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        int[] doctorCounts = parseSizes(System.getProperty("benchmark.doctors", "10,100,500,2000"));
+        int[] dayCounts = parseSizes(System.getProperty("benchmark.days", "7,30,180"));
+        Path output = Path.of(System.getProperty("benchmark.output", "target/benchmark/auto-schedule.csv"));
+
+        AutoScheduleBenchmark benchmark = new AutoScheduleBenchmark();
+        System.out.println(CSV_HEADER);
+        for (int doctors : doctorCounts) {
+            for (int days : dayCounts) {
+                benchmark.run(doctors, days);
+            }
+        }
+        benchmark.export(output);
+        System.out.println("结果已写入: " + output.toAbsolutePath());
+    }
+
+    private void run(int doctorCount, int days) {
+        SyntheticHospital hospital = SyntheticHospital.generate(doctorCount, days, seed);
+        InMemoryRepositories repositories = new InMemoryRepositories(hospital);
+        LeaveIndex leaveIndex = new LeaveIndex(repositories.leaveRequestRepository, repositories.transactionManager);
+        ScheduleConstraintValidator validator = new ScheduleConstraintValidator(leaveIndex);
+        ConflictDetector conflictDetector = new ConflictDetector();
+        WorkloadCalculator workloadCalculator = new WorkloadCalculator();
+        ScheduleOptimizer optimizer = new ScheduleOptimizer(workloadCalculator, leaveIndex, 0);
+        ReflectionTestUtils.setField(optimizer, "maxTimeMillis", (long) optimizeMillis);
+        AutoScheduleServiceImpl service = autoScheduleService(repositories, leaveIndex, validator,
+                conflictDetector, workloadCalculator, optimizer);
+        Size size = new Size(doctorCount, days, hospital.departments.size());
+
+        try {
+            benchmarkValidator(size, hospital, validator);
+            benchmarkConflictDetector(size, hospital, conflictDetector);
+            benchmarkWorkloadCalculator(size, hospital, workloadCalculator);
+            benchmarkEndToEnd(size, hospital, service, false);
+            benchmarkEndToEnd(size, hospital, service, true);
+        } finally {
+            ReflectionTestUtils.invokeMethod(service, "shutdownHospitalPool");
+            ReflectionTestUtils.invokeMethod(optimizer, "shutdown");
+        }
+    }
+
+    private void benchmarkValidator(Size size, SyntheticHospital hospital, ScheduleConstraintValidator validator) {
+        ScheduleRules rules = new ScheduleRules();
+        Map<Integer, Integer> workloadMap = new HashMap<>();
+        Sample sample = measure(() -> {
+            ScheduleOccupancyIndex occupancy = ScheduleOccupancyIndex.of(
+                    hospital.startDate, hospital.endDate, hospital.existingSchedules);
+            int passed = 0;
+            for (LocalDate date = hospital.startDate; !date.isAfter(hospital.endDate); date = date.plusDays(1)) {
+                for (TimeSlot slot : hospital.timeSlots) {
+                    for (Doctor doctor : hospital.doctors) {
+                        if (validator.checkHardConstraints(doctor, date, slot, occupancy, workloadMap, rules)) {
+                            passed++;
+                        }
+                    }
+                }
+            }
+            return passed;
+        });
+        long checks = (long) size.doctors * size.days * hospital.timeSlots.size();
+        record("validator", size, sample, "", "", "", "", "", checks + " checks, " + sample.lastResult + " passed");
+    }
+
+    private void benchmarkConflictDetector(Size size, SyntheticHospital hospital, ConflictDetector conflictDetector) {
+        // 模拟新排班：一半医生每天上午第一个时段各一个排班
+        List<Schedule> generated = new ArrayList<>();
+        for (int i = 0; i < hospital.doctors.size(); i += 2) {
+            for (LocalDate date = hospital.startDate; !date.isAfter(hospital.endDate); date = date.plusDays(1)) {
+                Schedule schedule = new Schedule();
+                schedule.setDoctor(hospital.doctors.get(i));
+                schedule.setScheduleDate(date);
+                schedule.setSlot(hospital.timeSlots.get(0));
+                generated.add(schedule);
+            }
+        }
+        int total = generated.size() + hospital.existingSchedules.size();
+        Sample sample = measure(() -> conflictDetector.detectConflicts(generated, hospital.existingSchedules).size());
+        record("conflict-detector", size, sample, total, "", sample.lastResult, "", "", "");
+    }
+
+    private void benchmarkWorkloadCalculator(Size size, SyntheticHospital hospital, WorkloadCalculator workloadCalculator) {
+        Sample sample = measure(() -> {
+            int[] shifts = workloadCalculator.calculateWorkloadDistribution(hospital.existingSchedules, hospital.doctors)
+                    .values().stream()
+                    .mapToInt(workload -> workload.getTotalShifts() != null ? workload.getTotalShifts() : 0)
+                    .toArray();
+            return workloadCalculator.calculateObjective(shifts, 0, 0);
+        });
+        record("workload-calculator", size, sample, hospital.existingSchedules.size(), "", "", "", sample.lastResult, "");
+    }
+
+    private void benchmarkEndToEnd(Size size, SyntheticHospital hospital, AutoScheduleServiceImpl service, boolean optimize) {
+        HospitalAutoScheduleRequest request = new HospitalAutoScheduleRequest();
+        request.setStartDate(hospital.startDate);
+        request.setEndDate(hospital.endDate);
+        request.setPreviewOnly(true);
+        ScheduleRules rules = new ScheduleRules();
+        rules.setOptimize(optimize);
+        rules.setOptimizeTimeLimitMs(optimizeMillis);
+        request.setRules(rules);
+
+        Sample sample = measure(() -> service.autoGenerateHospitalSchedule(request));
+        HospitalAutoScheduleResponse response = (HospitalAutoScheduleResponse) sample.lastResult;
+        int unassigned = 0;
+        double objectiveBefore = 0;
+        double objectiveAfter = 0;
+        for (AutoScheduleResponse result : response.getDepartmentResults().values()) {
+            unassigned += result.getUnassignedSlots() != null ? result.getUnassignedSlots().size() : 0;
+            if (result.getStatistics() != null) {
+                objectiveBefore += result.getStatistics().getObjectiveBefore();
+                objectiveAfter += result.getStatistics().getObjectiveAfter();
+            }
+        }
+        record(optimize ? "end-to-end-optimized" : "end-to-end", size, sample, response.getTotalSchedules(),
+                unassigned, response.getConflicts().size(), objectiveBefore, objectiveAfter,
+                response.getWarnings().size() + " warnings");
+    }
+
+    private static AutoScheduleServiceImpl autoScheduleService(InMemoryRepositories repositories,
+                                                               LeaveIndex leaveIndex,
+                                                               ScheduleConstraintValidator validator,
+                                                               ConflictDetector conflictDetector,
+                                                               WorkloadCalculator workloadCalculator,
+                                                               ScheduleOptimizer optimizer) {
+        AutoScheduleServiceImpl service = new AutoScheduleServiceImpl();
+        ReflectionTestUtils.setField(service, "doctorRepository", repositories.doctorRepository);
+        ReflectionTestUtils.setField(service, "timeSlotRepository", repositories.timeSlotRepository);
+        ReflectionTestUtils.setField(service, "locationRepository", repositories.locationRepository);
+        ReflectionTestUtils.setField(service, "scheduleRepository", repositories.scheduleRepository);
+        ReflectionTestUtils.setField(service, "departmentRepository", repositories.departmentRepository);
+        ReflectionTestUtils.setField(service, "transactionManager", repositories.transactionManager);
+        ReflectionTestUtils.setField(service, "leaveIndex", leaveIndex);
+        ReflectionTestUtils.setField(service, "constraintValidator", validator);
+        ReflectionTestUtils.setField(service, "conflictDetector", conflictDetector);
+        ReflectionTestUtils.setField(service, "workloadCalculator", workloadCalculator);
+        ReflectionTestUtils.setField(service, "scheduleOptimizer", optimizer);
+        // 合成医院没有历史预约，号源数量使用默认值
+        ReflectionTestUtils.setField(service, "demandForecastService", new DemandForecastService(
+                repositories.demandForecastRepository, repositories.scheduleRepository, null, repositories.transactionManager));
+        // 与 application.yml 的默认配置一致
+        ReflectionTestUtils.setField(service, "hospitalParallelism", 4);
+        ReflectionTestUtils.setField(service, "hospitalMaxConcurrent", 1);
+        ReflectionTestUtils.invokeMethod(service, "initHospitalPool");
+        return service;
+    }
+
+    /**
+     * 预热后运行 iterations 次，记录平均、最短耗时和平均分配字节数
+     */
+    private Sample measure(Supplier<?> task) {
+        for (int i = 0; i < warmup; i++) {
+            task.get();
+        }
+        long totalNanos = 0;
+        long minNanos = Long.MAX_VALUE;
+        long totalAllocated = 0;
+        Object result = null;
+        for (int i = 0; i < iterations; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            result = task.get();
+            long elapsed = System.nanoTime() - start;
+            totalAllocated += Math.max(0, allocatedBytes() - allocatedBefore);
+            totalNanos += elapsed;
+            minNanos = Math.min(minNanos, elapsed);
+        }
+        return new Sample(totalNanos / 1e6 / iterations, minNanos / 1e6,
+                totalAllocated / 1024.0 / 1024.0 / iterations, result);
+    }
+
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean)) {
+            return 0;
+        }
+        return Arrays.stream(threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds()))
+                .filter(bytes -> bytes > 0)
+                .sum();
+    }
+
+    private void record(String name, Size size, Sample sample, Object schedules, Object unassigned,
+                        Object conflicts, Object objectiveBefore, Object objectiveAfter, String note) {
+        String row = String.join(",", runAt, name, String.valueOf(size.doctors), String.valueOf(size.days),
+                String.valueOf(size.departments), String.valueOf(iterations),
+                String.format("%.2f", sample.avgMillis),
+                String.format("%.2f", sample.minMillis),
+                String.format("%.2f", sample.allocatedMb),
+                String.valueOf(schedules), String.valueOf(unassigned), String.valueOf(conflicts),
+                format(objectiveBefore), format(objectiveAfter), note.replace(',', ';'));
+        System.out.println(row);
+        rows.add(row);
+    }
+
+    private static String format(Object value) {
+        return value instanceof Double number ? String.format("%.2f", number) : String.valueOf(value);
+    }
+
+    private void export(Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        boolean writeHeader = !Files.exists(output);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (writeHeader) {
+                writer.println(CSV_HEADER);
+            }
+            rows.forEach(writer::println);
+        }
+    }
+
+    private static int[] parseSizes(String value) {
+        return Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private record Size(int doctors, int days, int departments) {
+    }
+
+    private record Sample(double avgMillis, double minMillis, double allocatedMb, Object lastResult) {
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.entity.Appointment;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.Location;
+import com.example.springboot.entity.Patient;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.TimeSlot;
+import com.example.springboot.entity.enums.AppointmentStatus;
+import com.example.springboot.entity.enums.PaymentStatus;
+import com.example.springboot.entity.enums.ScheduleStatus;
+import com.example.springboot.repository.AppointmentRepository;
+import com.example.springboot.repository.ScheduleBulkWriter;
+import com.example.springboot.repository.ScheduleRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 排班、预约批量写入基准测试（需要 MySQL）
+ *
+ * 对比现有的 Hibernate 写入路径和 ScheduleBulkWriter：
+ * - schedule-insert：saveAll（IDENTITY 主键，每行一次 INSERT） vs 批量 INSERT
+ * - schedule-update：逐条 findById + saveAndFlush（批量更新排班接口原来的做法） vs 一次读取 + 按版本号批量 UPDATE
+ * - appointment-insert：saveAll vs 批量 INSERT
+ * - appointment-status-update：读取后修改状态、flush（逐行 UPDATE） vs 批量 UPDATE
+ *
+ * 每次运行都在事务中执行并回滚，不会留下数据；插入的排班使用 2099 年以后的日期，避免与已有排班冲突。
+ * 数据库往返次数取会话状态 Questions 的差值（rewriteBatchedStatements 改写后的一批语句算一次）。
+ * 库里需要至少有一个医生、时段、诊室和患者（开发库初始数据即可）。
+ *
+ * 直接运行 main 方法（IDE 中运行，或 mvn test-compile 后用测试类路径运行），可用系统属性调整：
+ * -Dbenchmark.jdbc-url=jdbc:mysql://localhost:3306/hospital_05?...&rewriteBatchedStatements=true
+ * -Dbenchmark.jdbc-user=root  -Dbenchmark.jdbc-password=123456
+ * -Dbenchmark.rows=100,1000,5000  -Dbenchmark.iterations=3  -Dbenchmark.warmup=1
+ * -Dbenchmark.output=target/benchmark/bulk-persistence.csv
+ */
+public class BulkPersistenceBenchmark {
+
+    private static final String CSV_HEADER = "run_at,benchmark,path,rows,iterations,avg_ms,min_ms,avg_round_trips,rows_per_second";
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2099, 1, 1);
+
+    private final int iterations = Integer.getInteger("benchmark.iterations", 3);
+    private final int warmup = Integer.getInteger("benchmark.warmup", 1);
+    private final String runAt = LocalDateTime.now().withNano(0).toString();
+    private final List<String> rows = new ArrayList<>();
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final ScheduleRepository scheduleRepository;
+    private final AppointmentRepository appointmentRepository;
+    private final ScheduleBulkWriter bulkWriter;
+
+    private Doctor doctor;
+    private TimeSlot slot;
+    private Location location;
+    private Patient patient;
+
+    private BulkPersistenceBenchmark(EntityManagerFactory entityManagerFactory, DriverManagerDataSource dataSource) {
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.transactionTemplate = new TransactionTemplate(new JpaTransactionManager(entityManagerFactory));
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        JpaRepositoryFactory repositoryFactory = new JpaRepositoryFactory(entityManager);
+        this.scheduleRepository = repositoryFactory.getRepository(ScheduleRepository.class);
+        this.appointmentRepository = repositoryFactory.getRepository(AppointmentRepository.class);
+        this.bulkWriter = new ScheduleBulkWriter(jdbcTemplate);
+    }
+
+    public static void main(String[] args) throws IOException {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                System.getProperty("benchmark.jdbc-url", "jdbc:mysql://localhost:3306/hospital_05?useSSL=false"
+                        + "&serverTimezone=Asia/Shanghai&characterEncoding=utf-8&allowPublicKeyRetrieval=true"
+                        + "&rewriteBatchedStatements=true"),
+                System.getProperty("benchmark.jdbc-user", "root"),
+                System.getProperty("benchmark.jdbc-password", "123456"));
+        int[] rowCounts = Arrays.stream(System.getProperty("benchmark.rows", "100,1000,5000").split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+        Path output = Path.of(System.getProperty("benchmark.output", "target/benchmark/bulk-persistence.csv"));
+
+        // 与应用相同的命名策略，不配置 hibernate.jdbc.batch_size（与应用配置一致）
+        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setPackagesToScan("com.example.springboot.entity");
+        factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factory.setJpaPropertyMap(Map.of(
+                "hibernate.physical_naming_strategy",
+                "org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy",
+                "hibernate.implicit_naming_strategy",
+                "org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy"));
+        factory.afterPropertiesSet();
+
+        try {
+            BulkPersistenceBenchmark benchmark = new BulkPersistenceBenchmark(factory.getObject(), dataSource);
+            benchmark.loadReferenceData();
+            System.out.println(CSV_HEADER);
+            for (int rowCount : rowCounts) {
+                benchmark.run(rowCount);
+            }
+            benchmark.export(output);
+            System.out.println("结果已写入: " + output.toAbsolutePath());
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private void loadReferenceData() {
+        transactionTemplate.executeWithoutResult(status -> {
+            doctor = first(Doctor.class);
+            slot = first(TimeSlot.class);
+            location = first(Location.class);
+            patient = first(Patient.class);
+        });
+    }
+
+    private <T> T first(Class<T> type) {
+        List<T> result = entityManager.createQuery("SELECT e FROM " + type.getSimpleName() + " e", type)
+                .setMaxResults(1)
+                .getResultList();
+        if (result.isEmpty()) {
+            throw new IllegalStateException("数据库中没有 " + type.getSimpleName() + " 数据，无法运行基准测试");
+        }
+        return result.get(0);
+    }
+
+    private void run(int rowCount) {
+        measure("schedule-insert", "jpa", rowCount, n -> {
+            List<Schedule> schedules = newSchedules(n);
+            return () -> {
+                scheduleRepository.saveAll(schedules);
+                entityManager.flush();
+            };
+        });
+        measure("schedule-insert", "jdbc-batch", rowCount, n -> {
+            List<Schedule> schedules = newSchedules(n);
+            return () -> bulkWriter.insertSchedules(schedules);
+        });
+
+        measure("schedule-update", "jpa", rowCount, n -> {
+            List<Integer> ids = insertedScheduleIds(n);
+            return () -> {
+                for (Integer id : ids) {
+                    Schedule schedule = scheduleRepository.findById(id).orElseThrow();
+                    schedule.setTotalSlots(schedule.getTotalSlots() + 1);
+                    scheduleRepository.saveAndFlush(schedule);
+                }
+            };
+        });
+        measure("schedule-update", "jdbc-batch", rowCount, n -> {
+            List<Integer> ids = insertedScheduleIds(n);
+            return () -> {
+                List<ScheduleBulkWriter.ScheduleUpdate> updates = scheduleRepository.findAllById(ids).stream()
+                        .map(schedule -> new ScheduleBulkWriter.ScheduleUpdate(schedule.getScheduleId(),
+                                schedule.getVersion(), schedule.getTotalSlots() + 1, schedule.getFee()))
+                        .collect(Collectors.toList());
+                if (!bulkWriter.updateSchedules(updates).isEmpty()) {
+                    throw new IllegalStateException("批量更新出现版本号冲突");
+                }
+            };
+        });
+
+        measure("appointment-insert", "jpa", rowCount, n -> {
+            List<Appointment> appointments = newAppointments(n);
+            return () -> {
+                appointmentRepository.saveAll(appointments);
+                entityManager.flush();
+            };
+        });
+        measure("appointment-insert", "jdbc-batch", rowCount, n -> {
+            List<Appointment> appointments = newAppointments(n);
+            return () -> bulkWriter.insertAppointments(appointments);
+        });
+
+        measure("appointment-status-update", "jpa", rowCount, n -> {
+            List<Integer> ids = insertedAppointmentIds(n);
+            return () -> {
+                appointmentRepository.findAllById(ids).forEach(appointment -> {
+                    appointment.setStatus(AppointmentStatus.cancelled);
+                    appointment.setPaymentStatus(PaymentStatus.refunded);
+                });
+                entityManager.flush();
+            };
+        });
+        measure("appointment-status-update", "jdbc-batch", rowCount, n -> {
+            List<Integer> ids = insertedAppointmentIds(n);
+            return () -> {
+                List<Appointment> appointments = appointmentRepository.findAllById(ids);
+                appointments.forEach(appointment -> {
+                    appointment.setStatus(AppointmentStatus.cancelled);
+                    appointment.setPaymentStatus(PaymentStatus.refunded);
+                });
+                bulkWriter.updateAppointmentStatuses(appointments);
+                // 实体已由 JDBC 更新，不再由 Hibernate 回写
+                entityManager.clear();
+            };
+        });
+    }
+
+    private List<Schedule> newSchedules(int count) {
+        List<Schedule> schedules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Schedule schedule = new Schedule();
+            schedule.setDoctor(doctor);
+            schedule.setScheduleDate(FIRST_DATE.plusDays(i));
+            schedule.setSlot(slot);
+            schedule.setLocation(location);
+            schedule.setTotalSlots(20);
+            schedule.setBookedSlots(0);
+            schedule.setFee(new BigDecimal("5.00"));
+            schedule.setStatus(ScheduleStatus.available);
+            schedule.setRemarks("批量写入基准测试");
+            schedules.add(schedule);
+        }
+        return schedules;
+    }
+
+    private List<Integer> insertedScheduleIds(int count) {
+        List<Schedule> schedules = newSchedules(count);
+        bulkWriter.insertSchedules(schedules);
+        return schedules.stream().map(Schedule::getScheduleId).collect(Collectors.toList());
+    }
+
+    private List<Appointment> newAppointments(int count) {
+        Schedule schedule = newSchedules(1).get(0);
+        bulkWriter.insertSchedules(List.of(schedule));
+        Schedule reference = entityManager.getReference(Schedule.class, schedule.getScheduleId());
+        List<Appointment> appointments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Appointment appointment = new Appointment();
+            appointment.setPatient(patient);
+            appointment.setSchedule(reference);
+            appointment.setAppointmentNumber(i + 1);
+            appointment.setStatus(AppointmentStatus.scheduled);
+            appointment.setPaymentStatus(PaymentStatus.paid);
+            appointment.setCreatedAt(LocalDateTime.now());
+            appointments.add(appointment);
+        }
+        return appointments;
+    }
+
+    private List<Integer> insertedAppointmentIds(int count) {
+        List<Appointment> appointments = newAppointments(count);
+        bulkWriter.insertAppointments(appointments);
+        return appointments.stream().map(Appointment::getAppointmentId).collect(Collectors.toList());
+    }
+
+    /**
+     * 预热后运行 iterations 次，每次在独立事务中准备数据、计时执行、回滚
+     *
+     * @param prepare 按行数准备数据（不计时），返回要计时的操作
+     */
+    private void measure(String name, String path, int rowCount, IntFunction<Runnable> prepare) {
+        long totalNanos = 0;
+        long minNanos = Long.MAX_VALUE;
+        long totalRoundTrips = 0;
+        for (int i = 0; i < warmup + iterations; i++) {
+            long[] result = new long[2];
+            transactionTemplate.executeWithoutResult(status -> {
+                Runnable task = prepare.apply(rowCount);
+                entityManager.flush();
+                entityManager.clear();
+                long questionsBefore = questions();
+                long start = System.nanoTime();
+                task.run();
+                result[0] = System.nanoTime() - start;
+                // 减去本次查询 Questions 的语句
+                result[1] = questions() - questionsBefore - 1;
+                status.setRollbackOnly();
+            });
+            if (i < warmup) {
+                continue;
+            }
+            totalNanos += result[0];
+            minNanos = Math.min(minNanos, result[0]);
+            totalRoundTrips += result[1];
+        }
+        double avgMillis = totalNanos / 1e6 / iterations;
+        String row = String.join(",", runAt, name, path, String.valueOf(rowCount), String.valueOf(iterations),
+                String.format("%.2f", avgMillis), String.format("%.2f", minNanos / 1e6),
+                String.format("%.1f", (double) totalRoundTrips / iterations),
+                String.format("%.0f", rowCount / (avgMillis / 1000)));
+        System.out.println(row);
+        rows.add(row);
+    }
+
+    /**
+     * 当前连接执行过的语句数（与 JPA 事务使用同一个连接）
+     */
+    private long questions() {
+        return jdbcTemplate.queryForObject("SHOW SESSION STATUS LIKE 'Questions'", (rs, rowNum) -> rs.getLong(2));
+    }
+
+    private void export(Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        boolean writeHeader = !Files.exists(output);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (writeHeader) {
+                writer.println(CSV_HEADER);
+            }
+            rows.forEach(writer::println);
+        }
+    }
+}
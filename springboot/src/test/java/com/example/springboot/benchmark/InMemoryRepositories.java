@@ -0,0 +1,122 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.entity.enums.DoctorStatus;
+import com.example.springboot.entity.enums.LeaveRequestStatus;
+import com.example.springboot.repository.DemandForecastRepository;
+import com.example.springboot.repository.DepartmentRepository;
+import com.example.springboot.repository.DoctorRepository;
+import com.example.springboot.repository.LeaveRequestRepository;
+import com.example.springboot.repository.LocationRepository;
+import com.example.springboot.repository.ScheduleRepository;
+import com.example.springboot.repository.TimeSlotRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 基于合成医院数据的内存仓库（排班基准测试用）
+ *
+ * 用动态代理实现自动排班用到的几个查询方法，其他方法调用时抛出 UnsupportedOperationException；
+ * 事务管理器不做任何事，TransactionTemplate 可以照常使用。
+ */
+public class InMemoryRepositories {
+
+    public final DepartmentRepository departmentRepository;
+    public final DoctorRepository doctorRepository;
+    public final LocationRepository locationRepository;
+    public final TimeSlotRepository timeSlotRepository;
+    public final ScheduleRepository scheduleRepository;
+    public final LeaveRequestRepository leaveRequestRepository;
+    public final DemandForecastRepository demandForecastRepository;
+    public final PlatformTransactionManager transactionManager = new NoOpTransactionManager();
+
+    public InMemoryRepositories(SyntheticHospital hospital) {
+        departmentRepository = repository(DepartmentRepository.class, Map.of(
+                "findAll", args -> new ArrayList<>(hospital.departments),
+                "findAllById", args -> {
+                    Set<Object> ids = new HashSet<>();
+                    ((Iterable<?>) args[0]).forEach(ids::add);
+                    return hospital.departments.stream()
+                            .filter(department -> ids.contains(department.getDepartmentId()))
+                            .collect(Collectors.toList());
+                }));
+        doctorRepository = repository(DoctorRepository.class, Map.of(
+                "findByDepartmentDepartmentIdAndStatus", args -> hospital.doctors.stream()
+                        .filter(doctor -> doctor.getDepartment().getDepartmentId().equals(args[0])
+                                && doctor.getStatus() == (DoctorStatus) args[1])
+                        .collect(Collectors.toList())));
+        locationRepository = repository(LocationRepository.class, Map.of(
+                "findByDepartmentDepartmentId", args -> hospital.locations.stream()
+                        .filter(location -> location.getDepartment().getDepartmentId().equals(args[0]))
+                        .collect(Collectors.toList())));
+        timeSlotRepository = repository(TimeSlotRepository.class, Map.of(
+                "findAll", args -> new ArrayList<>(hospital.timeSlots)));
+        scheduleRepository = repository(ScheduleRepository.class, Map.of(
+                "findWithDetailsByScheduleDateBetween", args -> hospital.existingSchedules.stream()
+                        .filter(schedule -> !schedule.getScheduleDate().isBefore((LocalDate) args[0])
+                                && !schedule.getScheduleDate().isAfter((LocalDate) args[1]))
+                        .collect(Collectors.toList()),
+                // 基准测试以预览模式运行，保存时只返回原列表
+                "saveAll", args -> args[0]));
+        leaveRequestRepository = repository(LeaveRequestRepository.class, Map.of(
+                "findByDoctorDoctorIdInAndStatus", args -> {
+                    Set<?> doctorIds = new HashSet<>((Collection<?>) args[0]);
+                    return hospital.leaveRequests.stream()
+                            .filter(leave -> doctorIds.contains(leave.getDoctor().getDoctorId())
+                                    && leave.getStatus() == (LeaveRequestStatus) args[1])
+                            .collect(Collectors.toList());
+                }));
+        demandForecastRepository = repository(DemandForecastRepository.class, Map.of(
+                "findByDoctorIdIn", args -> new ArrayList<>()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T repository(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return "InMemory" + type.getSimpleName();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    Function<Object[], Object> handler = methods.get(method.getName());
+                    if (handler == null) {
+                        throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+                    }
+                    return handler.apply(Objects.requireNonNullElse(args, new Object[0]));
+            }
+        });
+    }
+
+    /**
+     * 不做任何事的事务管理器
+     */
+    private static class NoOpTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.entity.Department;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.LeaveRequest;
+import com.example.springboot.entity.Location;
+import com.example.springboot.entity.ParentDepartment;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.TimeSlot;
+import com.example.springboot.entity.enums.DoctorStatus;
+import com.example.springboot.entity.enums.LeaveRequestStatus;
+import com.example.springboot.entity.enums.ScheduleStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 合成医院数据（排班基准测试用）
+ *
+ * 按医生数、天数生成科室、医生、时段、诊室、请假和已有排班，同一个随机种子生成的数据完全相同：
+ * - 每个科室约10名医生，每5个科室一个父科室
+ * - 每7个科室中有1个没有诊室（测试全院排班时借用诊室），其余科室诊室数为医生数+1
+ * - 上午、下午各4个时段；约5%的医生停诊，约5%的医生在排班范围内请假1~5天
+ * - 约20%的医生在排班范围内已有排班（每人约1/4的天数）
+ */
+public class SyntheticHospital {
+
+    private static final int DOCTORS_PER_DEPARTMENT = 10;
+    private static final int DEPARTMENTS_PER_PARENT = 5;
+
+    public final LocalDate startDate;
+    public final LocalDate endDate;
+    public final List<ParentDepartment> parentDepartments = new ArrayList<>();
+    public final List<Department> departments = new ArrayList<>();
+    public final List<Doctor> doctors = new ArrayList<>();
+    public final List<TimeSlot> timeSlots = new ArrayList<>();
+    public final List<Location> locations = new ArrayList<>();
+    public final List<LeaveRequest> leaveRequests = new ArrayList<>();
+    public final List<Schedule> existingSchedules = new ArrayList<>();
+
+    private final Random random;
+
+    private SyntheticHospital(int doctorCount, int days, long seed) {
+        this.random = new Random(seed);
+        // 自动排班不允许从今天之前开始
+        this.startDate = LocalDate.now().plusDays(1);
+        this.endDate = startDate.plusDays(days - 1);
+        createTimeSlots();
+        createDepartments(doctorCount);
+        createLeaveRequests();
+        createExistingSchedules();
+    }
+
+    /**
+     * 生成合成医院
+     *
+     * @param doctorCount 医生数
+     * @param days 排班天数
+     * @param seed 随机种子
+     */
+    public static SyntheticHospital generate(int doctorCount, int days, long seed) {
+        return new SyntheticHospital(doctorCount, days, seed);
+    }
+
+    private void createTimeSlots() {
+        LocalTime[] starts = {
+            LocalTime.of(8, 0), LocalTime.of(8, 30), LocalTime.of(9, 0), LocalTime.of(9, 30),
+            LocalTime.of(13, 30), LocalTime.of(14, 0), LocalTime.of(14, 30), LocalTime.of(15, 0)
+        };
+        for (int i = 0; i < starts.length; i++) {
+            TimeSlot slot = new TimeSlot();
+            slot.setSlotId(i + 1);
+            slot.setStartTime(starts[i]);
+            slot.setEndTime(starts[i].plusMinutes(30));
+            slot.setSlotName((starts[i].isBefore(LocalTime.NOON) ? "上午 " : "下午 ") + starts[i] + "-" + slot.getEndTime());
+            timeSlots.add(slot);
+        }
+    }
+
+    private void createDepartments(int doctorCount) {
+        int departmentCount = Math.max(1, (doctorCount + DOCTORS_PER_DEPARTMENT - 1) / DOCTORS_PER_DEPARTMENT);
+        String[] titles = {"主任医师", "副主任医师", "主治医师"};
+        int nextDoctorId = 1;
+        int nextLocationId = 1;
+        for (int d = 0; d < departmentCount; d++) {
+            if (d % DEPARTMENTS_PER_PARENT == 0) {
+                ParentDepartment parent = new ParentDepartment();
+                parent.setParentDepartmentId(parentDepartments.size() + 1);
+                parent.setName("父科室" + (parentDepartments.size() + 1));
+                parentDepartments.add(parent);
+            }
+            Department department = new Department();
+            department.setDepartmentId(d + 1);
+            department.setName("科室" + (d + 1));
+            department.setParentDepartment(parentDepartments.get(parentDepartments.size() - 1));
+            departments.add(department);
+
+            int departmentDoctors = Math.min(DOCTORS_PER_DEPARTMENT, doctorCount - d * DOCTORS_PER_DEPARTMENT);
+            for (int i = 0; i < departmentDoctors; i++) {
+                Doctor doctor = new Doctor();
+                doctor.setDoctorId(nextDoctorId);
+                doctor.setIdentifier(String.format("D%05d", nextDoctorId));
+                doctor.setFullName("医生" + nextDoctorId);
+                doctor.setTitleLevel(random.nextInt(titles.length));
+                doctor.setTitle(titles[doctor.getTitleLevel()]);
+                doctor.setStatus(random.nextInt(100) < 5 ? DoctorStatus.inactive : DoctorStatus.active);
+                doctor.setDepartment(department);
+                doctors.add(doctor);
+                department.getDoctors().add(doctor);
+                nextDoctorId++;
+            }
+
+            int roomCount = d % 7 == 6 ? 0 : departmentDoctors + 1;
+            for (int i = 0; i < roomCount; i++) {
+                Location location = new Location();
+                location.setLocationId(nextLocationId);
+                location.setLocationName("诊室" + nextLocationId);
+                location.setDepartment(department);
+                locations.add(location);
+                nextLocationId++;
+            }
+        }
+    }
+
+    private void createLeaveRequests() {
+        int days = (int) (endDate.toEpochDay() - startDate.toEpochDay()) + 1;
+        for (Doctor doctor : doctors) {
+            if (random.nextInt(100) >= 5) {
+                continue;
+            }
+            LocalDate leaveStart = startDate.plusDays(random.nextInt(days));
+            LeaveRequest leave = new LeaveRequest();
+            leave.setRequestId(leaveRequests.size() + 1);
+            leave.setDoctor(doctor);
+            leave.setStartTime(leaveStart.atStartOfDay());
+            leave.setEndTime(leaveStart.plusDays(random.nextInt(5)).atTime(23, 59, 59));
+            leave.setStatus(LeaveRequestStatus.APPROVED);
+            leaveRequests.add(leave);
+        }
+    }
+
+    private void createExistingSchedules() {
+        int days = (int) (endDate.toEpochDay() - startDate.toEpochDay()) + 1;
+        Set<String> used = new HashSet<>();
+        for (Doctor doctor : doctors) {
+            if (doctor.getStatus() != DoctorStatus.active || random.nextInt(100) >= 20) {
+                continue;
+            }
+            List<Location> ownRooms = locations.stream()
+                    .filter(location -> location.getDepartment() == doctor.getDepartment())
+                    .toList();
+            if (ownRooms.isEmpty()) {
+                continue;
+            }
+            for (int i = 0; i < Math.max(1, days / 4); i++) {
+                LocalDate date = startDate.plusDays(random.nextInt(days));
+                // 已有排班使用上午、下午的第一个时段，与自动排班选择的时段相同，才会产生约束
+                TimeSlot slot = timeSlots.get(random.nextBoolean() ? 0 : 4);
+                if (!used.add(doctor.getDoctorId() + "_" + date + "_" + slot.getSlotId())) {
+                    continue;
+                }
+                Schedule schedule = new Schedule();
+                schedule.setScheduleId(existingSchedules.size() + 1);
+                schedule.setDoctor(doctor);
+                schedule.setScheduleDate(date);
+                schedule.setSlot(slot);
+                schedule.setLocation(ownRooms.get(random.nextInt(ownRooms.size())));
+                schedule.setTotalSlots(20);
+                schedule.setBookedSlots(random.nextInt(21));
+                schedule.setFee(new BigDecimal("5.00"));
+                schedule.setStatus(ScheduleStatus.available);
+                existingSchedules.add(schedule);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.springboot.repository;
+
+import com.example.springboot.config.RedisConfig;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.Location;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.TimeSlot;
+import com.example.springboot.entity.enums.ScheduleStatus;
+import com.example.springboot.service.SlotInventoryService;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 号源并发预约测试（需要 MySQL；SlotInventoryService 的用例还需要 Redis，不可用时跳过）
+ *
+ * 500 个线程同时预约同一个排班，断言成功数等于总号源数，且数据库中 booked_slots 不超过 total_slots。
+ * 排班使用 2098 年的日期插入，测试结束后删除；库里需要至少有一个医生、时段和诊室（开发库初始数据即可）。
+ *
+ * 连接参数可用系统属性调整：
+ * -Dtest.jdbc-url=jdbc:mysql://localhost:3306/hospital_05?...  -Dtest.jdbc-user=root  -Dtest.jdbc-password=123456
+ * -Dtest.redis-host=localhost  -Dtest.redis-port=6379
+ */
+class ScheduleBookingConcurrencyTest {
+
+    private static final int THREADS = 500;
+    private static final int TOTAL_SLOTS = 50;
+    private static final LocalDate FIRST_DATE = LocalDate.of(2098, 1, 1);
+
+    private static HikariDataSource dataSource;
+    private static LocalContainerEntityManagerFactoryBean factory;
+    private static TransactionTemplate transactionTemplate;
+    private static JdbcTemplate jdbcTemplate;
+    private static ScheduleRepository scheduleRepository;
+    private static EntityManager entityManager;
+
+    @BeforeAll
+    static void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(System.getProperty("test.jdbc-url", "jdbc:mysql://localhost:3306/hospital_05?useSSL=false"
+                + "&serverTimezone=Asia/Shanghai&characterEncoding=utf-8&allowPublicKeyRetrieval=true&connectTimeout=5000"));
+        dataSource.setUsername(System.getProperty("test.jdbc-user", "root"));
+        dataSource.setPassword(System.getProperty("test.jdbc-password", "123456"));
+        dataSource.setMaximumPoolSize(20);
+        dataSource.setConnectionTimeout(60000);
+        dataSource.setInitializationFailTimeout(1);
+        try {
+            // 检查连接是否可用
+            dataSource.getConnection().close();
+        } catch (Exception e) {
+            dataSource.close();
+            dataSource = null;
+            Assumptions.abort("MySQL 不可用，跳过号源并发测试: " + e.getMessage());
+        }
+
+        // 与应用相同的命名策略
+        factory = new LocalContainerEntityManagerFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setPackagesToScan("com.example.springboot.entity");
+        factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factory.setJpaPropertyMap(Map.of(
+                "hibernate.physical_naming_strategy",
+                "org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy",
+                "hibernate.implicit_naming_strategy",
+                "org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy"));
+        factory.afterPropertiesSet();
+
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(factory.getObject());
+        transactionTemplate = new TransactionTemplate(new JpaTransactionManager(factory.getObject()));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        scheduleRepository = new JpaRepositoryFactory(entityManager).getRepository(ScheduleRepository.class);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        if (factory != null) {
+            factory.destroy();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    void incrementBookedSlotsIfAvailableDoesNotOversell() throws Exception {
+        Integer scheduleId = createSchedule(FIRST_DATE);
+        try {
+            int booked = bookConcurrently(() -> transactionTemplate.execute(status ->
+                    scheduleRepository.incrementBookedSlotsIfAvailable(scheduleId) == 1));
+
+            assertEquals(TOTAL_SLOTS, booked);
+            assertNoOversell(scheduleId);
+        } finally {
+            deleteSchedule(scheduleId);
+        }
+    }
+
+    @Test
+    void slotInventoryTryAcquireDoesNotOversell() throws Exception {
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                System.getProperty("test.redis-host", "localhost"), Integer.getInteger("test.redis-port", 6379));
+        connectionFactory.afterPropertiesSet();
+        Integer scheduleId = null;
+        try {
+            RedisTemplate<String, String> redisTemplate = new RedisConfig().redisTemplate(connectionFactory);
+            try {
+                redisTemplate.hasKey("slot:inventory:tracked");
+            } catch (Exception e) {
+                Assumptions.abort("Redis 不可用，跳过号源库存并发测试: " + e.getMessage());
+            }
+
+            SlotInventoryService slotInventoryService = new SlotInventoryService(scheduleRepository, redisTemplate);
+            Integer id = createSchedule(FIRST_DATE.plusDays(1));
+            scheduleId = id;
+            slotInventoryService.evict(id);
+
+            int booked = bookConcurrently(() -> transactionTemplate.execute(status -> {
+                Schedule schedule = new Schedule();
+                schedule.setScheduleId(id);
+                return slotInventoryService.tryAcquire(schedule);
+            }));
+
+            assertEquals(TOTAL_SLOTS, booked);
+            assertNoOversell(id);
+            assertEquals(0, slotInventoryService.getRemainingSlots(scheduleRepository.findById(id).orElseThrow()));
+            slotInventoryService.evict(id);
+        } finally {
+            if (scheduleId != null) {
+                deleteSchedule(scheduleId);
+            }
+            connectionFactory.destroy();
+        }
+    }
+
+    /**
+     * 500 个线程同时开始预约
+     *
+     * @return 预约成功的线程数
+     */
+    private int bookConcurrently(BookingAttempt attempt) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger booked = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    ready.countDown();
+                    start.await();
+                    if (Boolean.TRUE.equals(attempt.book())) {
+                        booked.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            assertTrue(ready.await(30, TimeUnit.SECONDS));
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return booked.get();
+    }
+
+    private void assertNoOversell(Integer scheduleId) {
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                "SELECT total_slots, booked_slots FROM schedules WHERE schedule_id = ?", scheduleId);
+        int totalSlots = ((Number) row.get("total_slots")).intValue();
+        int bookedSlots = ((Number) row.get("booked_slots")).intValue();
+        assertTrue(bookedSlots <= totalSlots, "超卖: booked_slots=" + bookedSlots + ", total_slots=" + totalSlots);
+        assertEquals(TOTAL_SLOTS, bookedSlots);
+    }
+
+    private Integer createSchedule(LocalDate date) {
+        return transactionTemplate.execute(status -> {
+            Schedule schedule = new Schedule();
+            schedule.setDoctor(first(Doctor.class));
+            schedule.setSlot(first(TimeSlot.class));
+            schedule.setLocation(first(Location.class));
+            schedule.setScheduleDate(date);
+            schedule.setTotalSlots(TOTAL_SLOTS);
+            schedule.setFee(new BigDecimal("10.00"));
+            schedule.setStatus(ScheduleStatus.available);
+            schedule.setRemarks("号源并发测试");
+            return scheduleRepository.save(schedule).getScheduleId();
+        });
+    }
+
+    private void deleteSchedule(Integer scheduleId) {
+        jdbcTemplate.update("DELETE FROM schedules WHERE schedule_id = ?", scheduleId);
+    }
+
+    private <T> T first(Class<T> type) {
+        List<T> result = entityManager.createQuery("SELECT e FROM " + type.getSimpleName() + " e", type)
+                .setMaxResults(1)
+                .getResultList();
+        Assumptions.assumeFalse(result.isEmpty(), "数据库中没有 " + type.getSimpleName() + " 数据，跳过号源并发测试");
+        return result.get(0);
+    }
+
+    @FunctionalInterface
+    private interface BookingAttempt {
+        Boolean book();
+    }
+}
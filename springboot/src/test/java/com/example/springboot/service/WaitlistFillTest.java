@@ -0,0 +1,179 @@
+package com.example.springboot.service;
+
+import com.example.springboot.entity.Department;
+import com.example.springboot.entity.Doctor;
+import com.example.springboot.entity.Patient;
+import com.example.springboot.entity.PatientProfile;
+import com.example.springboot.entity.Schedule;
+import com.example.springboot.entity.Waitlist;
+import com.example.springboot.entity.enums.BlacklistStatus;
+import com.example.springboot.entity.enums.WaitlistMatchScope;
+import com.example.springboot.entity.enums.WaitlistStatus;
+import com.example.springboot.repository.AppointmentRepository;
+import com.example.springboot.repository.PatientRepository;
+import com.example.springboot.repository.ScheduleRepository;
+import com.example.springboot.repository.WaitlistRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 候补批量填充测试（不需要数据库和 Redis）
+ *
+ * 候补匹配索引用内存中的有序集合代替；索引的移出操作不生效，模拟填充事务中索引改动要等提交后才写入 Redis。
+ */
+class WaitlistFillTest {
+
+    private static final LocalDate DATE = LocalDate.of(2098, 1, 1);
+    private static final LocalDateTime JOINED_AT = LocalDateTime.of(2097, 12, 1, 8, 0);
+
+    // 索引：key -> 按 score、候补ID 排序的成员
+    private final Map<String, TreeSet<ZSetOperations.TypedTuple<String>>> index = new HashMap<>();
+    private final Map<Integer, Waitlist> waitlists = new HashMap<>();
+    // 已有空出号源排班有效预约的患者
+    private final Set<Long> bookedPatients = new HashSet<>();
+
+    private Schedule freed;
+    private Schedule other;
+    private WaitlistService waitlistService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        Department department = new Department();
+        department.setDepartmentId(3);
+        Doctor doctor = new Doctor();
+        doctor.setDoctorId(7);
+        doctor.setDepartment(department);
+        freed = schedule(1, doctor);
+        other = schedule(2, doctor);
+
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        ZSetOperations<String, String> zSetOperations = mock(ZSetOperations.class);
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.add(anyString(), anyString(), any(Double.class))).thenAnswer(invocation -> {
+            index.computeIfAbsent(invocation.getArgument(0), key -> new TreeSet<>(
+                            Comparator.<ZSetOperations.TypedTuple<String>>comparingDouble(ZSetOperations.TypedTuple::getScore)
+                                    .thenComparing(tuple -> Integer.valueOf(tuple.getValue()))))
+                    .add(new DefaultTypedTuple<>(invocation.getArgument(1), invocation.getArgument(2)));
+            return true;
+        });
+        when(zSetOperations.rangeWithScores(anyString(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            List<ZSetOperations.TypedTuple<String>> members = List.copyOf(
+                    index.getOrDefault(invocation.<String>getArgument(0), new TreeSet<>()));
+            long start = invocation.getArgument(1);
+            long end = invocation.getArgument(2);
+            return members.stream()
+                    .skip(start)
+                    .limit(Math.max(0, end - start + 1))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+        });
+        WaitlistMatchingEngine matchingEngine = new WaitlistMatchingEngine(redisTemplate,
+                mock(WaitlistRepository.class), mock(PlatformTransactionManager.class));
+
+        WaitlistRepository waitlistRepository = mock(WaitlistRepository.class);
+        when(waitlistRepository.findAllWithPatientByIdIn(anyList())).thenAnswer(invocation ->
+                invocation.<List<Integer>>getArgument(0).stream()
+                        .map(waitlists::get)
+                        .collect(Collectors.toList()));
+        ScheduleRepository scheduleRepository = mock(ScheduleRepository.class);
+        when(scheduleRepository.findAllById(any())).thenReturn(List.of(freed));
+        AppointmentRepository appointmentRepository = mock(AppointmentRepository.class);
+        when(appointmentRepository.findPatientIdsWithActiveAppointment(any(), anyList())).thenAnswer(invocation ->
+                invocation.<Collection<Long>>getArgument(1).stream()
+                        .filter(bookedPatients::contains)
+                        .collect(Collectors.toList()));
+        SlotInventoryService slotInventoryService = mock(SlotInventoryService.class);
+        when(slotInventoryService.getRemainingSlots(any())).thenReturn(1);
+        when(slotInventoryService.tryAcquire(any())).thenReturn(true);
+
+        waitlistService = new WaitlistService(waitlistRepository, mock(PatientRepository.class), scheduleRepository,
+                appointmentRepository, mock(PatientService.class), mock(ScheduleService.class),
+                mock(AppointmentService.class), mock(NotificationService.class), slotInventoryService,
+                mock(AppointmentNumberSequencer.class), mock(WaitTimeEstimator.class), mock(DeadlineScheduler.class),
+                matchingEngine);
+
+        // 队首 25 个不能填充的候补：10 个黑名单患者候补本排班，15 个候补同医生其他排班的患者已有本排班的预约
+        for (int id = 1; id <= 10; id++) {
+            Waitlist waitlist = waitlist(id, freed, WaitlistMatchScope.schedule);
+            waitlist.getPatient().getPatientProfile().setBlacklistStatus(BlacklistStatus.blacklisted);
+            matchingEngine.add(waitlist);
+        }
+        for (int id = 11; id <= 25; id++) {
+            matchingEngine.add(waitlist(id, other, WaitlistMatchScope.doctor));
+            bookedPatients.add((long) id);
+        }
+        // 排在后面、可以填充的候补
+        matchingEngine.add(waitlist(26, other, WaitlistMatchScope.doctor));
+    }
+
+    @Test
+    void fillReadsPastIneligibleWaitersAtTheHead() {
+        int notified = waitlistService.fillWaitlists(Map.of(freed.getScheduleId(), 1));
+
+        assertEquals(1, notified);
+        Waitlist filled = waitlists.get(26);
+        assertEquals(WaitlistStatus.notified, filled.getStatus());
+        assertEquals(freed.getScheduleId(), filled.getSchedule().getScheduleId());
+        for (int id = 1; id <= 10; id++) {
+            assertEquals(WaitlistStatus.expired, waitlists.get(id).getStatus());
+        }
+        for (int id = 11; id <= 25; id++) {
+            // 跨排班的候选人保留原候补
+            assertEquals(WaitlistStatus.waiting, waitlists.get(id).getStatus());
+            assertEquals(other.getScheduleId(), waitlists.get(id).getSchedule().getScheduleId());
+        }
+    }
+
+    private Schedule schedule(int id, Doctor doctor) {
+        Schedule schedule = new Schedule();
+        schedule.setScheduleId(id);
+        schedule.setDoctor(doctor);
+        schedule.setScheduleDate(DATE);
+        schedule.setTotalSlots(10);
+        schedule.setBookedSlots(9);
+        return schedule;
+    }
+
+    private Waitlist waitlist(int id, Schedule schedule, WaitlistMatchScope scope) {
+        PatientProfile profile = new PatientProfile();
+        profile.setBlacklistStatus(BlacklistStatus.normal);
+        Patient patient = new Patient();
+        patient.setPatientId((long) id);
+        patient.setPatientProfile(profile);
+
+        Waitlist waitlist = new Waitlist();
+        waitlist.setWaitlistId(id);
+        waitlist.setPatient(patient);
+        waitlist.setSchedule(schedule);
+        waitlist.setMatchScope(scope);
+        waitlist.setStatus(WaitlistStatus.waiting);
+        waitlist.setCreatedAt(JOINED_AT.plusMinutes(id));
+        waitlists.put(id, waitlist);
+        return waitlist;
+    }
+}
@@ -0,0 +1,14 @@
+-- =====================================================
+-- 排班表增加乐观锁版本号
+-- 对应 Schedule.version（@Version），保护总号源数、费用、状态、备注等字段的并发修改
+-- 已预约数 booked_slots 由条件更新语句原子维护，不递增版本号
+-- =====================================================
+
+ALTER TABLE schedules
+ADD COLUMN version BIGINT NOT NULL DEFAULT 0 COMMENT '乐观锁版本号' AFTER booked_slots;
+
+-- =====================================================
+-- 验证字段是否添加成功
+-- =====================================================
+
+DESC schedules;
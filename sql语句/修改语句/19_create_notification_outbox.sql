@@ -0,0 +1,24 @@
+-- =====================================================
+-- 创建通知发件箱表
+-- 业务事务（预约、取消、替班确认等）只写入一行发件箱记录，
+-- 由 NotificationOutboxDispatcher 在后台批量写入 notifications 表
+-- =====================================================
+
+CREATE TABLE IF NOT EXISTS `notification_outbox` (
+  `outbox_id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '发件箱记录ID',
+  `payload` MEDIUMTEXT NOT NULL COMMENT '通知内容（JSON数组）',
+  `message_count` INT NOT NULL COMMENT '包含的通知条数',
+  `status` ENUM('pending', 'dispatched', 'failed') NOT NULL DEFAULT 'pending' COMMENT '分发状态',
+  `attempts` INT NOT NULL DEFAULT 0 COMMENT '分发失败次数',
+  `last_error` VARCHAR(500) NULL COMMENT '最近一次分发失败原因',
+  `created_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `dispatched_at` TIMESTAMP NULL COMMENT '分发时间',
+  PRIMARY KEY (`outbox_id`),
+  KEY `idx_status_outbox_id` (`status`, `outbox_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='通知发件箱表';
+
+-- =====================================================
+-- 验证表是否创建成功
+-- =====================================================
+
+DESC notification_outbox;
@@ -0,0 +1,19 @@
+-- =====================================================
+-- 候补表增加匹配范围
+-- 对应 Waitlist.matchScope（WaitlistMatchScope）：
+--   schedule   仅本排班（原有行为，默认值）
+--   doctor     同医生同日任意时段
+--   department 同科室同日任意医生
+-- =====================================================
+
+ALTER TABLE waitlist
+ADD COLUMN match_scope ENUM('schedule', 'doctor', 'department') NOT NULL DEFAULT 'schedule' COMMENT '匹配范围' AFTER status;
+
+-- 兜底扫描和索引重建按状态查询等待中的候补
+CREATE INDEX idx_waitlist_status_created ON waitlist (status, created_at);
+
+-- =====================================================
+-- 验证字段是否添加成功
+-- =====================================================
+
+DESC waitlist;
@@ -0,0 +1,25 @@
+-- =====================================================
+-- 创建号源需求预测表
+-- 按 医生+星期几+时段 记录历史需求（有效预约数+候补数）的指数平滑值，
+-- 由 DemandForecastTask 每晚增量更新，自动排班按预测值建议号源数量
+-- =====================================================
+
+CREATE TABLE IF NOT EXISTS `demand_forecasts` (
+  `forecast_id` INT NOT NULL AUTO_INCREMENT COMMENT '预测记录ID',
+  `doctor_id` INT NOT NULL COMMENT '医生ID',
+  `day_of_week` TINYINT NOT NULL COMMENT '星期几（1=周一 ... 7=周日）',
+  `slot_id` INT NOT NULL COMMENT '时段ID',
+  `smoothed_demand` DECIMAL(10,2) NOT NULL COMMENT '需求的指数平滑值（人次/排班）',
+  `sample_count` INT NOT NULL DEFAULT 0 COMMENT '参与平滑的历史排班数',
+  `last_schedule_date` DATE NOT NULL COMMENT '最近一次参与平滑的排班日期（增量更新水位）',
+  `updated_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`forecast_id`),
+  UNIQUE KEY `uk_doctor_day_slot` (`doctor_id`, `day_of_week`, `slot_id`),
+  KEY `idx_last_schedule_date` (`last_schedule_date`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='号源需求预测表';
+
+-- =====================================================
+-- 验证表是否创建成功
+-- =====================================================
+
+DESC demand_forecasts;
@@ -0,0 +1,16 @@
+-- =====================================================
+-- 排班表增加就诊序号计数器
+-- 对应 Schedule.lastAppointmentNumber / lastAddOnNumber（AppointmentNumberSequencer）
+-- 序号正常由 Redis 计数器分配；Redis 不可用时在排班行上原子递增这两个字段分配序号，
+-- Redis 恢复后以这两个字段为下限继续分配，不会与降级期间分配的序号重复
+-- =====================================================
+
+ALTER TABLE schedules
+ADD COLUMN last_appointment_number INT NOT NULL DEFAULT 0 COMMENT '降级分配的最大普通就诊序号' AFTER version,
+ADD COLUMN last_add_on_number INT NOT NULL DEFAULT 0 COMMENT '降级分配的最大加号就诊序号' AFTER last_appointment_number;
+
+-- =====================================================
+-- 验证字段是否添加成功
+-- =====================================================
+
+DESC schedules;